@@ -2,30 +2,53 @@ package com.chatapp;
 
 import com.chatapp.adapter.CommunicationProtocol;
 import com.chatapp.adapter.HttpProtocol;
+import com.chatapp.adapter.MultiplexedConnection;
+import com.chatapp.adapter.PerMessageDeflate;
+import com.chatapp.adapter.ReliableProtocol;
+import com.chatapp.adapter.RoomFeed;
 import com.chatapp.adapter.TcpProtocol;
+import com.chatapp.adapter.TlsContext;
 import com.chatapp.adapter.WebSocketProtocol;
+import com.chatapp.admission.AdmissionController;
 import com.chatapp.exception.ChatRoomException;
+import com.chatapp.jfr.SessionDeliveryEvent;
 import com.chatapp.manager.ChatRoomManager;
+import com.chatapp.manager.DrainableSession;
+import com.chatapp.manager.SessionDrainer;
+import com.chatapp.manager.RoomDirectory;
+import com.chatapp.manager.RoomArchiver;
+import com.chatapp.manager.RoomEventLoopGroup;
 import com.chatapp.model.ChatRoom;
+import com.chatapp.model.EphemeralEvent;
 import com.chatapp.model.Message;
+import com.chatapp.model.RoomMode;
 import com.chatapp.model.User;
 import com.chatapp.observer.ChatObserver;
+import com.chatapp.storage.OffHeapHistoryStore;
+import com.chatapp.storage.TieredHistoryStore;
+import com.chatapp.util.IdRegistry;
+import com.chatapp.util.IntObjectMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional; // Added for finding users by username
 import java.util.Random;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import com.chatapp.model.PrivateMessage; // Added for private messages
 
 /**
@@ -36,17 +59,67 @@ import com.chatapp.model.PrivateMessage; // Added for private messages
 public class ChatApplication {
 
     private static final Logger logger = LoggerFactory.getLogger(ChatApplication.class);
+    private static final int ROOM_PAGE_SIZE = 20;
+    private static final int TOP_ROOMS = 5;
+    private static final long POLL_INTERVAL_MILLIS = 200;
+    private static final int MAX_ITEMS_PER_POLL = 64; // Per queue, keeps one session from hogging a polling thread
+    private static final int SESSION_QUEUE_CAPACITY = 256;
+    private static final Duration DRAIN_DEADLINE = Duration.ofSeconds(10);
+    private static final int OFF_HEAP_HISTORY_CAPACITY = 1000;
+    private static final int SEEN_MESSAGE_COUNT = 10;
+    private static final long EVENT_LOOP_SHUTDOWN_MILLIS = 2000;
     private final ChatRoomManager chatRoomManager;
     private final BufferedReader consoleReader;
-    private final Map<String, UserSession> activeUserSessions;
-    private final ExecutorService messagePollingExecutor;
+    private final IntObjectMap<UserSession> activeUserSessions; // Keyed by user handle, guarded by itself
+    private final ScheduledExecutorService messagePollingExecutor; // Shared by all sessions
+    private final AdmissionController admission;
+    private final TlsContext tls; // Null for plaintext
+    private final MultiplexedConnection gateway; // Null unless sessions share one connection
+    private final AtomicBoolean shutDown = new AtomicBoolean(); // Set by the first shutdown, which does all the work
 
     public ChatApplication() {
         this.chatRoomManager = ChatRoomManager.getInstance();
+        String historyDir = System.getProperty("chat.history.dir");
+        if (historyDir != null && !historyDir.trim().isEmpty()) {
+            chatRoomManager.setHistoryStoreFactory(TieredHistoryStore.factory(Paths.get(historyDir.trim()),
+                    TieredHistoryStore.DEFAULT_HOT_CAPACITY, TieredHistoryStore.DEFAULT_SEGMENT_BYTES,
+                    TieredHistoryStore.DEFAULT_ARCHIVE_AFTER));
+            logger.info("Room history is stored under {}", historyDir.trim());
+        } else if (Boolean.getBoolean("chat.history.offheap")) {
+            chatRoomManager.setHistoryStoreFactory(OffHeapHistoryStore.factory(OFF_HEAP_HISTORY_CAPACITY));
+            logger.info("Room history is kept off-heap");
+        }
+        if (Boolean.getBoolean("chat.eventloops")) {
+            chatRoomManager.setEventLoops(RoomEventLoopGroup.perCore());
+        }
+        this.tls = TlsContext.fromSystemProperties();
+        this.gateway = Boolean.getBoolean("chat.multiplex") ? new MultiplexedConnection("localhost", 8083, tls) : null;
         this.consoleReader = new BufferedReader(new InputStreamReader(System.in));
-        this.activeUserSessions = new ConcurrentHashMap<>();
-        // Use a cached thread pool for message polling to handle multiple users
-        this.messagePollingExecutor = Executors.newCachedThreadPool();
+        this.activeUserSessions = new IntObjectMap<>();
+        // Sessions take turns on a few threads, so the admission controller alone decides how many there are
+        int pollingThreads = Integer.getInteger("chat.polling.threads", Runtime.getRuntime().availableProcessors());
+        this.messagePollingExecutor = Executors.newScheduledThreadPool(Math.max(1, pollingThreads), runnable -> {
+            Thread thread = new Thread(runnable, "session-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.admission = AdmissionController.getInstance();
+        String importDir = System.getProperty("chat.import.dir");
+        if (importDir != null && !importDir.trim().isEmpty()) {
+            importRooms(Paths.get(importDir.trim()));
+        }
+    }
+
+    private void importRooms(Path directory) {
+        try {
+            RoomArchiver.ArchiveReport report = new RoomArchiver(chatRoomManager).importRooms(directory);
+            System.out.printf("Imported %d rooms with %d messages from %s in %d ms%s.%n", report.getRoomCount(),
+                    report.getMessageCount(), directory, report.getElapsed().toMillis(),
+                    report.getFailedRoomCount() > 0 ? ", " + report.getFailedRoomCount() + " rooms failed" : "");
+        } catch (IOException e) {
+            System.err.println("Error importing rooms: " + e.getMessage());
+            logger.error("Failed to import rooms from {}", directory, e);
+        }
     }
 
     public static void main(String[] args) {
@@ -78,6 +151,9 @@ public class ChatApplication {
                     case "5":
                         handleLogout();
                         break;
+                    case "6":
+                        handleExportRooms();
+                        break;
                     case "exit":
                         shutdown();
                         return;
@@ -103,6 +179,7 @@ public class ChatApplication {
         System.out.println("3. Login (to manage your session)");
         System.out.println("4. View All Chat Rooms");
         System.out.println("5. Logout (from current session)");
+        System.out.println("6. Export Chat Rooms");
         System.out.println("Type 'exit' to quit.");
     }
 
@@ -110,9 +187,11 @@ public class ChatApplication {
         System.out.println("\n--- Create Chat Room ---");
         String roomId = readLine("Enter desired Room ID: ");
         String roomName = readLine("Enter desired Room Name: ");
+        String roomType = readLine("Large broadcast room for more than 100 users? (y/N): ");
+        RoomMode mode = roomType != null && roomType.trim().equalsIgnoreCase("y") ? RoomMode.LARGE : RoomMode.STANDARD;
 
         try {
-            ChatRoom newRoom = chatRoomManager.createChatRoom(roomId, roomName);
+            ChatRoom newRoom = chatRoomManager.createChatRoom(roomId, roomName, mode);
             System.out.println("Chat Room '" + newRoom.getRoomName() + "' (ID: " + newRoom.getRoomId() + ") created successfully!");
             logger.info("Room created: {}", roomId);
         } catch (IllegalArgumentException | ChatRoomException e) {
@@ -121,22 +200,45 @@ public class ChatApplication {
         }
     }
 
+    private void handleExportRooms() {
+        System.out.println("\n--- Export Chat Rooms ---");
+        String directory = trimmed(readLine("Enter export directory: "));
+        if (directory == null || directory.isEmpty()) {
+            System.out.println("No directory given.");
+            return;
+        }
+        String binary = readLine("Binary format instead of NDJSON? (y/N): ");
+        RoomArchiver.Format format = "y".equalsIgnoreCase(trimmed(binary))
+                ? RoomArchiver.Format.BINARY
+                : RoomArchiver.Format.NDJSON;
+        try {
+            RoomArchiver.ArchiveReport report = new RoomArchiver(chatRoomManager).exportRooms(Paths.get(directory), format);
+            System.out.printf("Exported %d rooms with %d members and %d messages in %d ms%s.%n", report.getRoomCount(),
+                    report.getMemberCount(), report.getMessageCount(), report.getElapsed().toMillis(),
+                    report.getFailedRoomCount() > 0 ? ", " + report.getFailedRoomCount() + " rooms failed" : "");
+        } catch (IOException | InvalidPathException e) {
+            System.err.println("Error exporting rooms: " + e.getMessage());
+            logger.error("Failed to export rooms to {}", directory, e);
+        }
+    }
+
     private void handleJoinRoom() {
         System.out.println("\n--- Join Chat Room ---");
         String username = readLine("Enter your username: ");
         String roomId = readLine("Enter Room ID to join: ");
 
         try {
+            admission.admitSession();
             User user = new User(username);
             chatRoomManager.joinChatRoom(roomId, user);
 
             // Create a user session and register as an observer
             UserSession session = new UserSession(user, roomId);
-            activeUserSessions.put(user.getUserId(), session);
-            chatRoomManager.getChatRoom(roomId).registerObserver(session);
+            putSession(session);
+            ChatRoom room = chatRoomManager.getChatRoom(roomId);
+            room.registerObserver(session);
 
-            // Start polling for messages in a separate thread
-            messagePollingExecutor.submit(session::startPolling);
+            session.startPolling();
 
             System.out.println("Successfully joined room '" + roomId + "' as " + username + "!");
             logger.info("User {} joined room {}", username, roomId);
@@ -152,7 +254,7 @@ public class ChatApplication {
         System.out.println("\n--- Login to Session ---");
         String userId = readLine("Enter your User ID (from a previous session): ");
 
-        UserSession session = activeUserSessions.get(userId);
+        UserSession session = findSession(userId);
         if (session != null && session.getUser().isActive()) {
             // Re-establish connection and restart polling for the session
             session.reconnectAndStartPolling();
@@ -185,17 +287,19 @@ public class ChatApplication {
         System.out.println("\n--- Logout from Session ---");
         String userId = readLine("Enter your User ID to logout: ");
 
-        UserSession session = activeUserSessions.get(userId); // Get session, but don't remove yet
+        UserSession session = findSession(userId); // Get session, but don't remove yet
         if (session != null) {
             // First, ensure the user leaves the room if they are currently in one
             ChatRoom room = chatRoomManager.getChatRoom(session.getRoomId());
             if (room != null) {
                 room.removeObserver(session); // Unregister observer
                 chatRoomManager.leaveChatRoom(session.getRoomId(), session.getUser().getUserId()); // Remove from room
+                room.removeUser(session.getUser().getUserId()); // A logged out user is no longer present
             }
-            session.stopPolling(); // Stop the polling thread
+            session.stopPolling(); // Stop the polling passes
+            session.discardQueued();
             session.getUser().setActive(false); // Mark user as inactive
-            activeUserSessions.remove(userId); // Finally, remove the session from the map
+            removeSession(session); // Finally, remove the session from the map
 
             System.out.println("User " + session.getUser().getUsername() + " logged out successfully.");
             logger.info("User {} logged out and session removed.", session.getUser().getUsername());
@@ -207,21 +311,107 @@ public class ChatApplication {
 
     private void displayAllRooms() {
         System.out.println("\n--- All Active Chat Rooms ---");
-        List<ChatRoom> rooms = chatRoomManager.getAllChatRooms();
-        if (rooms.isEmpty()) {
+        if (chatRoomManager.getChatRoomCount() == 0) {
             System.out.println("No chat rooms active.");
             return;
         }
-        for (ChatRoom room : rooms) {
-            System.out.println("ID: " + room.getRoomId() + ", Name: " + room.getRoomName() + ", Users: " + room.getUserCount());
+        List<ChatRoom> busiest = chatRoomManager.getDirectory().topByOccupancy(TOP_ROOMS);
+        System.out.println("Busiest rooms:");
+        busiest.forEach(this::printRoom);
+
+        String prefix = readLine("Filter by room name prefix (Enter for all): ");
+        String cursor = null;
+        do {
+            RoomDirectory.Page page = prefix == null || prefix.trim().isEmpty()
+                    ? chatRoomManager.listChatRooms(cursor, ROOM_PAGE_SIZE)
+                    : chatRoomManager.searchChatRooms(prefix, cursor, ROOM_PAGE_SIZE);
+            if (page.getRooms().isEmpty() && cursor == null) {
+                System.out.println("No matching rooms.");
+                return;
+            }
+            page.getRooms().forEach(this::printRoom);
+            cursor = page.getNextCursor();
+        } while (cursor != null && "y".equalsIgnoreCase(trimmed(readLine("Show more rooms? (y/N): "))));
+    }
+
+    /**
+     * Handles the in-room /rooms command: the most active and busiest rooms,
+     * followed by the first page of rooms matching an optional name prefix
+     * @param input The raw command, "/rooms" or "/rooms <prefix>"
+     */
+    private void handleRoomsCommand(String input) {
+        String prefix = input.length() > "/rooms".length() ? input.substring("/rooms".length()).trim() : "";
+        System.out.println("\n--- Rooms ---");
+        if (prefix.isEmpty()) {
+            System.out.println("Most active:");
+            chatRoomManager.getDirectory().topByActivity(TOP_ROOMS).forEach(this::printRoom);
+            System.out.println("Busiest:");
+            chatRoomManager.getDirectory().topByOccupancy(TOP_ROOMS).forEach(this::printRoom);
+        }
+        RoomDirectory.Page page = chatRoomManager.searchChatRooms(prefix, null, ROOM_PAGE_SIZE);
+        System.out.println(prefix.isEmpty() ? "All rooms:" : "Rooms starting with '" + prefix + "':");
+        page.getRooms().forEach(this::printRoom);
+        if (page.hasMore()) {
+            System.out.println("... more rooms available from the main menu.");
+        }
+        System.out.println("-----------------------");
+    }
+
+    private void printLoad() {
+        System.out.println("\n--- Server Load ---");
+        System.out.println("Level: " + admission.getLevel() + " (pressure " + Math.round(admission.getPressure() * 100) + "%)");
+        System.out.println("Queued session items: " + admission.getQueuedItems());
+        System.out.println("Deferred notifications: " + admission.getDeferredNotificationCount()
+                + " (waiting " + admission.getPendingNotificationCount()
+                + ", dropped " + admission.getDroppedNotificationCount() + ")");
+        System.out.println("Rejected sessions: " + admission.getRejectedSessionCount());
+        System.out.println("Throttled posts: " + admission.getThrottledPostCount());
+        System.out.println("Dropped ephemeral events: " + admission.getDroppedEphemeralCount());
+        RoomEventLoopGroup loops = chatRoomManager.getEventLoops();
+        if (loops != null) {
+            System.out.println("Room event loops: " + loops.getLoopCount() + " (queued operations "
+                    + loops.getPendingOperationCount() + ", rooms moved " + loops.getMigrationCount() + ")");
+        }
+        if (tls != null) {
+            System.out.println("TLS handshakes: " + tls.getFullHandshakeCount() + " full, "
+                    + tls.getResumedHandshakeCount() + " resumed");
         }
+        if (PerMessageDeflate.getMessageCount() > 0) {
+            System.out.println("WebSocket compression: " + Math.round(PerMessageDeflate.getCompressionRatio() * 100)
+                    + "% of original size, " + PerMessageDeflate.getSavedBytes() + " bytes saved, "
+                    + PerMessageDeflate.getNanosPerMessage() / 1000.0 + " us per message");
+        }
+        if (gateway != null) {
+            System.out.println("Shared connection: " + gateway.getStreamCount() + " streams, "
+                    + gateway.getQueuedBytes() + " bytes queued, " + gateway.getWindowUpdateCount() + " window updates");
+        }
+        System.out.println("-----------------------");
+    }
+
+    private void printReadCounts(ChatRoom room) {
+        List<Message> history = room.getMessageHistory();
+        int members = room.getMembers().size();
+        System.out.println("\n--- Read Receipts ---");
+        for (Message message : history.subList(Math.max(0, history.size() - SEEN_MESSAGE_COUNT), history.size())) {
+            System.out.println(message.getFormattedMessage() + "  (seen by " + room.getReadCount(message.getSequence())
+                    + " of " + members + ")");
+        }
+        System.out.println("-----------------------");
+    }
+
+    private void printRoom(ChatRoom room) {
+        System.out.println("ID: " + room.getRoomId() + ", Name: " + room.getRoomName() + ", Users: " + room.getUserCount());
+    }
+
+    private static String trimmed(String text) {
+        return text == null ? "" : text.trim();
     }
 
     private void enterChatRoom(UserSession session) {
         ChatRoom currentRoom = chatRoomManager.getChatRoom(session.getRoomId());
         if (currentRoom == null) {
             System.err.println("Error: Chat room no longer exists.");
-            activeUserSessions.remove(session.getUser().getUserId());
+            removeSession(session);
             return;
         }
 
@@ -230,6 +420,11 @@ public class ChatApplication {
         System.out.println("Type your message and press Enter to send.");
         System.out.println("Type '/users' to see active users.");
         System.out.println("Type '/history' to see message history.");
+        System.out.println("Type '/rooms [prefix]' to browse other rooms.");
+        System.out.println("Type '/load' to see server load.");
+        System.out.println("Type '/typing' to show others that you are typing.");
+        System.out.println("Type '/seen' to see who has read recent messages.");
+        System.out.println("Type '/edit <message>' to change your last message, '/delete' to remove it.");
         System.out.println("Type '/msg <username> <message>' for private message.");
         System.out.println("Type '/leave' to leave the room.");
 
@@ -237,6 +432,7 @@ public class ChatApplication {
         System.out.println("\n--- Message History ---");
         currentRoom.getMessageHistory().forEach(msg -> System.out.println(msg.getFormattedMessage()));
         System.out.println("-----------------------");
+        session.markRead(currentRoom.getLastSequence());
 
         while (session.getUser().isActive()) {
             String input = readLine("[" + session.getUser().getUsername() + " in " + currentRoom.getRoomName() + "]> ");
@@ -265,12 +461,29 @@ public class ChatApplication {
                     System.out.println("\n--- Message History ---");
                     currentRoom.getMessageHistory().forEach(msg -> System.out.println(msg.getFormattedMessage()));
                     System.out.println("-----------------------");
+                } else if (input.equalsIgnoreCase("/rooms") || input.startsWith("/rooms ")) {
+                    handleRoomsCommand(input);
+                } else if (input.equalsIgnoreCase("/load")) {
+                    printLoad();
+                } else if (input.equalsIgnoreCase("/seen")) {
+                    printReadCounts(currentRoom);
+                } else if (input.equalsIgnoreCase("/typing")) {
+                    chatRoomManager.sendEphemeralEvent(session.getRoomId(), session.getUser().getUserId(),
+                            EphemeralEvent.Kind.TYPING_STARTED);
+                } else if (input.startsWith("/edit ")) {
+                    Message own = findLastOwnMessage(currentRoom, session.getUser().getUserId());
+                    chatRoomManager.editMessage(session.getRoomId(), session.getUser().getUserId(),
+                            own.getMessageId(), input.substring("/edit ".length()));
+                } else if (input.equalsIgnoreCase("/delete")) {
+                    Message own = findLastOwnMessage(currentRoom, session.getUser().getUserId());
+                    chatRoomManager.deleteMessage(session.getRoomId(), session.getUser().getUserId(),
+                            own.getMessageId());
                 } else if (input.startsWith("/msg ")) {
                     handlePrivateMessage(session, input);
                 }
                 else {
                     Message message = new Message(session.getUser().getUserId(), session.getUser().getUsername(), input, session.getRoomId());
-                    chatRoomManager.postMessage(session.getRoomId(), message);
+                    session.markRead(chatRoomManager.postMessage(session.getRoomId(), message));
                 }
             } catch (ChatRoomException | IllegalArgumentException e) {
                 System.err.println("Error sending message: " + e.getMessage());
@@ -279,6 +492,23 @@ public class ChatApplication {
         }
     }
 
+    /**
+     * Finds the newest message a user posted in a room's recent history
+     * @param room The room
+     * @param userId The ID of the user
+     * @return The message
+     * @throws ChatRoomException if the user has no message in recent history
+     */
+    private Message findLastOwnMessage(ChatRoom room, String userId) {
+        List<Message> history = room.getMessageHistory();
+        for (int i = history.size() - 1; i >= 0; i--) {
+            if (history.get(i).getSenderId().equals(userId)) {
+                return history.get(i);
+            }
+        }
+        throw new ChatRoomException("You have no recent message to change");
+    }
+
     /**
      * Handles sending a private message from one user to another.
      * Format: /msg <recipient_username> <message>
@@ -296,7 +526,7 @@ public class ChatApplication {
         String privateContent = parts[2];
 
         // Find the recipient's UserSession by username
-        Optional<UserSession> recipientSessionOpt = activeUserSessions.values().stream()
+        Optional<UserSession> recipientSessionOpt = sessionsSnapshot().stream()
                 .filter(s -> s.getUser().getUsername().equalsIgnoreCase(recipientUsername) && s.getUser().isActive())
                 .findFirst();
 
@@ -329,6 +559,36 @@ public class ChatApplication {
         }
     }
 
+    private void putSession(UserSession session) {
+        synchronized (activeUserSessions) {
+            activeUserSessions.put(session.getUser().getHandle(), session);
+        }
+    }
+
+    /**
+     * Resolves a user ID typed at the console to its session
+     * @param userId The user ID
+     * @return The session, or null if none is active
+     */
+    private UserSession findSession(String userId) {
+        int handle = IdRegistry.getInstance().findUser(userId);
+        synchronized (activeUserSessions) {
+            return activeUserSessions.get(handle);
+        }
+    }
+
+    private void removeSession(UserSession session) {
+        synchronized (activeUserSessions) {
+            activeUserSessions.remove(session.getUser().getHandle());
+        }
+    }
+
+    private List<UserSession> sessionsSnapshot() {
+        synchronized (activeUserSessions) {
+            return activeUserSessions.values();
+        }
+    }
+
     private String readLine(String prompt) {
         System.out.print(prompt);
         try {
@@ -340,8 +600,14 @@ public class ChatApplication {
     }
 
     private void shutdown() {
+        if (!shutDown.compareAndSet(false, true)) {
+            return; // "exit" already shut down before the finally block got here
+        }
         logger.info("Shutting down application...");
-        messagePollingExecutor.shutdownNow(); // Interrupt all polling tasks
+        chatRoomManager.stopAccepting(); // No new posts while draining
+        List<UserSession> sessions = sessionsSnapshot();
+        sessions.forEach(UserSession::pausePolling);
+        messagePollingExecutor.shutdownNow(); // Cancel the scheduled polling passes
         try {
             if (!messagePollingExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
                 logger.warn("Message polling executor did not terminate in time.");
@@ -351,15 +617,28 @@ public class ChatApplication {
             logger.error("Shutdown interrupted: {}", e.getMessage(), e);
         }
 
-        // Disconnect all active user sessions
-        activeUserSessions.values().forEach(session -> {
-            session.stopPolling();
+        // Detach sessions so nothing new reaches them, then flush what they hold in parallel
+        sessions.forEach(session -> {
             ChatRoom room = chatRoomManager.getChatRoom(session.getRoomId());
             if (room != null) {
                 room.removeObserver(session);
                 chatRoomManager.leaveChatRoom(session.getRoomId(), session.getUser().getUserId());
             }
         });
+        Path checkpoint = Paths.get(System.getProperty("chat.checkpoint.file", "shutdown.checkpoint"));
+        SessionDrainer.DrainReport report = new SessionDrainer(chatRoomManager).drain(sessions, DRAIN_DEADLINE, checkpoint);
+        System.out.println("Delivered " + report.getDeliveredCount() + " pending messages"
+                + (report.getCheckpointedCount() > 0
+                        ? ", saved " + report.getCheckpointedCount() + " undelivered ones to " + checkpoint
+                        : "")
+                + ".");
+        RoomEventLoopGroup loops = chatRoomManager.getEventLoops();
+        if (loops != null) {
+            loops.shutdown(EVENT_LOOP_SHUTDOWN_MILLIS);
+        }
+        if (gateway != null) {
+            gateway.close();
+        }
 
         try {
             consoleReader.close();
@@ -371,48 +650,92 @@ public class ChatApplication {
 
     /**
      * Inner class representing a user's session and acting as a ChatObserver.
-     * Each user session has its own communication protocol and polls for
-     * messages.
+     * Each user session has its own communication protocol and is polled for
+     * messages every 200 ms on a small pool shared by
+     * all sessions, so how many sessions run is up to the admission controller,
+     * not the number of threads. Room messages travel through a {@link ReliableProtocol}, so
+     * anything not yet shown when the connection drops is redelivered once the
+     * session reconnects. A {@link RoomFeed} stops queuing for a session that
+     * has fallen too far behind and replays the gap from the room's history
+     * once it catches up, so one slow reader never holds the room back.
      */
-    private class UserSession implements ChatObserver, Runnable {
+    private class UserSession implements ChatObserver, Runnable, DrainableSession {
 
         private final User user;
         private final String roomId;
-        private CommunicationProtocol protocol;
+        private ReliableProtocol protocol;
+        private RoomFeed feed;
         private volatile boolean pollingActive;
-        private final BlockingQueue<Message> incomingMessages;
+        private ScheduledFuture<?> pollTask; // Guarded by this
         private final BlockingQueue<PrivateMessage> incomingPrivateMessages; // For private messages
         private final BlockingQueue<String> notifications; // For user join/leave/error notifications
+        private final ArrayDeque<Message> recovered = new ArrayDeque<>(); // Taken from the protocol during a drain
 
         public UserSession(User user, String roomId) {
             this.user = user;
             this.roomId = roomId;
             this.pollingActive = true;
-            this.incomingMessages = new LinkedBlockingQueue<>();
-            this.incomingPrivateMessages = new LinkedBlockingQueue<>(); // Initialize private message queue
-            this.notifications = new LinkedBlockingQueue<>();
+            // Bounded so a stalled session cannot hold an unlimited backlog
+            this.incomingPrivateMessages = new LinkedBlockingQueue<>(SESSION_QUEUE_CAPACITY);
+            this.notifications = new LinkedBlockingQueue<>(SESSION_QUEUE_CAPACITY);
             initializeProtocol();
         }
 
         private void initializeProtocol() {
             // For demonstration, let's randomly pick a protocol
             // In a real application, this would be determined by client type
-            int choice = new Random().nextInt(3);
+            CommunicationProtocol transport = null;
+            int choice = gateway != null ? -1 : new Random().nextInt(3);
             switch (choice) {
+                case -1:
+                    transport = gateway.openStream(); // One stream on the shared connection
+                    break;
                 case 0:
-                    this.protocol = new WebSocketProtocol("ws://localhost:8080/chat");
+                    WebSocketProtocol webSocket = new WebSocketProtocol(
+                            tls != null ? "wss://localhost:8080/chat" : "ws://localhost:8080/chat", tls);
+                    configureCompression(webSocket);
+                    transport = webSocket;
                     break;
                 case 1:
-                    this.protocol = new HttpProtocol("http://localhost:8081/chat");
+                    transport = new HttpProtocol("http://localhost:8081/chat");
                     break;
                 case 2:
-                    this.protocol = new TcpProtocol("localhost", 8082);
+                    transport = new TcpProtocol("localhost", 8082, tls);
                     break;
             }
+            this.protocol = new ReliableProtocol(transport, user.getUserId());
+            this.feed = new RoomFeed(protocol, chatRoomManager.getChatRoom(roomId), user.getUserId());
             this.protocol.connect();
             logger.info("User {} session initialized with {} protocol.", user.getUsername(), protocol.getProtocolName());
         }
 
+        /**
+         * Applies {@code -Dchat.ws.deflate}: {@code context} keeps compression state
+         * between messages, {@code no-context} does not, and {@code dictionary} also
+         * presets a dictionary built from the room's recent messages
+         */
+        private void configureCompression(WebSocketProtocol webSocket) {
+            String mode = System.getProperty("chat.ws.deflate", "off").trim().toLowerCase();
+            switch (mode) {
+                case "context":
+                    webSocket.enableCompression(true, null);
+                    break;
+                case "no-context":
+                    webSocket.enableCompression(false, null);
+                    break;
+                case "dictionary":
+                    ChatRoom room = chatRoomManager.getChatRoom(roomId);
+                    List<Message> recent = room == null ? null : room.getMessageHistory();
+                    byte[] dictionary = recent == null || recent.isEmpty() ? null : PerMessageDeflate.buildDictionary(recent);
+                    webSocket.enableCompression(true, dictionary);
+                    break;
+                case "off":
+                    break;
+                default:
+                    logger.warn("Unknown chat.ws.deflate mode '{}', compression is off", mode);
+            }
+        }
+
         public User getUser() {
             return user;
         }
@@ -428,42 +751,209 @@ public class ChatApplication {
 
         @Override
         public void onMessageReceived(Message message) {
-            if (!message.getSenderId().equals(user.getUserId())) { // Don't notify self
-                incomingMessages.offer(message);
+            SessionDeliveryEvent event = new SessionDeliveryEvent();
+            event.begin();
+            // The feed skips our own messages, and those that come with a replay once we catch up
+            feed.offer(message);
+            event.end();
+            if (event.shouldCommit()) {
+                event.userId = user.getUserId();
+                event.roomId = message.getRoomId();
+                event.protocol = protocol.getProtocolName();
+                event.contentLength = message.getContent() == null ? 0 : message.getContent().length();
+                event.catchingUp = feed.isCatchingUp();
+                event.commit();
             }
         }
 
         @Override
         public void onUserJoined(User joinedUser) {
             if (!joinedUser.getUserId().equals(user.getUserId())) { // Don't notify self
-                notifications.offer(joinedUser.getUsername() + " has joined the room.");
+                enqueue(notifications, joinedUser.getUsername() + " has joined the room.");
             }
         }
 
         @Override
         public void onUserLeft(User leftUser) {
             if (!leftUser.getUserId().equals(user.getUserId())) { // Don't notify self
-                notifications.offer(leftUser.getUsername() + " has left the room.");
+                enqueue(notifications, leftUser.getUsername() + " has left the room.");
             }
         }
 
         @Override
         public void onError(String errorMessage) {
-            notifications.offer("Error: " + errorMessage);
+            enqueue(notifications, "Error: " + errorMessage);
         }
 
         @Override
         public void onPrivateMessageReceived(PrivateMessage privateMessage) {
-            incomingPrivateMessages.offer(privateMessage);
+            enqueue(incomingPrivateMessages, privateMessage);
         }
 
-        public void startPolling() {
+        @Override
+        public void onEphemeralEvent(EphemeralEvent event) {
+            // Best-effort: only use the spare half of the queue, so indicators never crowd out notifications
+            if (notifications.remainingCapacity() <= SESSION_QUEUE_CAPACITY / 2) {
+                return;
+            }
+            switch (event.getKind()) {
+                case TYPING_STARTED:
+                    enqueue(notifications, event.getUsername() + " is typing...");
+                    break;
+                case TYPING_STOPPED:
+                    enqueue(notifications, event.getUsername() + " stopped typing.");
+                    break;
+                default:
+                    break; // Presence pings only refresh liveness, nothing to show
+            }
+        }
+
+        /**
+         * Adds an item to one of the session's queues and reports it to the
+         * admission controller. Items that do not fit are dropped.
+         */
+        private <T> void enqueue(BlockingQueue<T> queue, T item) {
+            if (queue.offer(item)) {
+                admission.recordQueued(1);
+            } else {
+                logger.warn("Dropped notification for user {}: session queue is full", user.getUsername());
+            }
+        }
+
+        private <T> T dequeue(BlockingQueue<T> queue) {
+            T item = queue.poll();
+            if (item != null) {
+                admission.recordQueued(-1);
+            }
+            return item;
+        }
+
+        /**
+         * Drops anything still queued for a session that is going away
+         */
+        public void discardQueued() {
+            int discarded = 0;
+            while (notifications.poll() != null) {
+                discarded++;
+            }
+            while (incomingPrivateMessages.poll() != null) {
+                discarded++;
+            }
+            admission.recordQueued(-discarded);
+        }
+
+        /**
+         * Moves the user's read position to a message that was shown to them
+         */
+        public void markRead(long sequence) {
+            ChatRoom room = chatRoomManager.getChatRoom(roomId);
+            if (room == null) {
+                return;
+            }
+            try {
+                room.markRead(user.getUserId(), sequence);
+            } catch (ChatRoomException e) {
+                logger.debug("Read position of user {} not updated: {}", user.getUsername(), e.getMessage());
+            }
+        }
+
+        /**
+         * Schedules the session on the shared polling threads, unless it already is
+         */
+        public synchronized void startPolling() {
             pollingActive = true;
-            run(); // Start the polling loop
+            if (pollTask == null || pollTask.isDone()) {
+                pollTask = messagePollingExecutor.scheduleWithFixedDelay(this, 0, POLL_INTERVAL_MILLIS,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Stops polling but keeps the connection, so a drain can still read what
+         * is queued on it
+         */
+        public void pausePolling() {
+            pollingActive = false;
+            cancelPolling();
+        }
+
+        private synchronized void cancelPolling() {
+            if (pollTask != null) {
+                pollTask.cancel(false);
+                pollTask = null;
+            }
+        }
+
+        @Override
+        public String getSessionUserId() {
+            return user.getUserId();
+        }
+
+        @Override
+        public int flush(long deadlineNanos) {
+            int delivered = 0;
+            boolean windowTaken = false;
+            while (System.nanoTime() - deadlineNanos < 0) {
+                Message msg = recovered.poll();
+                if (msg == null && protocol.isConnected()) {
+                    msg = protocol.receiveMessage();
+                }
+                if (msg == null && !windowTaken) {
+                    // Nothing more will arrive, so show what the protocol still holds, connected or not
+                    recovered.addAll(protocol.takeUnacknowledged(protocol.getDeliveredUpTo()));
+                    recovered.addAll(feed.takeMissed());
+                    windowTaken = true;
+                    msg = recovered.poll();
+                }
+                if (msg != null) {
+                    System.out.println(msg.getFormattedMessage());
+                    delivered++;
+                    continue;
+                }
+                PrivateMessage privateMsg = incomingPrivateMessages.poll();
+                if (privateMsg != null) {
+                    admission.recordQueued(-1);
+                    System.out.println(privateMsg.getFormattedMessage());
+                    delivered++;
+                    continue;
+                }
+                String notification = notifications.poll();
+                if (notification == null) {
+                    break;
+                }
+                admission.recordQueued(-1);
+                System.out.println("[NOTIFICATION]: " + notification);
+            }
+            return delivered;
+        }
+
+        @Override
+        public void takeUndelivered(List<Message> messages, List<PrivateMessage> privateMessages) {
+            if (protocol.isConnected()) {
+                for (Message msg = protocol.receiveMessage(); msg != null; msg = protocol.receiveMessage()) {
+                    messages.add(msg);
+                }
+            }
+            messages.addAll(recovered);
+            recovered.clear();
+            messages.addAll(protocol.takeUnacknowledged(protocol.getDeliveredUpTo()));
+            messages.addAll(feed.takeMissed());
+            for (PrivateMessage privateMsg = incomingPrivateMessages.poll(); privateMsg != null;
+                 privateMsg = incomingPrivateMessages.poll()) {
+                admission.recordQueued(-1);
+                privateMessages.add(privateMsg);
+            }
+            discardQueued();
+        }
+
+        @Override
+        public void closeProtocol() {
+            protocol.disconnect();
         }
 
         public void stopPolling() {
             pollingActive = false;
+            cancelPolling();
             if (protocol != null) {
                 protocol.disconnect();
             }
@@ -480,60 +970,68 @@ public class ChatApplication {
                 logger.info("User {} session protocol reconnected.", user.getUsername());
             }
             if (!pollingActive) {
-                pollingActive = true;
-                messagePollingExecutor.submit(this); // Resubmit the polling task
+                startPolling();
                 logger.info("User {} session polling restarted.", user.getUsername());
             }
         }
 
+        /**
+         * One polling pass: shows what has arrived without waiting for more, so
+         * the shared polling thread moves on to the next session
+         */
         @Override
         public void run() {
-            while (pollingActive && protocol.isConnected()) {
-                try {
-                    // Process incoming messages from the chat room (via Observer pattern)
-                    Message msg = incomingMessages.poll(100, TimeUnit.MILLISECONDS);
-                    if (msg != null) {
-                        System.out.println("\n" + msg.getFormattedMessage());
-                        System.out.print("[" + user.getUsername() + " in " + roomId + "]> ");
-                        System.out.flush(); // Ensure prompt is reprinted
+            if (!pollingActive || !protocol.isConnected()) {
+                cancelPolling();
+                logger.info("User {} polling stopped.", user.getUsername());
+                return;
+            }
+            try {
+                // Process incoming messages from the chat room, delivered through the protocol
+                boolean received = false;
+                for (int i = 0; i < MAX_ITEMS_PER_POLL; i++) {
+                    Message msg = protocol.receiveMessage();
+                    if (msg == null) {
+                        break;
                     }
+                    received = true;
+                    System.out.println("\n" + msg.getFormattedMessage());
+                    markRead(msg.getSequence());
+                }
+                if (!received) {
+                    protocol.acknowledgePending(); // Nothing to piggyback on, acknowledge on its own
+                }
 
-                    // Process notifications
-                    String notification = notifications.poll(100, TimeUnit.MILLISECONDS);
-                    if (notification != null) {
-                        System.out.println("\n[NOTIFICATION]: " + notification);
-                        System.out.print("[" + user.getUsername() + " in " + roomId + "]> ");
-                        System.out.flush();
+                // Process notifications
+                boolean shown = received;
+                for (int i = 0; i < MAX_ITEMS_PER_POLL; i++) {
+                    String notification = dequeue(notifications);
+                    if (notification == null) {
+                        break;
                     }
+                    shown = true;
+                    System.out.println("\n[NOTIFICATION]: " + notification);
+                }
 
-                    // Process incoming private messages
-                    PrivateMessage privateMsg = incomingPrivateMessages.poll(100, TimeUnit.MILLISECONDS);
-                    if (privateMsg != null) {
-                        System.out.println("\n" + privateMsg.getFormattedMessage());
-                        System.out.print("[" + user.getUsername() + " in " + roomId + "]> ");
-                        System.out.flush();
+                // Process incoming private messages
+                for (int i = 0; i < MAX_ITEMS_PER_POLL; i++) {
+                    PrivateMessage privateMsg = dequeue(incomingPrivateMessages);
+                    if (privateMsg == null) {
+                        break;
                     }
+                    shown = true;
+                    System.out.println("\n" + privateMsg.getFormattedMessage());
+                }
 
-                    // Simulate receiving messages via the chosen protocol (if applicable)
-                    // For this console app, the primary message flow is via the Observer pattern.
-                    // The protocol's receiveMessage is more for external client simulation.
-                    // Message protocolMessage = protocol.receiveMessage();
-                    // if (protocolMessage != null) {
-                    //     System.out.println("\n[PROTOCOL MESSAGE]: " + protocolMessage.getFormattedMessage());
-                    //     System.out.print("[" + user.getUsername() + " in " + roomId + "]> ");
-                    //     System.out.flush();
-                    // }
-                    Thread.sleep(200); // Poll every 200ms
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    logger.warn("User {} message polling interrupted.", user.getUsername());
-                    pollingActive = false;
-                } catch (Exception e) {
-                    logger.error("Error during message polling for user {}: {}", user.getUsername(), e.getMessage(), e);
-                    pollingActive = false;
+                if (shown) {
+                    System.out.print("[" + user.getUsername() + " in " + roomId + "]> ");
+                    System.out.flush(); // Ensure prompt is reprinted
                 }
+            } catch (Exception e) {
+                logger.error("Error during message polling for user {}: {}", user.getUsername(), e.getMessage(), e);
+                pollingActive = false;
+                cancelPolling();
             }
-            logger.info("User {} polling loop exited.", user.getUsername());
         }
     }
 }
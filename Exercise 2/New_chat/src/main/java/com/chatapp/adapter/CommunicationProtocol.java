@@ -2,6 +2,9 @@ package com.chatapp.adapter;
 
 import com.chatapp.model.Message;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Interface defining the contract for communication protocols.
  * Part of the Adapter Pattern - defines what all protocols must implement.
@@ -15,6 +18,24 @@ public interface CommunicationProtocol {
      */
     boolean sendMessage(Message message);
     
+    /**
+     * Sends several messages at once so the transport can share framing and
+     * flushes between them. Messages are written in list order.
+     * @param messages The messages to send
+     * @return The number of messages sent, 0 if not connected or the write failed
+     */
+    int sendBatch(List<Message> messages);
+    
+    /**
+     * Queues several messages for sending without waiting for the write. Queued
+     * messages are coalesced with other pending traffic and flushed once enough
+     * have accumulated or a short delay has passed.
+     * @param messages The messages to send
+     * @return Completes with the number of messages sent once they have been
+     *         flushed, or exceptionally if the flush failed or the protocol disconnected
+     */
+    CompletableFuture<Integer> sendBatchAsync(List<Message> messages);
+    
     /**
      * Receives a message using the protocol
      * @return The received message, or null if none available
@@ -38,6 +59,25 @@ public interface CommunicationProtocol {
      */
     boolean isConnected();
     
+    /**
+     * Checks whether the connection is keeping up. Once its outbound queue
+     * passes a high watermark it stays unwritable until the queue drains below a
+     * low watermark; senders should hold further messages back meanwhile.
+     * @return true if more messages may be sent
+     */
+    default boolean isWritable() {
+        return true;
+    }
+    
+    /**
+     * Sets a callback that runs each time the connection becomes writable
+     * again. It may run on the thread that drained the connection, so it must
+     * not block.
+     * @param listener The callback, or null to remove it
+     */
+    default void setWritabilityListener(Runnable listener) {
+    }
+    
     /**
      * Gets the protocol name
      * @return The name of the protocol
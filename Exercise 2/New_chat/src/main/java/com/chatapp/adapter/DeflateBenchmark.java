@@ -0,0 +1,107 @@
+package com.chatapp.adapter;
+
+import com.chatapp.model.Message;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the permessage-deflate settings on generated chat traffic: short
+ * messages from a few hundred users in a handful of rooms, drawn from a small
+ * vocabulary. Prints the bytes per message on the wire and the CPU time spent
+ * compressing and decompressing each one.
+ * Usage: {@code DeflateBenchmark [messages]}
+ */
+public final class DeflateBenchmark {
+
+    private static final String[] WORDS = {
+            "hey", "hi", "thanks", "the", "deploy", "is", "done", "lunch", "anyone", "build", "failed", "again",
+            "can", "you", "review", "my", "PR", "meeting", "in", "5", "minutes", "ok", "sounds", "good", "lol",
+            "on", "it", "prod", "staging", "looks", "fine", "to", "me", "who", "broke", "tests", "coffee"};
+    private static final int USERS = 300;
+    private static final int ROOMS = 8;
+    private static final int DICTIONARY_MESSAGES = 300;
+    private static final int WARMUP_ROUNDS = 2;
+
+    private DeflateBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark and prints the results
+     * @param args Command line arguments
+     * @throws IOException if a message cannot be encoded
+     */
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        Random random = new Random(42);
+        List<Message> recentMessages = new ArrayList<>();
+        for (int i = 0; i < DICTIONARY_MESSAGES; i++) {
+            recentMessages.add(randomMessage(random));
+        }
+        byte[] dictionary = PerMessageDeflate.buildDictionary(recentMessages);
+        List<byte[]> bodies = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            bodies.add(body(randomMessage(random)));
+        }
+
+        long raw = 0;
+        for (byte[] body : bodies) {
+            raw += body.length;
+        }
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            boolean report = round == WARMUP_ROUNDS;
+            if (report) {
+                System.out.printf("%-22s %10.1f bytes/message%n", "Uncompressed", (double) raw / count);
+            }
+            run("No context takeover", new PerMessageDeflate(false, null), bodies, raw, report);
+            run("Context takeover", new PerMessageDeflate(true, null), bodies, raw, report);
+            run("No context, dictionary", new PerMessageDeflate(false, dictionary), bodies, raw, report);
+            run("Context, dictionary", new PerMessageDeflate(true, dictionary), bodies, raw, report);
+        }
+    }
+
+    private static void run(String name, PerMessageDeflate deflate, List<byte[]> bodies, long raw, boolean report)
+            throws IOException {
+        long compressed = 0;
+        long start = System.nanoTime();
+        for (byte[] body : bodies) {
+            byte[] wire = deflate.compress(body);
+            compressed += wire.length;
+            if (!Arrays.equals(body, deflate.decompress(wire))) {
+                throw new IllegalStateException(name + " did not round-trip");
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        deflate.close();
+        if (report) {
+            System.out.printf("%-22s %10.1f bytes/message, %4.1f%% saved, %5.2f us/message%n", name,
+                    (double) compressed / bodies.size(), 100.0 * (raw - compressed) / raw,
+                    nanos / 1000.0 / bodies.size());
+        }
+    }
+
+    private static Message randomMessage(Random random) {
+        int user = random.nextInt(USERS);
+        StringBuilder content = new StringBuilder();
+        int words = 2 + random.nextInt(10);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                content.append(' ');
+            }
+            content.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return new Message("user-" + user, "member" + user, content.toString(), "room-" + random.nextInt(ROOMS));
+    }
+
+    private static byte[] body(Message message) throws IOException {
+        ByteBuffer frame = LoopbackConnection.encode(message);
+        byte[] body = new byte[frame.remaining() - 4];
+        frame.position(4);
+        frame.get(body);
+        return body;
+    }
+}
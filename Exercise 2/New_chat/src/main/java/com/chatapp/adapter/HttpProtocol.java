@@ -4,7 +4,10 @@ import com.chatapp.model.Message;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
@@ -14,15 +17,33 @@ import java.util.concurrent.LinkedBlockingQueue;
  */
 public class HttpProtocol implements CommunicationProtocol {
     private static final Logger logger = LoggerFactory.getLogger(HttpProtocol.class);
+    private static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    private static final long DEFAULT_MAX_FLUSH_DELAY_MICROS = 200;
     
     private boolean connected;
     private final BlockingQueue<Message> messageQueue;
+    private final MessageCoalescer coalescer;
     private final String serverUrl;
     
     public HttpProtocol(String serverUrl) {
+        this(serverUrl, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_FLUSH_DELAY_MICROS);
+    }
+    
+    /**
+     * Creates the protocol with explicit coalescing limits
+     * @param serverUrl The server URL
+     * @param maxBatchSize The most messages written by one flush
+     * @param maxFlushDelayMicros The longest a queued message waits before it is flushed
+     */
+    public HttpProtocol(String serverUrl, int maxBatchSize, long maxFlushDelayMicros) {
         this.serverUrl = serverUrl;
         this.messageQueue = new LinkedBlockingQueue<>();
         this.connected = false;
+        this.coalescer = new MessageCoalescer(getProtocolName(), maxBatchSize, maxFlushDelayMicros, batch -> {
+            // Simulate one write carrying the whole batch
+            logger.debug("Sending HTTP POST request to {} with {} messages", serverUrl, batch.size());
+            messageQueue.addAll(batch);
+        });
     }
     
     @Override
@@ -32,15 +53,27 @@ public class HttpProtocol implements CommunicationProtocol {
             return false;
         }
         
-        try {
-            // Simulate HTTP POST request
-            logger.debug("Sending HTTP POST request to {}: {}", serverUrl, message.getContent());
-            messageQueue.offer(message);
-            return true;
-        } catch (Exception e) {
-            logger.error("Error sending message via HTTP: {}", e.getMessage(), e);
-            return false;
+        return sendBatch(Collections.singletonList(message)) == 1;
+    }
+    
+    @Override
+    public int sendBatch(List<Message> messages) {
+        if (!connected) {
+            logger.warn("Cannot send batch via HTTP: Not connected");
+            return 0;
         }
+        
+        return coalescer.submitAndFlush(messages);
+    }
+    
+    @Override
+    public CompletableFuture<Integer> sendBatchAsync(List<Message> messages) {
+        if (!connected) {
+            logger.warn("Cannot send batch via HTTP: Not connected");
+            return CompletableFuture.completedFuture(0);
+        }
+        
+        return coalescer.submit(messages);
     }
     
     @Override
@@ -88,6 +121,7 @@ public class HttpProtocol implements CommunicationProtocol {
         try {
             logger.info("Disconnecting HTTP from {}", serverUrl);
             connected = false;
+            coalescer.abort("HTTP disconnected");
             messageQueue.clear();
             logger.info("HTTP disconnected successfully");
         } catch (Exception e) {
@@ -100,6 +134,14 @@ public class HttpProtocol implements CommunicationProtocol {
         return connected;
     }
     
+    public long getFlushCount() {
+        return coalescer.getFlushCount();
+    }
+    
+    public double getMessagesPerFlush() {
+        return coalescer.getMessagesPerFlush();
+    }
+    
     @Override
     public String getProtocolName() {
         return "HTTP";
@@ -0,0 +1,369 @@
+package com.chatapp.adapter;
+
+import com.chatapp.codec.MessageCodec;
+import com.chatapp.jfr.ProtocolReceiveEvent;
+import com.chatapp.jfr.ProtocolSendEvent;
+import com.chatapp.model.Message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The simulated connection behind the console protocols. Frames are written to
+ * a non-blocking {@link Pipe} through an {@link OutboundQueue} and read back on
+ * the other end, so sends go through the same encoding, gathering writes and
+ * watermarks as they would on a socket, and a reader that falls behind fills
+ * the pipe and backs the queue up.
+ * <p>
+ * A frame is a 4-byte length followed by a type byte and the message as written
+ * by {@link MessageCodec}; {@link SequencedMessage} frames also carry their
+ * delivery sequence and acknowledgement. {@link MultiplexedConnection} adds
+ * stream data and window update frames.
+ * <p>
+ * With a {@link TlsContext} the frames travel encrypted through a
+ * {@link TlsChannel} instead of as plaintext. With {@link PerMessageDeflate}
+ * each message frame is compressed.
+ */
+final class LoopbackConnection {
+
+    private static final int FRAME_HEADER_BYTES = 4;
+    private static final byte TYPE_PLAIN = 0;
+    private static final byte TYPE_SEQUENCED = 1;
+    static final byte TYPE_STREAM_DATA = 2; // Used by MultiplexedConnection
+    static final byte TYPE_WINDOW_UPDATE = 3; // Used by MultiplexedConnection
+    private static final byte TYPE_DEFLATED = 4;
+    private static final int INITIAL_INBOUND_BYTES = 16 * 1024;
+
+    private final String name;
+    private final Pipe pipe;
+    private final TlsChannel tls;
+    private final ReadableByteChannel in;
+    private final OutboundQueue outbound;
+    private final Object sendLock = new Object();
+    private volatile PerMessageDeflate deflate; // Null while uncompressed
+    private ByteBuffer inbound; // Guarded by this, left in write mode between reads
+
+    private LoopbackConnection(String name, Pipe pipe, TlsChannel tls) {
+        this.name = name;
+        this.pipe = pipe;
+        this.tls = tls;
+        this.in = tls != null ? tls : pipe.source();
+        GatheringByteChannel out = tls != null ? tls : pipe.sink();
+        this.outbound = new OutboundQueue(name, out);
+        this.inbound = ByteBuffer.allocate(INITIAL_INBOUND_BYTES);
+    }
+
+    /**
+     * Opens a connection
+     * @param name Name used in log output and recordings, usually the protocol name
+     * @return The connection
+     * @throws IOException if the pipe cannot be opened
+     */
+    static LoopbackConnection open(String name) throws IOException {
+        return open(name, null, null, 0);
+    }
+
+    /**
+     * Opens a connection, encrypted if TLS is configured
+     * @param name Name used in log output and recordings, usually the protocol name
+     * @param tlsContext The TLS settings, or null for plaintext
+     * @param peerHost The server host, which keys session resumption
+     * @param peerPort The server port
+     * @return The connection
+     * @throws IOException if the pipe cannot be opened or the handshake fails
+     */
+    static LoopbackConnection open(String name, TlsContext tlsContext, String peerHost, int peerPort)
+            throws IOException {
+        Pipe pipe = Pipe.open();
+        pipe.sink().configureBlocking(false);
+        pipe.source().configureBlocking(false);
+        TlsChannel tls = null;
+        if (tlsContext != null) {
+            try {
+                tls = new TlsChannel(tlsContext, peerHost, peerPort, pipe.sink(), pipe.source());
+            } catch (IOException e) {
+                pipe.sink().close();
+                pipe.source().close();
+                throw e;
+            }
+        }
+        return new LoopbackConnection(name, pipe, tls);
+    }
+
+    /**
+     * Encodes a batch into the outbound queue and flushes as much as the pipe
+     * takes. What is left goes out on a later send or receive.
+     * @param batch The messages to send
+     * @throws IOException if a message cannot be encoded or the pipe fails
+     */
+    void send(List<Message> batch) throws IOException {
+        ProtocolSendEvent event = new ProtocolSendEvent();
+        event.begin();
+        PerMessageDeflate compression = deflate;
+        long bytes = 0;
+        // Compressed frames depend on the ones before them, so they are queued in the order they were compressed
+        synchronized (sendLock) {
+            for (Message message : batch) {
+                ByteBuffer frame = encode(message);
+                if (compression != null) {
+                    frame = compress(frame, compression);
+                }
+                bytes += frame.remaining();
+                if (!outbound.enqueue(frame)) {
+                    throw new IOException("Connection is closed");
+                }
+            }
+        }
+        outbound.flush();
+        event.end();
+        if (event.shouldCommit()) {
+            event.connection = name;
+            event.messageCount = batch.size();
+            event.bytes = bytes;
+            event.compressed = compression != null;
+            event.commit();
+        }
+    }
+
+    /**
+     * Compresses message frames from now on. Both ends must switch before the
+     * first message, as they would when the extension is negotiated.
+     * @param compression The connection's compression state
+     */
+    void enableCompression(PerMessageDeflate compression) {
+        this.deflate = compression;
+    }
+
+    private static ByteBuffer compress(ByteBuffer frame, PerMessageDeflate compression) {
+        byte[] body = new byte[frame.remaining() - FRAME_HEADER_BYTES];
+        frame.position(FRAME_HEADER_BYTES);
+        frame.get(body);
+        byte[] compressed = compression.compress(body);
+        ByteBuffer deflated = ByteBuffer.allocate(FRAME_HEADER_BYTES + 1 + compressed.length);
+        deflated.putInt(1 + compressed.length);
+        deflated.put(TYPE_DEFLATED);
+        deflated.put(compressed);
+        deflated.flip();
+        return deflated;
+    }
+
+    /**
+     * Reads the next complete frame, pulling more bytes from the pipe if needed.
+     * Reading frees room in the pipe, so queued frames are flushed too.
+     * @return The next message, or null if no complete frame has arrived
+     * @throws IOException if the pipe fails or a frame is damaged
+     */
+    synchronized Message receive() throws IOException {
+        ProtocolReceiveEvent event = new ProtocolReceiveEvent();
+        event.begin();
+        byte[] body = receiveFrame();
+        if (body == null) {
+            return null;
+        }
+        PerMessageDeflate compression = deflate;
+        boolean compressed = body[0] == TYPE_DEFLATED && compression != null;
+        // Decompressed under the lock, in arrival order
+        Message message = compressed
+                ? decode(compression.decompress(Arrays.copyOfRange(body, 1, body.length)))
+                : decode(body);
+        event.end();
+        if (event.shouldCommit()) {
+            event.connection = name;
+            event.bytes = FRAME_HEADER_BYTES + body.length;
+            event.compressed = compressed;
+            event.commit();
+        }
+        return message;
+    }
+
+    /**
+     * Queues frames that are already encoded, length included, and flushes as
+     * much as the pipe takes
+     * @param frames The frames to send
+     * @throws IOException if the connection is closed or the pipe fails
+     */
+    void sendFrames(List<ByteBuffer> frames) throws IOException {
+        for (ByteBuffer frame : frames) {
+            if (!outbound.enqueue(frame)) {
+                throw new IOException("Connection is closed");
+            }
+        }
+        outbound.flush();
+    }
+
+    /**
+     * Reads the body of the next complete frame, without its length
+     * @return The frame body, starting with its type byte, or null if no
+     *         complete frame has arrived
+     * @throws IOException if the pipe fails or a frame is damaged
+     */
+    synchronized byte[] receiveFrame() throws IOException {
+        byte[] body = nextFrame();
+        if (body == null) {
+            while (inbound.hasRemaining() && in.read(inbound) > 0) {
+                // Read what is available
+            }
+            if (tls != null) {
+                tls.flushPending();
+            }
+            outbound.flush();
+            body = nextFrame();
+        }
+        return body;
+    }
+
+    private byte[] nextFrame() throws IOException {
+        inbound.flip();
+        try {
+            if (inbound.remaining() < FRAME_HEADER_BYTES) {
+                return null;
+            }
+            int length = inbound.getInt(inbound.position());
+            if (length <= 0) {
+                throw new IOException("Damaged frame with length " + length);
+            }
+            if (inbound.remaining() < FRAME_HEADER_BYTES + length) {
+                if (inbound.capacity() < FRAME_HEADER_BYTES + length) {
+                    ByteBuffer larger = ByteBuffer.allocate(Integer.highestOneBit(FRAME_HEADER_BYTES + length) << 1);
+                    larger.put(inbound);
+                    larger.flip();
+                    inbound = larger;
+                }
+                return null;
+            }
+            inbound.getInt();
+            byte[] body = new byte[length];
+            inbound.get(body);
+            return body;
+        } finally {
+            inbound.compact();
+        }
+    }
+
+    static ByteBuffer encode(Message message) throws IOException {
+        return encode(message, -1, 0);
+    }
+
+    /**
+     * Encodes a message as a frame, wrapped in a stream data frame if a stream
+     * ID is given
+     * @param message The message
+     * @param streamId The multiplexed stream, or -1 for none
+     * @param epoch The stream's connection epoch, ignored without a stream
+     * @return The frame, length included
+     * @throws IOException if the message cannot be encoded
+     */
+    static ByteBuffer encode(Message message, int streamId, int epoch) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // Length, filled in below
+        if (streamId >= 0) {
+            out.writeByte(TYPE_STREAM_DATA);
+            out.writeInt(streamId);
+            out.writeInt(epoch);
+        }
+        if (message instanceof SequencedMessage) {
+            SequencedMessage frame = (SequencedMessage) message;
+            out.writeByte(TYPE_SEQUENCED);
+            out.writeLong(frame.getDeliverySequence());
+            out.writeLong(frame.getAck());
+        } else {
+            out.writeByte(TYPE_PLAIN);
+        }
+        MessageCodec.writeMessage(out, message);
+        out.flush();
+        ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+        frame.putInt(0, frame.remaining() - FRAME_HEADER_BYTES);
+        return frame;
+    }
+
+    static Message decode(byte[] body) throws IOException {
+        return decode(body, 0);
+    }
+
+    /**
+     * Decodes a message frame body
+     * @param body The frame body
+     * @param offset Where the message's type byte is, after any stream header
+     * @return The message
+     * @throws IOException if the frame is damaged
+     */
+    static Message decode(byte[] body, int offset) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body, offset, body.length - offset));
+        byte type = in.readByte();
+        if (type == TYPE_PLAIN) {
+            return MessageCodec.readMessage(in);
+        }
+        if (type != TYPE_SEQUENCED) {
+            throw new IOException("Unknown frame type " + type);
+        }
+        long deliverySequence = in.readLong();
+        long ack = in.readLong();
+        Message message = MessageCodec.readMessage(in);
+        return deliverySequence == 0
+                ? SequencedMessage.ackOnly(message.getSenderId(), ack)
+                : new SequencedMessage(message, deliverySequence, ack);
+    }
+
+    OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    /**
+     * Checks whether the connection is encrypted
+     * @return true if frames travel over TLS
+     */
+    boolean isEncrypted() {
+        return tls != null;
+    }
+
+    /**
+     * Checks whether the TLS handshake resumed an earlier session
+     * @return true if resumed, false for a full handshake or no TLS
+     */
+    boolean isResumed() {
+        return tls != null && tls.isResumed();
+    }
+
+    /**
+     * Describes how the connection is secured, for log output
+     * @return Empty for plaintext, otherwise the handshake kind
+     */
+    String describeSecurity() {
+        if (tls == null) {
+            return "";
+        }
+        return tls.isResumed() ? " over TLS (resumed session)" : " over TLS (full handshake)";
+    }
+
+    /**
+     * Drops queued frames and closes both ends of the pipe
+     */
+    void close() {
+        outbound.close();
+        PerMessageDeflate compression = deflate;
+        if (compression != null) {
+            synchronized (sendLock) {
+                compression.close();
+            }
+        }
+        try {
+            if (tls != null) {
+                tls.close();
+            }
+            pipe.sink().close();
+            pipe.source().close();
+        } catch (IOException e) {
+            // Nothing left to deliver on a closed pipe
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.chatapp.adapter;
+
+import com.chatapp.exception.ChatRoomException;
+import com.chatapp.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects outbound messages for a protocol and hands them to the transport in
+ * batches. A batch is flushed as soon as {@code maxBatchSize} messages are
+ * pending, or once the oldest pending message has waited {@code maxDelayMicros}.
+ * Each flush stands for one write on the underlying connection, so the ratio of
+ * flushed messages to flushes shows how much a burst was amortized.
+ * <p>
+ * Asynchronous senders coalesce through the timer. A synchronous send is
+ * written on the caller's thread straight away, together with whatever the
+ * asynchronous senders have pending, so it never waits for the timer. Flushes
+ * happen under the coalescer's lock, which keeps messages in submission order.
+ */
+public class MessageCoalescer {
+    private static final Logger logger = LoggerFactory.getLogger(MessageCoalescer.class);
+
+    private static final ScheduledExecutorService FLUSH_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "protocol-flush-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Writes one batch to the transport
+     */
+    @FunctionalInterface
+    public interface FlushSink {
+        void flush(List<Message> batch) throws Exception;
+    }
+
+    private final String name;
+    private final int maxBatchSize;
+    private final long maxDelayMicros;
+    private final FlushSink sink;
+    private final ArrayDeque<Message> pending;
+    private final ArrayDeque<Waiter> waiters;
+    private long enqueuedPosition;
+    private long flushedPosition;
+    private long flushCount;
+    private long flushedMessageCount;
+    private ScheduledFuture<?> scheduledFlush;
+
+    /**
+     * Creates a coalescer
+     * @param name Name used in log output, usually the protocol name
+     * @param maxBatchSize The most messages written by one flush
+     * @param maxDelayMicros The longest a pending message waits for company
+     * @param sink Writes batches to the transport
+     */
+    public MessageCoalescer(String name, int maxBatchSize, long maxDelayMicros, FlushSink sink) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        if (maxDelayMicros < 0) {
+            throw new IllegalArgumentException("Flush delay cannot be negative");
+        }
+        if (sink == null) {
+            throw new IllegalArgumentException("Flush sink cannot be null");
+        }
+        this.name = name;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMicros = maxDelayMicros;
+        this.sink = sink;
+        this.pending = new ArrayDeque<>();
+        this.waiters = new ArrayDeque<>();
+    }
+
+    /**
+     * Queues messages for sending. Full batches are flushed right away, the rest
+     * when the delay expires or {@link #flush()} is called.
+     * @param messages The messages to send
+     * @return Completes with the number of messages written once all of them
+     *         have been flushed, or exceptionally if their flush failed
+     */
+    public synchronized CompletableFuture<Integer> submit(List<Message> messages) {
+        if (messages == null) {
+            throw new IllegalArgumentException("Messages cannot be null");
+        }
+        CompletableFuture<Integer> completion = new CompletableFuture<>();
+        if (messages.isEmpty()) {
+            completion.complete(0);
+            return completion;
+        }
+        pending.addAll(messages);
+        enqueuedPosition += messages.size();
+        waiters.add(new Waiter(completion, enqueuedPosition, messages.size()));
+
+        while (pending.size() >= maxBatchSize) {
+            flushOnce();
+        }
+        if (pending.isEmpty()) {
+            cancelScheduledFlush();
+        } else if (scheduledFlush == null) {
+            scheduledFlush = FLUSH_TIMER.schedule(this::flushDue, maxDelayMicros, TimeUnit.MICROSECONDS);
+        }
+        return completion;
+    }
+
+    /**
+     * Sends messages on the caller's thread. Whatever other callers have
+     * pending goes out in the same write instead of waiting for the timer.
+     * @param messages The messages to send
+     * @return The number of messages written, 0 if their flush failed
+     */
+    public synchronized int submitAndFlush(List<Message> messages) {
+        CompletableFuture<Integer> completion = submit(messages);
+        flush();
+        return completion.isCompletedExceptionally() ? 0 : completion.getNow(0);
+    }
+
+    /**
+     * Flushes everything that is pending
+     */
+    public synchronized void flush() {
+        while (!pending.isEmpty()) {
+            flushOnce();
+        }
+        cancelScheduledFlush();
+    }
+
+    /**
+     * Drops everything that is pending and fails its completions, e.g. when the
+     * connection goes away
+     * @param reason Why the messages were dropped
+     */
+    public synchronized void abort(String reason) {
+        cancelScheduledFlush();
+        flushedPosition += pending.size();
+        pending.clear();
+        ChatRoomException failure = new ChatRoomException(reason);
+        while (!waiters.isEmpty()) {
+            waiters.poll().completion.completeExceptionally(failure);
+        }
+    }
+
+    private synchronized void flushDue() {
+        scheduledFlush = null;
+        while (!pending.isEmpty()) {
+            flushOnce();
+        }
+    }
+
+    /**
+     * Writes one batch. Must be called with the lock held.
+     */
+    private void flushOnce() {
+        int size = Math.min(pending.size(), maxBatchSize);
+        List<Message> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            batch.add(pending.poll());
+        }
+        long batchEnd = flushedPosition + size;
+        try {
+            sink.flush(batch);
+            flushedPosition = batchEnd;
+            flushCount++;
+            flushedMessageCount += size;
+            while (!waiters.isEmpty() && waiters.peek().endPosition <= flushedPosition) {
+                Waiter waiter = waiters.poll();
+                waiter.completion.complete(waiter.size);
+            }
+        } catch (Exception e) {
+            logger.error("{} failed to flush {} messages: {}", name, size, e.getMessage(), e);
+            flushedPosition = batchEnd;
+            ChatRoomException failure = new ChatRoomException("Failed to flush batch via " + name, e);
+            // Every caller with a message in the failed batch is told, even if part of its list went out
+            while (!waiters.isEmpty() && waiters.peek().endPosition - waiters.peek().size < batchEnd) {
+                waiters.poll().completion.completeExceptionally(failure);
+            }
+        }
+    }
+
+    private void cancelScheduledFlush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    public synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    public synchronized long getFlushedMessageCount() {
+        return flushedMessageCount;
+    }
+
+    /**
+     * Gets the average number of messages written per flush
+     * @return Messages per flush, or 0 before the first flush
+     */
+    public synchronized double getMessagesPerFlush() {
+        return flushCount == 0 ? 0 : (double) flushedMessageCount / flushCount;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getMaxDelayMicros() {
+        return maxDelayMicros;
+    }
+
+    /**
+     * Completion of one submitted list, done once the flushed position passes
+     * the position of its last message
+     */
+    private static final class Waiter {
+        private final CompletableFuture<Integer> completion;
+        private final long endPosition;
+        private final int size;
+
+        Waiter(CompletableFuture<Integer> completion, long endPosition, int size) {
+            this.completion = completion;
+            this.endPosition = endPosition;
+            this.size = size;
+        }
+    }
+}
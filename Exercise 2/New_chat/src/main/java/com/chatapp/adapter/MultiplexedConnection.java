@@ -0,0 +1,462 @@
+package com.chatapp.adapter;
+
+import com.chatapp.model.Message;
+import com.chatapp.util.IntObjectMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One transport connection shared by many sessions, for gateways and bot hosts
+ * that would otherwise hold a connection per user. Each session gets a stream,
+ * a {@link CommunicationProtocol} whose frames carry its stream ID over the
+ * shared connection; whoever reads the connection hands each frame to its
+ * stream.
+ * <p>
+ * Every stream has its own flow-control window, in bytes. A stream may only
+ * have that much data on the connection that its reader has not consumed yet;
+ * a send takes only the messages that fit, and the stream reports itself
+ * unwritable until window comes back, so the caller keeps the rest. As the
+ * reader consumes messages it returns the bytes to the sender in window update
+ * frames. So a busy stream with a slow reader cannot fill the shared
+ * connection and starve the others.
+ * <p>
+ * Data and window update frames carry the stream's epoch, which goes up every
+ * time the stream connects. Frames and credit from an earlier connection of
+ * the stream are dropped, so they never count against or add to the window of
+ * the current one.
+ */
+public class MultiplexedConnection {
+    private static final Logger logger = LoggerFactory.getLogger(MultiplexedConnection.class);
+
+    public static final int DEFAULT_STREAM_WINDOW = 64 * 1024;
+
+    private static final String PROTOCOL_NAME = "MUX";
+    private static final int LENGTH_BYTES = 4;
+    private static final int STREAM_HEADER_BYTES = 9; // Type byte, stream ID and epoch
+
+    private final String host;
+    private final int port;
+    private final TlsContext tls;
+    private final int streamWindow;
+    private final IntObjectMap<Stream> streams; // Keyed by stream ID, guarded by itself
+    private final Object readLock = new Object();
+    private final AtomicLong windowUpdateCount = new AtomicLong();
+    private final AtomicLong droppedFrameCount = new AtomicLong();
+    private volatile LoopbackConnection connection; // Null until the first stream connects
+    private int nextStreamId = 1; // Guarded by streams
+
+    /**
+     * Creates a connection with the default stream window
+     * @param host The server host
+     * @param port The server port
+     * @param tls The TLS settings, or null for plaintext
+     */
+    public MultiplexedConnection(String host, int port, TlsContext tls) {
+        this(host, port, tls, DEFAULT_STREAM_WINDOW);
+    }
+
+    /**
+     * Creates a connection. It is opened when the first stream connects.
+     * @param host The server host
+     * @param port The server port
+     * @param tls The TLS settings, or null for plaintext
+     * @param streamWindow The bytes each stream may have in flight
+     */
+    public MultiplexedConnection(String host, int port, TlsContext tls, int streamWindow) {
+        if (streamWindow <= 0) {
+            throw new IllegalArgumentException("Stream window must be positive");
+        }
+        this.host = host;
+        this.port = port;
+        this.tls = tls;
+        this.streamWindow = streamWindow;
+        this.streams = new IntObjectMap<>();
+    }
+
+    /**
+     * Creates a new stream on this connection
+     * @return The stream, not yet connected
+     */
+    public CommunicationProtocol openStream() {
+        synchronized (streams) {
+            return new Stream(nextStreamId++);
+        }
+    }
+
+    private synchronized LoopbackConnection ensureOpen() throws IOException {
+        if (connection == null) {
+            logger.info("Opening multiplexed connection to {}:{}", host, port);
+            LoopbackConnection opened = LoopbackConnection.open(PROTOCOL_NAME, tls, host, port);
+            opened.getOutbound().setWritabilityListener(writable -> {
+                if (writable) {
+                    // The flush that drained the queue may hold a stream's lock, so tell the streams elsewhere
+                    CompletableFuture.runAsync(() -> {
+                        for (Stream stream : snapshotStreams()) {
+                            stream.fireWritable();
+                        }
+                    });
+                }
+            });
+            connection = opened;
+            logger.info("Multiplexed connection open to {}:{}{}", host, port, opened.describeSecurity());
+        }
+        return connection;
+    }
+
+    private List<Stream> snapshotStreams() {
+        synchronized (streams) {
+            return streams.values();
+        }
+    }
+
+    private Stream findStream(int streamId) {
+        synchronized (streams) {
+            return streams.get(streamId);
+        }
+    }
+
+    /**
+     * Reads frames off the connection, handing each to its stream, until the
+     * given stream has a message or nothing more has arrived. Consumed bytes
+     * are returned to the sender once half a window has built up.
+     */
+    private Message receive(Stream stream, LoopbackConnection current) throws IOException {
+        Message message;
+        synchronized (readLock) {
+            message = stream.takeInbound();
+            while (message == null) {
+                byte[] body = current.receiveFrame();
+                if (body == null) {
+                    break;
+                }
+                dispatch(body);
+                message = stream.takeInbound();
+            }
+        }
+        ByteBuffer update = stream.takeWindowUpdate();
+        if (update != null) {
+            current.sendFrames(Collections.singletonList(update));
+            windowUpdateCount.incrementAndGet();
+        }
+        return message;
+    }
+
+    private void dispatch(byte[] body) throws IOException {
+        if (body.length < STREAM_HEADER_BYTES) {
+            throw new IOException("Damaged multiplexed frame of " + body.length + " bytes");
+        }
+        ByteBuffer header = ByteBuffer.wrap(body);
+        byte type = header.get();
+        int streamId = header.getInt();
+        int epoch = header.getInt();
+        Stream stream = findStream(streamId);
+        if (type == LoopbackConnection.TYPE_STREAM_DATA) {
+            if (stream == null || !stream.deliver(epoch, LoopbackConnection.decode(body, STREAM_HEADER_BYTES),
+                    body.length)) {
+                droppedFrameCount.incrementAndGet(); // Stream closed or reconnected meanwhile
+            }
+        } else if (type == LoopbackConnection.TYPE_WINDOW_UPDATE) {
+            if (stream != null) {
+                stream.credit(epoch, header.getInt());
+            }
+        } else {
+            throw new IOException("Unexpected frame type " + type + " on a multiplexed connection");
+        }
+    }
+
+    private static ByteBuffer windowUpdate(int streamId, int epoch, int credit) {
+        ByteBuffer frame = ByteBuffer.allocate(LENGTH_BYTES + STREAM_HEADER_BYTES + 4);
+        frame.putInt(STREAM_HEADER_BYTES + 4);
+        frame.put(LoopbackConnection.TYPE_WINDOW_UPDATE);
+        frame.putInt(streamId);
+        frame.putInt(epoch);
+        frame.putInt(credit);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Disconnects every stream and closes the shared connection
+     */
+    public void close() {
+        for (Stream stream : snapshotStreams()) {
+            stream.disconnect();
+        }
+        synchronized (this) {
+            if (connection != null) {
+                connection.close();
+                connection = null;
+                logger.info("Multiplexed connection to {}:{} closed", host, port);
+            }
+        }
+    }
+
+    public int getStreamCount() {
+        synchronized (streams) {
+            return streams.size();
+        }
+    }
+
+    public int getStreamWindow() {
+        return streamWindow;
+    }
+
+    /**
+     * Gets the bytes waiting in the shared outbound queue
+     * @return The queued bytes, 0 while closed
+     */
+    public long getQueuedBytes() {
+        LoopbackConnection current = connection;
+        return current == null ? 0 : current.getOutbound().getQueuedBytes();
+    }
+
+    public long getWindowUpdateCount() {
+        return windowUpdateCount.get();
+    }
+
+    /**
+     * Gets the number of data frames that arrived for streams already closed
+     * @return The dropped frame count
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrameCount.get();
+    }
+
+    /**
+     * A message received on a stream and the window bytes it used
+     */
+    private static final class Delivery {
+        private final Message message;
+        private final int bytes;
+
+        Delivery(Message message, int bytes) {
+            this.message = message;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * One session's view of the shared connection
+     */
+    private final class Stream implements CommunicationProtocol {
+        private final int id;
+        private final ArrayDeque<Delivery> inbound; // Guarded by this
+        private volatile boolean connected;
+        private volatile Runnable writabilityListener;
+        private int epoch; // Guarded by this, bumped on every connect
+        private long sendWindow; // Guarded by this
+        private boolean blocked; // Guarded by this, window ran out since the listener last ran
+        private int unreturnedBytes; // Guarded by this, consumed but not yet returned to the sender
+
+        Stream(int id) {
+            this.id = id;
+            this.inbound = new ArrayDeque<>();
+            this.sendWindow = streamWindow;
+        }
+
+        @Override
+        public boolean sendMessage(Message message) {
+            return sendBatch(Collections.singletonList(message)) == 1;
+        }
+
+        /**
+         * Sends the leading messages that fit in the window
+         * @param messages The messages to send
+         * @return The number sent; the caller keeps the rest until the stream
+         *         is writable again
+         */
+        @Override
+        public synchronized int sendBatch(List<Message> messages) {
+            LoopbackConnection current = connection;
+            if (!connected || current == null) {
+                logger.warn("Cannot send batch on stream {}: Not connected", id);
+                return 0;
+            }
+            try {
+                List<ByteBuffer> ready = new ArrayList<>(messages.size());
+                for (Message message : messages) {
+                    ByteBuffer frame = LoopbackConnection.encode(message, id, epoch);
+                    if (!fitsWindow(frame)) {
+                        break;
+                    }
+                    sendWindow -= frame.remaining() - LENGTH_BYTES;
+                    ready.add(frame);
+                }
+                // Sent under the stream's lock so concurrent batches keep their order
+                current.sendFrames(ready);
+                if (ready.size() < messages.size() || sendWindow <= 0) {
+                    blocked = true;
+                }
+                return ready.size();
+            } catch (IOException e) {
+                logger.error("Failed to send batch on stream {}: {}", id, e.getMessage(), e);
+                return 0;
+            }
+        }
+
+        private boolean fitsWindow(ByteBuffer frame) {
+            // A frame larger than the whole window still goes out once nothing else is in flight
+            long cost = frame.remaining() - LENGTH_BYTES;
+            return cost <= sendWindow || sendWindow == streamWindow;
+        }
+
+        @Override
+        public CompletableFuture<Integer> sendBatchAsync(List<Message> messages) {
+            // The shared connection already gathers frames from all streams into few writes
+            return CompletableFuture.completedFuture(sendBatch(messages));
+        }
+
+        /**
+         * Adds window returned by the reader, unless it was returned for an
+         * earlier connection of the stream
+         */
+        void credit(int creditEpoch, int bytes) {
+            boolean unblocked;
+            synchronized (this) {
+                if (creditEpoch != epoch) {
+                    return;
+                }
+                sendWindow += bytes;
+                unblocked = blocked && sendWindow > 0;
+                if (unblocked) {
+                    blocked = false;
+                }
+            }
+            if (unblocked) {
+                fireWritable();
+            }
+        }
+
+        /**
+         * Queues a received message for the reader
+         * @return false if it was sent on an earlier connection of the stream and dropped
+         */
+        synchronized boolean deliver(int frameEpoch, Message message, int bytes) {
+            if (!connected || frameEpoch != epoch) {
+                return false;
+            }
+            inbound.addLast(new Delivery(message, bytes));
+            return true;
+        }
+
+        synchronized Message takeInbound() {
+            Delivery delivery = inbound.pollFirst();
+            if (delivery == null) {
+                return null;
+            }
+            unreturnedBytes += delivery.bytes;
+            return delivery.message;
+        }
+
+        /**
+         * Takes the consumed bytes to return to the sender, once there are enough
+         * to be worth a frame
+         * @return The window update frame, or null if none is due
+         */
+        synchronized ByteBuffer takeWindowUpdate() {
+            if (unreturnedBytes < streamWindow / 2) {
+                return null;
+            }
+            int credit = unreturnedBytes;
+            unreturnedBytes = 0;
+            return windowUpdate(id, epoch, credit);
+        }
+
+        void fireWritable() {
+            Runnable listener = writabilityListener;
+            if (listener != null && isWritable()) {
+                listener.run();
+            }
+        }
+
+        @Override
+        public Message receiveMessage() {
+            LoopbackConnection current = connection;
+            if (!connected || current == null) {
+                logger.warn("Cannot receive message on stream {}: Not connected", id);
+                return null;
+            }
+            try {
+                return receive(this, current);
+            } catch (IOException e) {
+                logger.error("Failed to receive message on stream {}: {}", id, e.getMessage(), e);
+                return null;
+            }
+        }
+
+        @Override
+        public boolean connect() {
+            if (connected) {
+                return true;
+            }
+            try {
+                ensureOpen();
+            } catch (IOException e) {
+                logger.error("Failed to open multiplexed connection to {}:{}: {}", host, port, e.getMessage(), e);
+                return false;
+            }
+            synchronized (this) {
+                epoch++;
+                sendWindow = streamWindow;
+                unreturnedBytes = 0;
+                blocked = false;
+            }
+            synchronized (streams) {
+                streams.put(id, this);
+            }
+            connected = true;
+            logger.debug("Stream {} connected", id);
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+            if (!connected) {
+                return;
+            }
+            connected = false;
+            synchronized (streams) {
+                streams.remove(id);
+            }
+            synchronized (this) {
+                inbound.clear();
+            }
+            logger.debug("Stream {} disconnected", id);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected && connection != null;
+        }
+
+        @Override
+        public boolean isWritable() {
+            LoopbackConnection current = connection;
+            synchronized (this) {
+                if (blocked) {
+                    return false; // A send did not fit or used up the window
+                }
+            }
+            return current != null && current.getOutbound().isWritable();
+        }
+
+        @Override
+        public void setWritabilityListener(Runnable listener) {
+            this.writabilityListener = listener;
+        }
+
+        @Override
+        public String getProtocolName() {
+            return PROTOCOL_NAME;
+        }
+    }
+}
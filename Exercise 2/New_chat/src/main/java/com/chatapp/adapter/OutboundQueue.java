@@ -0,0 +1,240 @@
+package com.chatapp.adapter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Encoded frames waiting to be written to one connection. Frames are written
+ * with gathering writes, many buffers per system call, and a flush stops after
+ * {@code maxSpins} writes or as soon as the socket buffer is full, so one slow
+ * connection cannot hold the writing thread. When {@link #flush()} returns
+ * false, the caller should flush again once the channel is writable.
+ * <p>
+ * Queued bytes are tracked against two watermarks. Crossing the high watermark
+ * marks the connection unwritable; it becomes writable again only once the
+ * queue drains below the low watermark, so senders can stop feeding a
+ * connection that falls behind without flapping around a single limit.
+ */
+public class OutboundQueue {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+
+    public static final int DEFAULT_HIGH_WATERMARK = 64 * 1024;
+    public static final int DEFAULT_LOW_WATERMARK = 32 * 1024;
+    public static final int DEFAULT_MAX_SPINS = 16;
+
+    private static final int MAX_GATHER = 64; // Buffers per write call, well below IOV_MAX
+
+    /**
+     * Told when the connection's writability changes
+     */
+    @FunctionalInterface
+    public interface WritabilityListener {
+        void onWritabilityChanged(boolean writable);
+    }
+
+    private final String name;
+    private final GatheringByteChannel channel;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final int maxSpins;
+    private final ArrayDeque<ByteBuffer> frames; // Guarded by this
+    private final ByteBuffer[] gather; // Guarded by this
+    private volatile WritabilityListener listener;
+    private long queuedBytes; // Guarded by this
+    private boolean writable = true; // Guarded by this
+    private boolean closed; // Guarded by this
+    private long writeCallCount; // Guarded by this
+    private long writtenBytes; // Guarded by this
+    private long incompleteFlushCount; // Guarded by this
+
+    /**
+     * Creates a queue with the default limits
+     * @param name Name used in log output
+     * @param channel The connection to write to, usually in non-blocking mode
+     */
+    public OutboundQueue(String name, GatheringByteChannel channel) {
+        this(name, channel, DEFAULT_HIGH_WATERMARK, DEFAULT_LOW_WATERMARK, DEFAULT_MAX_SPINS);
+    }
+
+    /**
+     * Creates a queue
+     * @param name Name used in log output
+     * @param channel The connection to write to, usually in non-blocking mode
+     * @param highWatermark Queued bytes at which the connection becomes unwritable
+     * @param lowWatermark Queued bytes below which it becomes writable again
+     * @param maxSpins The most write calls per flush
+     */
+    public OutboundQueue(String name, GatheringByteChannel channel, int highWatermark, int lowWatermark,
+                         int maxSpins) {
+        if (channel == null) {
+            throw new IllegalArgumentException("Channel cannot be null");
+        }
+        if (lowWatermark < 0 || highWatermark <= lowWatermark) {
+            throw new IllegalArgumentException("High watermark must be above a non-negative low watermark");
+        }
+        if (maxSpins <= 0) {
+            throw new IllegalArgumentException("Spin limit must be positive");
+        }
+        this.name = name;
+        this.channel = channel;
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.maxSpins = maxSpins;
+        this.frames = new ArrayDeque<>();
+        this.gather = new ByteBuffer[MAX_GATHER];
+    }
+
+    /**
+     * Sets the listener told about writability changes. It is called outside
+     * the queue's lock, on the thread that caused the change.
+     * @param listener The listener, or null to remove it
+     */
+    public void setWritabilityListener(WritabilityListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Queues an encoded frame. Frames are always accepted while the queue is
+     * open, even above the high watermark; staying under it is up to senders.
+     * @param frame The frame, from its position to its limit
+     * @return false if the queue is closed
+     */
+    public boolean enqueue(ByteBuffer frame) {
+        boolean changed;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            if (!frame.hasRemaining()) {
+                return true;
+            }
+            frames.addLast(frame);
+            queuedBytes += frame.remaining();
+            changed = writable && queuedBytes >= highWatermark;
+            if (changed) {
+                writable = false;
+            }
+        }
+        if (changed) {
+            logger.debug("{} fell behind with {} queued bytes", name, getQueuedBytes());
+            fireWritabilityChanged(false);
+        }
+        return true;
+    }
+
+    /**
+     * Writes queued frames until the queue is empty, the channel takes no more
+     * or the spin limit is reached
+     * @return true if the queue is empty, false if the caller should flush again
+     *         once the channel is writable
+     * @throws IOException if the channel fails
+     */
+    public boolean flush() throws IOException {
+        boolean changed = false;
+        boolean drained;
+        synchronized (this) {
+            if (closed) {
+                return true;
+            }
+            for (int spin = 0; spin < maxSpins && !frames.isEmpty(); spin++) {
+                int count = 0;
+                for (ByteBuffer frame : frames) {
+                    gather[count++] = frame;
+                    if (count == gather.length) {
+                        break;
+                    }
+                }
+                long written = channel.write(gather, 0, count);
+                writeCallCount++;
+                while (!frames.isEmpty() && !frames.peekFirst().hasRemaining()) {
+                    frames.pollFirst();
+                }
+                if (written <= 0) {
+                    break; // Socket buffer full
+                }
+                writtenBytes += written;
+                queuedBytes -= written;
+            }
+            Arrays.fill(gather, null);
+            drained = frames.isEmpty();
+            if (!drained) {
+                incompleteFlushCount++;
+            }
+            if (!writable && queuedBytes < lowWatermark) {
+                writable = true;
+                changed = true;
+            }
+        }
+        if (changed) {
+            fireWritabilityChanged(true);
+        }
+        return drained;
+    }
+
+    private void fireWritabilityChanged(boolean nowWritable) {
+        WritabilityListener current = listener;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.onWritabilityChanged(nowWritable);
+        } catch (RuntimeException e) {
+            logger.error("{} writability listener failed", name, e);
+        }
+    }
+
+    /**
+     * Drops every queued frame, e.g. when the connection goes away
+     * @return The number of bytes dropped
+     */
+    public synchronized long close() {
+        closed = true;
+        long dropped = queuedBytes;
+        frames.clear();
+        queuedBytes = 0;
+        return dropped;
+    }
+
+    /**
+     * Checks whether senders may keep writing to this connection
+     * @return false from crossing the high watermark until draining below the low one
+     */
+    public synchronized boolean isWritable() {
+        return writable;
+    }
+
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    public synchronized int getQueuedFrameCount() {
+        return frames.size();
+    }
+
+    /**
+     * Gets the number of write calls made on the channel
+     * @return The write call count
+     */
+    public synchronized long getWriteCallCount() {
+        return writeCallCount;
+    }
+
+    public synchronized long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    /**
+     * Gets how many flushes stopped with frames left, at the spin limit or on a
+     * full socket buffer
+     * @return The incomplete flush count
+     */
+    public synchronized long getIncompleteFlushCount() {
+        return incompleteFlushCount;
+    }
+}
@@ -0,0 +1,217 @@
+package com.chatapp.adapter;
+
+import com.chatapp.codec.MessageCodec;
+import com.chatapp.model.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The WebSocket permessage-deflate extension (RFC 7692) for one connection.
+ * Each message is compressed with raw deflate and a sync flush, and the
+ * trailing empty block is left off the wire.
+ * <p>
+ * With context takeover, both sides keep their compression state from one
+ * message to the next, so a username or room ID that appeared in an earlier
+ * message costs a few bits the next time. Without it, every message starts
+ * from scratch, trading ratio for 64 KB less state per connection. A preset
+ * dictionary, built from recent room traffic and known to both sides, gives
+ * even the first message something to refer back to.
+ * <p>
+ * Counters cover every connection in the process, so the settings can be
+ * compared on live traffic.
+ */
+public final class PerMessageDeflate {
+
+    /**
+     * Deflate's window; a dictionary longer than this is cut to its end
+     */
+    public static final int MAX_DICTIONARY_BYTES = 32 * 1024;
+
+    private static final byte[] SYNC_TAIL = {0, 0, (byte) 0xff, (byte) 0xff};
+    private static final int BUFFER_BYTES = 1024;
+
+    private static final AtomicLong MESSAGE_COUNT = new AtomicLong();
+    private static final AtomicLong UNCOMPRESSED_BYTES = new AtomicLong();
+    private static final AtomicLong COMPRESSED_BYTES = new AtomicLong();
+    private static final AtomicLong COMPRESS_NANOS = new AtomicLong();
+    private static final AtomicLong DECOMPRESS_NANOS = new AtomicLong();
+
+    private final boolean contextTakeover;
+    private final byte[] dictionary;
+    private final Deflater deflater; // Guarded by itself
+    private final Inflater inflater; // Guarded by itself
+    private final byte[] buffer; // Guarded by deflater
+
+    /**
+     * Creates the compression state for one connection
+     * @param contextTakeover Whether to keep the compression state between messages
+     * @param dictionary A preset dictionary, or null for none
+     */
+    public PerMessageDeflate(boolean contextTakeover, byte[] dictionary) {
+        this.contextTakeover = contextTakeover;
+        this.dictionary = dictionary == null || dictionary.length <= MAX_DICTIONARY_BYTES
+                ? dictionary
+                : Arrays.copyOfRange(dictionary, dictionary.length - MAX_DICTIONARY_BYTES, dictionary.length);
+        this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        this.inflater = new Inflater(true);
+        this.buffer = new byte[BUFFER_BYTES];
+        presetDictionary();
+    }
+
+    /**
+     * Builds a dictionary from recent messages, newest last since deflate finds
+     * the end of the dictionary cheapest to refer to
+     * @param recent Recent messages, oldest first
+     * @return The dictionary, at most {@link #MAX_DICTIONARY_BYTES} long
+     */
+    public static byte[] buildDictionary(List<Message> recent) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(MAX_DICTIONARY_BYTES);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (Message message : recent) {
+                MessageCodec.writeMessage(out, message);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+        byte[] all = bytes.toByteArray();
+        return all.length <= MAX_DICTIONARY_BYTES
+                ? all
+                : Arrays.copyOfRange(all, all.length - MAX_DICTIONARY_BYTES, all.length);
+    }
+
+    private void presetDictionary() {
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+            inflater.setDictionary(dictionary);
+        }
+    }
+
+    /**
+     * Compresses one message. Messages must be compressed in the order they are
+     * sent, and decompressed in the same order.
+     * @param data The message bytes
+     * @return The compressed bytes
+     */
+    public byte[] compress(byte[] data) {
+        long start = System.nanoTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+        synchronized (deflater) {
+            if (!contextTakeover) {
+                deflater.reset();
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary);
+                }
+            }
+            deflater.setInput(data);
+            int count;
+            do {
+                count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                out.write(buffer, 0, count);
+            } while (count == buffer.length);
+        }
+        byte[] compressed = out.toByteArray();
+        // The sync flush always ends with an empty stored block, which the receiver adds back
+        compressed = Arrays.copyOf(compressed, compressed.length - SYNC_TAIL.length);
+        COMPRESS_NANOS.addAndGet(System.nanoTime() - start);
+        MESSAGE_COUNT.incrementAndGet();
+        UNCOMPRESSED_BYTES.addAndGet(data.length);
+        COMPRESSED_BYTES.addAndGet(compressed.length);
+        return compressed;
+    }
+
+    /**
+     * Decompresses one message
+     * @param data The compressed bytes
+     * @return The message bytes
+     * @throws IOException if the data is damaged
+     */
+    public byte[] decompress(byte[] data) throws IOException {
+        long start = System.nanoTime();
+        byte[] input = Arrays.copyOf(data, data.length + SYNC_TAIL.length);
+        System.arraycopy(SYNC_TAIL, 0, input, data.length, SYNC_TAIL.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 3 + 16);
+        byte[] chunk = new byte[BUFFER_BYTES];
+        synchronized (inflater) {
+            if (!contextTakeover) {
+                inflater.reset();
+                if (dictionary != null) {
+                    inflater.setDictionary(dictionary);
+                }
+            }
+            inflater.setInput(input);
+            try {
+                int count;
+                do {
+                    count = inflater.inflate(chunk);
+                    out.write(chunk, 0, count);
+                    // A full chunk may leave output behind even once the input is used up
+                } while (count == chunk.length || (count > 0 && !inflater.needsInput()));
+            } catch (DataFormatException e) {
+                throw new IOException("Damaged compressed message", e);
+            }
+        }
+        DECOMPRESS_NANOS.addAndGet(System.nanoTime() - start);
+        return out.toByteArray();
+    }
+
+    /**
+     * Frees the native compression state
+     */
+    public void close() {
+        synchronized (deflater) {
+            deflater.end();
+        }
+        synchronized (inflater) {
+            inflater.end();
+        }
+    }
+
+    public boolean isContextTakeover() {
+        return contextTakeover;
+    }
+
+    public boolean hasDictionary() {
+        return dictionary != null;
+    }
+
+    public static long getMessageCount() {
+        return MESSAGE_COUNT.get();
+    }
+
+    /**
+     * Gets the bytes compression saved over all connections
+     * @return Uncompressed minus compressed bytes
+     */
+    public static long getSavedBytes() {
+        return UNCOMPRESSED_BYTES.get() - COMPRESSED_BYTES.get();
+    }
+
+    /**
+     * Gets the compressed size as a fraction of the uncompressed size
+     * @return The ratio, or 1 before the first message
+     */
+    public static double getCompressionRatio() {
+        long raw = UNCOMPRESSED_BYTES.get();
+        return raw == 0 ? 1 : (double) COMPRESSED_BYTES.get() / raw;
+    }
+
+    /**
+     * Gets the average time spent compressing and decompressing a message
+     * @return Nanoseconds per message, or 0 before the first message
+     */
+    public static long getNanosPerMessage() {
+        long count = MESSAGE_COUNT.get();
+        return count == 0 ? 0 : (COMPRESS_NANOS.get() + DECOMPRESS_NANOS.get()) / count;
+    }
+}
@@ -0,0 +1,136 @@
+package com.chatapp.adapter;
+
+import com.chatapp.observer.ChatEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes the messages of a room's event stream to a {@link CommunicationProtocol}
+ * at the speed the protocol accepts them. At most {@code window} messages are in
+ * flight; one more is requested each time a send completes, so a slow connection
+ * applies backpressure to the room instead of piling up in memory.
+ * <p>
+ * Join and leave events are not written; they are acknowledged right away.
+ * <p>
+ * While the protocol is unwritable, completed sends do not request more, so the
+ * room stops fanning out to this connection until it has drained.
+ */
+public class ProtocolSubscriber implements Flow.Subscriber<ChatEvent> {
+    private static final Logger logger = LoggerFactory.getLogger(ProtocolSubscriber.class);
+
+    /**
+     * Default number of messages in flight on the protocol
+     */
+    public static final int DEFAULT_WINDOW = 64;
+
+    private final CommunicationProtocol protocol;
+    private final String recipientUserId;
+    private final int window;
+    private volatile Flow.Subscription subscription;
+    private final AtomicInteger deferredRequests = new AtomicInteger();
+
+    public ProtocolSubscriber(CommunicationProtocol protocol, String recipientUserId) {
+        this(protocol, recipientUserId, DEFAULT_WINDOW);
+    }
+
+    /**
+     * Creates a subscriber that forwards messages to a protocol
+     * @param protocol The protocol to write to
+     * @param recipientUserId The user on the other end, whose own messages are not echoed back
+     * @param window The most messages in flight at once
+     */
+    public ProtocolSubscriber(CommunicationProtocol protocol, String recipientUserId, int window) {
+        if (protocol == null) {
+            throw new IllegalArgumentException("Protocol cannot be null");
+        }
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window must be positive");
+        }
+        this.protocol = protocol;
+        this.recipientUserId = recipientUserId;
+        this.window = window;
+        protocol.setWritabilityListener(this::releaseDeferred);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(window);
+    }
+
+    @Override
+    public void onNext(ChatEvent event) {
+        if (event.getType() != ChatEvent.Type.MESSAGE || event.getSubjectUserId().equals(recipientUserId)) {
+            subscription.request(1);
+            return;
+        }
+        protocol.sendBatchAsync(Collections.singletonList(event.getMessage()))
+                .whenComplete((sent, error) -> {
+                    if (error != null || sent == 0) {
+                        logger.warn("{} dropped the event stream for {}: {}", protocol.getProtocolName(),
+                                recipientUserId, error != null ? error.getMessage() : "not connected");
+                        subscription.cancel();
+                    } else {
+                        requestNext();
+                    }
+                });
+    }
+
+    private void requestNext() {
+        if (protocol.isWritable()) {
+            subscription.request(1);
+            return;
+        }
+        deferredRequests.incrementAndGet();
+        // The connection may have drained between the check and the increment
+        if (protocol.isWritable()) {
+            releaseDeferred();
+        }
+    }
+
+    private void releaseDeferred() {
+        int deferred = deferredRequests.getAndSet(0);
+        Flow.Subscription current = subscription;
+        if (deferred > 0 && current != null) {
+            current.request(deferred);
+        }
+    }
+
+    /**
+     * Gets the number of messages not requested from the room because the
+     * protocol is behind
+     * @return The deferred request count
+     */
+    public int getDeferredRequestCount() {
+        return deferredRequests.get();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        logger.warn("Event stream to {} via {} failed: {}",
+                recipientUserId, protocol.getProtocolName(), throwable.getMessage());
+    }
+
+    @Override
+    public void onComplete() {
+        logger.debug("Event stream to {} via {} completed", recipientUserId, protocol.getProtocolName());
+    }
+
+    /**
+     * Stops forwarding events
+     */
+    public void cancel() {
+        Flow.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+}
@@ -0,0 +1,522 @@
+package com.chatapp.adapter;
+
+import com.chatapp.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Decorator that adds at-least-once delivery to any {@link CommunicationProtocol}.
+ * Every outbound message gets the next sequence number and stays in a bounded
+ * unacknowledged window until the other side acknowledges it. Acknowledgements
+ * are cumulative and ride on outbound {@link SequencedMessage}s, so a busy
+ * session never sends a frame just to acknowledge; only an idle one falls back to
+ * an ack-only frame through {@link #acknowledgePending()}.
+ * <p>
+ * When the connection comes back after a drop, the whole window is sent again.
+ * The receiving side drops sequences it has already delivered, so redelivery
+ * never shows a message twice.
+ * <p>
+ * While the underlying connection is unwritable, or takes only part of a
+ * batch, admitted messages stay in the window unsent and go out together once
+ * it drains. Messages that do not fit in the window wait in an overflow queue
+ * and move into the window as acknowledgements free it, so nothing handed to
+ * the protocol is dropped. Once the overflow queue reaches its limit the
+ * protocol reports itself unwritable, and the writability listener runs when
+ * it has room again; the caller is expected to stop sending in between, as
+ * {@link RoomFeed} does.
+ */
+public class ReliableProtocol implements CommunicationProtocol {
+    private static final Logger logger = LoggerFactory.getLogger(ReliableProtocol.class);
+
+    /**
+     * Default number of unacknowledged messages kept per session
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1024;
+
+    /**
+     * Default number of messages waiting for room in the window before the
+     * protocol reports itself unwritable
+     */
+    public static final int DEFAULT_OVERFLOW_LIMIT = 4096;
+
+    private final CommunicationProtocol delegate;
+    private final String sessionId;
+    private final int windowSize;
+    private final int overflowLimit;
+    private final ArrayDeque<SequencedMessage> unacked; // Guarded by this, ordered by sequence
+    private final ArrayDeque<Message> overflow; // Guarded by this, waiting for room in the window
+    private long nextSequence = 1; // Guarded by this
+    private long sentUpTo; // Guarded by this, highest sequence handed to the delegate
+    private volatile Runnable writabilityListener;
+    private volatile boolean overflowFull; // Written under this, read without it by isWritable
+    private long heldCount; // Guarded by this
+    private long overflowedCount; // Guarded by this
+    private long ackedUpTo; // Guarded by this, highest outbound sequence the peer has acknowledged
+    private long deliveredUpTo; // Guarded by this, highest inbound sequence delivered without gaps
+    private long ackedToPeer; // Guarded by this, highest inbound sequence the peer has been told about
+    private long redeliveredCount; // Guarded by this
+    private long duplicateCount; // Guarded by this
+
+    public ReliableProtocol(CommunicationProtocol delegate, String sessionId) {
+        this(delegate, sessionId, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Wraps a protocol with the default overflow limit
+     * @param delegate The protocol that carries the frames
+     * @param sessionId The session the protocol belongs to, used in ack-only frames
+     * @param windowSize The most messages that may be sent but not yet acknowledged
+     */
+    public ReliableProtocol(CommunicationProtocol delegate, String sessionId, int windowSize) {
+        this(delegate, sessionId, windowSize, DEFAULT_OVERFLOW_LIMIT);
+    }
+
+    /**
+     * Wraps a protocol
+     * @param delegate The protocol that carries the frames
+     * @param sessionId The session the protocol belongs to, used in ack-only frames
+     * @param windowSize The most messages that may be sent but not yet acknowledged
+     * @param overflowLimit The most messages waiting for the window before the
+     *                      protocol reports itself unwritable
+     */
+    public ReliableProtocol(CommunicationProtocol delegate, String sessionId, int windowSize, int overflowLimit) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("Delegate protocol cannot be null");
+        }
+        if (sessionId == null || sessionId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Session ID cannot be null or empty");
+        }
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size must be positive");
+        }
+        if (overflowLimit <= 0) {
+            throw new IllegalArgumentException("Overflow limit must be positive");
+        }
+        this.delegate = delegate;
+        this.sessionId = sessionId;
+        this.windowSize = windowSize;
+        this.overflowLimit = overflowLimit;
+        this.unacked = new ArrayDeque<>();
+        this.overflow = new ArrayDeque<>();
+        // Called from inside the delegate's write path, so send from another thread
+        delegate.setWritabilityListener(() -> CompletableFuture.runAsync(this::sendHeld));
+    }
+
+    /**
+     * Accepts a message for delivery. The message is kept until it is
+     * acknowledged, so it is not lost if the connection is down right now.
+     * @param message The message to send
+     * @return true, since a message that does not fit in the window waits in
+     *         the overflow queue
+     */
+    @Override
+    public synchronized boolean sendMessage(Message message) {
+        return sendBatch(Collections.singletonList(message)) == 1;
+    }
+
+    /**
+     * Accepts every message, in list order. Those beyond the window wait in the
+     * overflow queue.
+     * @param messages The messages to send
+     * @return The number of messages accepted, always all of them
+     */
+    @Override
+    public synchronized int sendBatch(List<Message> messages) {
+        List<Message> frames = admit(messages);
+        if (!frames.isEmpty() && delegate.isConnected()) {
+            if (delegate.isWritable()) {
+                List<Message> unsent = takeUnsent();
+                keepUnsent(unsent, delegate.sendBatch(unsent));
+            } else {
+                heldCount += frames.size();
+            }
+        }
+        return messages.size();
+    }
+
+    /**
+     * Accepts every message, in list order. Those beyond the window wait in the
+     * overflow queue.
+     * @param messages The messages to send
+     * @return Completes with the number of messages accepted once the admitted
+     *         ones have been written, or right away if the connection is down
+     *         or they wait for room
+     */
+    @Override
+    public synchronized CompletableFuture<Integer> sendBatchAsync(List<Message> messages) {
+        List<Message> frames = admit(messages);
+        int accepted = messages.size();
+        if (frames.isEmpty() || !delegate.isConnected()) {
+            return CompletableFuture.completedFuture(accepted);
+        }
+        if (!delegate.isWritable()) {
+            heldCount += accepted;
+            return CompletableFuture.completedFuture(accepted);
+        }
+        // A failed write is not lost; the frames stay in the window until acknowledged
+        return sendUnsentAsync().handle((sent, error) -> accepted);
+    }
+
+    /**
+     * Assigns sequence numbers and moves messages into the window, behind any
+     * that already wait in the overflow queue
+     * @param messages The messages to admit
+     * @return Frames for the messages that went into the window
+     */
+    private List<Message> admit(List<Message> messages) {
+        if (messages == null) {
+            throw new IllegalArgumentException("Messages cannot be null");
+        }
+        int room = overflow.isEmpty() ? windowSize - unacked.size() : 0;
+        int count = Math.min(room, messages.size());
+        List<Message> frames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            frames.add(enterWindow(messages.get(i)));
+        }
+        if (count < messages.size()) {
+            overflow.addAll(messages.subList(count, messages.size()));
+            overflowedCount += messages.size() - count;
+            if (!overflowFull && overflow.size() >= overflowLimit) {
+                overflowFull = true;
+                logger.warn("Session {} has {} messages waiting for its window of {}, reporting unwritable",
+                        sessionId, overflow.size(), windowSize);
+            }
+        }
+        if (count > 0) {
+            ackedToPeer = deliveredUpTo;
+        }
+        return frames;
+    }
+
+    private SequencedMessage enterWindow(Message message) {
+        SequencedMessage frame = new SequencedMessage(message, nextSequence++, deliveredUpTo);
+        unacked.add(frame);
+        return frame;
+    }
+
+    /**
+     * Moves messages from the overflow queue into the window freed by an
+     * acknowledgement and sends them if the connection takes them
+     */
+    private void promoteOverflow() {
+        if (overflow.isEmpty() || unacked.size() >= windowSize) {
+            return;
+        }
+        boolean wasFull = overflowFull;
+        while (!overflow.isEmpty() && unacked.size() < windowSize) {
+            enterWindow(overflow.poll());
+        }
+        overflowFull = overflow.size() >= overflowLimit;
+        if (delegate.isConnected() && delegate.isWritable()) {
+            sendUnsentAsync();
+        }
+        Runnable listener = writabilityListener;
+        if (wasFull && listener != null && isWritable()) {
+            // Called with the lock held, so the listener runs on another thread
+            CompletableFuture.runAsync(listener);
+        }
+    }
+
+    /**
+     * Takes the frames in the window that were never handed to the delegate,
+     * with the current acknowledgement
+     * @return The frames, oldest first
+     */
+    private List<Message> takeUnsent() {
+        ArrayDeque<Message> frames = new ArrayDeque<>();
+        Iterator<SequencedMessage> newestFirst = unacked.descendingIterator();
+        while (newestFirst.hasNext()) {
+            SequencedMessage frame = newestFirst.next();
+            if (frame.getDeliverySequence() <= sentUpTo) {
+                break;
+            }
+            frames.addFirst(frame.withAck(deliveredUpTo));
+        }
+        sentUpTo = nextSequence - 1;
+        ackedToPeer = deliveredUpTo;
+        return new ArrayList<>(frames);
+    }
+
+    /**
+     * Hands the unsent frames to the delegate without waiting for the write
+     * @return Completes with the number of frames the delegate took
+     */
+    private CompletableFuture<Integer> sendUnsentAsync() {
+        List<Message> unsent = takeUnsent();
+        if (unsent.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        CompletableFuture<Integer> sent = delegate.sendBatchAsync(unsent);
+        if (sent.isDone()) {
+            keepUnsent(unsent, sent.isCompletedExceptionally() ? 0 : sent.join());
+        } else {
+            // The write may complete on a thread that holds the delegate's lock, so never take this lock there
+            sent.whenCompleteAsync((count, error) -> keepUnsent(unsent, error == null ? count : 0));
+        }
+        return sent;
+    }
+
+    /**
+     * Marks the frames the delegate did not take as unsent again, so they go
+     * out with the next send or once the delegate is writable, instead of
+     * waiting for a reconnect
+     * @param frames The frames handed to the delegate, oldest first
+     * @param sent How many of them the delegate took
+     */
+    private synchronized void keepUnsent(List<Message> frames, int sent) {
+        if (sent >= frames.size()) {
+            return;
+        }
+        long firstUnsent = ((SequencedMessage) frames.get(Math.max(sent, 0))).getDeliverySequence();
+        sentUpTo = Math.min(sentUpTo, firstUnsent - 1);
+        heldCount += frames.size() - sent;
+    }
+
+    /**
+     * Sends the frames held back while the connection was unwritable, then
+     * passes the news on
+     */
+    private void sendHeld() {
+        synchronized (this) {
+            if (delegate.isConnected() && delegate.isWritable()) {
+                sendUnsentAsync();
+            }
+        }
+        Runnable listener = writabilityListener;
+        if (listener != null && isWritable()) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Receives the next new message. Piggybacked acknowledgements are applied to
+     * the window, ack-only frames are consumed, and sequences that were already
+     * delivered or arrive after a gap are dropped.
+     * @return The next message, or null if none is available
+     */
+    @Override
+    public synchronized Message receiveMessage() {
+        while (true) {
+            Message received = delegate.receiveMessage();
+            if (!(received instanceof SequencedMessage)) {
+                return received;
+            }
+            SequencedMessage frame = (SequencedMessage) received;
+            applyAck(frame.getAck());
+            if (frame.isAckOnly()) {
+                continue;
+            }
+            if (frame.getDeliverySequence() <= deliveredUpTo) {
+                duplicateCount++;
+                continue;
+            }
+            if (frame.getDeliverySequence() != deliveredUpTo + 1) {
+                // Go-back-N: the missing frame and everything after it come again on redelivery
+                logger.debug("Session {} dropped sequence {} while waiting for {}",
+                        sessionId, frame.getDeliverySequence(), deliveredUpTo + 1);
+                continue;
+            }
+            deliveredUpTo = frame.getDeliverySequence();
+            return frame;
+        }
+    }
+
+    private void applyAck(long ack) {
+        ackedUpTo = Math.max(ackedUpTo, ack);
+        while (!unacked.isEmpty() && unacked.peek().getDeliverySequence() <= ack) {
+            unacked.poll();
+        }
+        promoteOverflow();
+    }
+
+    /**
+     * Sends an ack-only frame if messages were delivered since the last
+     * acknowledgement went out. Meant to be called when the session is idle.
+     * @return true if a frame was sent
+     */
+    public synchronized boolean acknowledgePending() {
+        if (deliveredUpTo == ackedToPeer || !delegate.isConnected()) {
+            return false;
+        }
+        if (delegate.sendMessage(SequencedMessage.ackOnly(sessionId, deliveredUpTo))) {
+            ackedToPeer = deliveredUpTo;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Connects the underlying protocol and, if it was down, sends every
+     * unacknowledged message again in sequence order
+     * @return true if connected
+     */
+    @Override
+    public synchronized boolean connect() {
+        boolean wasConnected = delegate.isConnected();
+        if (!delegate.connect()) {
+            return false;
+        }
+        if (!wasConnected) {
+            redeliver();
+        }
+        return true;
+    }
+
+    private void redeliver() {
+        if (unacked.isEmpty()) {
+            return;
+        }
+        List<Message> frames = new ArrayList<>(unacked.size());
+        for (SequencedMessage frame : unacked) {
+            frames.add(frame.withAck(deliveredUpTo));
+        }
+        ackedToPeer = deliveredUpTo;
+        sentUpTo = nextSequence - 1;
+        int sent = delegate.sendBatch(frames);
+        keepUnsent(frames, sent);
+        redeliveredCount += sent;
+        logger.info("Session {} redelivered {} unacknowledged messages via {}",
+                sessionId, sent, delegate.getProtocolName());
+    }
+
+    /**
+     * Removes every message the peer has not acknowledged, whether or not the
+     * connection is up: the window first, then the overflow queue. Used when a
+     * session is drained, so nothing pending is left behind in the protocol.
+     * @param knownDelivered Window sequences up to this one are known to have
+     *                       been delivered and are discarded instead of returned
+     * @return The messages, in the order they were sent
+     */
+    public synchronized List<Message> takeUnacknowledged(long knownDelivered) {
+        List<Message> messages = new ArrayList<>(unacked.size() + overflow.size());
+        for (SequencedMessage frame : unacked) {
+            if (frame.getDeliverySequence() > knownDelivered) {
+                messages.add(frame);
+            }
+        }
+        messages.addAll(overflow);
+        unacked.clear();
+        overflow.clear();
+        sentUpTo = nextSequence - 1;
+        overflowFull = false;
+        return messages;
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        delegate.disconnect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    @Override
+    public String getProtocolName() {
+        return delegate.getProtocolName();
+    }
+
+    /**
+     * Reports whether more messages should be sent: the connection is writable
+     * and the overflow queue is below its limit
+     * @return true if the caller may send
+     */
+    @Override
+    public boolean isWritable() {
+        return !overflowFull && delegate.isWritable();
+    }
+
+    @Override
+    public void setWritabilityListener(Runnable listener) {
+        this.writabilityListener = listener;
+    }
+
+    /**
+     * Gets how many messages were held back because the connection was
+     * unwritable when they were sent
+     * @return The held message count
+     */
+    public synchronized long getHeldCount() {
+        return heldCount;
+    }
+
+    public synchronized int getUnackedCount() {
+        return unacked.size();
+    }
+
+    /**
+     * Gets how many messages wait for room in the window
+     * @return The overflow queue length
+     */
+    public synchronized int getOverflowCount() {
+        return overflow.size();
+    }
+
+    /**
+     * Reports whether the overflow queue has reached its limit. The protocol
+     * still accepts messages, but its owner should stop sending until the
+     * writability listener runs.
+     * @return true while the overflow queue is full
+     */
+    public boolean isOverflowFull() {
+        return overflowFull;
+    }
+
+    /**
+     * Gets how many messages ever had to wait in the overflow queue
+     * @return The overflowed message count
+     */
+    public synchronized long getOverflowedCount() {
+        return overflowedCount;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Gets the sequence the next admitted message will get
+     * @return The next outbound sequence
+     */
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Gets the highest outbound sequence the peer has acknowledged; every
+     * message up to it has been delivered
+     * @return The acknowledged sequence, 0 if none
+     */
+    public synchronized long getAckedUpTo() {
+        return ackedUpTo;
+    }
+
+    public synchronized long getDeliveredUpTo() {
+        return deliveredUpTo;
+    }
+
+    public synchronized long getRedeliveredCount() {
+        return redeliveredCount;
+    }
+
+    /**
+     * Gets how many inbound frames were dropped because they had already been
+     * delivered
+     * @return The duplicate count
+     */
+    public synchronized long getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    public CommunicationProtocol getDelegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,198 @@
+package com.chatapp.adapter;
+
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.Message;
+import com.chatapp.storage.HistoryCursor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Feeds one reader's {@link ReliableProtocol} with the messages of a room, so
+ * a reader that stops acknowledging slows down only itself. Live messages go
+ * straight to the protocol until its overflow queue fills. From then on the
+ * feed stops queuing and only remembers the last room sequence it handed
+ * over; the room keeps posting and every other reader keeps receiving. Once
+ * the protocol has room again, for example after the reader reconnects and
+ * acknowledges its window, the feed replays the gap from the room's history
+ * and goes live again.
+ * <p>
+ * Replay reads the resolved history, so messages deleted in the meantime are
+ * skipped and edited ones arrive with their new content, but the edit entries
+ * themselves are not replayed. A room on the default heap history keeps only
+ * its newest messages, so a reader that falls further behind than that misses
+ * the oldest of the gap.
+ * <p>
+ * Offers come from the room's fan-out and replays from the protocol's
+ * writability listener. Both hand messages over under the feed's lock, and
+ * history is only read outside it, so the room's lock is never awaited there.
+ */
+public class RoomFeed {
+    private static final Logger logger = LoggerFactory.getLogger(RoomFeed.class);
+
+    private static final int REPLAY_BATCH_SIZE = 256;
+
+    private final ReliableProtocol protocol;
+    private final ChatRoom room;
+    private final String recipientUserId;
+    private long lastQueued; // Guarded by this, highest room sequence handed over or skipped as own
+    private boolean catchingUp; // Guarded by this
+    private long skippedCount; // Guarded by this
+    private long replayedCount; // Guarded by this
+
+    /**
+     * Creates a feed that starts with the room's next message and registers
+     * itself as the protocol's writability listener
+     * @param protocol The reader's protocol
+     * @param room The room to read
+     * @param recipientUserId The reader, whose own messages are not echoed back
+     */
+    public RoomFeed(ReliableProtocol protocol, ChatRoom room, String recipientUserId) {
+        if (protocol == null || room == null) {
+            throw new IllegalArgumentException("Protocol and room cannot be null");
+        }
+        this.protocol = protocol;
+        this.room = room;
+        this.recipientUserId = recipientUserId;
+        this.lastQueued = room.getLastSequence();
+        protocol.setWritabilityListener(this::catchUp);
+    }
+
+    /**
+     * Hands a live message to the protocol, unless the reader has fallen behind
+     * and the message will come with the replay instead
+     * @param message A message the room just posted
+     */
+    public void offer(Message message) {
+        boolean fellBehind = false;
+        synchronized (this) {
+            if (message.getSequence() <= lastQueued) {
+                return; // Already replayed
+            }
+            if (catchingUp) {
+                skippedCount++;
+                return;
+            }
+            lastQueued = message.getSequence();
+            if (isOwn(message)) {
+                return;
+            }
+            protocol.sendMessage(message);
+            if (protocol.isOverflowFull()) {
+                catchingUp = true;
+                fellBehind = true;
+            }
+        }
+        if (fellBehind) {
+            logger.info("Reader {} fell behind in room {} after sequence {}, replaying from history once it catches up",
+                    recipientUserId, room.getRoomId(), message.getSequence());
+        }
+    }
+
+    /**
+     * Replays what the reader missed while it was behind, as far as the
+     * protocol takes it, and goes live once nothing is left
+     */
+    public void catchUp() {
+        while (true) {
+            long from;
+            synchronized (this) {
+                if (!catchingUp || protocol.isOverflowFull()) {
+                    return;
+                }
+                from = lastQueued + 1;
+            }
+            // Every sequence up to here is in the cursor opened next, or was never stored
+            long through = room.getLastSequence();
+            List<Message> batch = new ArrayList<>(REPLAY_BATCH_SIZE);
+            boolean exhausted;
+            try (HistoryCursor cursor = room.openHistory(from)) {
+                while (batch.size() < REPLAY_BATCH_SIZE && cursor.hasNext()) {
+                    batch.add(cursor.next());
+                }
+                exhausted = !cursor.hasNext();
+            }
+            synchronized (this) {
+                for (Message message : batch) {
+                    if (message.getSequence() <= lastQueued) {
+                        continue;
+                    }
+                    lastQueued = message.getSequence();
+                    if (!isOwn(message)) {
+                        protocol.sendMessage(message);
+                        replayedCount++;
+                    }
+                    if (protocol.isOverflowFull()) {
+                        return; // Still behind; the writability listener brings us back
+                    }
+                }
+                if (exhausted) {
+                    lastQueued = Math.max(lastQueued, through);
+                    // Anything posted after this read is offered live once the lock is released
+                    if (lastQueued >= room.getLastSequence()) {
+                        catchingUp = false;
+                        logger.info("Reader {} caught up in room {} at sequence {}",
+                                recipientUserId, room.getRoomId(), lastQueued);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes every message the reader missed while behind, without going
+     * through the protocol. Used when the session is drained.
+     * @return The missed messages in sequence order, empty if the reader is live
+     */
+    public List<Message> takeMissed() {
+        List<Message> missed = new ArrayList<>();
+        long from;
+        synchronized (this) {
+            if (!catchingUp) {
+                return missed;
+            }
+            from = lastQueued + 1;
+        }
+        long through = room.getLastSequence();
+        try (HistoryCursor cursor = room.openHistory(from)) {
+            while (cursor.hasNext()) {
+                Message message = cursor.next();
+                if (!isOwn(message)) {
+                    missed.add(message);
+                }
+            }
+        }
+        synchronized (this) {
+            lastQueued = Math.max(lastQueued, through);
+            if (!missed.isEmpty()) {
+                lastQueued = Math.max(lastQueued, missed.get(missed.size() - 1).getSequence());
+            }
+            catchingUp = false;
+        }
+        return missed;
+    }
+
+    private boolean isOwn(Message message) {
+        return message.getSenderId().equals(recipientUserId);
+    }
+
+    public synchronized boolean isCatchingUp() {
+        return catchingUp;
+    }
+
+    /**
+     * Gets how many live messages were left to the replay because the reader
+     * was behind
+     * @return The skipped message count
+     */
+    public synchronized long getSkippedCount() {
+        return skippedCount;
+    }
+
+    public synchronized long getReplayedCount() {
+        return replayedCount;
+    }
+}
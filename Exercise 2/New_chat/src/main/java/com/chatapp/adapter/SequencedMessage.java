@@ -0,0 +1,91 @@
+package com.chatapp.adapter;
+
+import com.chatapp.model.Message;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * A message as it travels through a {@link ReliableProtocol}. Besides the
+ * original message it carries the sender's delivery sequence number and a piggybacked
+ * cumulative acknowledgement: the highest sequence the sender has received from
+ * the other side without gaps.
+ * <p>
+ * A frame with sequence 0 carries only an acknowledgement. It is sent when one
+ * side has nothing else to say for a while.
+ */
+public class SequencedMessage extends Message {
+    private static final String ACK_CONTENT = "ack";
+
+    private final long deliverySequence;
+    private final long ack;
+
+    /**
+     * Wraps a message for sending
+     * @param message The message to wrap
+     * @param deliverySequence The delivery sequence number, starting at 1
+     * @param ack The cumulative acknowledgement for the other direction
+     */
+    public SequencedMessage(Message message, long deliverySequence, long ack) {
+        super(message.getMessageId(), message.getSenderId(), message.getSenderUsername(), message.getContent(),
+                message.getRoomId(), message.getTimestamp(), message.getIdempotencyKey(), message.getSequence(),
+                message.getKind(), message.getTargetMessageId(), message.getTargetSequence(), message.isEdited());
+        if (deliverySequence <= 0) {
+            throw new IllegalArgumentException("Delivery sequence must be positive");
+        }
+        this.deliverySequence = deliverySequence;
+        this.ack = ack;
+    }
+
+    private SequencedMessage(String sessionId, long ack) {
+        super(UUID.randomUUID().toString(), sessionId, sessionId, ACK_CONTENT, sessionId, LocalDateTime.now());
+        this.deliverySequence = 0;
+        this.ack = ack;
+    }
+
+    /**
+     * Creates a frame that carries only an acknowledgement
+     * @param sessionId The session sending the acknowledgement
+     * @param ack The cumulative acknowledgement
+     * @return The frame
+     */
+    static SequencedMessage ackOnly(String sessionId, long ack) {
+        return new SequencedMessage(sessionId, ack);
+    }
+
+    /**
+     * Copies this frame with a newer acknowledgement, used when it is redelivered
+     * @param newAck The cumulative acknowledgement to carry
+     * @return The copy
+     */
+    SequencedMessage withAck(long newAck) {
+        return newAck == ack ? this : new SequencedMessage(this, deliverySequence, newAck);
+    }
+
+    /**
+     * Gets the position of this frame in the session's delivery order. Not to be
+     * confused with {@link #getSequence()}, the room's sequence number of the
+     * message.
+     * @return The delivery sequence, 0 for ack-only frames
+     */
+    public long getDeliverySequence() {
+        return deliverySequence;
+    }
+
+    public long getAck() {
+        return ack;
+    }
+
+    public boolean isAckOnly() {
+        return deliverySequence == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SequencedMessage{"
+                + "deliverySequence=" + deliverySequence
+                + ", ack=" + ack
+                + ", messageId='" + getMessageId() + '\''
+                + '}';
+    }
+}
@@ -4,8 +4,10 @@ import com.chatapp.model.Message;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * TCP protocol implementation.
@@ -14,17 +16,53 @@ import java.util.concurrent.LinkedBlockingQueue;
  */
 public class TcpProtocol implements CommunicationProtocol {
     private static final Logger logger = LoggerFactory.getLogger(TcpProtocol.class);
+    private static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    private static final long DEFAULT_MAX_FLUSH_DELAY_MICROS = 200;
     
     private boolean connected;
-    private final BlockingQueue<Message> messageQueue;
+    private volatile LoopbackConnection connection; // Null while disconnected
+    private volatile Runnable writabilityListener;
+    private final MessageCoalescer coalescer;
     private final String host;
     private final int port;
+    private final TlsContext tls; // Null for plaintext
     
     public TcpProtocol(String host, int port) {
+        this(host, port, null);
+    }
+    
+    /**
+     * Creates the protocol, encrypted if TLS is configured
+     * @param host The server host
+     * @param port The server port
+     * @param tls The TLS settings, or null for plaintext
+     */
+    public TcpProtocol(String host, int port, TlsContext tls) {
+        this(host, port, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_FLUSH_DELAY_MICROS, tls);
+    }
+    
+    /**
+     * Creates the protocol with explicit coalescing limits
+     * @param host The server host
+     * @param port The server port
+     * @param maxBatchSize The most messages written by one flush
+     * @param maxFlushDelayMicros The longest a queued message waits before it is flushed
+     * @param tls The TLS settings, or null for plaintext
+     */
+    public TcpProtocol(String host, int port, int maxBatchSize, long maxFlushDelayMicros, TlsContext tls) {
         this.host = host;
         this.port = port;
-        this.messageQueue = new LinkedBlockingQueue<>();
+        this.tls = tls;
         this.connected = false;
+        this.coalescer = new MessageCoalescer(getProtocolName(), maxBatchSize, maxFlushDelayMicros, batch -> {
+            LoopbackConnection current = connection;
+            if (current == null) {
+                throw new IOException("TCP is not connected");
+            }
+            // One gathering write carries the whole batch
+            logger.debug("Writing {} messages via TCP to {}:{}", batch.size(), host, port);
+            current.send(batch);
+        });
     }
     
     @Override
@@ -34,15 +72,27 @@ public class TcpProtocol implements CommunicationProtocol {
             return false;
         }
         
-        try {
-            // Simulate TCP socket message sending
-            logger.debug("Sending message via TCP to {}:{}: {}", host, port, message.getContent());
-            messageQueue.offer(message);
-            return true;
-        } catch (Exception e) {
-            logger.error("Error sending message via TCP: {}", e.getMessage(), e);
-            return false;
+        return sendBatch(Collections.singletonList(message)) == 1;
+    }
+    
+    @Override
+    public int sendBatch(List<Message> messages) {
+        if (!connected) {
+            logger.warn("Cannot send batch via TCP: Not connected");
+            return 0;
         }
+        
+        return coalescer.submitAndFlush(messages);
+    }
+    
+    @Override
+    public CompletableFuture<Integer> sendBatchAsync(List<Message> messages) {
+        if (!connected) {
+            logger.warn("Cannot send batch via TCP: Not connected");
+            return CompletableFuture.completedFuture(0);
+        }
+        
+        return coalescer.submit(messages);
     }
     
     @Override
@@ -54,7 +104,8 @@ public class TcpProtocol implements CommunicationProtocol {
         
         try {
             // Simulate TCP socket message receiving
-            return messageQueue.poll();
+            LoopbackConnection current = connection;
+            return current == null ? null : current.receive();
         } catch (Exception e) {
             logger.error("Error receiving message via TCP: {}", e.getMessage(), e);
             return null;
@@ -71,8 +122,9 @@ public class TcpProtocol implements CommunicationProtocol {
         try {
             // Simulate TCP socket connection
             logger.info("Establishing TCP connection to {}:{}", host, port);
+            connection = openConnection();
             connected = true;
-            logger.info("TCP connected successfully to {}:{}", host, port);
+            logger.info("TCP connected successfully to {}:{}{}", host, port, connection.describeSecurity());
             return true;
         } catch (Exception e) {
             logger.error("Failed to connect TCP to {}:{}: {}", host, port, e.getMessage(), e);
@@ -89,7 +141,9 @@ public class TcpProtocol implements CommunicationProtocol {
         try {
             logger.info("Disconnecting TCP from {}:{}", host, port);
             connected = false;
-            messageQueue.clear();
+            coalescer.abort("TCP disconnected");
+            connection.close();
+            connection = null;
             logger.info("TCP disconnected successfully");
         } catch (Exception e) {
             logger.error("Error disconnecting TCP: {}", e.getMessage(), e);
@@ -101,6 +155,45 @@ public class TcpProtocol implements CommunicationProtocol {
         return connected;
     }
     
+    private LoopbackConnection openConnection() throws IOException {
+        LoopbackConnection opened = LoopbackConnection.open(getProtocolName(), tls, host, port);
+        opened.getOutbound().setWritabilityListener(writable -> {
+            Runnable listener = writabilityListener;
+            if (writable && listener != null) {
+                listener.run();
+            }
+        });
+        return opened;
+    }
+    
+    @Override
+    public boolean isWritable() {
+        LoopbackConnection current = connection;
+        return current != null && current.getOutbound().isWritable();
+    }
+    
+    @Override
+    public void setWritabilityListener(Runnable listener) {
+        this.writabilityListener = listener;
+    }
+    
+    /**
+     * Gets the bytes waiting in the outbound queue
+     * @return The queued bytes, 0 while disconnected
+     */
+    public long getQueuedBytes() {
+        LoopbackConnection current = connection;
+        return current == null ? 0 : current.getOutbound().getQueuedBytes();
+    }
+    
+    public long getFlushCount() {
+        return coalescer.getFlushCount();
+    }
+    
+    public double getMessagesPerFlush() {
+        return coalescer.getMessagesPerFlush();
+    }
+    
     @Override
     public String getProtocolName() {
         return "TCP";
@@ -0,0 +1,108 @@
+package com.chatapp.adapter;
+
+import com.chatapp.model.Message;
+
+import java.io.IOException;
+import java.nio.channels.Pipe;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures what TLS costs the loopback connections: full handshakes against
+ * handshakes resumed from a session ticket, and steady-state message
+ * throughput with and without encryption.
+ * Usage: {@code TlsBenchmark <keystore> <password> [handshakes] [messages]}
+ */
+public final class TlsBenchmark {
+
+    private static final String HOST = "localhost";
+    private static final int PORT = 8082;
+    private static final int BATCH_SIZE = 64;
+    private static final int CONTENT_LENGTH = 200;
+    private static final int WARMUP_ROUNDS = 2;
+
+    private static int nextUnusedPort = PORT + 1;
+
+    private TlsBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark and prints the results
+     * @param args Command line arguments
+     * @throws IOException if a connection fails
+     * @throws GeneralSecurityException if the key store cannot be used
+     */
+    public static void main(String[] args) throws IOException, GeneralSecurityException {
+        if (args.length < 2) {
+            System.err.println("Usage: TlsBenchmark <keystore> <password> [handshakes] [messages]");
+            return;
+        }
+        TlsContext tls = TlsContext.fromKeyStore(Paths.get(args[0]), args[1].toCharArray());
+        int handshakes = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int messages = args.length > 3 ? Integer.parseInt(args[3]) : 200_000;
+
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            boolean report = round == WARMUP_ROUNDS;
+            double full = handshakesPerSecond(tls, handshakes, false);
+            double resumed = handshakesPerSecond(tls, handshakes, true);
+            double plain = messagesPerSecond(LoopbackConnection.open("plain"), messages);
+            double encrypted = messagesPerSecond(LoopbackConnection.open("tls", tls, HOST, PORT), messages);
+            if (report) {
+                System.out.printf("Full handshakes:    %,10.0f/s%n", full);
+                System.out.printf("Resumed handshakes: %,10.0f/s (%.1fx)%n", resumed, resumed / full);
+                System.out.printf("Plaintext:          %,10.0f messages/s%n", plain);
+                System.out.printf("TLS:                %,10.0f messages/s (%.1f%% overhead)%n",
+                        encrypted, (plain / encrypted - 1) * 100);
+                System.out.printf("Handshakes counted: %d full, %d resumed%n",
+                        tls.getFullHandshakeCount(), tls.getResumedHandshakeCount());
+            }
+        }
+    }
+
+    private static double handshakesPerSecond(TlsContext tls, int count, boolean resume) throws IOException {
+        if (resume) {
+            handshake(tls, PORT); // Leaves a ticket for the port
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            // Sessions are cached per host and port, so a new port forces a full handshake
+            handshake(tls, resume ? PORT : nextUnusedPort++);
+        }
+        return count / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static void handshake(TlsContext tls, int port) throws IOException {
+        Pipe pipe = Pipe.open();
+        new TlsChannel(tls, HOST, port, pipe.sink(), pipe.source()).close();
+    }
+
+    private static double messagesPerSecond(LoopbackConnection connection, int count) throws IOException {
+        char[] content = new char[CONTENT_LENGTH];
+        Arrays.fill(content, 'x');
+        List<Message> batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(new Message("bench-user", "bench", new String(content), "bench-room"));
+        }
+        try {
+            long start = System.nanoTime();
+            int received = 0;
+            for (int sent = 0; sent < count; sent += BATCH_SIZE) {
+                connection.send(batch);
+                while (connection.receive() != null) {
+                    received++;
+                }
+            }
+            while (received < count) {
+                if (connection.receive() != null) {
+                    received++;
+                }
+            }
+            return count / ((System.nanoTime() - start) / 1e9);
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.chatapp.adapter;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A TLS session over the two ends of a loopback connection. Writes are
+ * encrypted by the client engine into the sink and reads are decrypted by the
+ * server engine from the source, so every frame pays for record encryption
+ * and authentication as it would on a socket.
+ * <p>
+ * The loopback pipe only runs one way, so the handshake is exchanged in memory
+ * between the two engines when the channel is created. It goes through the
+ * shared {@link TlsContext}, so a reconnect to the same host and port resumes
+ * the previous session from its ticket.
+ */
+final class TlsChannel implements GatheringByteChannel, ReadableByteChannel {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final int MAX_HANDSHAKE_ROUNDS = 16;
+
+    private final SSLEngine client;
+    private final SSLEngine server;
+    private final WritableByteChannel sink;
+    private final ReadableByteChannel source;
+    private final boolean resumed;
+    private final ByteBuffer netOut; // Guarded by this, encrypted bytes the sink has not taken yet
+    private ByteBuffer netIn; // Guarded by this
+    private ByteBuffer appIn; // Guarded by this, decrypted bytes not read yet
+    private boolean open = true; // Guarded by this
+
+    /**
+     * Creates the channel and runs the handshake
+     * @param context The shared TLS settings
+     * @param peerHost The host the client believes it talks to
+     * @param peerPort The port the client believes it talks to
+     * @param sink The end encrypted bytes are written to
+     * @param source The end encrypted bytes are read from
+     * @throws IOException if the handshake fails
+     */
+    TlsChannel(TlsContext context, String peerHost, int peerPort, WritableByteChannel sink,
+               ReadableByteChannel source) throws IOException {
+        this.client = context.createClientEngine(peerHost, peerPort);
+        this.server = context.createServerEngine();
+        this.sink = sink;
+        this.source = source;
+        int packetSize = client.getSession().getPacketBufferSize();
+        this.netOut = ByteBuffer.allocate(packetSize);
+        this.netIn = ByteBuffer.allocate(packetSize);
+        this.appIn = ByteBuffer.allocate(server.getSession().getApplicationBufferSize());
+        this.appIn.flip();
+        long startedAt = System.currentTimeMillis();
+        handshake();
+        this.resumed = context.recordHandshake(client.getSession(), startedAt);
+    }
+
+    private void handshake() throws IOException {
+        ByteBuffer toServer = ByteBuffer.allocate(client.getSession().getPacketBufferSize());
+        ByteBuffer toClient = ByteBuffer.allocate(server.getSession().getPacketBufferSize());
+        ByteBuffer ignored = ByteBuffer.allocate(server.getSession().getApplicationBufferSize());
+        client.beginHandshake();
+        server.beginHandshake();
+        for (int round = 0; round < MAX_HANDSHAKE_ROUNDS; round++) {
+            exchange(client, server, toServer, ignored);
+            exchange(server, client, toClient, ignored);
+            // The server sends its session ticket after the handshake proper, so wait for it too
+            if (!isHandshaking(client) && !isHandshaking(server)
+                    && toServer.position() == 0 && toClient.position() == 0) {
+                return;
+            }
+        }
+        throw new SSLException("TLS handshake did not finish in " + MAX_HANDSHAKE_ROUNDS + " rounds");
+    }
+
+    private static void exchange(SSLEngine from, SSLEngine to, ByteBuffer wire, ByteBuffer ignored)
+            throws SSLException {
+        from.wrap(EMPTY, wire);
+        runDelegatedTasks(from);
+        wire.flip();
+        while (wire.hasRemaining()) {
+            ignored.clear();
+            SSLEngineResult result = to.unwrap(wire, ignored);
+            runDelegatedTasks(to);
+            if (result.getStatus() != SSLEngineResult.Status.OK || result.bytesConsumed() == 0) {
+                break; // Incomplete record, or the engine has to answer first
+            }
+        }
+        wire.compact();
+    }
+
+    private static boolean isHandshaking(SSLEngine engine) {
+        return engine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+                && engine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.FINISHED;
+    }
+
+    private static void runDelegatedTasks(SSLEngine engine) {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Encrypts as much of the buffers as the sink takes. Each record holds up to
+     * 16 KB of plaintext drawn from several buffers, so gathered frames are
+     * encrypted together rather than one record per frame.
+     */
+    @Override
+    public synchronized long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long consumed = 0;
+        while (flushPending() && hasRemaining(srcs, offset, length)) {
+            SSLEngineResult result = client.wrap(srcs, offset, length, netOut);
+            if (result.getStatus() != SSLEngineResult.Status.OK) {
+                throw new SSLException("TLS write failed with " + result.getStatus());
+            }
+            consumed += result.bytesConsumed();
+        }
+        return consumed;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return (int) write(new ByteBuffer[] {src}, 0, 1);
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (buffers[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes encrypted bytes left over from an earlier write
+     * @return true if nothing is left over
+     * @throws IOException if the sink fails
+     */
+    synchronized boolean flushPending() throws IOException {
+        netOut.flip();
+        try {
+            while (netOut.hasRemaining() && sink.write(netOut) > 0) {
+                // Write what the sink takes
+            }
+            return !netOut.hasRemaining();
+        } finally {
+            netOut.compact();
+        }
+    }
+
+    /**
+     * Decrypts whatever has arrived into the buffer
+     * @return The number of bytes read, 0 if no complete record has arrived, or
+     *         -1 at the end of the stream
+     */
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        if (!appIn.hasRemaining()) {
+            int read = source.read(netIn);
+            unwrapAvailable();
+            if (!appIn.hasRemaining()) {
+                return read < 0 ? -1 : 0;
+            }
+        }
+        int count = Math.min(dst.remaining(), appIn.remaining());
+        ByteBuffer slice = appIn.duplicate();
+        slice.limit(slice.position() + count);
+        dst.put(slice);
+        appIn.position(appIn.position() + count);
+        return count;
+    }
+
+    private void unwrapAvailable() throws IOException {
+        appIn.compact();
+        netIn.flip();
+        try {
+            while (netIn.hasRemaining()) {
+                SSLEngineResult result = server.unwrap(netIn, appIn);
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    if (appIn.position() > 0) {
+                        break; // Room again once the reader catches up
+                    }
+                    appIn = ByteBuffer.allocate(server.getSession().getApplicationBufferSize());
+                } else if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    int packetSize = server.getSession().getPacketBufferSize();
+                    if (netIn.capacity() < packetSize) {
+                        ByteBuffer larger = ByteBuffer.allocate(packetSize);
+                        larger.put(netIn);
+                        larger.flip();
+                        netIn = larger;
+                    }
+                    break;
+                } else if (result.getStatus() == SSLEngineResult.Status.CLOSED || result.bytesConsumed() == 0) {
+                    break;
+                }
+            }
+        } finally {
+            netIn.compact();
+            appIn.flip();
+        }
+    }
+
+    /**
+     * Checks whether the handshake resumed an earlier session
+     * @return true if the session was resumed from a ticket
+     */
+    boolean isResumed() {
+        return resumed;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        client.closeOutbound();
+        server.closeOutbound();
+        try {
+            sink.close();
+        } finally {
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.chatapp.adapter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TLS settings shared by every encrypted connection of the process. Engines are
+ * created from one {@link SSLContext} whose client and server session caches
+ * are sized for reconnect storms: a client that reconnects to the same host and
+ * port offers the session ticket it got last time, and the server resumes the
+ * session without a certificate exchange or signature.
+ * <p>
+ * Chat servers use a single self-signed certificate, so the key store also
+ * serves as the trust store. Create one with
+ * {@code keytool -genkeypair -alias chat -keyalg EC -groupname secp256r1 -dname CN=localhost
+ * -storetype PKCS12 -keystore chat-tls.p12}.
+ */
+public final class TlsContext {
+    private static final Logger logger = LoggerFactory.getLogger(TlsContext.class);
+
+    public static final String PROTOCOL = "TLSv1.3";
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 10_000;
+    public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 4 * 60 * 60;
+
+    private final SSLContext sslContext;
+    private final AtomicLong fullHandshakeCount = new AtomicLong();
+    private final AtomicLong resumedHandshakeCount = new AtomicLong();
+
+    /**
+     * Wraps an initialized context and sizes its session caches
+     * @param sslContext The context, with key and trust managers
+     * @param sessionCacheSize The most sessions cached on each side, 0 for no limit
+     * @param sessionTimeoutSeconds How long a cached session or ticket can be resumed
+     */
+    public TlsContext(SSLContext sslContext, int sessionCacheSize, int sessionTimeoutSeconds) {
+        if (sslContext == null) {
+            throw new IllegalArgumentException("SSL context cannot be null");
+        }
+        if (sessionCacheSize < 0) {
+            throw new IllegalArgumentException("Session cache size cannot be negative");
+        }
+        if (sessionTimeoutSeconds <= 0) {
+            throw new IllegalArgumentException("Session timeout must be positive");
+        }
+        this.sslContext = sslContext;
+        sslContext.getClientSessionContext().setSessionCacheSize(sessionCacheSize);
+        sslContext.getClientSessionContext().setSessionTimeout(sessionTimeoutSeconds);
+        sslContext.getServerSessionContext().setSessionCacheSize(sessionCacheSize);
+        sslContext.getServerSessionContext().setSessionTimeout(sessionTimeoutSeconds);
+    }
+
+    /**
+     * Loads a PKCS12 key store holding the server's key and self-signed certificate
+     * @param keyStore The key store file
+     * @param password The password of the store and its key
+     * @return The context
+     * @throws IOException if the file cannot be read
+     * @throws GeneralSecurityException if the store or its key cannot be used
+     */
+    public static TlsContext fromKeyStore(Path keyStore, char[] password) throws IOException, GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(keyStore)) {
+            store.load(in, password);
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(store, password);
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(store);
+        SSLContext context = SSLContext.getInstance(PROTOCOL);
+        context.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+        logger.info("TLS enabled with key store {}", keyStore);
+        return new TlsContext(context, DEFAULT_SESSION_CACHE_SIZE, DEFAULT_SESSION_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Loads the key store named by {@code -Dchat.tls.keystore}, with the password
+     * from {@code -Dchat.tls.password}
+     * @return The context, or null if no key store is configured
+     * @throws IllegalStateException if the key store is configured but cannot be loaded
+     */
+    public static TlsContext fromSystemProperties() {
+        String keyStore = System.getProperty("chat.tls.keystore");
+        if (keyStore == null || keyStore.trim().isEmpty()) {
+            return null;
+        }
+        char[] password = System.getProperty("chat.tls.password", "").toCharArray();
+        try {
+            return fromKeyStore(Paths.get(keyStore.trim()), password);
+        } catch (IOException | GeneralSecurityException e) {
+            // Refuse to start rather than fall back to plaintext
+            throw new IllegalStateException("Failed to load TLS key store " + keyStore, e);
+        }
+    }
+
+    /**
+     * Creates the client side of a connection. Engines for the same host and
+     * port share cached sessions, which is what makes resumption possible.
+     * @param peerHost The server host
+     * @param peerPort The server port
+     * @return The engine, in client mode
+     */
+    public SSLEngine createClientEngine(String peerHost, int peerPort) {
+        SSLEngine engine = sslContext.createSSLEngine(peerHost, peerPort);
+        engine.setUseClientMode(true);
+        engine.setEnabledProtocols(new String[] {PROTOCOL});
+        return engine;
+    }
+
+    /**
+     * Creates the server side of a connection
+     * @return The engine, in server mode
+     */
+    public SSLEngine createServerEngine() {
+        SSLEngine engine = sslContext.createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.setEnabledProtocols(new String[] {PROTOCOL});
+        return engine;
+    }
+
+    /**
+     * Counts a finished handshake as full or resumed. A resumed session keeps
+     * the creation time of the session it continues, which is before the
+     * handshake started.
+     * @param session The client's session after the handshake
+     * @param startedAtMillis When the handshake started
+     * @return true if the session was resumed
+     */
+    boolean recordHandshake(SSLSession session, long startedAtMillis) {
+        boolean resumed = session.getCreationTime() < startedAtMillis;
+        (resumed ? resumedHandshakeCount : fullHandshakeCount).incrementAndGet();
+        return resumed;
+    }
+
+    public long getFullHandshakeCount() {
+        return fullHandshakeCount.get();
+    }
+
+    public long getResumedHandshakeCount() {
+        return resumedHandshakeCount.get();
+    }
+}
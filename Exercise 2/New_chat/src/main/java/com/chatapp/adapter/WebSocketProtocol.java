@@ -4,8 +4,11 @@ import com.chatapp.model.Message;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * WebSocket protocol implementation.
@@ -14,15 +17,53 @@ import java.util.concurrent.LinkedBlockingQueue;
  */
 public class WebSocketProtocol implements CommunicationProtocol {
     private static final Logger logger = LoggerFactory.getLogger(WebSocketProtocol.class);
+    private static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    private static final long DEFAULT_MAX_FLUSH_DELAY_MICROS = 200;
+    private static final int DEFAULT_WSS_PORT = 443;
     
     private boolean connected;
-    private final BlockingQueue<Message> messageQueue;
+    private volatile LoopbackConnection connection; // Null while disconnected
+    private volatile Runnable writabilityListener;
+    private final MessageCoalescer coalescer;
     private final String endpoint;
+    private final TlsContext tls; // Null for plaintext
+    private volatile boolean compressed;
+    private volatile boolean contextTakeover;
+    private volatile byte[] dictionary;
     
     public WebSocketProtocol(String endpoint) {
+        this(endpoint, null);
+    }
+    
+    /**
+     * Creates the protocol, encrypted if TLS is configured
+     * @param endpoint The WebSocket endpoint
+     * @param tls The TLS settings, or null for plaintext
+     */
+    public WebSocketProtocol(String endpoint, TlsContext tls) {
+        this(endpoint, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_FLUSH_DELAY_MICROS, tls);
+    }
+    
+    /**
+     * Creates the protocol with explicit coalescing limits
+     * @param endpoint The WebSocket endpoint
+     * @param maxBatchSize The most messages written by one flush
+     * @param maxFlushDelayMicros The longest a queued message waits before it is flushed
+     * @param tls The TLS settings, or null for plaintext
+     */
+    public WebSocketProtocol(String endpoint, int maxBatchSize, long maxFlushDelayMicros, TlsContext tls) {
         this.endpoint = endpoint;
-        this.messageQueue = new LinkedBlockingQueue<>();
+        this.tls = tls;
         this.connected = false;
+        this.coalescer = new MessageCoalescer(getProtocolName(), maxBatchSize, maxFlushDelayMicros, batch -> {
+            LoopbackConnection current = connection;
+            if (current == null) {
+                throw new IOException("WebSocket is not connected");
+            }
+            // One gathering write carries the whole batch
+            logger.debug("Sending {} WebSocket frames to {}", batch.size(), endpoint);
+            current.send(batch);
+        });
     }
     
     @Override
@@ -32,15 +73,27 @@ public class WebSocketProtocol implements CommunicationProtocol {
             return false;
         }
         
-        try {
-            // Simulate WebSocket message sending
-            logger.debug("Sending message via WebSocket to {}: {}", endpoint, message.getContent());
-            messageQueue.offer(message);
-            return true;
-        } catch (Exception e) {
-            logger.error("Error sending message via WebSocket: {}", e.getMessage(), e);
-            return false;
+        return sendBatch(Collections.singletonList(message)) == 1;
+    }
+    
+    @Override
+    public int sendBatch(List<Message> messages) {
+        if (!connected) {
+            logger.warn("Cannot send batch via WebSocket: Not connected");
+            return 0;
         }
+        
+        return coalescer.submitAndFlush(messages);
+    }
+    
+    @Override
+    public CompletableFuture<Integer> sendBatchAsync(List<Message> messages) {
+        if (!connected) {
+            logger.warn("Cannot send batch via WebSocket: Not connected");
+            return CompletableFuture.completedFuture(0);
+        }
+        
+        return coalescer.submit(messages);
     }
     
     @Override
@@ -52,7 +105,8 @@ public class WebSocketProtocol implements CommunicationProtocol {
         
         try {
             // Non-blocking poll
-            return messageQueue.poll();
+            LoopbackConnection current = connection;
+            return current == null ? null : current.receive();
         } catch (Exception e) {
             logger.error("Error receiving message via WebSocket: {}", e.getMessage(), e);
             return null;
@@ -69,8 +123,9 @@ public class WebSocketProtocol implements CommunicationProtocol {
         try {
             // Simulate WebSocket connection
             logger.info("Establishing WebSocket connection to {}", endpoint);
+            connection = openConnection();
             connected = true;
-            logger.info("WebSocket connected successfully to {}", endpoint);
+            logger.info("WebSocket connected successfully to {}{}", endpoint, connection.describeSecurity());
             return true;
         } catch (Exception e) {
             logger.error("Failed to connect WebSocket to {}: {}", endpoint, e.getMessage(), e);
@@ -87,7 +142,9 @@ public class WebSocketProtocol implements CommunicationProtocol {
         try {
             logger.info("Disconnecting WebSocket from {}", endpoint);
             connected = false;
-            messageQueue.clear();
+            coalescer.abort("WebSocket disconnected");
+            connection.close();
+            connection = null;
             logger.info("WebSocket disconnected successfully");
         } catch (Exception e) {
             logger.error("Error disconnecting WebSocket: {}", e.getMessage(), e);
@@ -99,6 +156,67 @@ public class WebSocketProtocol implements CommunicationProtocol {
         return connected;
     }
     
+    /**
+     * Negotiates permessage-deflate on the next connection
+     * @param contextTakeover Whether to keep the compression state between messages
+     * @param dictionary A preset dictionary both sides know, or null for none
+     */
+    public void enableCompression(boolean contextTakeover, byte[] dictionary) {
+        this.contextTakeover = contextTakeover;
+        this.dictionary = dictionary;
+        this.compressed = true;
+    }
+    
+    private LoopbackConnection openConnection() throws IOException {
+        LoopbackConnection opened;
+        if (tls == null) {
+            opened = LoopbackConnection.open(getProtocolName());
+        } else {
+            URI uri = URI.create(endpoint);
+            int port = uri.getPort() != -1 ? uri.getPort() : DEFAULT_WSS_PORT;
+            opened = LoopbackConnection.open(getProtocolName(), tls, uri.getHost(), port);
+        }
+        if (compressed) {
+            // Each connection starts with fresh compression state
+            opened.enableCompression(new PerMessageDeflate(contextTakeover, dictionary));
+        }
+        opened.getOutbound().setWritabilityListener(writable -> {
+            Runnable listener = writabilityListener;
+            if (writable && listener != null) {
+                listener.run();
+            }
+        });
+        return opened;
+    }
+    
+    @Override
+    public boolean isWritable() {
+        LoopbackConnection current = connection;
+        return current != null && current.getOutbound().isWritable();
+    }
+    
+    @Override
+    public void setWritabilityListener(Runnable listener) {
+        this.writabilityListener = listener;
+    }
+    
+    /**
+     * Gets the bytes waiting in the outbound queue
+     * @return The queued bytes, 0 while disconnected
+     */
+    public long getQueuedBytes() {
+        LoopbackConnection current = connection;
+        return current == null ? 0 : current.getOutbound().getQueuedBytes();
+    }
+    
+    public long getFlushCount() {
+        return coalescer.getFlushCount();
+    }
+    
+    public double getMessagesPerFlush() {
+        return coalescer.getMessagesPerFlush();
+    }
+    
     @Override
     public String getProtocolName() {
         return "WebSocket";
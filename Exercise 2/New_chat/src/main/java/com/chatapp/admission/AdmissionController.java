@@ -0,0 +1,408 @@
+package com.chatapp.admission;
+
+import com.chatapp.exception.ChatRoomException;
+import com.chatapp.observer.PartitionedFanout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server-wide admission control. A background thread samples three pressure
+ * signals every {@link #SAMPLE_INTERVAL_MILLIS} ms:
+ * <ul>
+ *   <li>aggregate queue depth: items waiting in session queues plus pending
+ *       fan-out tasks, against {@code maxQueueDepth}</li>
+ *   <li>fan-out lag: the longest a fan-out task waited to start, against
+ *       {@code maxFanoutLagMillis}</li>
+ *   <li>heap: old generation occupancy after the last collection against
+ *       {@code heapLimitFraction} of its maximum, so garbage that is about to be
+ *       collected does not count</li>
+ * </ul>
+ * The highest of the three ratios picks a {@link LoadLevel}, and load is shed in
+ * that order: ephemeral events are dropped and join/leave notifications are
+ * deferred first, then new sessions are refused, then posts are rate limited. A level is only left once pressure has
+ * dropped {@link #HYSTERESIS} below its threshold, so the server does not flap
+ * around a boundary.
+ * <p>
+ * Hot paths only read the current level; all measuring happens on the sampler.
+ * Every measure has a counter, and level changes are logged.
+ */
+public class AdmissionController {
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionController.class);
+
+    public static final long SAMPLE_INTERVAL_MILLIS = 100;
+    public static final int DEFAULT_MAX_QUEUE_DEPTH = 100_000;
+    public static final long DEFAULT_MAX_FANOUT_LAG_MILLIS = 500;
+    public static final double DEFAULT_HEAP_LIMIT_FRACTION = 0.85;
+    public static final int DEFAULT_THROTTLED_POSTS_PER_SECOND = 500;
+
+    private static final double DEFER_PRESENCE_THRESHOLD = 0.70;
+    private static final double REJECT_SESSIONS_THRESHOLD = 0.85;
+    private static final double THROTTLE_POSTS_THRESHOLD = 1.00;
+    private static final double HYSTERESIS = 0.10;
+    private static final int MAX_DEFERRED_NOTIFICATIONS = 16_384;
+    private static final int DEFERRED_DRAIN_BATCH = 512;
+    private static final int DEFERRED_PARTITION = 0; // One partition keeps deferred notifications in order
+
+    // Volatile ensures visibility across threads
+    private static volatile AdmissionController instance;
+
+    private final int maxQueueDepth;
+    private final long maxFanoutLagNanos;
+    private final double heapLimitFraction;
+    private final int throttledPostsPerSecond;
+    private final PartitionedFanout fanout;
+    private final List<MemoryPoolMXBean> tenuredPools;
+    private final LongAdder queuedItems = new LongAdder();
+    private final ArrayDeque<Runnable> deferredNotifications = new ArrayDeque<>(); // Guarded by itself
+    private int deferredInFlight; // Guarded by deferredNotifications, handed to the fan-out pool but not yet run
+    private volatile LoadLevel level = LoadLevel.NORMAL;
+    private volatile double pressure;
+
+    private double postTokens; // Guarded by this
+    private long lastRefillNanos; // Guarded by this
+
+    private final AtomicLongArray levelEntries = new AtomicLongArray(LoadLevel.values().length);
+    private final AtomicLong deferredCount = new AtomicLong();
+    private final AtomicLong droppedNotificationCount = new AtomicLong();
+    private final AtomicLong droppedEphemeralCount = new AtomicLong();
+    private final AtomicLong rejectedSessionCount = new AtomicLong();
+    private final AtomicLong throttledPostCount = new AtomicLong();
+
+    /**
+     * Creates a controller that samples on its own daemon thread
+     * @param maxQueueDepth The queue depth at which posts are throttled
+     * @param maxFanoutLagMillis The fan-out lag at which posts are throttled
+     * @param heapLimitFraction The share of the maximum heap at which posts are throttled
+     * @param throttledPostsPerSecond The server-wide post rate allowed while throttling
+     * @param fanout The fan-out pool whose lag is watched
+     */
+    public AdmissionController(int maxQueueDepth, long maxFanoutLagMillis, double heapLimitFraction,
+                               int throttledPostsPerSecond, PartitionedFanout fanout) {
+        if (maxQueueDepth <= 0) {
+            throw new IllegalArgumentException("Max queue depth must be positive");
+        }
+        if (maxFanoutLagMillis <= 0) {
+            throw new IllegalArgumentException("Max fan-out lag must be positive");
+        }
+        if (heapLimitFraction <= 0 || heapLimitFraction > 1) {
+            throw new IllegalArgumentException("Heap limit fraction must be in (0, 1]");
+        }
+        if (throttledPostsPerSecond <= 0) {
+            throw new IllegalArgumentException("Throttled post rate must be positive");
+        }
+        if (fanout == null) {
+            throw new IllegalArgumentException("Fan-out pool cannot be null");
+        }
+        this.maxQueueDepth = maxQueueDepth;
+        this.maxFanoutLagNanos = TimeUnit.MILLISECONDS.toNanos(maxFanoutLagMillis);
+        this.heapLimitFraction = heapLimitFraction;
+        this.throttledPostsPerSecond = throttledPostsPerSecond;
+        this.fanout = fanout;
+        this.tenuredPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            // Only the old generation has a collection usage threshold
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()
+                    && pool.isUsageThresholdSupported()) {
+                tenuredPools.add(pool);
+            }
+        }
+        this.postTokens = throttledPostsPerSecond;
+        this.lastRefillNanos = System.nanoTime();
+        levelEntries.incrementAndGet(LoadLevel.NORMAL.ordinal());
+
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "admission-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleWithFixedDelay(this::sample, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the controller shared by the whole server.
+     * Uses double-checked locking for thread-safe lazy initialization.
+     * @return The shared controller
+     */
+    public static AdmissionController getInstance() {
+        if (instance == null) {
+            synchronized (AdmissionController.class) {
+                if (instance == null) {
+                    instance = new AdmissionController(DEFAULT_MAX_QUEUE_DEPTH, DEFAULT_MAX_FANOUT_LAG_MILLIS,
+                            DEFAULT_HEAP_LIMIT_FRACTION, DEFAULT_THROTTLED_POSTS_PER_SECOND,
+                            PartitionedFanout.shared());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Measures the pressure signals, moves to the matching level and, when load
+     * allows it, hands a batch of deferred notifications to the fan-out pool
+     */
+    private void sample() {
+        try {
+            double heapRatio = heapOccupancy() / heapLimitFraction;
+            double queueRatio = (double) (queuedItems.sum() + fanout.getPendingTaskCount()) / maxQueueDepth;
+            double lagRatio = (double) fanout.sampleMaxLagNanos() / maxFanoutLagNanos;
+            pressure = Math.max(heapRatio, Math.max(queueRatio, lagRatio));
+
+            LoadLevel next = levelFor(pressure, level);
+            if (next != level) {
+                LoadLevel previous = level;
+                level = next;
+                levelEntries.incrementAndGet(next.ordinal());
+                if (next.atLeast(previous)) {
+                    logger.warn("Load level raised from {} to {} (heap {}, queues {}, fan-out lag {})",
+                            previous, next, percent(heapRatio), percent(queueRatio), percent(lagRatio));
+                } else {
+                    logger.info("Load level lowered from {} to {}", previous, next);
+                }
+            }
+            if (!level.atLeast(LoadLevel.DEFER_PRESENCE)) {
+                drainDeferred();
+            }
+        } catch (RuntimeException e) {
+            logger.error("Admission sampling failed", e);
+        }
+    }
+
+    /**
+     * Gets the fullest old generation pool as measured after its last
+     * collection, falling back to the current heap use if the JVM does not
+     * report one
+     */
+    private double heapOccupancy() {
+        double occupancy = 0;
+        for (MemoryPoolMXBean pool : tenuredPools) {
+            MemoryUsage afterCollection = pool.getCollectionUsage();
+            if (afterCollection != null && afterCollection.getMax() > 0) {
+                occupancy = Math.max(occupancy, (double) afterCollection.getUsed() / afterCollection.getMax());
+            }
+        }
+        if (tenuredPools.isEmpty()) {
+            Runtime runtime = Runtime.getRuntime();
+            occupancy = (double) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
+        }
+        return occupancy;
+    }
+
+    private static LoadLevel levelFor(double pressure, LoadLevel current) {
+        LoadLevel target = LoadLevel.NORMAL;
+        if (pressure >= THROTTLE_POSTS_THRESHOLD) {
+            target = LoadLevel.THROTTLE_POSTS;
+        } else if (pressure >= REJECT_SESSIONS_THRESHOLD) {
+            target = LoadLevel.REJECT_SESSIONS;
+        } else if (pressure >= DEFER_PRESENCE_THRESHOLD) {
+            target = LoadLevel.DEFER_PRESENCE;
+        }
+        // Only leave a level once pressure is clearly below its threshold
+        while (target.compareTo(current) < 0) {
+            LoadLevel above = LoadLevel.values()[target.ordinal() + 1];
+            if (pressure < threshold(above) - HYSTERESIS) {
+                break;
+            }
+            target = above;
+        }
+        return target;
+    }
+
+    private static double threshold(LoadLevel level) {
+        switch (level) {
+            case DEFER_PRESENCE:
+                return DEFER_PRESENCE_THRESHOLD;
+            case REJECT_SESSIONS:
+                return REJECT_SESSIONS_THRESHOLD;
+            case THROTTLE_POSTS:
+                return THROTTLE_POSTS_THRESHOLD;
+            default:
+                return 0;
+        }
+    }
+
+    private static String percent(double ratio) {
+        return Math.round(ratio * 100) + "%";
+    }
+
+    /**
+     * Hands the next batch of deferred notifications to the fan-out pool, so
+     * observer callbacks never run on the sampler. A batch is only handed over
+     * once the previous one has run.
+     */
+    private void drainDeferred() {
+        List<Runnable> batch;
+        synchronized (deferredNotifications) {
+            if (deferredInFlight > 0 || deferredNotifications.isEmpty()) {
+                return;
+            }
+            int size = Math.min(DEFERRED_DRAIN_BATCH, deferredNotifications.size());
+            batch = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                batch.add(deferredNotifications.pollFirst());
+            }
+            deferredInFlight = size;
+        }
+        fanout.execute(DEFERRED_PARTITION, () -> {
+            for (Runnable notification : batch) {
+                try {
+                    notification.run();
+                } catch (RuntimeException e) {
+                    logger.error("Deferred notification failed", e);
+                } finally {
+                    synchronized (deferredNotifications) {
+                        deferredInFlight--;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Defers a join or leave notification if load calls for it. Deferred
+     * notifications are delivered in order once load drops; if too many pile
+     * up, the oldest are dropped.
+     * @param notification The notification to deliver
+     * @return true if the notification was deferred, false if the caller should
+     *         deliver it now
+     */
+    public boolean deferPresence(Runnable notification) {
+        synchronized (deferredNotifications) {
+            if (!level.atLeast(LoadLevel.DEFER_PRESENCE)
+                    && deferredNotifications.isEmpty() && deferredInFlight == 0) {
+                return false;
+            }
+            // Below the level this only keeps order behind the ones still waiting
+            if (deferredNotifications.size() >= MAX_DEFERRED_NOTIFICATIONS) {
+                deferredNotifications.pollFirst();
+                droppedNotificationCount.incrementAndGet();
+            }
+            deferredNotifications.addLast(notification);
+        }
+        deferredCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Checks if an ephemeral event, such as a typing indicator, may be sent.
+     * They are the first thing shed under load and are never queued.
+     * @param eventCount The number of events about to be sent
+     * @return true if the events may be sent, false if they should be dropped
+     */
+    public boolean admitEphemeral(int eventCount) {
+        if (level.atLeast(LoadLevel.DEFER_PRESENCE)) {
+            droppedEphemeralCount.addAndGet(eventCount);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks that a new session may start
+     * @throws ChatRoomException if the server is refusing new sessions
+     */
+    public void admitSession() {
+        if (level.atLeast(LoadLevel.REJECT_SESSIONS)) {
+            rejectedSessionCount.incrementAndGet();
+            throw new ChatRoomException("Server is busy and not accepting new sessions, please try again later");
+        }
+    }
+
+    /**
+     * Takes a slot for a post. While posts are throttled the whole server shares
+     * a budget of {@code throttledPostsPerSecond}.
+     * @throws ChatRoomException if the post is over the budget
+     */
+    public void admitPost() {
+        if (!level.atLeast(LoadLevel.THROTTLE_POSTS)) {
+            return;
+        }
+        synchronized (this) {
+            long now = System.nanoTime();
+            postTokens = Math.min(throttledPostsPerSecond,
+                    postTokens + (now - lastRefillNanos) * throttledPostsPerSecond / 1e9);
+            lastRefillNanos = now;
+            if (postTokens >= 1) {
+                postTokens -= 1;
+                return;
+            }
+        }
+        throttledPostCount.incrementAndGet();
+        throw new ChatRoomException("Server is busy, message was not posted, please try again shortly");
+    }
+
+    /**
+     * Adjusts the aggregate queue depth. Callers that own a queue report each
+     * item they add and remove.
+     * @param delta The change in queued items, negative when items are removed
+     */
+    public void recordQueued(int delta) {
+        queuedItems.add(delta);
+    }
+
+    public LoadLevel getLevel() {
+        return level;
+    }
+
+    /**
+     * Gets the highest pressure ratio of the last sample, where 1.0 means a
+     * limit was reached
+     * @return The pressure
+     */
+    public double getPressure() {
+        return pressure;
+    }
+
+    public long getQueuedItems() {
+        return queuedItems.sum();
+    }
+
+    /**
+     * Gets how many times the server entered a level
+     * @param loadLevel The level
+     * @return The number of times it was entered
+     */
+    public long getLevelEntries(LoadLevel loadLevel) {
+        return levelEntries.get(loadLevel.ordinal());
+    }
+
+    public long getDeferredNotificationCount() {
+        return deferredCount.get();
+    }
+
+    public long getDroppedNotificationCount() {
+        return droppedNotificationCount.get();
+    }
+
+    public int getPendingNotificationCount() {
+        synchronized (deferredNotifications) {
+            return deferredNotifications.size();
+        }
+    }
+
+    public long getDroppedEphemeralCount() {
+        return droppedEphemeralCount.get();
+    }
+
+    public long getRejectedSessionCount() {
+        return rejectedSessionCount.get();
+    }
+
+    public long getThrottledPostCount() {
+        return throttledPostCount.get();
+    }
+}
@@ -0,0 +1,38 @@
+package com.chatapp.admission;
+
+/**
+ * How hard the server is currently shedding load. Levels are ordered: each one
+ * keeps the measures of the levels before it and adds its own.
+ */
+public enum LoadLevel {
+
+    /**
+     * Everything is admitted.
+     */
+    NORMAL,
+
+    /**
+     * Ephemeral events are dropped, and join and leave notifications are queued
+     * and delivered once load drops.
+     */
+    DEFER_PRESENCE,
+
+    /**
+     * New user sessions are refused.
+     */
+    REJECT_SESSIONS,
+
+    /**
+     * Posts are rate limited server-wide.
+     */
+    THROTTLE_POSTS;
+
+    /**
+     * Checks if this level includes the measures of another
+     * @param other The level to compare with
+     * @return true if this level is the same as or above the other
+     */
+    public boolean atLeast(LoadLevel other) {
+        return compareTo(other) >= 0;
+    }
+}
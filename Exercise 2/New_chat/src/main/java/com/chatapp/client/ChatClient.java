@@ -0,0 +1,349 @@
+package com.chatapp.client;
+
+import com.chatapp.adapter.CommunicationProtocol;
+import com.chatapp.adapter.ReliableProtocol;
+import com.chatapp.exception.ChatRoomException;
+import com.chatapp.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Client library for services that post to chat rooms at high rates, over any
+ * {@link CommunicationProtocol}. Posts are queued and a client thread sends
+ * them in batches, keeping up to {@code maxInFlight} of them unacknowledged at
+ * once instead of waiting for each acknowledgement before sending the next.
+ * Each post's future completes once the other side has acknowledged it, with
+ * the transport sequence {@link ReliableProtocol} gave its frame. That number
+ * orders this client's posts on the connection; it is not the room sequence,
+ * which the room assigns when it accepts the post.
+ * <p>
+ * The client sits on a {@link ReliableProtocol}. When the connection drops it
+ * reconnects with exponential backoff and random jitter, so many clients that
+ * lost the same server do not come back at the same moment. On reconnect the
+ * unacknowledged posts are sent again, and inbound messages resume after the
+ * last transport sequence already received.
+ */
+public class ChatClient implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ChatClient.class);
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    public static final int DEFAULT_MAX_PENDING = 10_000;
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 100;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 10_000;
+
+    private static final long IDLE_WAIT_MILLIS = 1;
+    private static final int MAX_RECEIVES_PER_TURN = 256;
+    private static final long CLOSE_TIMEOUT_MILLIS = 2000;
+
+    private final String userId;
+    private final String username;
+    private final ReliableProtocol protocol;
+    private final int maxBatchSize;
+    private final int maxPending;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final ArrayDeque<PendingPost> pending; // Guarded by this
+    private final ArrayDeque<PendingPost> inFlight; // Guarded by this, in transport sequence order
+    private final Thread worker;
+    private volatile Consumer<Message> messageListener;
+    private volatile boolean closed;
+    private long postCount; // Guarded by this
+    private long acknowledgedCount; // Guarded by this
+    private long reconnectCount; // Guarded by this
+
+    /**
+     * Creates a client with the default limits
+     * @param userId The posting user's ID
+     * @param username The posting user's name
+     * @param transport The connection to the chat server
+     */
+    public ChatClient(String userId, String username, CommunicationProtocol transport) {
+        this(userId, username, transport, DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_PENDING,
+                DEFAULT_INITIAL_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Creates a client
+     * @param userId The posting user's ID
+     * @param username The posting user's name
+     * @param transport The connection to the chat server
+     * @param maxInFlight The most posts sent but not yet acknowledged
+     * @param maxBatchSize The most posts sent in one batch
+     * @param maxPending The most posts queued before they are sent
+     * @param initialBackoffMillis The wait before the first reconnect attempt
+     * @param maxBackoffMillis The longest wait between reconnect attempts
+     */
+    public ChatClient(String userId, String username, CommunicationProtocol transport, int maxInFlight,
+                      int maxBatchSize, int maxPending, long initialBackoffMillis, long maxBackoffMillis) {
+        if (userId == null || userId.trim().isEmpty()) {
+            throw new IllegalArgumentException("User ID cannot be null or empty");
+        }
+        if (maxBatchSize <= 0 || maxPending <= 0) {
+            throw new IllegalArgumentException("Batch size and pending limit must be positive");
+        }
+        if (initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Backoff must be positive and at most its maximum");
+        }
+        this.userId = userId;
+        this.username = username;
+        this.protocol = new ReliableProtocol(transport, userId, maxInFlight);
+        this.maxBatchSize = maxBatchSize;
+        this.maxPending = maxPending;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.pending = new ArrayDeque<>();
+        this.inFlight = new ArrayDeque<>();
+        this.worker = new Thread(this::run, "chat-client-" + userId);
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Starts the client thread, which connects and then sends and receives
+     */
+    public void start() {
+        worker.start();
+        logger.info("Chat client for {} started on {}", userId, protocol.getProtocolName());
+    }
+
+    /**
+     * Sets the callback for messages arriving from the server. It runs on the
+     * client thread, so it must not block.
+     * @param listener The callback, or null to ignore inbound messages
+     */
+    public void setMessageListener(Consumer<Message> listener) {
+        this.messageListener = listener;
+    }
+
+    /**
+     * Queues a post without waiting for it
+     * @param roomId The room to post to
+     * @param content The message text
+     * @return Completes with the post's transport sequence once it is
+     *         acknowledged, or exceptionally with a {@link ChatRoomException}
+     *         if the queue is full or the client closes first
+     */
+    public CompletableFuture<Long> post(String roomId, String content) {
+        CompletableFuture<Long> completion = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) {
+                completion.completeExceptionally(new ChatRoomException("Chat client is closed"));
+                return completion;
+            }
+            if (pending.size() >= maxPending) {
+                completion.completeExceptionally(new ChatRoomException(
+                        "Chat client has " + maxPending + " posts queued, please try again shortly"));
+                return completion;
+            }
+            // The key lets the server drop a post that arrives twice after a reconnect
+            String idempotencyKey = userId + "-" + (++postCount);
+            pending.addLast(new PendingPost(new Message(userId, username, content, roomId, idempotencyKey),
+                    completion));
+            notifyAll();
+        }
+        return completion;
+    }
+
+    private void run() {
+        int failedAttempts = 0;
+        boolean everConnected = false;
+        while (!closed) {
+            try {
+                if (!protocol.isConnected()) {
+                    if (!protocol.connect()) {
+                        pause(backoff(failedAttempts++), false);
+                        continue;
+                    }
+                    if (everConnected) {
+                        synchronized (this) {
+                            reconnectCount++;
+                        }
+                        logger.info("Chat client for {} reconnected after {} failed attempts", userId, failedAttempts);
+                    }
+                    everConnected = true;
+                    failedAttempts = 0;
+                }
+                boolean busy = sendPending();
+                busy |= receiveAvailable();
+                completeAcknowledged();
+                if (!busy) {
+                    protocol.acknowledgePending();
+                    pause(IDLE_WAIT_MILLIS, true);
+                }
+            } catch (RuntimeException e) {
+                logger.error("Chat client for {} failed: {}", userId, e.getMessage(), e);
+                pause(backoff(failedAttempts++), false);
+            }
+        }
+    }
+
+    /**
+     * Sends the next batch of queued posts that fits in the in-flight window
+     * @return true if anything was sent
+     */
+    private boolean sendPending() {
+        List<PendingPost> batch;
+        synchronized (this) {
+            int room = protocol.getWindowSize() - protocol.getUnackedCount();
+            int count = Math.min(Math.min(room, maxBatchSize), pending.size());
+            if (count <= 0) {
+                return false;
+            }
+            batch = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                batch.add(pending.pollFirst());
+            }
+        }
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (PendingPost post : batch) {
+            messages.add(post.message);
+        }
+        // Only this thread sends, so the batch takes consecutive sequences from here
+        long firstSequence = protocol.getNextSequence();
+        int accepted = protocol.sendBatch(messages);
+        synchronized (this) {
+            for (int i = 0; i < accepted; i++) {
+                PendingPost post = batch.get(i);
+                post.transportSequence = firstSequence + i;
+                inFlight.addLast(post);
+            }
+            for (int i = batch.size() - 1; i >= accepted; i--) {
+                pending.addFirst(batch.get(i));
+            }
+        }
+        return accepted > 0;
+    }
+
+    /**
+     * Hands arrived messages to the listener
+     * @return true if any arrived
+     */
+    private boolean receiveAvailable() {
+        int received = 0;
+        Message message;
+        while (received < MAX_RECEIVES_PER_TURN && (message = protocol.receiveMessage()) != null) {
+            received++;
+            Consumer<Message> listener = messageListener;
+            if (listener != null) {
+                try {
+                    listener.accept(message);
+                } catch (RuntimeException e) {
+                    logger.error("Message listener of chat client {} failed", userId, e);
+                }
+            }
+        }
+        return received > 0;
+    }
+
+    private void completeAcknowledged() {
+        long ackedUpTo = protocol.getAckedUpTo();
+        List<PendingPost> done = new ArrayList<>();
+        synchronized (this) {
+            while (!inFlight.isEmpty() && inFlight.peekFirst().transportSequence <= ackedUpTo) {
+                done.add(inFlight.pollFirst());
+            }
+            acknowledgedCount += done.size();
+        }
+        for (PendingPost post : done) {
+            post.completion.complete(post.transportSequence);
+        }
+    }
+
+    /**
+     * Picks the wait before the next reconnect attempt: exponential in the
+     * number of failed attempts up to the maximum, with the upper half drawn at
+     * random
+     */
+    private long backoff(int failedAttempts) {
+        long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(failedAttempts, 20));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    /**
+     * Waits, or returns early when the client closes or, if idle, when a post arrives
+     */
+    private synchronized void pause(long millis, boolean idle) {
+        if (closed || (idle && !pending.isEmpty())) {
+            return;
+        }
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closed = true;
+        }
+    }
+
+    /**
+     * Stops the client thread and disconnects. Posts not yet acknowledged
+     * complete exceptionally.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            worker.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        protocol.disconnect();
+        List<PendingPost> unfinished;
+        synchronized (this) {
+            unfinished = new ArrayList<>(inFlight);
+            unfinished.addAll(pending);
+            inFlight.clear();
+            pending.clear();
+        }
+        for (PendingPost post : unfinished) {
+            post.completion.completeExceptionally(new ChatRoomException("Chat client closed before the post was acknowledged"));
+        }
+        logger.info("Chat client for {} closed with {} posts unacknowledged", userId, unfinished.size());
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    public synchronized int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public synchronized long getAcknowledgedCount() {
+        return acknowledgedCount;
+    }
+
+    public synchronized long getReconnectCount() {
+        return reconnectCount;
+    }
+
+    public ReliableProtocol getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * A queued post and the future its caller waits on
+     */
+    private static final class PendingPost {
+        private final Message message;
+        private final CompletableFuture<Long> completion;
+        private long transportSequence; // Set once sent
+
+        PendingPost(Message message, CompletableFuture<Long> completion) {
+            this.message = message;
+            this.completion = completion;
+        }
+    }
+}
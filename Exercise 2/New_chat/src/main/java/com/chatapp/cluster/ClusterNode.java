@@ -0,0 +1,782 @@
+package com.chatapp.cluster;
+
+import com.chatapp.codec.MessageCodec;
+import com.chatapp.exception.ChatRoomException;
+import com.chatapp.manager.ChatRoomManager;
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.Message;
+import com.chatapp.model.PrivateMessage;
+import com.chatapp.model.RoomMode;
+import com.chatapp.model.User;
+import com.chatapp.observer.ChatObserver;
+import com.chatapp.storage.HistoryCursor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * One node of a sharded chat cluster. Each node owns its own
+ * {@link ChatRoomManager} holding the rooms that a {@link ConsistentHashRing}
+ * assigns to it. Operations on a room owned by another node are forwarded to
+ * that node over a TCP {@link NodeLink}; the peer runs them against its local
+ * manager.
+ * <p>
+ * When a peer is added the node hands over every room whose arc moved to the
+ * peer, and {@link #leaveCluster()} hands all rooms to their next owners before
+ * the node stops. Room state travels as a snapshot of members and the full
+ * stored history, which the new owner restores with the original sequences.
+ * <p>
+ * Observers registered through {@link #registerObserver(String, ChatObserver)}
+ * stay on this node. For a room owned elsewhere the node subscribes to it on
+ * the attached {@link RoomBus} and fans each forwarded message out to its local
+ * observers, so the owner sends a message once per node rather than once per
+ * user.
+ */
+public class ClusterNode {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterNode.class);
+
+    private final String nodeId;
+    private final ChatRoomManager localManager;
+    private final ConsistentHashRing ring;
+    private final Map<String, NodeLink> peers;
+    private final NodeServer server;
+    private final Map<String, CopyOnWriteArrayList<ChatObserver>> observersByRoom; // Observers registered through this node
+    private final BusPublisher busPublisher;
+    private volatile RoomBus bus;
+
+    /**
+     * Creates a node that will listen on the given address once started
+     * @param nodeId The unique ID of this node within the cluster
+     * @param host The address to listen on, usually the loopback address
+     * @param port The port to listen on, or 0 for an ephemeral port
+     */
+    public ClusterNode(String nodeId, String host, int port) {
+        if (nodeId == null || nodeId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Node ID cannot be null or empty");
+        }
+        this.nodeId = nodeId;
+        this.localManager = ChatRoomManager.newInstance();
+        this.ring = new ConsistentHashRing();
+        this.peers = new ConcurrentHashMap<>();
+        this.server = new NodeServer(this, host, port);
+        this.observersByRoom = new ConcurrentHashMap<>();
+        this.busPublisher = new BusPublisher();
+    }
+
+    /**
+     * Starts listening for peer requests and places this node on its own ring
+     * @throws ChatRoomException if the listening socket cannot be bound
+     */
+    public void start() {
+        try {
+            server.start();
+        } catch (IOException e) {
+            throw new ChatRoomException("Node '" + nodeId + "' could not start: " + e.getMessage(), e);
+        }
+        ring.addNode(nodeId);
+        logger.info("Cluster node {} started", nodeId);
+    }
+
+    /**
+     * Attaches the node to a pub/sub bus. Local rooms start publishing their
+     * messages and the node subscribes to every remote room it has observers for.
+     * @param roomBus The bus shared by the cluster
+     */
+    public void attachBus(RoomBus roomBus) {
+        if (roomBus == null) {
+            throw new IllegalArgumentException("Room bus cannot be null");
+        }
+        this.bus = roomBus;
+        roomBus.register(nodeId, this::deliverFromBus);
+        for (ChatRoom room : localManager.getAllChatRooms()) {
+            room.registerObserver(busPublisher);
+        }
+        for (String roomId : observersByRoom.keySet()) {
+            if (!localManager.chatRoomExists(roomId)) {
+                roomBus.subscribe(roomId, nodeId);
+            }
+        }
+    }
+
+    /**
+     * Registers an observer that lives on this node for a room that may be owned
+     * by any node
+     * @param roomId The room ID
+     * @param observer The observer
+     */
+    public void registerObserver(String roomId, ChatObserver observer) {
+        requireRoomId(roomId);
+        if (observer == null) {
+            throw new IllegalArgumentException("Observer cannot be null");
+        }
+        observersByRoom.computeIfAbsent(roomId, id -> new CopyOnWriteArrayList<>()).addIfAbsent(observer);
+
+        ChatRoom localRoom = localManager.getChatRoom(roomId);
+        if (localRoom != null) {
+            localRoom.registerObserver(observer);
+        } else if (bus != null) {
+            bus.subscribe(roomId, nodeId);
+        }
+    }
+
+    /**
+     * Removes an observer registered through this node. The node unsubscribes
+     * from the room once its last local observer is gone.
+     * @param roomId The room ID
+     * @param observer The observer
+     */
+    public void removeObserver(String roomId, ChatObserver observer) {
+        requireRoomId(roomId);
+        List<ChatObserver> remaining = observersByRoom.computeIfPresent(roomId, (id, observers) -> {
+            observers.remove(observer);
+            return observers.isEmpty() ? null : observers;
+        });
+        ChatRoom localRoom = localManager.getChatRoom(roomId);
+        if (localRoom != null) {
+            localRoom.removeObserver(observer);
+        }
+        if (remaining == null && bus != null) {
+            bus.unsubscribe(roomId, nodeId);
+        }
+    }
+
+    /**
+     * Adds a peer to this node's view of the cluster and hands over the rooms
+     * that now belong to it
+     * @param peerId The peer's node ID
+     * @param host The peer's host
+     * @param port The peer's port
+     * @return The number of rooms moved to the peer
+     */
+    public int addPeer(String peerId, String host, int port) {
+        if (nodeId.equals(peerId)) {
+            throw new IllegalArgumentException("A node cannot be its own peer");
+        }
+        NodeLink previous = peers.put(peerId, new NodeLink(peerId, host, port));
+        if (previous != null) {
+            previous.close();
+        }
+        ring.addNode(peerId);
+        logger.info("Node {} added peer {} at {}:{}", nodeId, peerId, host, port);
+        return rebalance();
+    }
+
+    /**
+     * Drops a peer that has left the cluster. Its rooms are expected to have been
+     * handed over by {@link #leaveCluster()} on that node.
+     * @param peerId The peer's node ID
+     */
+    public void removePeer(String peerId) {
+        ring.removeNode(peerId);
+        NodeLink link = peers.remove(peerId);
+        if (link != null) {
+            link.close();
+            logger.info("Node {} removed peer {}", nodeId, peerId);
+        }
+    }
+
+    /**
+     * Finds the node that owns a room
+     * @param roomId The room ID
+     * @return The owning node ID
+     */
+    public String ownerOf(String roomId) {
+        requireRoomId(roomId);
+        return ring.nodeFor(roomId);
+    }
+
+    /**
+     * Checks if a room is owned by this node
+     * @param roomId The room ID
+     * @return true if this node owns the room
+     */
+    public boolean isLocal(String roomId) {
+        return nodeId.equals(ownerOf(roomId));
+    }
+
+    /**
+     * Creates a room on its owning node
+     * @param roomId The unique identifier for the room
+     * @param roomName The name of the room
+     * @param mode The room mode
+     * @return Summary of the created room
+     * @throws ChatRoomException if the room already exists or the owner is unreachable
+     */
+    public RoomInfo createChatRoom(String roomId, String roomName, RoomMode mode) {
+        String owner = ownerOf(roomId);
+        if (roomName == null || mode == null) {
+            throw new IllegalArgumentException("Room name and mode cannot be null");
+        }
+        if (nodeId.equals(owner)) {
+            return createLocally(roomId, roomName, mode);
+        }
+        return linkTo(owner).call(ClusterOperation.CREATE_ROOM, out -> {
+            out.writeUTF(roomId);
+            out.writeUTF(roomName);
+            out.writeUTF(mode.name());
+        });
+    }
+
+    /**
+     * Joins a user to a room on its owning node
+     * @param roomId The ID of the room to join
+     * @param user The user to join
+     * @throws ChatRoomException if the room doesn't exist or the owner is unreachable
+     */
+    public void joinChatRoom(String roomId, User user) {
+        String owner = ownerOf(roomId);
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null");
+        }
+        if (nodeId.equals(owner)) {
+            localManager.joinChatRoom(roomId, user);
+            return;
+        }
+        linkTo(owner).call(ClusterOperation.JOIN_ROOM, out -> {
+            out.writeUTF(roomId);
+            MessageCodec.writeUser(out, user);
+        });
+    }
+
+    /**
+     * Marks a user as no longer present in a room on its owning node
+     * @param roomId The ID of the room
+     * @param userId The ID of the user
+     */
+    public void removeUser(String roomId, String userId) {
+        String owner = ownerOf(roomId);
+        if (userId == null) {
+            throw new IllegalArgumentException("User ID cannot be null or empty");
+        }
+        if (nodeId.equals(owner)) {
+            requireLocalRoom(roomId).removeUser(userId);
+            return;
+        }
+        linkTo(owner).call(ClusterOperation.REMOVE_USER, out -> {
+            out.writeUTF(roomId);
+            out.writeUTF(userId);
+        });
+    }
+
+    /**
+     * Posts a message to a room on its owning node
+     * @param roomId The ID of the room
+     * @param message The message to post
+     * @throws ChatRoomException if the room doesn't exist or the owner is unreachable
+     */
+    public void postMessage(String roomId, Message message) {
+        String owner = ownerOf(roomId);
+        if (message == null) {
+            throw new IllegalArgumentException("Message cannot be null");
+        }
+        if (nodeId.equals(owner)) {
+            localManager.postMessage(roomId, message);
+            return;
+        }
+        linkTo(owner).call(ClusterOperation.POST_MESSAGE, out -> {
+            out.writeUTF(roomId);
+            MessageCodec.writeMessage(out, message);
+        });
+    }
+
+    /**
+     * Gets a summary of a room from its owning node
+     * @param roomId The room ID
+     * @return The summary, or null if the room doesn't exist
+     */
+    public RoomInfo getRoomInfo(String roomId) {
+        String owner = ownerOf(roomId);
+        if (nodeId.equals(owner)) {
+            return infoLocally(roomId);
+        }
+        return linkTo(owner).call(ClusterOperation.ROOM_INFO, out -> out.writeUTF(roomId));
+    }
+
+    /**
+     * Hands every local room that the ring now assigns elsewhere to its new owner
+     * <p>
+     * A room stays usable while its snapshot travels; messages posted to it in
+     * the meantime follow once the local copy is retired. The handover is not
+     * atomic across nodes: a local caller that looked the room up before the
+     * move and acts on it after will update the retired copy. A room that fails
+     * to move is logged and stays here, see {@link #getMisplacedRoomIds()}, and
+     * the remaining rooms are still handed over.
+     * @return The number of rooms moved
+     */
+    public synchronized int rebalance() {
+        int moved = 0;
+        int failed = 0;
+        for (ChatRoom room : localManager.getAllChatRooms()) {
+            String owner = ring.nodeFor(room.getRoomId());
+            if (nodeId.equals(owner)) {
+                continue;
+            }
+            try {
+                transferRoom(room, owner);
+                moved++;
+            } catch (ChatRoomException | IllegalArgumentException e) {
+                failed++;
+                logger.error("Node {} failed to hand room {} to node {}: {}",
+                        nodeId, room.getRoomId(), owner, e.getMessage());
+            }
+        }
+        if (moved > 0 || failed > 0) {
+            logger.info("Node {} moved {} rooms after ring change, {} failed. Remaining local rooms: {}",
+                    nodeId, moved, failed, localManager.getChatRoomCount());
+        }
+        return moved;
+    }
+
+    /**
+     * Gets the local rooms that the ring assigns to another node, i.e. the
+     * ones a rebalance failed to move
+     * @return The IDs of rooms still waiting for their handover
+     */
+    public List<String> getMisplacedRoomIds() {
+        List<String> misplaced = new ArrayList<>();
+        for (ChatRoom room : localManager.getAllChatRooms()) {
+            if (!nodeId.equals(ring.nodeFor(room.getRoomId()))) {
+                misplaced.add(room.getRoomId());
+            }
+        }
+        return misplaced;
+    }
+
+    /**
+     * Hands all local rooms to the nodes that own them once this node is gone,
+     * tells every peer to drop this node and stops the node
+     */
+    public synchronized void leaveCluster() {
+        for (ChatRoom room : localManager.getAllChatRooms()) {
+            String target = ring.nodeForExcluding(room.getRoomId(), nodeId);
+            if (target == null) {
+                logger.warn("Node {} is the last node; room {} is dropped on leave", nodeId, room.getRoomId());
+                continue;
+            }
+            transferRoom(room, target);
+        }
+        for (NodeLink link : new ArrayList<>(peers.values())) {
+            try {
+                link.call(ClusterOperation.NODE_LEFT, out -> out.writeUTF(nodeId));
+            } catch (ChatRoomException e) {
+                logger.warn("Could not tell node {} that {} is leaving: {}", link.getNodeId(), nodeId, e.getMessage());
+            }
+        }
+        shutdown();
+        logger.info("Node {} left the cluster", nodeId);
+    }
+
+    /**
+     * Stops listening and closes all peer links
+     */
+    public void shutdown() {
+        RoomBus attachedBus = bus;
+        if (attachedBus != null) {
+            attachedBus.unregister(nodeId);
+        }
+        server.stop();
+        peers.values().forEach(NodeLink::close);
+        peers.clear();
+    }
+
+    /**
+     * Reads one request frame from a peer, runs it locally and writes the
+     * response. The frame is read whole before it is decoded, so a request
+     * that fails, however it fails, is answered with an error and the next
+     * one is read from the right place.
+     * @param in The peer's request stream
+     * @param out The peer's response stream
+     * @throws IOException if the connection fails or the frame length is invalid
+     */
+    void handleRequest(DataInputStream in, DataOutputStream out) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > NodeLink.MAX_FRAME_BYTES) {
+            throw new IOException("Invalid request frame length " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+
+        RoomInfo result = null;
+        try {
+            result = dispatch(new DataInputStream(new ByteArrayInputStream(frame)));
+        } catch (ChatRoomException e) {
+            writeError(out, NodeLink.STATUS_ROOM_ERROR, e.getMessage());
+            return;
+        } catch (IllegalArgumentException e) {
+            writeError(out, NodeLink.STATUS_INVALID_ARGUMENT, e.getMessage());
+            return;
+        } catch (IOException e) {
+            // Only the frame was short or garbled; the connection itself is fine
+            writeError(out, NodeLink.STATUS_INVALID_ARGUMENT, "Malformed request: " + e.getMessage());
+            return;
+        } catch (RuntimeException e) {
+            logger.error("Node {} failed to handle a request: {}", nodeId, e.getMessage(), e);
+            writeError(out, NodeLink.STATUS_INTERNAL_ERROR, "Node '" + nodeId + "' failed: " + e);
+            return;
+        }
+
+        out.writeByte(NodeLink.STATUS_OK);
+        out.writeBoolean(result != null);
+        if (result != null) {
+            result.writeTo(out);
+        }
+    }
+
+    private static void writeError(DataOutput out, byte status, String error) throws IOException {
+        out.writeByte(status);
+        out.writeUTF(error == null ? "Unknown error" : error);
+    }
+
+    /**
+     * Decodes one request frame and runs it
+     * @return The room summary to return, or null if none
+     */
+    private RoomInfo dispatch(DataInputStream in) throws IOException {
+        ClusterOperation operation = ClusterOperation.fromCode(in.readByte());
+        switch (operation) {
+            case CREATE_ROOM: {
+                String roomId = in.readUTF();
+                String roomName = in.readUTF();
+                RoomMode mode = RoomMode.valueOf(in.readUTF());
+                return createLocally(roomId, roomName, mode);
+            }
+            case JOIN_ROOM: {
+                String roomId = in.readUTF();
+                User user = MessageCodec.readUser(in);
+                localManager.joinChatRoom(roomId, user);
+                return null;
+            }
+            case REMOVE_USER: {
+                String roomId = in.readUTF();
+                String userId = in.readUTF();
+                requireLocalRoom(roomId).removeUser(userId);
+                return null;
+            }
+            case POST_MESSAGE: {
+                String roomId = in.readUTF();
+                Message message = MessageCodec.readMessage(in);
+                localManager.postMessage(roomId, message);
+                return null;
+            }
+            case ROOM_INFO:
+                return infoLocally(in.readUTF());
+            case TRANSFER_ROOM:
+                return acceptTransfer(in);
+            case NODE_LEFT:
+                removePeer(in.readUTF());
+                return null;
+            case TRANSFER_TAIL:
+                acceptTail(in);
+                return null;
+            default:
+                throw new IllegalArgumentException("Unsupported cluster operation: " + operation);
+        }
+    }
+
+    private RoomInfo createLocally(String roomId, String roomName, RoomMode mode) {
+        ChatRoom room = localManager.createChatRoom(roomId, roomName, mode);
+        adoptRoom(room);
+        return RoomInfo.of(room, nodeId);
+    }
+
+    /**
+     * Hooks a room that just became local into the bus: it publishes its
+     * messages, this node's observers move onto it and the node stops
+     * listening for the room on the bus.
+     */
+    private void adoptRoom(ChatRoom room) {
+        RoomBus attachedBus = bus;
+        if (attachedBus == null) {
+            return;
+        }
+        room.registerObserver(busPublisher);
+        List<ChatObserver> observers = observersByRoom.get(room.getRoomId());
+        if (observers != null) {
+            observers.forEach(room::registerObserver);
+            attachedBus.unsubscribe(room.getRoomId(), nodeId);
+        }
+    }
+
+    /**
+     * Fans a batch from the bus out to the observers on this node. Messages for
+     * rooms that have meanwhile become local are skipped, as the room notifies
+     * its observers itself.
+     */
+    private void deliverFromBus(List<Message> messages) {
+        for (Message message : messages) {
+            List<ChatObserver> observers = observersByRoom.get(message.getRoomId());
+            if (observers == null || localManager.chatRoomExists(message.getRoomId())) {
+                continue;
+            }
+            for (ChatObserver observer : observers) {
+                try {
+                    if (!observer.getObserverUserId().equals(message.getSenderId())) {
+                        observer.onMessageReceived(message);
+                    }
+                } catch (Exception e) {
+                    logger.error("Error notifying observer of bus message: {}", e.getMessage(), e);
+                    observer.onError("Failed to receive message notification");
+                }
+            }
+        }
+    }
+
+    private RoomInfo infoLocally(String roomId) {
+        ChatRoom room = localManager.getChatRoom(roomId);
+        return room == null ? null : RoomInfo.of(room, nodeId);
+    }
+
+    /**
+     * Hands a room to another node. The snapshot is taken with the room locked
+     * but sent without the lock, so the room keeps serving while it travels.
+     * The local copy is then retired, and whatever was posted to it in between
+     * follows as a tail.
+     */
+    private void transferRoom(ChatRoom room, String targetNodeId) {
+        RoomBus attachedBus = bus;
+        if (attachedBus != null && observersByRoom.containsKey(room.getRoomId())) {
+            // Subscribe before the handover so nothing posted on the new owner is missed
+            attachedBus.subscribe(room.getRoomId(), nodeId);
+        }
+        byte[] snapshot;
+        long snapshotSequence;
+        synchronized (room) {
+            snapshot = encode(out -> writeRoomSnapshot(out, room));
+            snapshotSequence = room.getLastSequence();
+        }
+        // A failure leaves the local copy in place
+        linkTo(targetNodeId).call(ClusterOperation.TRANSFER_ROOM, out -> out.write(snapshot));
+
+        byte[] tail;
+        synchronized (room) {
+            // Local subscribers have to resubscribe on the new owner, so fail them rather than complete
+            room.closeEvents(new ChatRoomException("Room " + room.getRoomId() + " moved to node " + targetNodeId));
+            localManager.deleteChatRoom(room.getRoomId());
+            tail = room.getLastSequence() > snapshotSequence
+                    ? encode(out -> writeRoomTail(out, room, snapshotSequence + 1))
+                    : null;
+        }
+        if (tail != null) {
+            try {
+                linkTo(targetNodeId).call(ClusterOperation.TRANSFER_TAIL, out -> out.write(tail));
+            } catch (ChatRoomException | IllegalArgumentException e) {
+                logger.error("Node {} lost the messages posted to room {} after sequence {} during its handover: {}",
+                        nodeId, room.getRoomId(), snapshotSequence, e.getMessage());
+            }
+        }
+        logger.debug("Node {} handed room {} to node {}", nodeId, room.getRoomId(), targetNodeId);
+    }
+
+    private static byte[] encode(NodeLink.RequestWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writer.write(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new ChatRoomException("Failed to encode room state", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeRoomTail(DataOutput out, ChatRoom room, long fromSequence) throws IOException {
+        out.writeUTF(room.getRoomId());
+        writeHistory(out, room, fromSequence);
+        out.writeLong(room.getLastSequence());
+    }
+
+    private static void writeRoomSnapshot(DataOutput out, ChatRoom room) throws IOException {
+        out.writeUTF(room.getRoomId());
+        out.writeUTF(room.getRoomName());
+        out.writeUTF(room.getMode().name());
+
+        List<User> members = room.getMembers();
+        out.writeInt(members.size());
+        for (User member : members) {
+            MessageCodec.writeUser(out, member);
+            out.writeBoolean(room.isPresent(member.getUserId()));
+        }
+
+        writeHistory(out, room, 1);
+        out.writeLong(room.getLastSequence());
+    }
+
+    private static void writeHistory(DataOutput out, ChatRoom room, long fromSequence) throws IOException {
+        try (HistoryCursor cursor = room.openHistory(fromSequence)) {
+            while (cursor.hasNext()) {
+                out.writeBoolean(true);
+                MessageCodec.writeMessage(out, cursor.next());
+            }
+        }
+        out.writeBoolean(false);
+    }
+
+    /**
+     * Rebuilds a room handed over by another node. The history is restored with
+     * its original sequence numbers rather than posted again, so observers and
+     * posting rules do not see it as new.
+     */
+    private RoomInfo acceptTransfer(DataInputStream in) throws IOException {
+        String roomId = in.readUTF();
+        String roomName = in.readUTF();
+        RoomMode mode = RoomMode.valueOf(in.readUTF());
+
+        ChatRoom room = localManager.createChatRoom(roomId, roomName, mode);
+        int memberCount;
+        int messageCount = 0;
+        try {
+            memberCount = in.readInt();
+            for (int i = 0; i < memberCount; i++) {
+                User member = MessageCodec.readUser(in);
+                room.addUser(member);
+                if (!in.readBoolean()) {
+                    room.removeUser(member.getUserId());
+                }
+            }
+            while (in.readBoolean()) {
+                if (room.restoreMessage(MessageCodec.readMessage(in))) {
+                    messageCount++;
+                }
+            }
+            room.restoreLastSequence(in.readLong());
+        } catch (IOException | RuntimeException e) {
+            // The sender keeps its copy when the handover fails, so drop the partial one
+            localManager.deleteChatRoom(roomId);
+            throw e;
+        }
+        adoptRoom(room);
+        logger.info("Node {} took over room {} with {} members and {} messages",
+                nodeId, roomId, memberCount, messageCount);
+        return RoomInfo.of(room, nodeId);
+    }
+
+    /**
+     * Adds the messages posted to a room on its previous owner while the
+     * snapshot was on its way
+     */
+    private void acceptTail(DataInputStream in) throws IOException {
+        ChatRoom room = requireLocalRoom(in.readUTF());
+        int messageCount = 0;
+        while (in.readBoolean()) {
+            if (room.restoreMessage(MessageCodec.readMessage(in))) {
+                messageCount++;
+            }
+        }
+        room.restoreLastSequence(in.readLong());
+        logger.info("Node {} added {} messages posted to room {} during its handover",
+                nodeId, messageCount, room.getRoomId());
+    }
+
+    private ChatRoom requireLocalRoom(String roomId) {
+        ChatRoom room = localManager.getChatRoom(roomId);
+        if (room == null) {
+            throw new ChatRoomException("Chat room with ID '" + roomId + "' does not exist");
+        }
+        return room;
+    }
+
+    private NodeLink linkTo(String owner) {
+        NodeLink link = owner == null ? null : peers.get(owner);
+        if (link == null) {
+            throw new ChatRoomException("No link to node '" + owner + "'");
+        }
+        return link;
+    }
+
+    private static void requireRoomId(String roomId) {
+        if (roomId == null || roomId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Room ID cannot be null or empty");
+        }
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Observer registered on every local room while a bus is attached. It
+     * publishes each posted message so that other nodes can fan it out.
+     */
+    private final class BusPublisher implements ChatObserver {
+
+        @Override
+        public void onMessageReceived(Message message) {
+            RoomBus attachedBus = bus;
+            if (attachedBus != null) {
+                attachedBus.publish(nodeId, message);
+            }
+        }
+
+        @Override
+        public void onUserJoined(User user) {
+            // Only messages are forwarded between nodes
+        }
+
+        @Override
+        public void onUserLeft(User user) {
+            // Only messages are forwarded between nodes
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+            logger.warn("Room bus publisher on node {} got error: {}", nodeId, errorMessage);
+        }
+
+        @Override
+        public void onPrivateMessageReceived(PrivateMessage privateMessage) {
+            // Private messages never go through rooms
+        }
+
+        @Override
+        public String getObserverUserId() {
+            return "room-bus:" + nodeId;
+        }
+    }
+
+    public int getPort() {
+        return server.getPort();
+    }
+
+    public ChatRoomManager getLocalManager() {
+        return localManager;
+    }
+
+    public ConsistentHashRing getRing() {
+        return ring;
+    }
+
+    /**
+     * Runs a standalone node, so a cluster can be spread over several JVMs.
+     * Usage: {@code ClusterNode <nodeId> <port> [peerId=host:port ...]}
+     * @param args Command line arguments
+     * @throws InterruptedException if interrupted while serving
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: ClusterNode <nodeId> <port> [peerId=host:port ...]");
+            return;
+        }
+        ClusterNode node = new ClusterNode(args[0], "127.0.0.1", Integer.parseInt(args[1]));
+        node.start();
+        for (int i = 2; i < args.length; i++) {
+            String[] peer = args[i].split("[=:]");
+            if (peer.length != 3) {
+                System.err.println("Ignoring malformed peer: " + args[i]);
+                continue;
+            }
+            node.addPeer(peer[0], peer[1], Integer.parseInt(peer[2]));
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(node::leaveCluster, "node-" + node.getNodeId() + "-leave"));
+        new CountDownLatch(1).await();
+    }
+}
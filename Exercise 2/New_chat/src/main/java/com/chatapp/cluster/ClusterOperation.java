@@ -0,0 +1,30 @@
+package com.chatapp.cluster;
+
+/**
+ * Operations a cluster node can forward to the node that owns a room.
+ * The ordinal is the operation code written on the wire, so new operations
+ * must only be appended.
+ */
+enum ClusterOperation {
+    CREATE_ROOM,
+    JOIN_ROOM,
+    REMOVE_USER,
+    POST_MESSAGE,
+    ROOM_INFO,
+    TRANSFER_ROOM,
+    NODE_LEFT,
+    TRANSFER_TAIL;
+
+    private static final ClusterOperation[] VALUES = values();
+
+    byte code() {
+        return (byte) ordinal();
+    }
+
+    static ClusterOperation fromCode(byte code) {
+        if (code < 0 || code >= VALUES.length) {
+            throw new IllegalArgumentException("Unknown cluster operation code: " + code);
+        }
+        return VALUES[code];
+    }
+}
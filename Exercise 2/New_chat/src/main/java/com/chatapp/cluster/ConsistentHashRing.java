@@ -0,0 +1,184 @@
+package com.chatapp.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Consistent hash ring that assigns room IDs to cluster nodes. Every node is
+ * placed on the ring at several virtual points so load stays even, and adding
+ * or removing a node only moves the keys on the arcs it gains or loses, about
+ * 1/N of all rooms.
+ * <p>
+ * The ring is copy-on-write: lookups read an immutable snapshot without locking
+ * and membership changes, which are rare, rebuild it.
+ */
+public class ConsistentHashRing {
+
+    /**
+     * Default number of virtual points per node
+     */
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private final int virtualNodes;
+    private volatile Snapshot snapshot;
+
+    public ConsistentHashRing() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Creates an empty ring
+     * @param virtualNodes The number of virtual points placed for each node
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Virtual node count must be positive");
+        }
+        this.virtualNodes = virtualNodes;
+        this.snapshot = new Snapshot(new TreeSet<>(), virtualNodes);
+    }
+
+    /**
+     * Adds a node to the ring
+     * @param nodeId The node ID
+     * @return true if the node was not already on the ring
+     */
+    public synchronized boolean addNode(String nodeId) {
+        if (nodeId == null || nodeId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Node ID cannot be null or empty");
+        }
+        TreeSet<String> nodes = new TreeSet<>(snapshot.nodes);
+        if (!nodes.add(nodeId)) {
+            return false;
+        }
+        snapshot = new Snapshot(nodes, virtualNodes);
+        return true;
+    }
+
+    /**
+     * Removes a node from the ring
+     * @param nodeId The node ID
+     * @return true if the node was on the ring
+     */
+    public synchronized boolean removeNode(String nodeId) {
+        TreeSet<String> nodes = new TreeSet<>(snapshot.nodes);
+        if (!nodes.remove(nodeId)) {
+            return false;
+        }
+        snapshot = new Snapshot(nodes, virtualNodes);
+        return true;
+    }
+
+    /**
+     * Finds the node that owns a key
+     * @param key The key, usually a room ID
+     * @return The owning node ID, or null if the ring is empty
+     */
+    public String nodeFor(String key) {
+        return snapshot.nodeFor(key);
+    }
+
+    /**
+     * Finds the owner a key would have if a node were not on the ring. Used to
+     * pick destinations before a node leaves.
+     * @param key The key, usually a room ID
+     * @param excludedNodeId The node to ignore
+     * @return The owning node ID, or null if no other node exists
+     */
+    public String nodeForExcluding(String key, String excludedNodeId) {
+        Snapshot current = snapshot;
+        if (!current.nodes.contains(excludedNodeId)) {
+            return current.nodeFor(key);
+        }
+        TreeSet<String> nodes = new TreeSet<>(current.nodes);
+        nodes.remove(excludedNodeId);
+        return new Snapshot(nodes, virtualNodes).nodeFor(key);
+    }
+
+    /**
+     * Gets the nodes currently on the ring
+     * @return Sorted list of node IDs
+     */
+    public List<String> getNodes() {
+        return Collections.unmodifiableList(new ArrayList<>(snapshot.nodes));
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    /**
+     * Counts how many of the given keys each node owns. Handy when checking the
+     * balance of a ring.
+     * @param keys The keys to place
+     * @return Map of node ID to key count
+     */
+    public Map<String, Integer> distribution(Iterable<String> keys) {
+        Snapshot current = snapshot;
+        Map<String, Integer> counts = new TreeMap<>();
+        for (String node : current.nodes) {
+            counts.put(node, 0);
+        }
+        for (String key : keys) {
+            String owner = current.nodeFor(key);
+            if (owner != null) {
+                counts.merge(owner, 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 64-bit FNV-1a followed by a finalizer so that similar keys such as
+     * "room-1" and "room-2" land far apart on the ring
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class Snapshot {
+        private final TreeSet<String> nodes;
+        private final TreeMap<Long, String> points;
+
+        Snapshot(TreeSet<String> nodes, int virtualNodes) {
+            this.nodes = nodes;
+            this.points = new TreeMap<>();
+            for (String node : nodes) {
+                for (int i = 0; i < virtualNodes; i++) {
+                    // On the rare hash collision the lexically smaller node keeps the point
+                    points.putIfAbsent(hash(node + "#" + i), node);
+                }
+            }
+        }
+
+        String nodeFor(String key) {
+            if (points.isEmpty()) {
+                return null;
+            }
+            Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+            return (point != null ? point : points.firstEntry()).getValue();
+        }
+    }
+
+    @Override
+    public String toString() {
+        Snapshot current = snapshot;
+        return "ConsistentHashRing{"
+                + "nodes=" + current.nodes
+                + ", virtualNodes=" + virtualNodes
+                + '}';
+    }
+}
@@ -0,0 +1,100 @@
+package com.chatapp.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs several {@link ClusterNode}s inside one JVM, each listening on its own
+ * ephemeral loopback port and linked to every other node over real TCP. Useful
+ * for exercising forwarding and rebalancing without starting extra processes.
+ */
+public class LocalCluster {
+    private static final Logger logger = LoggerFactory.getLogger(LocalCluster.class);
+    private static final String LOOPBACK = "127.0.0.1";
+
+    private final List<ClusterNode> nodes;
+
+    public LocalCluster() {
+        this.nodes = new ArrayList<>();
+    }
+
+    /**
+     * Starts a cluster of nodes named {@code node-0 .. node-(n-1)}
+     * @param nodeCount The number of nodes to start
+     * @return The running cluster
+     */
+    public static LocalCluster start(int nodeCount) {
+        if (nodeCount <= 0) {
+            throw new IllegalArgumentException("Node count must be positive");
+        }
+        LocalCluster cluster = new LocalCluster();
+        for (int i = 0; i < nodeCount; i++) {
+            cluster.addNode("node-" + i);
+        }
+        return cluster;
+    }
+
+    /**
+     * Starts a new node and links it with every existing node. Existing nodes
+     * hand over the rooms that now belong to the newcomer.
+     * @param nodeId The ID of the new node
+     * @return The started node
+     */
+    public synchronized ClusterNode addNode(String nodeId) {
+        ClusterNode node = new ClusterNode(nodeId, LOOPBACK, 0);
+        node.start();
+        int moved = 0;
+        for (ClusterNode existing : nodes) {
+            node.addPeer(existing.getNodeId(), LOOPBACK, existing.getPort());
+            moved += existing.addPeer(nodeId, LOOPBACK, node.getPort());
+        }
+        nodes.add(node);
+        logger.info("Local cluster added {}; {} rooms moved to it", nodeId, moved);
+        return node;
+    }
+
+    /**
+     * Makes a node leave gracefully, handing its rooms to the remaining nodes
+     * @param nodeId The ID of the node to remove
+     * @return true if the node was part of the cluster
+     */
+    public synchronized boolean removeNode(String nodeId) {
+        ClusterNode node = getNode(nodeId);
+        if (node == null) {
+            return false;
+        }
+        node.leaveCluster();
+        nodes.remove(node);
+        return true;
+    }
+
+    /**
+     * Gets a node by ID
+     * @param nodeId The node ID
+     * @return The node, or null if not found
+     */
+    public synchronized ClusterNode getNode(String nodeId) {
+        for (ClusterNode node : nodes) {
+            if (node.getNodeId().equals(nodeId)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    public synchronized List<ClusterNode> getNodes() {
+        return Collections.unmodifiableList(new ArrayList<>(nodes));
+    }
+
+    /**
+     * Stops every node without handing rooms over
+     */
+    public synchronized void shutdown() {
+        nodes.forEach(ClusterNode::shutdown);
+        nodes.clear();
+    }
+}
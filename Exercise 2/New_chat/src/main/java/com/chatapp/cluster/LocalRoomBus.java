@@ -0,0 +1,194 @@
+package com.chatapp.cluster;
+
+import com.chatapp.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for an external message broker. Every registered node has
+ * one link: a FIFO queue drained by a dedicated dispatcher thread that hands the
+ * node everything queued so far, up to {@code maxBatchSize} messages, in a
+ * single call. One queue per link keeps each room's messages in publication
+ * order.
+ */
+public class LocalRoomBus implements RoomBus {
+    private static final Logger logger = LoggerFactory.getLogger(LocalRoomBus.class);
+    private static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    private final int maxBatchSize;
+    private final Map<String, Link> links;
+    private final Map<String, Set<String>> subscribersByRoom;
+    private final AtomicLong publishedCount;
+
+    public LocalRoomBus() {
+        this(DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a bus
+     * @param maxBatchSize The largest number of messages delivered in one batch
+     */
+    public LocalRoomBus(int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.links = new ConcurrentHashMap<>();
+        this.subscribersByRoom = new ConcurrentHashMap<>();
+        this.publishedCount = new AtomicLong();
+    }
+
+    @Override
+    public void register(String nodeId, RoomBusSubscriber subscriber) {
+        if (nodeId == null || subscriber == null) {
+            throw new IllegalArgumentException("Node ID and subscriber cannot be null");
+        }
+        Link link = new Link(nodeId, subscriber);
+        Link previous = links.put(nodeId, link);
+        if (previous != null) {
+            previous.stop();
+        }
+        link.start();
+        logger.info("Node {} registered on room bus", nodeId);
+    }
+
+    @Override
+    public void unregister(String nodeId) {
+        Link link = links.remove(nodeId);
+        if (link != null) {
+            link.stop();
+        }
+        subscribersByRoom.values().forEach(nodes -> nodes.remove(nodeId));
+        logger.info("Node {} unregistered from room bus", nodeId);
+    }
+
+    @Override
+    public void subscribe(String roomId, String nodeId) {
+        subscribersByRoom.computeIfAbsent(roomId, id -> ConcurrentHashMap.newKeySet()).add(nodeId);
+        logger.debug("Node {} subscribed to room {}", nodeId, roomId);
+    }
+
+    @Override
+    public void unsubscribe(String roomId, String nodeId) {
+        subscribersByRoom.computeIfPresent(roomId, (id, nodes) -> {
+            nodes.remove(nodeId);
+            return nodes.isEmpty() ? null : nodes;
+        });
+        logger.debug("Node {} unsubscribed from room {}", nodeId, roomId);
+    }
+
+    @Override
+    public void publish(String originNodeId, Message message) {
+        Set<String> nodes = subscribersByRoom.get(message.getRoomId());
+        if (nodes == null) {
+            return;
+        }
+        for (String nodeId : nodes) {
+            if (nodeId.equals(originNodeId)) {
+                continue;
+            }
+            Link link = links.get(nodeId);
+            if (link != null) {
+                link.queue.offer(message);
+            }
+        }
+        publishedCount.incrementAndGet();
+    }
+
+    /**
+     * Stops every link's dispatcher
+     */
+    public void shutdown() {
+        links.values().forEach(Link::stop);
+        links.clear();
+        subscribersByRoom.clear();
+    }
+
+    public long getPublishedCount() {
+        return publishedCount.get();
+    }
+
+    /**
+     * Gets the number of batches delivered to a node so far
+     * @param nodeId The node ID
+     * @return The batch count, or 0 if the node is not registered
+     */
+    public long getDeliveredBatchCount(String nodeId) {
+        Link link = links.get(nodeId);
+        return link == null ? 0 : link.batchCount.get();
+    }
+
+    /**
+     * Gets the number of messages delivered to a node so far
+     * @param nodeId The node ID
+     * @return The message count, or 0 if the node is not registered
+     */
+    public long getDeliveredMessageCount(String nodeId) {
+        Link link = links.get(nodeId);
+        return link == null ? 0 : link.messageCount.get();
+    }
+
+    /**
+     * Link to one subscribing node
+     */
+    private final class Link implements Runnable {
+        private final String nodeId;
+        private final RoomBusSubscriber subscriber;
+        private final BlockingQueue<Message> queue;
+        private final Thread dispatcher;
+        private final AtomicLong batchCount;
+        private final AtomicLong messageCount;
+        private volatile boolean running;
+
+        Link(String nodeId, RoomBusSubscriber subscriber) {
+            this.nodeId = nodeId;
+            this.subscriber = subscriber;
+            this.queue = new LinkedBlockingQueue<>();
+            this.dispatcher = new Thread(this, "room-bus-" + nodeId);
+            this.dispatcher.setDaemon(true);
+            this.batchCount = new AtomicLong();
+            this.messageCount = new AtomicLong();
+        }
+
+        void start() {
+            running = true;
+            dispatcher.start();
+        }
+
+        void stop() {
+            running = false;
+            dispatcher.interrupt();
+        }
+
+        @Override
+        public void run() {
+            List<Message> batch = new ArrayList<>(maxBatchSize);
+            while (running) {
+                try {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, maxBatchSize - 1);
+                    subscriber.onMessages(new ArrayList<>(batch));
+                    batchCount.incrementAndGet();
+                    messageCount.addAndGet(batch.size());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    running = false;
+                } catch (Exception e) {
+                    logger.error("Error delivering batch to node {}: {}", nodeId, e.getMessage(), e);
+                } finally {
+                    batch.clear();
+                }
+            }
+            logger.debug("Room bus link to node {} stopped", nodeId);
+        }
+    }
+}
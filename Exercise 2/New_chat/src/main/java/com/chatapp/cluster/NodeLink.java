@@ -0,0 +1,129 @@
+package com.chatapp.cluster;
+
+import com.chatapp.exception.ChatRoomException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Client side of the TCP link to one peer node. Each request is a frame: its
+ * length, then an operation code followed by the operation's fields. The peer
+ * reads the whole frame before decoding it, so a request it cannot handle
+ * never leaves the stream out of step, and answers with a status byte and an
+ * optional {@link RoomInfo}. The link connects lazily and
+ * reconnects on the next call after a failure.
+ */
+class NodeLink {
+    private static final Logger logger = LoggerFactory.getLogger(NodeLink.class);
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ROOM_ERROR = 1;
+    static final byte STATUS_INVALID_ARGUMENT = 2;
+    static final byte STATUS_INTERNAL_ERROR = 3;
+
+    /**
+     * Largest request frame a node accepts, enough for the snapshot of a busy room
+     */
+    static final int MAX_FRAME_BYTES = 256 * 1024 * 1024;
+
+    private final String nodeId;
+    private final String host;
+    private final int port;
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+
+    NodeLink(String nodeId, String host, int port) {
+        this.nodeId = nodeId;
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Writes the fields of one request
+     */
+    @FunctionalInterface
+    interface RequestWriter {
+        void write(DataOutput out) throws IOException;
+    }
+
+    /**
+     * Sends a request and waits for its response
+     * @param operation The operation to run on the peer
+     * @param writer Writes the operation's fields
+     * @return The room summary returned by the peer, or null if none
+     * @throws ChatRoomException if the peer rejected the request or cannot be reached
+     * @throws IllegalArgumentException if the peer rejected the request's arguments
+     */
+    synchronized RoomInfo call(ClusterOperation operation, RequestWriter writer) {
+        try {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            DataOutputStream fields = new DataOutputStream(frame);
+            fields.writeByte(operation.code());
+            writer.write(fields);
+            if (frame.size() > MAX_FRAME_BYTES) {
+                throw new ChatRoomException(operation + " request of " + frame.size()
+                        + " bytes is larger than a node accepts");
+            }
+            ensureConnected();
+            out.writeInt(frame.size());
+            frame.writeTo(out);
+            out.flush();
+
+            byte status = in.readByte();
+            if (status == STATUS_OK) {
+                return in.readBoolean() ? RoomInfo.readFrom(in) : null;
+            }
+            String error = in.readUTF();
+            if (status == STATUS_INVALID_ARGUMENT) {
+                throw new IllegalArgumentException(error);
+            }
+            throw new ChatRoomException(error);
+        } catch (IOException e) {
+            logger.error("Link to node {} at {}:{} failed: {}", nodeId, host, port, e.getMessage());
+            close();
+            throw new ChatRoomException("Node '" + nodeId + "' is unreachable", e);
+        }
+    }
+
+    private void ensureConnected() throws IOException {
+        if (socket != null && !socket.isClosed()) {
+            return;
+        }
+        Socket newSocket = new Socket();
+        newSocket.setTcpNoDelay(true);
+        newSocket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+        socket = newSocket;
+        in = new DataInputStream(new BufferedInputStream(newSocket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(newSocket.getOutputStream()));
+        logger.info("Connected to node {} at {}:{}", nodeId, host, port);
+    }
+
+    synchronized void close() {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.debug("Error closing link to node {}: {}", nodeId, e.getMessage());
+        }
+        socket = null;
+        in = null;
+        out = null;
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+}
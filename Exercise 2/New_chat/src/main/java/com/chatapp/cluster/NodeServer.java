@@ -0,0 +1,123 @@
+package com.chatapp.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Server side of the node-to-node TCP links. Accepts connections from peer
+ * nodes and hands every request to the owning {@link ClusterNode}, one thread
+ * per peer connection.
+ */
+class NodeServer {
+    private static final Logger logger = LoggerFactory.getLogger(NodeServer.class);
+
+    private final ClusterNode node;
+    private final String host;
+    private final int requestedPort;
+    private final ExecutorService connectionExecutor;
+    private final Set<Socket> connections;
+    private volatile ServerSocket serverSocket;
+    private volatile boolean running;
+
+    NodeServer(ClusterNode node, String host, int port) {
+        this.node = node;
+        this.host = host;
+        this.requestedPort = port;
+        this.connections = ConcurrentHashMap.newKeySet();
+        this.connectionExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "node-" + node.getNodeId() + "-link");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Binds the listening socket and starts accepting peer connections
+     * @throws IOException if the socket cannot be bound
+     */
+    void start() throws IOException {
+        ServerSocket socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(host, requestedPort));
+        serverSocket = socket;
+        running = true;
+
+        Thread acceptThread = new Thread(this::acceptLoop, "node-" + node.getNodeId() + "-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        logger.info("Node {} listening on {}:{}", node.getNodeId(), host, getPort());
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connectionExecutor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("Node {} failed to accept connection: {}", node.getNodeId(), e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        connections.add(socket);
+        try (Socket connection = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+            while (running) {
+                node.handleRequest(in, out);
+                out.flush();
+            }
+        } catch (EOFException | SocketException e) {
+            logger.debug("Peer connection to node {} closed: {}", node.getNodeId(), e.getMessage());
+        } catch (IOException e) {
+            logger.error("Error serving peer connection on node {}: {}", node.getNodeId(), e.getMessage(), e);
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    int getPort() {
+        ServerSocket socket = serverSocket;
+        return socket == null ? requestedPort : socket.getLocalPort();
+    }
+
+    void stop() {
+        running = false;
+        connectionExecutor.shutdownNow();
+        ServerSocket socket = serverSocket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.debug("Error closing server socket of node {}: {}", node.getNodeId(), e.getMessage());
+            }
+        }
+        for (Socket connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                logger.debug("Error closing peer connection of node {}: {}", node.getNodeId(), e.getMessage());
+            }
+        }
+        logger.info("Node {} stopped listening", node.getNodeId());
+    }
+}
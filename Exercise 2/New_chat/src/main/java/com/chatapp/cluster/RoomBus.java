@@ -0,0 +1,49 @@
+package com.chatapp.cluster;
+
+import com.chatapp.model.Message;
+
+/**
+ * Publish/subscribe bus between cluster nodes. The node that owns a room
+ * publishes every message posted there; nodes that have local observers for the
+ * room subscribe to it and fan the message out locally. A message crosses each
+ * link once per subscribing node, however many users that node serves.
+ * <p>
+ * Implementations must deliver the messages of one room to a subscriber in the
+ * order they were published.
+ */
+public interface RoomBus {
+
+    /**
+     * Attaches a node to the bus
+     * @param nodeId The node ID
+     * @param subscriber Receives batches of messages for the node's subscriptions
+     */
+    void register(String nodeId, RoomBusSubscriber subscriber);
+
+    /**
+     * Detaches a node and drops all of its subscriptions
+     * @param nodeId The node ID
+     */
+    void unregister(String nodeId);
+
+    /**
+     * Subscribes a node to the messages of a room
+     * @param roomId The room ID
+     * @param nodeId The subscribing node
+     */
+    void subscribe(String roomId, String nodeId);
+
+    /**
+     * Cancels a node's subscription to a room
+     * @param roomId The room ID
+     * @param nodeId The subscribing node
+     */
+    void unsubscribe(String roomId, String nodeId);
+
+    /**
+     * Publishes a message to every node subscribed to its room except the origin
+     * @param originNodeId The node that published the message
+     * @param message The message
+     */
+    void publish(String originNodeId, Message message);
+}
@@ -0,0 +1,19 @@
+package com.chatapp.cluster;
+
+import com.chatapp.model.Message;
+
+import java.util.List;
+
+/**
+ * Receives messages from a {@link RoomBus} on behalf of one node.
+ */
+@FunctionalInterface
+public interface RoomBusSubscriber {
+
+    /**
+     * Called with a batch of messages for rooms the node subscribed to. Messages
+     * of the same room appear in publication order.
+     * @param messages The batch, never empty
+     */
+    void onMessages(List<Message> messages);
+}
@@ -0,0 +1,91 @@
+package com.chatapp.cluster;
+
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.RoomMode;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Immutable summary of a room returned by cluster operations. A room may live on
+ * another node, so callers get this value rather than the {@link ChatRoom} itself.
+ */
+public final class RoomInfo {
+    private final String roomId;
+    private final String roomName;
+    private final RoomMode mode;
+    private final int userCount;
+    private final int messageCount;
+    private final String ownerNodeId;
+
+    public RoomInfo(String roomId, String roomName, RoomMode mode, int userCount, int messageCount, String ownerNodeId) {
+        this.roomId = roomId;
+        this.roomName = roomName;
+        this.mode = mode;
+        this.userCount = userCount;
+        this.messageCount = messageCount;
+        this.ownerNodeId = ownerNodeId;
+    }
+
+    /**
+     * Summarizes a local room
+     * @param room The room
+     * @param ownerNodeId The node that owns the room
+     * @return The summary
+     */
+    static RoomInfo of(ChatRoom room, String ownerNodeId) {
+        return new RoomInfo(room.getRoomId(), room.getRoomName(), room.getMode(),
+                room.getUserCount(), room.getMessageCount(), ownerNodeId);
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(roomId);
+        out.writeUTF(roomName);
+        out.writeUTF(mode.name());
+        out.writeInt(userCount);
+        out.writeInt(messageCount);
+        out.writeUTF(ownerNodeId);
+    }
+
+    static RoomInfo readFrom(DataInput in) throws IOException {
+        return new RoomInfo(in.readUTF(), in.readUTF(), RoomMode.valueOf(in.readUTF()),
+                in.readInt(), in.readInt(), in.readUTF());
+    }
+
+    public String getRoomId() {
+        return roomId;
+    }
+
+    public String getRoomName() {
+        return roomName;
+    }
+
+    public RoomMode getMode() {
+        return mode;
+    }
+
+    public int getUserCount() {
+        return userCount;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    public String getOwnerNodeId() {
+        return ownerNodeId;
+    }
+
+    @Override
+    public String toString() {
+        return "RoomInfo{"
+                + "roomId='" + roomId + '\''
+                + ", roomName='" + roomName + '\''
+                + ", mode=" + mode
+                + ", users=" + userCount
+                + ", messages=" + messageCount
+                + ", owner='" + ownerNodeId + '\''
+                + '}';
+    }
+}
@@ -0,0 +1,336 @@
+package com.chatapp.codec;
+
+import com.chatapp.model.Message;
+import com.chatapp.model.MessageKind;
+import com.chatapp.model.RoomMode;
+import com.chatapp.model.User;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Newline-delimited JSON encoding of the chat model, for exports that other
+ * tools read. Every record is one flat JSON object on its own line, tagged
+ * with a {@code type} of {@code room}, {@code member} or {@code message}.
+ * Timestamps are ISO-8601 local date-times in UTC, as in {@link MessageCodec}.
+ * <p>
+ * The reader only accepts the flat objects the writer produces: string,
+ * number, boolean and null values, no nested objects or arrays.
+ */
+public final class JsonLineCodec {
+
+    public static final String TYPE_ROOM = "room";
+    public static final String TYPE_MEMBER = "member";
+    public static final String TYPE_MESSAGE = "message";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private JsonLineCodec() {
+    }
+
+    /**
+     * Writes the record that starts a room
+     * @param out The destination
+     * @param roomId The room ID
+     * @param roomName The room name
+     * @param mode The room mode
+     * @param lastSequence The last sequence the room assigned, edits and deletions included
+     * @throws IOException if the destination fails
+     */
+    public static void writeRoom(Appendable out, String roomId, String roomName, RoomMode mode, long lastSequence)
+            throws IOException {
+        out.append("{\"type\":\"").append(TYPE_ROOM).append('"');
+        writeString(out, "roomId", roomId);
+        writeString(out, "name", roomName);
+        writeString(out, "mode", mode.name());
+        out.append(",\"lastSequence\":").append(String.valueOf(lastSequence));
+        out.append("}\n");
+    }
+
+    /**
+     * Writes a member record
+     * @param out The destination
+     * @param user The member
+     * @param present Whether the member is currently in the room
+     * @throws IOException if the destination fails
+     */
+    public static void writeMember(Appendable out, User user, boolean present) throws IOException {
+        out.append("{\"type\":\"").append(TYPE_MEMBER).append('"');
+        writeString(out, "userId", user.getUserId());
+        writeString(out, "username", user.getUsername());
+        out.append(",\"active\":").append(String.valueOf(user.isActive()));
+        out.append(",\"present\":").append(String.valueOf(present));
+        out.append("}\n");
+    }
+
+    /**
+     * Writes a message record
+     * @param out The destination
+     * @param message The message
+     * @throws IOException if the destination fails
+     */
+    public static void writeMessage(Appendable out, Message message) throws IOException {
+        out.append("{\"type\":\"").append(TYPE_MESSAGE).append('"');
+        writeString(out, "messageId", message.getMessageId());
+        writeString(out, "senderId", message.getSenderId());
+        writeString(out, "senderUsername", message.getSenderUsername());
+        writeString(out, "content", message.getContent());
+        writeString(out, "roomId", message.getRoomId());
+        writeString(out, "timestamp", DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(message.getTimestamp()));
+        out.append(",\"sequence\":").append(String.valueOf(message.getSequence()));
+        writeString(out, "kind", message.getKind().name());
+        out.append(",\"edited\":").append(String.valueOf(message.isEdited()));
+        if (message.getIdempotencyKey() != null) {
+            writeString(out, "idempotencyKey", message.getIdempotencyKey());
+        }
+        if (message.isRevision()) {
+            writeString(out, "targetMessageId", message.getTargetMessageId());
+            out.append(",\"targetSequence\":").append(String.valueOf(message.getTargetSequence()));
+        }
+        out.append("}\n");
+    }
+
+    private static void writeString(Appendable out, String name, String value) throws IOException {
+        out.append(",\"").append(name).append("\":");
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '"' && c != '\\' && c >= 0x20) {
+                continue;
+            }
+            out.append(value, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+            }
+        }
+        out.append(value, start, value.length()).append('"');
+    }
+
+    /**
+     * Parses one line into its fields. Strings are unescaped; numbers and
+     * booleans are kept as their text and JSON null becomes null.
+     * @param line The line, without its newline
+     * @return The fields by name
+     * @throws IOException if the line is not a flat JSON object
+     */
+    public static Map<String, String> parse(String line) throws IOException {
+        Map<String, String> fields = new HashMap<>();
+        int[] position = {skipSpace(line, 0)};
+        expect(line, position, '{');
+        if (peek(line, position) == '}') {
+            position[0]++;
+        } else {
+            while (true) {
+                String name = readString(line, position);
+                expect(line, position, ':');
+                fields.put(name, readValue(line, position));
+                char next = peek(line, position);
+                position[0]++;
+                if (next == '}') {
+                    break;
+                }
+                if (next != ',') {
+                    throw malformed(line, position[0] - 1);
+                }
+            }
+        }
+        if (skipSpace(line, position[0]) != line.length()) {
+            throw malformed(line, position[0]);
+        }
+        return fields;
+    }
+
+    /**
+     * Builds a message from the fields of a message record
+     * @param fields The parsed record
+     * @return The message
+     * @throws IOException if a field is missing or invalid
+     */
+    public static Message toMessage(Map<String, String> fields) throws IOException {
+        try {
+            MessageKind kind = MessageKind.valueOf(required(fields, "kind"));
+            String targetSequence = fields.get("targetSequence");
+            return new Message(required(fields, "messageId"), required(fields, "senderId"),
+                    required(fields, "senderUsername"), required(fields, "content"), required(fields, "roomId"),
+                    LocalDateTime.parse(required(fields, "timestamp")), fields.get("idempotencyKey"),
+                    Long.parseLong(required(fields, "sequence")), kind, fields.get("targetMessageId"),
+                    targetSequence == null ? 0 : Long.parseLong(targetSequence),
+                    Boolean.parseBoolean(fields.get("edited")));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new IOException("Invalid message record: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Builds a user from the fields of a member record
+     * @param fields The parsed record
+     * @return The user, with its active flag
+     * @throws IOException if a field is missing or invalid
+     */
+    public static User toUser(Map<String, String> fields) throws IOException {
+        try {
+            User user = new User(required(fields, "userId"), required(fields, "username"));
+            user.setActive(!"false".equals(fields.get("active")));
+            return user;
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid member record: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Gets a field that must be present and not null
+     * @param fields The parsed record
+     * @param name The field name
+     * @return The field value
+     * @throws IOException if the field is missing
+     */
+    public static String required(Map<String, String> fields, String name) throws IOException {
+        String value = fields.get(name);
+        if (value == null) {
+            throw new IOException("Record has no '" + name + "' field");
+        }
+        return value;
+    }
+
+    private static String readValue(String line, int[] position) throws IOException {
+        char c = peek(line, position);
+        if (c == '"') {
+            return readString(line, position);
+        }
+        if (c == '{' || c == '[') {
+            throw malformed(line, position[0]);
+        }
+        int start = position[0];
+        int end = start;
+        while (end < line.length() && ",} \t".indexOf(line.charAt(end)) < 0) {
+            end++;
+        }
+        if (end == start) {
+            throw malformed(line, start);
+        }
+        position[0] = end;
+        String literal = line.substring(start, end);
+        return "null".equals(literal) ? null : literal;
+    }
+
+    private static String readString(String line, int[] position) throws IOException {
+        expect(line, position, '"');
+        int start = position[0];
+        StringBuilder unescaped = null;
+        int i = start;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                position[0] = i + 1;
+                return unescaped == null ? line.substring(start, i) : unescaped.toString();
+            }
+            if (c != '\\') {
+                if (unescaped != null) {
+                    unescaped.append(c);
+                }
+                i++;
+                continue;
+            }
+            if (unescaped == null) {
+                unescaped = new StringBuilder(line.length() - start).append(line, start, i);
+            }
+            if (i + 1 >= line.length()) {
+                break;
+            }
+            char escaped = line.charAt(i + 1);
+            i += 2;
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    unescaped.append(escaped);
+                    break;
+                case 'n':
+                    unescaped.append('\n');
+                    break;
+                case 'r':
+                    unescaped.append('\r');
+                    break;
+                case 't':
+                    unescaped.append('\t');
+                    break;
+                case 'b':
+                    unescaped.append('\b');
+                    break;
+                case 'f':
+                    unescaped.append('\f');
+                    break;
+                case 'u':
+                    if (i + 4 > line.length()) {
+                        throw malformed(line, i);
+                    }
+                    try {
+                        unescaped.append((char) Integer.parseInt(line.substring(i, i + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw malformed(line, i);
+                    }
+                    i += 4;
+                    break;
+                default:
+                    throw malformed(line, i - 1);
+            }
+        }
+        throw malformed(line, line.length());
+    }
+
+    private static void expect(String line, int[] position, char expected) throws IOException {
+        if (peek(line, position) != expected) {
+            throw malformed(line, position[0]);
+        }
+        position[0]++;
+    }
+
+    /**
+     * Skips white space and returns the next character without consuming it
+     */
+    private static char peek(String line, int[] position) throws IOException {
+        position[0] = skipSpace(line, position[0]);
+        if (position[0] >= line.length()) {
+            throw malformed(line, position[0]);
+        }
+        return line.charAt(position[0]);
+    }
+
+    private static int skipSpace(String line, int position) {
+        while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static IOException malformed(String line, int position) {
+        return new IOException("Malformed JSON line at column " + (position + 1) + ": "
+                + (line.length() > 80 ? line.substring(0, 80) + "..." : line));
+    }
+}
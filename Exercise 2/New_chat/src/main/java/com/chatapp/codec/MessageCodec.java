@@ -0,0 +1,133 @@
+package com.chatapp.codec;
+
+import com.chatapp.model.Message;
+import com.chatapp.model.MessageKind;
+import com.chatapp.model.User;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Compact binary encoding of the chat model used wherever messages leave the
+ * heap: node-to-node links, storage segments and bulk export. Strings are
+ * written as modified UTF-8 and timestamps as UTC epoch seconds plus nanos.
+ * <p>
+ * A message carries a flags byte where older data had a single boolean for the
+ * idempotency key, so messages written before edits existed still decode.
+ */
+public final class MessageCodec {
+
+    private static final int FLAG_IDEMPOTENCY_KEY = 1;
+    private static final int FLAG_EDITED = 2;
+    private static final int FLAG_EDIT = 4;
+    private static final int FLAG_TOMBSTONE = 8;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * Writes a message
+     * @param out The destination
+     * @param message The message to write
+     * @throws IOException if the destination fails
+     */
+    public static void writeMessage(DataOutput out, Message message) throws IOException {
+        out.writeUTF(message.getMessageId());
+        out.writeUTF(message.getSenderId());
+        out.writeUTF(message.getSenderUsername());
+        out.writeUTF(message.getContent());
+        out.writeUTF(message.getRoomId());
+        writeTimestamp(out, message.getTimestamp());
+        int flags = (message.getIdempotencyKey() != null ? FLAG_IDEMPOTENCY_KEY : 0)
+                | (message.isEdited() ? FLAG_EDITED : 0)
+                | (message.getKind() == MessageKind.EDIT ? FLAG_EDIT : 0)
+                | (message.getKind() == MessageKind.TOMBSTONE ? FLAG_TOMBSTONE : 0);
+        out.writeByte(flags);
+        if (message.getIdempotencyKey() != null) {
+            out.writeUTF(message.getIdempotencyKey());
+        }
+        out.writeLong(message.getSequence());
+        if (message.isRevision()) {
+            out.writeUTF(message.getTargetMessageId());
+            out.writeLong(message.getTargetSequence());
+        }
+    }
+
+    /**
+     * Reads a message written by {@link #writeMessage(DataOutput, Message)}
+     * @param in The source
+     * @return The decoded message
+     * @throws IOException if the source fails or is truncated
+     */
+    public static Message readMessage(DataInput in) throws IOException {
+        String messageId = in.readUTF();
+        String senderId = in.readUTF();
+        String senderUsername = in.readUTF();
+        String content = in.readUTF();
+        String roomId = in.readUTF();
+        LocalDateTime timestamp = readTimestamp(in);
+        int flags = in.readUnsignedByte();
+        String idempotencyKey = (flags & FLAG_IDEMPOTENCY_KEY) != 0 ? in.readUTF() : null;
+        long sequence = in.readLong();
+        MessageKind kind = (flags & FLAG_EDIT) != 0 ? MessageKind.EDIT
+                : (flags & FLAG_TOMBSTONE) != 0 ? MessageKind.TOMBSTONE : MessageKind.POST;
+        String targetMessageId = null;
+        long targetSequence = 0;
+        if (kind != MessageKind.POST) {
+            targetMessageId = in.readUTF();
+            targetSequence = in.readLong();
+        }
+        return new Message(messageId, senderId, senderUsername, content, roomId, timestamp, idempotencyKey, sequence,
+                kind, targetMessageId, targetSequence, (flags & FLAG_EDITED) != 0);
+    }
+
+    /**
+     * Writes a user together with its active flag
+     * @param out The destination
+     * @param user The user to write
+     * @throws IOException if the destination fails
+     */
+    public static void writeUser(DataOutput out, User user) throws IOException {
+        out.writeUTF(user.getUserId());
+        out.writeUTF(user.getUsername());
+        out.writeBoolean(user.isActive());
+    }
+
+    /**
+     * Reads a user written by {@link #writeUser(DataOutput, User)}
+     * @param in The source
+     * @return The decoded user
+     * @throws IOException if the source fails or is truncated
+     */
+    public static User readUser(DataInput in) throws IOException {
+        User user = new User(in.readUTF(), in.readUTF());
+        user.setActive(in.readBoolean());
+        return user;
+    }
+
+    /**
+     * Writes a timestamp as UTC epoch seconds followed by nanos
+     * @param out The destination
+     * @param timestamp The timestamp to write
+     * @throws IOException if the destination fails
+     */
+    public static void writeTimestamp(DataOutput out, LocalDateTime timestamp) throws IOException {
+        out.writeLong(timestamp.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(timestamp.getNano());
+    }
+
+    /**
+     * Reads a timestamp written by {@link #writeTimestamp(DataOutput, LocalDateTime)}
+     * @param in The source
+     * @return The decoded timestamp
+     * @throws IOException if the source fails or is truncated
+     */
+    public static LocalDateTime readTimestamp(DataInput in) throws IOException {
+        long epochSecond = in.readLong();
+        int nano = in.readInt();
+        return LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC);
+    }
+}
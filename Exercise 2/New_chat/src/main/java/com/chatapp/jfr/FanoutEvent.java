@@ -0,0 +1,32 @@
+package com.chatapp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One message handed to one room observer. There is one of these per member per
+ * post, so the shipped settings only record those over a threshold.
+ */
+@Name("com.chatapp.Fanout")
+@Label("Fan-out")
+@Category({"Chat", "Room"})
+@Description("A room message delivered to a single observer")
+@StackTrace(false)
+public final class FanoutEvent extends Event {
+
+    @Label("Room ID")
+    public String roomId;
+
+    @Label("Observer")
+    public String observerUserId;
+
+    @Label("Sequence")
+    public long sequence;
+
+    @Label("Failed")
+    public boolean failed;
+}
@@ -0,0 +1,32 @@
+package com.chatapp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One message read and decoded from a connection. Polls that find no complete
+ * frame are not recorded.
+ */
+@Name("com.chatapp.ProtocolReceive")
+@Label("Protocol Receive")
+@Category({"Chat", "Protocol"})
+@Description("A message read from a connection and decoded")
+@StackTrace(false)
+public final class ProtocolReceiveEvent extends Event {
+
+    @Label("Connection")
+    public String connection;
+
+    @Label("Bytes")
+    @Description("Frame size as it arrived, before decompression")
+    @DataAmount
+    public long bytes;
+
+    @Label("Compressed")
+    public boolean compressed;
+}
@@ -0,0 +1,33 @@
+package com.chatapp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One batch encoded and written to a connection
+ */
+@Name("com.chatapp.ProtocolSend")
+@Label("Protocol Send")
+@Category({"Chat", "Protocol"})
+@Description("A batch of messages encoded, queued and flushed on a connection")
+@StackTrace(false)
+public final class ProtocolSendEvent extends Event {
+
+    @Label("Connection")
+    public String connection;
+
+    @Label("Messages")
+    public int messageCount;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Compressed")
+    public boolean compressed;
+}
@@ -0,0 +1,36 @@
+package com.chatapp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A room created or deleted, or a user joining or leaving one
+ */
+@Name("com.chatapp.RoomLifecycle")
+@Label("Room Lifecycle")
+@Category({"Chat", "Room"})
+@Description("A chat room created or deleted, or a user joining or leaving it")
+public final class RoomLifecycleEvent extends Event {
+
+    public static final String CREATE = "create";
+    public static final String DELETE = "delete";
+    public static final String JOIN = "join";
+    public static final String LEAVE = "leave";
+
+    @Label("Operation")
+    public String operation;
+
+    @Label("Room ID")
+    public String roomId;
+
+    @Label("User ID")
+    @Description("The joining or leaving user, empty for create and delete")
+    public String userId;
+
+    @Label("Members")
+    @Description("Members after the operation")
+    public int memberCount;
+}
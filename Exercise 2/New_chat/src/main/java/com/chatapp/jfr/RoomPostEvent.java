@@ -0,0 +1,36 @@
+package com.chatapp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One message posted to a room. The duration includes waiting for the room's
+ * lock, so slow posts in a contended room stand out next to the
+ * {@code jdk.JavaMonitorEnter} events on the same thread.
+ */
+@Name("com.chatapp.RoomPost")
+@Label("Room Post")
+@Category({"Chat", "Room"})
+@Description("A message posted to a chat room, including synchronous fan-out to its observers")
+public final class RoomPostEvent extends Event {
+
+    @Label("Room ID")
+    public String roomId;
+
+    @Label("Sequence")
+    public long sequence;
+
+    @Label("Content Length")
+    @Description("Characters of message text")
+    public int contentLength;
+
+    @Label("Observers")
+    public int observerCount;
+
+    @Label("Duplicate")
+    @Description("The post repeated an earlier one and was not delivered again")
+    public boolean duplicate;
+}
@@ -0,0 +1,36 @@
+package com.chatapp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One message handed from a room to a user session's protocol
+ */
+@Name("com.chatapp.SessionDelivery")
+@Label("Session Delivery")
+@Category({"Chat", "Session"})
+@Description("A room message passed to a user session's reliable delivery window")
+@StackTrace(false)
+public final class SessionDeliveryEvent extends Event {
+
+    @Label("User ID")
+    public String userId;
+
+    @Label("Room ID")
+    public String roomId;
+
+    @Label("Protocol")
+    public String protocol;
+
+    @Label("Content Length")
+    @Description("Characters of message text")
+    public int contentLength;
+
+    @Label("Catching Up")
+    @Description("The session had fallen behind, so the message is left to a replay from history")
+    public boolean catchingUp;
+}
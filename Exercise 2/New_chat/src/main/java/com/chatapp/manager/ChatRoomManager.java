@@ -1,19 +1,31 @@
 package com.chatapp.manager;
 
+import com.chatapp.admission.AdmissionController;
 import com.chatapp.exception.ChatRoomException;
+import com.chatapp.jfr.RoomLifecycleEvent;
 import com.chatapp.model.ChatRoom;
+import com.chatapp.model.EphemeralEvent;
 import com.chatapp.model.Message;
+import com.chatapp.model.RoomMode;
 import com.chatapp.model.User;
+import com.chatapp.storage.HistoryStore;
+import com.chatapp.storage.HistoryStoreFactory;
+import com.chatapp.util.IdRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * Singleton class that manages all chat rooms in the application.
  * Demonstrates the Creational Design Pattern: Singleton Pattern.
  * Ensures thread-safe access to chat rooms with proper synchronization.
+ * <p>
+ * With {@link #setEventLoops(RoomEventLoopGroup)} every room is owned by one
+ * event loop and room operations run there instead of on the caller's thread.
  */
 public class ChatRoomManager {
     private static final Logger logger = LoggerFactory.getLogger(ChatRoomManager.class);
@@ -22,7 +34,11 @@ public class ChatRoomManager {
     private static volatile ChatRoomManager instance;
     
     private final Map<String, ChatRoom> chatRooms;
+    private final RoomDirectory directory;
     private final Object lock = new Object();
+    private volatile HistoryStoreFactory historyStoreFactory; // Null keeps history on the heap
+    private volatile RoomEventLoopGroup eventLoops; // Null runs room operations on the caller's thread
+    private volatile boolean accepting = true;
     
     /**
      * Private constructor to prevent external instantiation.
@@ -30,6 +46,7 @@ public class ChatRoomManager {
      */
     private ChatRoomManager() {
         this.chatRooms = new ConcurrentHashMap<>();
+        this.directory = new RoomDirectory();
         logger.info("ChatRoomManager initialized");
     }
     
@@ -49,6 +66,16 @@ public class ChatRoomManager {
         return instance;
     }
     
+    /**
+     * Creates a standalone manager that is not the JVM-wide singleton.
+     * Used by cluster nodes, each of which owns its own shard of rooms.
+     * Application code should keep using {@link #getInstance()}.
+     * @return A new, empty manager
+     */
+    public static ChatRoomManager newInstance() {
+        return new ChatRoomManager();
+    }
+    
     /**
      * Creates a new chat room
      * @param roomId The unique identifier for the room
@@ -57,24 +84,123 @@ public class ChatRoomManager {
      * @throws ChatRoomException if room already exists
      */
     public ChatRoom createChatRoom(String roomId, String roomName) {
+        return createChatRoom(roomId, roomName, RoomMode.STANDARD);
+    }
+    
+    /**
+     * Creates a new chat room with the given mode
+     * @param roomId The unique identifier for the room
+     * @param roomName The name of the room
+     * @param mode The room mode, LARGE for broadcast rooms beyond 100 members
+     * @return The created chat room
+     * @throws ChatRoomException if room already exists
+     */
+    public ChatRoom createChatRoom(String roomId, String roomName, RoomMode mode) {
         if (roomId == null || roomId.trim().isEmpty()) {
             throw new IllegalArgumentException("Room ID cannot be null or empty");
         }
         
+        RoomLifecycleEvent event = new RoomLifecycleEvent();
+        event.begin();
         synchronized (lock) {
+            checkAccepting();
             if (chatRooms.containsKey(roomId)) {
                 logger.warn("Attempted to create duplicate room with ID: {}", roomId);
                 throw new ChatRoomException("Chat room with ID '" + roomId + "' already exists");
             }
             
-            ChatRoom chatRoom = new ChatRoom(roomId, roomName);
+            ChatRoom chatRoom = historyStoreFactory == null
+                    ? new ChatRoom(roomId, roomName, mode)
+                    : new ChatRoom(roomId, roomName, mode, openHistory(roomId));
             chatRooms.put(roomId, chatRoom);
+            directory.register(chatRoom);
+            RoomEventLoopGroup loops = eventLoops;
+            if (loops != null) {
+                loops.register(roomId);
+            }
             
             logger.info("Chat room created: {} (ID: {}). Total rooms: {}", roomName, roomId, chatRooms.size());
+            recordLifecycle(event, RoomLifecycleEvent.CREATE, chatRoom, null);
             return chatRoom;
         }
     }
     
+    /**
+     * Stops taking new rooms, joins and posts. Used when the server drains for
+     * shutdown; there is no way back.
+     */
+    public void stopAccepting() {
+        if (accepting) {
+            accepting = false;
+            logger.info("Chat room manager stopped accepting new work");
+        }
+    }
+    
+    public boolean isAccepting() {
+        return accepting;
+    }
+    
+    private void checkAccepting() {
+        if (!accepting) {
+            throw new ChatRoomException("Server is shutting down");
+        }
+    }
+    
+    /**
+     * Sets where rooms created from now on keep their history
+     * @param historyStoreFactory The factory, or null to keep history on the heap
+     */
+    public void setHistoryStoreFactory(HistoryStoreFactory historyStoreFactory) {
+        this.historyStoreFactory = historyStoreFactory;
+    }
+    
+    /**
+     * Hands every room, existing and future, to an event loop. Joins, posts,
+     * edits, deletes, read marks and ephemeral events then run on the room's
+     * loop, one at a time; callers still get their result or exception.
+     * @param eventLoops The loops
+     * @throws IllegalStateException if loops were already set
+     */
+    public void setEventLoops(RoomEventLoopGroup eventLoops) {
+        if (eventLoops == null) {
+            throw new IllegalArgumentException("Event loops cannot be null");
+        }
+        synchronized (lock) {
+            if (this.eventLoops != null) {
+                throw new IllegalStateException("Event loops are already set");
+            }
+            for (String roomId : chatRooms.keySet()) {
+                eventLoops.register(roomId);
+            }
+            this.eventLoops = eventLoops;
+        }
+    }
+
+    /**
+     * Gets the loops that own the rooms
+     * @return The loops, or null if room operations run on the caller's thread
+     */
+    public RoomEventLoopGroup getEventLoops() {
+        return eventLoops;
+    }
+
+    /**
+     * Runs a room operation on the room's loop, or in place without loops
+     */
+    private <T> T onRoomLoop(ChatRoom room, Supplier<T> operation) {
+        RoomEventLoopGroup loops = eventLoops;
+        return loops == null ? operation.get() : loops.call(room.getRoomId(), operation);
+    }
+
+    private HistoryStore openHistory(String roomId) {
+        try {
+            return historyStoreFactory.create(roomId);
+        } catch (IOException e) {
+            logger.error("Failed to open history store for room {}", roomId, e);
+            throw new ChatRoomException("Failed to open history for room '" + roomId + "'", e);
+        }
+    }
+    
     /**
      * Gets an existing chat room
      * @param roomId The ID of the room to retrieve
@@ -95,6 +221,9 @@ public class ChatRoomManager {
      * @throws ChatRoomException if room doesn't exist
      */
     public void joinChatRoom(String roomId, User user) {
+        RoomLifecycleEvent event = new RoomLifecycleEvent();
+        event.begin();
+        checkAccepting();
         ChatRoom room = getChatRoom(roomId);
         
         if (room == null) {
@@ -102,7 +231,11 @@ public class ChatRoomManager {
             throw new ChatRoomException("Chat room with ID '" + roomId + "' does not exist");
         }
         
-        room.addUser(user);
+        onRoomLoop(room, () -> {
+            room.addUser(user);
+            return null;
+        });
+        recordLifecycle(event, RoomLifecycleEvent.JOIN, room, user.getUserId());
         logger.debug("User {} joined room {}", user.getUsername(), roomId);
     }
     
@@ -112,12 +245,15 @@ public class ChatRoomManager {
      * @param userId The ID of the user to remove
      */
     public void leaveChatRoom(String roomId, String userId) {
+        RoomLifecycleEvent event = new RoomLifecycleEvent();
+        event.begin();
         ChatRoom room = getChatRoom(roomId);
         
         if (room != null) {
             // room.removeUser(userId); // Do NOT remove user from ChatRoom's activeUsers here
             // The user is only leaving the *room interface*, not necessarily ending their session.
             // The ChatRoom will still keep track of the user's presence for history and notifications.
+            recordLifecycle(event, RoomLifecycleEvent.LEAVE, room, userId);
             logger.debug("User {} left room {}", userId, roomId);
         }
     }
@@ -126,9 +262,10 @@ public class ChatRoomManager {
      * Posts a message to a chat room
      * @param roomId The ID of the room
      * @param message The message to post
-     * @throws ChatRoomException if room doesn't exist
+     * @return The room sequence number of the message, or of the original for a duplicate
+     * @throws ChatRoomException if room doesn't exist, posts are throttled or the server is shutting down
      */
-    public void postMessage(String roomId, Message message) {
+    public long postMessage(String roomId, Message message) {
         ChatRoom room = getChatRoom(roomId);
         
         if (room == null) {
@@ -136,7 +273,90 @@ public class ChatRoomManager {
             throw new ChatRoomException("Chat room with ID '" + roomId + "' does not exist");
         }
         
-        room.postMessage(message);
+        checkAccepting();
+        AdmissionController.getInstance().admitPost();
+        return onRoomLoop(room, () -> room.postMessage(message));
+    }
+
+    /**
+     * Edits one of a user's messages in a chat room
+     * @param roomId The ID of the room
+     * @param userId The ID of the user who posted the message
+     * @param messageId The message to edit
+     * @param content The new content
+     * @return The room sequence number of the edit
+     * @throws ChatRoomException if room or message doesn't exist, posts are throttled or the server is shutting down
+     */
+    public long editMessage(String roomId, String userId, String messageId, String content) {
+        ChatRoom room = getChatRoom(roomId);
+
+        if (room == null) {
+            throw new ChatRoomException("Chat room with ID '" + roomId + "' does not exist");
+        }
+
+        checkAccepting();
+        AdmissionController.getInstance().admitPost();
+        return onRoomLoop(room, () -> room.editMessage(userId, messageId, content));
+    }
+
+    /**
+     * Deletes one of a user's messages from a chat room
+     * @param roomId The ID of the room
+     * @param userId The ID of the user who posted the message
+     * @param messageId The message to delete
+     * @return The room sequence number of the tombstone
+     * @throws ChatRoomException if room or message doesn't exist, posts are throttled or the server is shutting down
+     */
+    public long deleteMessage(String roomId, String userId, String messageId) {
+        ChatRoom room = getChatRoom(roomId);
+
+        if (room == null) {
+            throw new ChatRoomException("Chat room with ID '" + roomId + "' does not exist");
+        }
+
+        checkAccepting();
+        AdmissionController.getInstance().admitPost();
+        return onRoomLoop(room, () -> room.deleteMessage(userId, messageId));
+    }
+
+    /**
+     * Sends an ephemeral event, such as a typing indicator, to a chat room. It
+     * is not stored and may be conflated or dropped.
+     * @param roomId The ID of the room
+     * @param userId The ID of the user the event is about
+     * @param kind The kind of event
+     * @return true if the event was accepted for delivery, false if it was dropped
+     * @throws ChatRoomException if room doesn't exist or the user is not present in it
+     */
+    public boolean sendEphemeralEvent(String roomId, String userId, EphemeralEvent.Kind kind) {
+        ChatRoom room = getChatRoom(roomId);
+
+        if (room == null) {
+            throw new ChatRoomException("Chat room with ID '" + roomId + "' does not exist");
+        }
+
+        if (!isAccepting()) {
+            return false;
+        }
+        return onRoomLoop(room, () -> room.sendEphemeralEvent(userId, kind));
+    }
+    
+    /**
+     * Records that a user has read a chat room up to a message
+     * @param roomId The ID of the room
+     * @param userId The ID of the reader
+     * @param sequence The sequence of the newest message read
+     * @return true if the user's read position moved
+     * @throws ChatRoomException if room doesn't exist or the user is not a member
+     */
+    public boolean markRead(String roomId, String userId, long sequence) {
+        ChatRoom room = getChatRoom(roomId);
+
+        if (room == null) {
+            throw new ChatRoomException("Chat room with ID '" + roomId + "' does not exist");
+        }
+
+        return onRoomLoop(room, () -> room.markRead(userId, sequence));
     }
     
     /**
@@ -145,11 +365,22 @@ public class ChatRoomManager {
      * @return true if room was deleted, false if not found
      */
     public boolean deleteChatRoom(String roomId) {
+        RoomLifecycleEvent event = new RoomLifecycleEvent();
+        event.begin();
         synchronized (lock) {
             ChatRoom room = chatRooms.remove(roomId);
             
             if (room != null) {
+                RoomEventLoopGroup loops = eventLoops;
+                if (loops != null) {
+                    loops.unregister(roomId);
+                }
+                directory.unregister(room);
+                room.closeEvents(null);
+                room.closeHistory();
+                IdRegistry.getInstance().releaseRoom(roomId);
                 logger.info("Chat room {} deleted. Remaining rooms: {}", roomId, chatRooms.size());
+                recordLifecycle(event, RoomLifecycleEvent.DELETE, room, null);
                 return true;
             }
             
@@ -158,7 +389,53 @@ public class ChatRoomManager {
     }
     
     /**
-     * Gets all available chat rooms
+     * Ends a lifecycle event and commits it if the recording wants it. The
+     * fields are only filled in then, so the event costs next to nothing
+     * while nothing is recording.
+     */
+    private static void recordLifecycle(RoomLifecycleEvent event, String operation, ChatRoom room, String userId) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.roomId = room.getRoomId();
+            event.userId = userId;
+            event.memberCount = room.getUserCount();
+            event.commit();
+        }
+    }
+    
+    /**
+     * Lists one page of rooms in ID order
+     * @param cursor The cursor from the previous page, or null for the first page
+     * @param limit The most rooms on the page
+     * @return The page
+     */
+    public RoomDirectory.Page listChatRooms(String cursor, int limit) {
+        return directory.list(cursor, limit);
+    }
+    
+    /**
+     * Finds rooms whose name starts with a prefix, ignoring case
+     * @param namePrefix The name prefix
+     * @param cursor The cursor from the previous page, or null for the first page
+     * @param limit The most rooms on the page
+     * @return The page
+     */
+    public RoomDirectory.Page searchChatRooms(String namePrefix, String cursor, int limit) {
+        return directory.searchByName(namePrefix, cursor, limit);
+    }
+    
+    /**
+     * Gets the room directory with its rankings
+     * @return The directory of this manager
+     */
+    public RoomDirectory getDirectory() {
+        return directory;
+    }
+    
+    /**
+     * Gets all available chat rooms. Copies every room; prefer
+     * {@link #listChatRooms(String, int)} when there may be many.
      * @return List of all chat rooms
      */
     public List<ChatRoom> getAllChatRooms() {
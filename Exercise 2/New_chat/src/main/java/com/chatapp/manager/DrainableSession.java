@@ -0,0 +1,41 @@
+package com.chatapp.manager;
+
+import com.chatapp.model.Message;
+import com.chatapp.model.PrivateMessage;
+
+import java.util.List;
+
+/**
+ * A user session as seen by the {@link SessionDrainer} during shutdown. The
+ * drainer calls the methods in order, once each, from one of its worker
+ * threads.
+ */
+public interface DrainableSession {
+
+    /**
+     * Gets the ID of the user the session belongs to
+     * @return The user ID
+     */
+    String getSessionUserId();
+
+    /**
+     * Delivers queued items to the user until nothing is left or the deadline
+     * passes
+     * @param deadlineNanos The {@link System#nanoTime()} by which to stop
+     * @return The number of messages delivered
+     */
+    int flush(long deadlineNanos);
+
+    /**
+     * Removes the messages that could not be delivered in time. Transient
+     * notifications such as join and leave lines are discarded.
+     * @param messages Receives the undelivered room messages
+     * @param privateMessages Receives the undelivered private messages
+     */
+    void takeUndelivered(List<Message> messages, List<PrivateMessage> privateMessages);
+
+    /**
+     * Closes the session's connection
+     */
+    void closeProtocol();
+}
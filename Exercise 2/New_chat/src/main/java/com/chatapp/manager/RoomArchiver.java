@@ -0,0 +1,466 @@
+package com.chatapp.manager;
+
+import com.chatapp.codec.JsonLineCodec;
+import com.chatapp.codec.MessageCodec;
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.Message;
+import com.chatapp.model.RoomMode;
+import com.chatapp.model.User;
+import com.chatapp.storage.HistoryCursor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Bulk export and import of rooms with their members and message history, for
+ * backups and migrations. Each room is one file in a directory, either
+ * newline-delimited JSON through {@link JsonLineCodec} or binary through
+ * {@link MessageCodec}.
+ * <p>
+ * Rooms are handled in parallel over a bounded pool of workers, each taking
+ * the next room as soon as it is free. A room's messages are streamed: export
+ * reads them through a {@link HistoryCursor} and import stores each one as it
+ * is read, so memory per room is a file buffer rather than its history.
+ * <p>
+ * Import creates the rooms in the {@link ChatRoomManager}, adds the members
+ * and restores the messages with their original sequence numbers, without
+ * notifying anyone. Messages at or below a room's last sequence are skipped,
+ * so importing the same files twice into a persistent store changes nothing.
+ * The history is exported resolved, without its edit and deletion entries, so
+ * each archive also records the room's last sequence and import continues the
+ * numbering from there.
+ * Export writes each file under a temporary name and moves it into place.
+ */
+public class RoomArchiver {
+    private static final Logger logger = LoggerFactory.getLogger(RoomArchiver.class);
+
+    private static final int MAGIC = 0x43484152; // "CHAR"
+    private static final int VERSION = 2;
+    private static final int VERSION_WITHOUT_LAST_SEQUENCE = 1;
+    private static final byte RECORD_END = 0;
+    private static final byte RECORD_MEMBER = 1;
+    private static final byte RECORD_MESSAGE = 2;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final long WORKER_TIMEOUT_HOURS = 24;
+
+    /**
+     * The file format of an archive
+     */
+    public enum Format {
+        NDJSON(".ndjson"),
+        BINARY(".chatbin");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * Finds the format of an archive file by its extension
+         * @param file The file
+         * @return The format, or null if the file is not an archive
+         */
+        public static Format of(Path file) {
+            String name = file.getFileName().toString();
+            for (Format format : values()) {
+                if (name.endsWith(format.extension)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final ChatRoomManager chatRoomManager;
+    private final int workerCount;
+
+    /**
+     * Creates an archiver with one worker per processor
+     * @param chatRoomManager The manager whose rooms are exported or rebuilt
+     */
+    public RoomArchiver(ChatRoomManager chatRoomManager) {
+        this(chatRoomManager, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an archiver
+     * @param chatRoomManager The manager whose rooms are exported or rebuilt
+     * @param workerCount The most rooms handled at the same time
+     */
+    public RoomArchiver(ChatRoomManager chatRoomManager, int workerCount) {
+        if (chatRoomManager == null) {
+            throw new IllegalArgumentException("Chat room manager cannot be null");
+        }
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("Worker count must be positive");
+        }
+        this.chatRoomManager = chatRoomManager;
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Writes every room to its own file in a directory. A room that fails is
+     * logged and counted; the others are still written.
+     * @param directory The directory, created if missing
+     * @param format The file format
+     * @return What was written
+     * @throws IOException if the directory cannot be created
+     */
+    public ArchiveReport exportRooms(Path directory, Format format) throws IOException {
+        if (directory == null || format == null) {
+            throw new IllegalArgumentException("Directory and format cannot be null");
+        }
+        Files.createDirectories(directory);
+        List<ChatRoom> rooms = chatRoomManager.getAllChatRooms();
+        Counters counters = new Counters();
+        long startNanos = System.nanoTime();
+        forEachInParallel(rooms.size(), "room-export", index -> {
+            ChatRoom room = rooms.get(index);
+            try {
+                exportRoom(room, directory.resolve(fileName(room.getRoomId(), format)), format, counters);
+                counters.rooms.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                counters.failedRooms.incrementAndGet();
+                logger.error("Failed to export room {}", room.getRoomId(), e);
+            }
+        });
+        ArchiveReport report = counters.report(System.nanoTime() - startNanos);
+        logger.info("Exported rooms to {}: {}", directory, report);
+        return report;
+    }
+
+    /**
+     * Rebuilds the rooms archived in a directory, in either format. A room that
+     * already exists, or whose file is damaged, is logged and counted; what was
+     * read of a damaged file stays imported.
+     * @param directory The directory written by {@link #exportRooms(Path, Format)}
+     * @return What was read
+     * @throws IOException if the directory cannot be listed
+     */
+    public ArchiveReport importRooms(Path directory) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory cannot be null");
+        }
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(directory)) {
+            listing.filter(file -> Format.of(file) != null).sorted().forEach(files::add);
+        }
+        Counters counters = new Counters();
+        long startNanos = System.nanoTime();
+        forEachInParallel(files.size(), "room-import", index -> {
+            Path file = files.get(index);
+            try {
+                importRoom(file, Format.of(file), counters);
+                counters.rooms.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                counters.failedRooms.incrementAndGet();
+                logger.error("Failed to import room from {}", file, e);
+            }
+        });
+        ArchiveReport report = counters.report(System.nanoTime() - startNanos);
+        logger.info("Imported rooms from {}: {}", directory, report);
+        return report;
+    }
+
+    private void exportRoom(ChatRoom room, Path file, Format format, Counters counters) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        // Taken before the history is read, so it never runs ahead of the messages written
+        long lastSequence = room.getLastSequence();
+        try (BufferedOutputStream stream = new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_BYTES)) {
+            if (format == Format.NDJSON) {
+                Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_BYTES);
+                JsonLineCodec.writeRoom(out, room.getRoomId(), room.getRoomName(), room.getMode(), lastSequence);
+                for (User member : room.getMembers()) {
+                    JsonLineCodec.writeMember(out, member, room.isPresent(member.getUserId()));
+                    counters.members.incrementAndGet();
+                }
+                try (HistoryCursor cursor = room.openHistory(1)) {
+                    while (cursor.hasNext()) {
+                        JsonLineCodec.writeMessage(out, cursor.next());
+                        counters.messages.incrementAndGet();
+                    }
+                }
+                out.flush();
+            } else {
+                DataOutputStream out = new DataOutputStream(stream);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(room.getRoomId());
+                out.writeUTF(room.getRoomName());
+                out.writeUTF(room.getMode().name());
+                out.writeLong(lastSequence);
+                for (User member : room.getMembers()) {
+                    out.writeByte(RECORD_MEMBER);
+                    MessageCodec.writeUser(out, member);
+                    out.writeBoolean(room.isPresent(member.getUserId()));
+                    counters.members.incrementAndGet();
+                }
+                try (HistoryCursor cursor = room.openHistory(1)) {
+                    while (cursor.hasNext()) {
+                        out.writeByte(RECORD_MESSAGE);
+                        MessageCodec.writeMessage(out, cursor.next());
+                        counters.messages.incrementAndGet();
+                    }
+                }
+                out.writeByte(RECORD_END);
+                out.flush();
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void importRoom(Path file, Format format, Counters counters) throws IOException {
+        if (format == Format.NDJSON) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                    Files.newInputStream(file), StandardCharsets.UTF_8), BUFFER_BYTES)) {
+                String line = in.readLine();
+                if (line == null) {
+                    throw new IOException("Archive " + file + " is empty");
+                }
+                Map<String, String> header = JsonLineCodec.parse(line);
+                if (!JsonLineCodec.TYPE_ROOM.equals(header.get("type"))) {
+                    throw new IOException("Archive " + file + " does not start with a room record");
+                }
+                ChatRoom room = createRoom(JsonLineCodec.required(header, "roomId"),
+                        JsonLineCodec.required(header, "name"), JsonLineCodec.required(header, "mode"));
+                long lastSequence = parseLastSequence(header.get("lastSequence"), file);
+                while ((line = in.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    Map<String, String> fields = JsonLineCodec.parse(line);
+                    String type = JsonLineCodec.required(fields, "type");
+                    if (JsonLineCodec.TYPE_MESSAGE.equals(type)) {
+                        restoreMessage(room, JsonLineCodec.toMessage(fields), counters);
+                    } else if (JsonLineCodec.TYPE_MEMBER.equals(type)) {
+                        addMember(room, JsonLineCodec.toUser(fields), !"false".equals(fields.get("present")),
+                                counters);
+                    } else {
+                        throw new IOException("Unexpected '" + type + "' record in " + file);
+                    }
+                }
+                room.restoreLastSequence(lastSequence);
+            }
+        } else {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Files.newInputStream(file), BUFFER_BYTES))) {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a room archive: " + file);
+                }
+                int version = in.readInt();
+                if (version != VERSION && version != VERSION_WITHOUT_LAST_SEQUENCE) {
+                    throw new IOException("Unsupported room archive version " + version + " in " + file);
+                }
+                ChatRoom room = createRoom(in.readUTF(), in.readUTF(), in.readUTF());
+                long lastSequence = version == VERSION ? in.readLong() : 0;
+                byte record;
+                while ((record = in.readByte()) != RECORD_END) {
+                    if (record == RECORD_MESSAGE) {
+                        restoreMessage(room, MessageCodec.readMessage(in), counters);
+                    } else if (record == RECORD_MEMBER) {
+                        addMember(room, MessageCodec.readUser(in), in.readBoolean(), counters);
+                    } else {
+                        throw new IOException("Unknown record type " + record + " in " + file);
+                    }
+                }
+                room.restoreLastSequence(lastSequence);
+            }
+        }
+    }
+
+    private ChatRoom createRoom(String roomId, String roomName, String mode) throws IOException {
+        try {
+            return chatRoomManager.createChatRoom(roomId, roomName, RoomMode.valueOf(mode));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid room record for " + roomId + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the last sequence of a room record, which archives written before
+     * it was recorded do not have
+     */
+    private static long parseLastSequence(String value, Path file) throws IOException {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid last sequence '" + value + "' in " + file, e);
+        }
+    }
+
+    private static void addMember(ChatRoom room, User member, boolean present, Counters counters) {
+        room.addUser(member);
+        if (!present) {
+            room.removeUser(member.getUserId());
+        }
+        counters.members.incrementAndGet();
+    }
+
+    private static void restoreMessage(ChatRoom room, Message message, Counters counters) {
+        if (room.restoreMessage(message)) {
+            counters.messages.incrementAndGet();
+        } else {
+            counters.skippedMessages.incrementAndGet();
+        }
+    }
+
+    /**
+     * Names a room's file after its ID, escaped so any ID is a safe file name
+     */
+    private static String fileName(String roomId, Format format) {
+        return URLEncoder.encode(roomId, StandardCharsets.UTF_8) + format.getExtension();
+    }
+
+    private interface IndexTask {
+        void run(int index);
+    }
+
+    private void forEachInParallel(int count, String threadName, IndexTask task) {
+        int threads = Math.max(1, Math.min(workerCount, count));
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < threads; i++) {
+            workers.execute(() -> {
+                for (int index = next.getAndIncrement(); index < count; index = next.getAndIncrement()) {
+                    task.run(index);
+                }
+            });
+        }
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(WORKER_TIMEOUT_HOURS, TimeUnit.HOURS)) {
+                logger.warn("Archive workers still busy after {} hours", WORKER_TIMEOUT_HOURS);
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Running totals shared by the workers
+     */
+    private static final class Counters {
+        private final AtomicInteger rooms = new AtomicInteger();
+        private final AtomicInteger failedRooms = new AtomicInteger();
+        private final AtomicLong members = new AtomicLong();
+        private final AtomicLong messages = new AtomicLong();
+        private final AtomicLong skippedMessages = new AtomicLong();
+
+        ArchiveReport report(long elapsedNanos) {
+            return new ArchiveReport(rooms.get(), failedRooms.get(), members.get(), messages.get(),
+                    skippedMessages.get(), elapsedNanos);
+        }
+    }
+
+    /**
+     * Outcome of an export or import
+     */
+    public static final class ArchiveReport {
+        private final int roomCount;
+        private final int failedRoomCount;
+        private final long memberCount;
+        private final long messageCount;
+        private final long skippedMessageCount;
+        private final long elapsedNanos;
+
+        ArchiveReport(int roomCount, int failedRoomCount, long memberCount, long messageCount,
+                      long skippedMessageCount, long elapsedNanos) {
+            this.roomCount = roomCount;
+            this.failedRoomCount = failedRoomCount;
+            this.memberCount = memberCount;
+            this.messageCount = messageCount;
+            this.skippedMessageCount = skippedMessageCount;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getRoomCount() {
+            return roomCount;
+        }
+
+        public int getFailedRoomCount() {
+            return failedRoomCount;
+        }
+
+        public long getMemberCount() {
+            return memberCount;
+        }
+
+        public long getMessageCount() {
+            return messageCount;
+        }
+
+        /**
+         * Gets how many imported messages the rooms already held
+         * @return The skipped message count, always 0 for an export
+         */
+        public long getSkippedMessageCount() {
+            return skippedMessageCount;
+        }
+
+        public Duration getElapsed() {
+            return Duration.ofNanos(elapsedNanos);
+        }
+
+        /**
+         * Gets the rate messages were written or stored at
+         * @return Messages per second
+         */
+        public double getMessagesPerSecond() {
+            return elapsedNanos == 0 ? 0 : messageCount / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return "ArchiveReport{"
+                    + "rooms=" + roomCount
+                    + ", failedRooms=" + failedRoomCount
+                    + ", members=" + memberCount
+                    + ", messages=" + messageCount
+                    + ", skippedMessages=" + skippedMessageCount
+                    + ", elapsedMillis=" + TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+                    + '}';
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.chatapp.manager;
+
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.Message;
+import com.chatapp.model.RoomActivityListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Searchable index over the rooms of a {@link ChatRoomManager}. Rooms are kept
+ * in two sorted concurrent maps, one keyed by name and one by ID, so a prefix
+ * query is a range scan that starts with a log-time seek and reads only the page
+ * it returns. Listings are paged with an opaque cursor instead of an offset, so
+ * deep pages cost the same as the first.
+ * <p>
+ * Two rankings are kept up to date as rooms change, rather than sorted per
+ * request: by number of present users and by recent message activity. Activity
+ * uses forward exponential decay: each message adds {@code e^(lambda * t)} to a
+ * room's score, where {@code t} is the time since the directory was created.
+ * Ordering by that sum is the same as ordering by a score that halves every
+ * half-life, but old scores never have to be touched again. Scores are kept as
+ * logarithms so they do not overflow. Empty and silent rooms are left out of
+ * the rankings, so a directory of mostly idle rooms stays small there.
+ */
+public class RoomDirectory implements RoomActivityListener {
+    private static final Logger logger = LoggerFactory.getLogger(RoomDirectory.class);
+
+    /**
+     * Default time after which a message counts half as much towards activity
+     */
+    public static final long DEFAULT_ACTIVITY_HALF_LIFE_SECONDS = 600;
+
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    private final Map<String, ChatRoom> roomsById;
+    private final ConcurrentSkipListMap<String, ChatRoom> idIndex;
+    private final ConcurrentSkipListMap<String, ChatRoom> nameIndex;
+    private final ConcurrentSkipListSet<RankEntry> occupancyRanking;
+    private final ConcurrentSkipListSet<RankEntry> activityRanking;
+    private final Map<String, RankEntry> occupancyEntries;
+    private final Map<String, RankEntry> activityEntries;
+    private final double decayPerMilli;
+    private final long landmarkMillis;
+
+    public RoomDirectory() {
+        this(DEFAULT_ACTIVITY_HALF_LIFE_SECONDS);
+    }
+
+    /**
+     * Creates an empty directory
+     * @param activityHalfLifeSeconds Time after which a message counts half as much towards activity
+     */
+    public RoomDirectory(long activityHalfLifeSeconds) {
+        if (activityHalfLifeSeconds <= 0) {
+            throw new IllegalArgumentException("Activity half-life must be positive");
+        }
+        this.roomsById = new ConcurrentHashMap<>();
+        this.idIndex = new ConcurrentSkipListMap<>();
+        this.nameIndex = new ConcurrentSkipListMap<>();
+        this.occupancyRanking = new ConcurrentSkipListSet<>();
+        this.activityRanking = new ConcurrentSkipListSet<>();
+        this.occupancyEntries = new ConcurrentHashMap<>();
+        this.activityEntries = new ConcurrentHashMap<>();
+        this.decayPerMilli = Math.log(2) / (activityHalfLifeSeconds * 1000.0);
+        this.landmarkMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Adds a room to the index and starts tracking its activity
+     * @param room The room to add
+     */
+    public void register(ChatRoom room) {
+        if (room == null) {
+            throw new IllegalArgumentException("Room cannot be null");
+        }
+        // Holding the room's monitor keeps its listener callbacks out until the entries exist
+        synchronized (room) {
+            if (roomsById.putIfAbsent(room.getRoomId(), room) != null) {
+                return;
+            }
+            idIndex.put(idKey(room), room);
+            nameIndex.put(nameKey(room), room);
+            rankOccupancy(room);
+            room.setActivityListener(this);
+        }
+        logger.debug("Room {} added to directory ({} rooms)", room.getRoomId(), roomsById.size());
+    }
+
+    /**
+     * Removes a room from the index
+     * @param room The room to remove
+     */
+    public void unregister(ChatRoom room) {
+        if (room == null) {
+            return;
+        }
+        synchronized (room) {
+            if (!roomsById.remove(room.getRoomId(), room)) {
+                return;
+            }
+            room.setActivityListener(null);
+            idIndex.remove(idKey(room));
+            nameIndex.remove(nameKey(room));
+            RankEntry occupancy = occupancyEntries.remove(room.getRoomId());
+            if (occupancy != null) {
+                occupancyRanking.remove(occupancy);
+            }
+            RankEntry activity = activityEntries.remove(room.getRoomId());
+            if (activity != null) {
+                activityRanking.remove(activity);
+            }
+        }
+        logger.debug("Room {} removed from directory ({} rooms)", room.getRoomId(), roomsById.size());
+    }
+
+    @Override
+    public void onPresenceChanged(ChatRoom room) {
+        if (roomsById.get(room.getRoomId()) == room) {
+            rankOccupancy(room);
+        }
+    }
+
+    @Override
+    public void onMessagePosted(ChatRoom room, Message message) {
+        if (roomsById.get(room.getRoomId()) != room) {
+            return;
+        }
+        RankEntry previous = activityEntries.get(room.getRoomId());
+        double weight = decayPerMilli * (System.currentTimeMillis() - landmarkMillis);
+        double score = previous == null ? weight : logAdd(previous.score, weight);
+        rank(activityRanking, activityEntries, room.getRoomId(), score, true);
+    }
+
+    /**
+     * Lists rooms in ID order
+     * @param cursor The cursor of the previous page, or null for the first page
+     * @param limit The most rooms on the page
+     * @return The page
+     */
+    public Page list(String cursor, int limit) {
+        return scan(idIndex, "", cursor, limit);
+    }
+
+    /**
+     * Finds rooms whose name starts with a prefix, ignoring case, in name order
+     * @param prefix The name prefix, empty for all rooms
+     * @param cursor The cursor of the previous page, or null for the first page
+     * @param limit The most rooms on the page
+     * @return The page
+     */
+    public Page searchByName(String prefix, String cursor, int limit) {
+        return scan(nameIndex, normalize(prefix), cursor, limit);
+    }
+
+    /**
+     * Finds rooms whose ID starts with a prefix, ignoring case, in ID order
+     * @param prefix The ID prefix, empty for all rooms
+     * @param cursor The cursor of the previous page, or null for the first page
+     * @param limit The most rooms on the page
+     * @return The page
+     */
+    public Page searchById(String prefix, String cursor, int limit) {
+        return scan(idIndex, normalize(prefix), cursor, limit);
+    }
+
+    /**
+     * Gets the rooms with the most present users
+     * @param k The most rooms to return
+     * @return Rooms, busiest first; empty rooms are left out
+     */
+    public List<ChatRoom> topByOccupancy(int k) {
+        return top(occupancyRanking, k);
+    }
+
+    /**
+     * Gets the rooms with the most recent message activity
+     * @param k The most rooms to return
+     * @return Rooms, most active first; rooms without messages are left out
+     */
+    public List<ChatRoom> topByActivity(int k) {
+        return top(activityRanking, k);
+    }
+
+    public int size() {
+        return roomsById.size();
+    }
+
+    private Page scan(NavigableMap<String, ChatRoom> index, String prefix, String cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        NavigableMap<String, ChatRoom> range = cursor != null && cursor.compareTo(prefix) >= 0
+                ? index.tailMap(cursor, false)
+                : index.tailMap(prefix, true);
+        List<ChatRoom> rooms = new ArrayList<>(Math.min(limit, 64));
+        String lastKey = null;
+        Iterator<Map.Entry<String, ChatRoom>> entries = range.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, ChatRoom> entry = entries.next();
+            if (!entry.getKey().startsWith(prefix)) {
+                return new Page(rooms, null);
+            }
+            if (rooms.size() == limit) {
+                return new Page(rooms, lastKey);
+            }
+            rooms.add(entry.getValue());
+            lastKey = entry.getKey();
+        }
+        return new Page(rooms, null);
+    }
+
+    private List<ChatRoom> top(ConcurrentSkipListSet<RankEntry> ranking, int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("K must be positive");
+        }
+        List<ChatRoom> result = new ArrayList<>(Math.min(k, 64));
+        for (RankEntry entry : ranking) {
+            if (result.size() == k) {
+                break;
+            }
+            ChatRoom room = roomsById.get(entry.roomId);
+            if (room != null) {
+                result.add(room);
+            }
+        }
+        return result;
+    }
+
+    private void rankOccupancy(ChatRoom room) {
+        int userCount = room.getUserCount();
+        rank(occupancyRanking, occupancyEntries, room.getRoomId(), userCount, userCount > 0);
+    }
+
+    /**
+     * Replaces a room's entry in a ranking. Callers hold the room's monitor, so
+     * updates for one room never interleave.
+     * @param keep false to drop the room from the ranking instead
+     */
+    private static void rank(ConcurrentSkipListSet<RankEntry> ranking, Map<String, RankEntry> entries,
+                             String roomId, double score, boolean keep) {
+        RankEntry previous;
+        RankEntry entry = null;
+        if (keep) {
+            entry = new RankEntry(score, roomId);
+            previous = entries.put(roomId, entry);
+            // Add before removing the old entry so readers never miss the room
+            ranking.add(entry);
+        } else {
+            previous = entries.remove(roomId);
+        }
+        if (previous != null && !previous.equals(entry)) {
+            ranking.remove(previous);
+        }
+    }
+
+    /**
+     * Computes log(e^a + e^b) without overflowing
+     */
+    private static double logAdd(double a, double b) {
+        double max = Math.max(a, b);
+        return max + Math.log1p(Math.exp(-Math.abs(a - b)));
+    }
+
+    private static String idKey(ChatRoom room) {
+        return normalize(room.getRoomId()) + KEY_SEPARATOR + room.getRoomId();
+    }
+
+    private static String nameKey(ChatRoom room) {
+        return normalize(room.getRoomName()) + KEY_SEPARATOR + room.getRoomId();
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * One page of a directory listing
+     */
+    public static final class Page {
+        private final List<ChatRoom> rooms;
+        private final String nextCursor;
+
+        Page(List<ChatRoom> rooms, String nextCursor) {
+            this.rooms = Collections.unmodifiableList(rooms);
+            this.nextCursor = nextCursor;
+        }
+
+        public List<ChatRoom> getRooms() {
+            return rooms;
+        }
+
+        /**
+         * Gets the cursor to pass for the next page
+         * @return The cursor, or null if this is the last page
+         */
+        public String getNextCursor() {
+            return nextCursor;
+        }
+
+        public boolean hasMore() {
+            return nextCursor != null;
+        }
+    }
+
+    /**
+     * Position of a room in a ranking, highest score first
+     */
+    private static final class RankEntry implements Comparable<RankEntry> {
+        private final double score;
+        private final String roomId;
+
+        RankEntry(double score, String roomId) {
+            this.score = score;
+            this.roomId = roomId;
+        }
+
+        @Override
+        public int compareTo(RankEntry other) {
+            int byScore = Double.compare(other.score, score);
+            return byScore != 0 ? byScore : roomId.compareTo(other.roomId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RankEntry)) return false;
+            RankEntry that = (RankEntry) o;
+            return Double.compare(score, that.score) == 0 && roomId.equals(that.roomId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Double.hashCode(score) + roomId.hashCode();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RoomDirectory{"
+                + "rooms=" + roomsById.size()
+                + '}';
+    }
+}
@@ -0,0 +1,412 @@
+package com.chatapp.manager;
+
+import com.chatapp.exception.ChatRoomException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A fixed set of event-loop threads that run the chat rooms' writes. Each room
+ * has a mailbox; an operation queued there is run by the room's loop, one at a
+ * time and in order, and rooms on different loops run in parallel.
+ * <p>
+ * {@link ChatRoomManager} queues joins, posts, edits, deletes, ephemeral events
+ * and read marks on the loop. Everything else still runs on the caller's thread
+ * under the room's own lock. That covers reads of history, members and
+ * presence, registering and removing observers, {@link
+ * com.chatapp.model.ChatRoom#removeUser(String)} and callers that hold the room
+ * itself. The loop therefore orders a room's writes, but the room is not
+ * confined to it and keeps its locking.
+ * <p>
+ * A mailbox is scheduled on its loop at most once at a time and drains a batch
+ * of operations per turn, so one busy room cannot starve the others on its
+ * loop. Moving a room to another loop only changes where its next turn is
+ * scheduled, which keeps its operations ordered. A rebalancer samples the
+ * operations each loop ran and periodically moves a busy room from the busiest
+ * loop to the idlest one when that narrows the gap.
+ */
+public final class RoomEventLoopGroup {
+    private static final Logger logger = LoggerFactory.getLogger(RoomEventLoopGroup.class);
+
+    public static final long DEFAULT_REBALANCE_PERIOD_MILLIS = 5000;
+
+    private static final int DRAIN_BATCH = 64;
+    private static final long MIN_REBALANCE_OPERATIONS = 1000; // Per period on the busiest loop
+    private static final double REBALANCE_RATIO = 1.5; // Busiest to idlest loop
+
+    private final ExecutorService[] loops;
+    private final Map<String, Mailbox> mailboxes;
+    private final ThreadLocal<Integer> currentLoop;
+    private final ScheduledExecutorService rebalancer;
+    private final AtomicLong migrationCount = new AtomicLong();
+    private volatile boolean shutdown;
+
+    /**
+     * Creates a group with the given number of loops
+     * @param loopCount The number of loop threads
+     * @param rebalancePeriodMillis How often to look for a room to move
+     */
+    public RoomEventLoopGroup(int loopCount, long rebalancePeriodMillis) {
+        if (loopCount <= 0) {
+            throw new IllegalArgumentException("Loop count must be positive");
+        }
+        if (rebalancePeriodMillis <= 0) {
+            throw new IllegalArgumentException("Rebalance period must be positive");
+        }
+        this.loops = new ExecutorService[loopCount];
+        this.mailboxes = new ConcurrentHashMap<>();
+        this.currentLoop = new ThreadLocal<>();
+        for (int i = 0; i < loopCount; i++) {
+            int index = i;
+            loops[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(() -> {
+                    currentLoop.set(index);
+                    runnable.run();
+                }, "room-loop-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        this.rebalancer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "room-loop-rebalancer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        rebalancer.scheduleWithFixedDelay(this::rebalance, rebalancePeriodMillis, rebalancePeriodMillis,
+                TimeUnit.MILLISECONDS);
+        logger.info("Room event loops initialized with {} loops", loopCount);
+    }
+
+    /**
+     * Creates a group with one loop per available processor
+     * @return The group
+     */
+    public static RoomEventLoopGroup perCore() {
+        return new RoomEventLoopGroup(Runtime.getRuntime().availableProcessors(), DEFAULT_REBALANCE_PERIOD_MILLIS);
+    }
+
+    /**
+     * Gives a room a mailbox on the loop with the fewest rooms
+     * @param roomId The room ID
+     */
+    public void register(String roomId) {
+        mailboxes.computeIfAbsent(roomId, id -> new Mailbox(id, leastPopulatedLoop()));
+    }
+
+    /**
+     * Drops a room's mailbox. Operations already queued still run.
+     * @param roomId The room ID
+     */
+    public void unregister(String roomId) {
+        mailboxes.remove(roomId);
+    }
+
+    private int leastPopulatedLoop() {
+        int[] rooms = new int[loops.length];
+        for (Mailbox mailbox : mailboxes.values()) {
+            rooms[mailbox.loop]++;
+        }
+        int best = 0;
+        for (int i = 1; i < rooms.length; i++) {
+            if (rooms[i] < rooms[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Runs an operation on a room's loop and waits for its result. Exceptions
+     * thrown by the operation are rethrown to the caller. When called from the
+     * room's own loop, for example by an observer, the operation runs in place.
+     * A loop thread never waits on another loop, which might be waiting on it,
+     * so it has to use {@link #submit(String, Supplier)} for rooms owned
+     * elsewhere.
+     * @param roomId The room ID
+     * @param operation The operation
+     * @param <T> The result type
+     * @return The operation's result
+     * @throws ChatRoomException if the room has no mailbox or the group is shut down
+     * @throws IllegalStateException if called from a loop that does not own the room
+     */
+    public <T> T call(String roomId, Supplier<T> operation) {
+        Mailbox mailbox = requireMailbox(roomId);
+        Integer loop = currentLoop.get();
+        if (loop != null) {
+            if (loop != mailbox.loop) {
+                throw new IllegalStateException("Loop " + loop + " cannot wait on room " + roomId
+                        + ", which runs on loop " + mailbox.loop + "; submit the operation instead");
+            }
+            return operation.get();
+        }
+        return await(queue(mailbox, operation));
+    }
+
+    /**
+     * Queues an operation on a room's loop and returns at once. Safe to call
+     * from any thread, including another room's loop.
+     * @param roomId The room ID
+     * @param operation The operation
+     * @param <T> The result type
+     * @return Completes with the operation's result, or exceptionally with what it threw
+     * @throws ChatRoomException if the room has no mailbox or the group is shut down
+     */
+    public <T> CompletableFuture<T> submit(String roomId, Supplier<T> operation) {
+        return queue(requireMailbox(roomId), operation);
+    }
+
+    private Mailbox requireMailbox(String roomId) {
+        Mailbox mailbox = mailboxes.get(roomId);
+        if (mailbox == null) {
+            throw new ChatRoomException("Chat room with ID '" + roomId + "' is not owned by an event loop");
+        }
+        return mailbox;
+    }
+
+    private static <T> CompletableFuture<T> queue(Mailbox mailbox, Supplier<T> operation) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        mailbox.submit(() -> {
+            try {
+                result.complete(operation.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Queues an operation on a room's loop without waiting for it
+     * @param roomId The room ID
+     * @param operation The operation
+     * @return false if the room has no mailbox
+     */
+    public boolean execute(String roomId, Runnable operation) {
+        Mailbox mailbox = mailboxes.get(roomId);
+        if (mailbox == null) {
+            return false;
+        }
+        mailbox.submit(() -> {
+            try {
+                operation.run();
+            } catch (RuntimeException e) {
+                logger.error("Operation on room {} failed", roomId, e);
+            }
+        });
+        return true;
+    }
+
+    private static <T> T await(CompletableFuture<T> result) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return result.get();
+                } catch (InterruptedException e) {
+                    // The operation is already queued and will run, so wait for it
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CompletionException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Moves the hottest room that narrows the gap from the busiest loop to the
+     * idlest one. Loads are the operations run since the previous pass.
+     */
+    private void rebalance() {
+        try {
+            long[] loads = new long[loops.length];
+            List<Mailbox> snapshot = new ArrayList<>(mailboxes.values());
+            long[] roomLoads = new long[snapshot.size()];
+            for (int i = 0; i < snapshot.size(); i++) {
+                Mailbox mailbox = snapshot.get(i);
+                roomLoads[i] = mailbox.sampledOperations.getAndSet(0);
+                loads[mailbox.loop] += roomLoads[i];
+            }
+            int busiest = 0;
+            int idlest = 0;
+            for (int i = 1; i < loads.length; i++) {
+                if (loads[i] > loads[busiest]) {
+                    busiest = i;
+                }
+                if (loads[i] < loads[idlest]) {
+                    idlest = i;
+                }
+            }
+            if (loads[busiest] < MIN_REBALANCE_OPERATIONS || loads[busiest] < loads[idlest] * REBALANCE_RATIO) {
+                return;
+            }
+            // Moving a room with load h helps only if h < gap: both loops then end below the busiest
+            long gap = loads[busiest] - loads[idlest];
+            Mailbox candidate = null;
+            long candidateLoad = 0;
+            for (int i = 0; i < snapshot.size(); i++) {
+                Mailbox mailbox = snapshot.get(i);
+                if (mailbox.loop == busiest && roomLoads[i] < gap && roomLoads[i] > candidateLoad) {
+                    candidate = mailbox;
+                    candidateLoad = roomLoads[i];
+                }
+            }
+            if (candidate != null) {
+                candidate.loop = idlest;
+                migrationCount.incrementAndGet();
+                logger.info("Moved room {} from loop {} to loop {} ({} of {} operations)",
+                        candidate.roomId, busiest, idlest, candidateLoad, loads[busiest]);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Room loop rebalancing failed", e);
+        }
+    }
+
+    /**
+     * Gets the loop a room currently runs on
+     * @param roomId The room ID
+     * @return The loop index, or -1 if the room has no mailbox
+     */
+    public int getLoopOf(String roomId) {
+        Mailbox mailbox = mailboxes.get(roomId);
+        return mailbox == null ? -1 : mailbox.loop;
+    }
+
+    public int getLoopCount() {
+        return loops.length;
+    }
+
+    /**
+     * Gets how many times the rebalancer moved a room
+     * @return The migration count
+     */
+    public long getMigrationCount() {
+        return migrationCount.get();
+    }
+
+    /**
+     * Gets the number of operations queued in all mailboxes
+     * @return The pending operation count
+     */
+    public int getPendingOperationCount() {
+        int pending = 0;
+        for (Mailbox mailbox : mailboxes.values()) {
+            pending += mailbox.pending.get();
+        }
+        return pending;
+    }
+
+    /**
+     * Stops the loops after they have run the operations already queued
+     * @param timeoutMillis How long to wait for the queued operations
+     */
+    public void shutdown(long timeoutMillis) {
+        if (shutdown) {
+            return;
+        }
+        shutdown = true;
+        rebalancer.shutdownNow();
+        for (ExecutorService loop : loops) {
+            loop.shutdown();
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            for (ExecutorService loop : loops) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !loop.awaitTermination(remaining, TimeUnit.MILLISECONDS)) {
+                    logger.warn("Room event loops did not finish in time; {} operations left",
+                            getPendingOperationCount());
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The queue of one room's operations and the loop it is drained on
+     */
+    private final class Mailbox {
+        private final String roomId;
+        private final Queue<Runnable> operations = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicLong sampledOperations = new AtomicLong();
+        private volatile int loop;
+
+        Mailbox(String roomId, int loop) {
+            this.roomId = roomId;
+            this.loop = loop;
+        }
+
+        void submit(Runnable operation) {
+            if (shutdown) {
+                throw new ChatRoomException("Room event loops are shut down");
+            }
+            operations.add(operation);
+            pending.incrementAndGet();
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    loops[loop].execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    throw new ChatRoomException("Room event loops are shut down", e);
+                }
+            }
+        }
+
+        private void drain() {
+            int ran = 0;
+            Runnable operation;
+            // Once shut down the loop will take no new turns, so run everything left
+            while ((ran < DRAIN_BATCH || shutdown) && (operation = operations.poll()) != null) {
+                pending.decrementAndGet();
+                ran++;
+                operation.run();
+            }
+            sampledOperations.addAndGet(ran);
+            scheduled.set(false);
+            // Picks up operations added meanwhile, on the loop the room may have moved to
+            if (!operations.isEmpty()) {
+                try {
+                    schedule();
+                } catch (ChatRoomException e) {
+                    logger.warn("Dropped {} queued operations of room {}: {}", pending.get(), roomId, e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.chatapp.manager;
+
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.Message;
+import com.chatapp.model.PrivateMessage;
+import com.chatapp.storage.ShutdownCheckpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drains a server on shutdown within a deadline:
+ * <ol>
+ *   <li>the room manager stops taking posts, joins and new rooms</li>
+ *   <li>every session flushes its queued items, in parallel over a bounded pool
+ *       of workers that take the next session as soon as they are free, so one
+ *       slow session holds up only its own worker</li>
+ *   <li>whatever a session could not deliver by the deadline is taken out and
+ *       its connection closed, still in parallel</li>
+ *   <li>room histories are flushed and a {@link ShutdownCheckpoint} records the
+ *       rooms and every undelivered message</li>
+ * </ol>
+ * A drain with nothing undelivered leaves an existing checkpoint in place, so
+ * messages saved by an earlier drain are not overwritten by an empty one.
+ * Sessions that miss the deadline do no further delivery work, so the time
+ * taken is bounded by the deadline plus the cost of emptying and closing each
+ * session, spread over the workers.
+ */
+public class SessionDrainer {
+    private static final Logger logger = LoggerFactory.getLogger(SessionDrainer.class);
+
+    private static final long CLOSE_GRACE_MILLIS = 5_000;
+
+    private final ChatRoomManager chatRoomManager;
+    private final int workerCount;
+
+    /**
+     * Creates a drainer with two workers per processor
+     * @param chatRoomManager The manager whose rooms are drained
+     */
+    public SessionDrainer(ChatRoomManager chatRoomManager) {
+        this(chatRoomManager, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * Creates a drainer
+     * @param chatRoomManager The manager whose rooms are drained
+     * @param workerCount The most sessions flushed at the same time
+     */
+    public SessionDrainer(ChatRoomManager chatRoomManager, int workerCount) {
+        if (chatRoomManager == null) {
+            throw new IllegalArgumentException("Chat room manager cannot be null");
+        }
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("Worker count must be positive");
+        }
+        this.chatRoomManager = chatRoomManager;
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Drains the sessions and writes the checkpoint
+     * @param sessions The sessions to drain
+     * @param deadline How long sessions may spend delivering
+     * @param checkpointFile Where to write the checkpoint, or null to skip it
+     * @return What happened to the pending messages
+     */
+    public DrainReport drain(List<? extends DrainableSession> sessions, Duration deadline, Path checkpointFile) {
+        if (sessions == null) {
+            throw new IllegalArgumentException("Sessions cannot be null");
+        }
+        if (deadline == null || deadline.isNegative()) {
+            throw new IllegalArgumentException("Deadline cannot be null or negative");
+        }
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + deadline.toNanos();
+        chatRoomManager.stopAccepting();
+
+        AtomicLong delivered = new AtomicLong();
+        AtomicInteger lateSessions = new AtomicInteger();
+        AtomicInteger closedSessions = new AtomicInteger();
+        Map<String, List<Message>> undelivered = new ConcurrentHashMap<>();
+        ConcurrentLinkedQueue<PrivateMessage> undeliveredPrivate = new ConcurrentLinkedQueue<>();
+
+        int threads = Math.max(1, Math.min(workerCount, sessions.size()));
+        AtomicInteger nextSession = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "session-drain");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < threads; i++) {
+            workers.execute(() -> {
+                for (int index = nextSession.getAndIncrement(); index < sessions.size();
+                     index = nextSession.getAndIncrement()) {
+                    DrainableSession session = sessions.get(index);
+                    try {
+                        if (System.nanoTime() - deadlineNanos < 0) {
+                            delivered.addAndGet(session.flush(deadlineNanos));
+                        }
+                        List<Message> messages = new ArrayList<>();
+                        List<PrivateMessage> privateMessages = new ArrayList<>();
+                        session.takeUndelivered(messages, privateMessages);
+                        if (!messages.isEmpty() || !privateMessages.isEmpty()) {
+                            lateSessions.incrementAndGet();
+                            if (!messages.isEmpty()) {
+                                undelivered.merge(session.getSessionUserId(), messages, (pending, more) -> {
+                                    pending.addAll(more);
+                                    return pending;
+                                });
+                            }
+                            undeliveredPrivate.addAll(privateMessages);
+                        }
+                        session.closeProtocol();
+                        closedSessions.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        logger.error("Failed to drain session of user {}", session.getSessionUserId(), e);
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        try {
+            long waitNanos = deadlineNanos - System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_GRACE_MILLIS);
+            if (!workers.awaitTermination(Math.max(0, waitNanos), TimeUnit.NANOSECONDS)) {
+                logger.warn("Drain workers still busy after the deadline, closing {} of {} sessions",
+                        closedSessions.get(), sessions.size());
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+        }
+
+        List<ChatRoom> rooms = chatRoomManager.getAllChatRooms();
+        for (ChatRoom room : rooms) {
+            room.closeHistory();
+        }
+        int checkpointed = 0;
+        for (List<Message> messages : undelivered.values()) {
+            checkpointed += messages.size();
+        }
+        List<PrivateMessage> privateMessages = new ArrayList<>(undeliveredPrivate);
+        checkpointed += privateMessages.size();
+        boolean checkpointWritten = false;
+        if (checkpointFile != null && checkpointed == 0 && Files.exists(checkpointFile)) {
+            // An earlier drain may have saved messages nobody has recovered yet; an empty one must not replace them
+            logger.info("Nothing undelivered, keeping the existing checkpoint {}", checkpointFile);
+        } else if (checkpointFile != null) {
+            try {
+                ShutdownCheckpoint.write(checkpointFile, rooms, undelivered, privateMessages);
+                checkpointWritten = true;
+            } catch (IOException e) {
+                logger.error("Failed to write shutdown checkpoint {}: {} undelivered messages lost",
+                        checkpointFile, checkpointed, e);
+            }
+        }
+
+        DrainReport report = new DrainReport(sessions.size(), closedSessions.get(), lateSessions.get(),
+                delivered.get(), checkpointed, checkpointWritten, System.nanoTime() - startNanos);
+        logger.info("Drain finished: {}", report);
+        return report;
+    }
+
+    /**
+     * Outcome of a drain
+     */
+    public static final class DrainReport {
+        private final int sessionCount;
+        private final int closedSessionCount;
+        private final int lateSessionCount;
+        private final long deliveredCount;
+        private final int checkpointedCount;
+        private final boolean checkpointWritten;
+        private final long elapsedNanos;
+
+        DrainReport(int sessionCount, int closedSessionCount, int lateSessionCount, long deliveredCount,
+                    int checkpointedCount, boolean checkpointWritten, long elapsedNanos) {
+            this.sessionCount = sessionCount;
+            this.closedSessionCount = closedSessionCount;
+            this.lateSessionCount = lateSessionCount;
+            this.deliveredCount = deliveredCount;
+            this.checkpointedCount = checkpointedCount;
+            this.checkpointWritten = checkpointWritten;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getSessionCount() {
+            return sessionCount;
+        }
+
+        /**
+         * Gets how many sessions were emptied and closed. Less than the session
+         * count only if workers were still busy after the grace period.
+         * @return The closed session count
+         */
+        public int getClosedSessionCount() {
+            return closedSessionCount;
+        }
+
+        /**
+         * Gets how many sessions still had messages when the deadline passed
+         * @return The late session count
+         */
+        public int getLateSessionCount() {
+            return lateSessionCount;
+        }
+
+        public long getDeliveredCount() {
+            return deliveredCount;
+        }
+
+        /**
+         * Gets how many undelivered messages went into the checkpoint
+         * @return The checkpointed message count
+         */
+        public int getCheckpointedCount() {
+            return checkpointedCount;
+        }
+
+        public boolean isCheckpointWritten() {
+            return checkpointWritten;
+        }
+
+        public Duration getElapsed() {
+            return Duration.ofNanos(elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            return "DrainReport{"
+                    + "sessions=" + sessionCount
+                    + ", closed=" + closedSessionCount
+                    + ", late=" + lateSessionCount
+                    + ", delivered=" + deliveredCount
+                    + ", checkpointed=" + checkpointedCount
+                    + ", checkpointWritten=" + checkpointWritten
+                    + ", elapsedMillis=" + TimeUnit.NANOSECONDS.toMillis(elapsedNanos)
+                    + '}';
+        }
+    }
+}
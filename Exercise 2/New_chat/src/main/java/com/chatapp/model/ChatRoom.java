@@ -1,35 +1,94 @@
 package com.chatapp.model;
 
+import com.chatapp.admission.AdmissionController;
 import com.chatapp.exception.ChatRoomException;
+import com.chatapp.jfr.FanoutEvent;
+import com.chatapp.jfr.RoomPostEvent;
+import com.chatapp.observer.ChatEvent;
+import com.chatapp.observer.ChatEventPublisher;
 import com.chatapp.observer.ChatObserver;
 import com.chatapp.observer.ChatSubject;
+import com.chatapp.observer.EphemeralChannel;
+import com.chatapp.observer.PartitionedFanout;
+import com.chatapp.storage.HistoryCursor;
+import com.chatapp.storage.HistoryStore;
+import com.chatapp.storage.InMemoryHistoryStore;
+import com.chatapp.util.IdRegistry;
+import com.chatapp.util.IdempotencyCache;
+import com.chatapp.util.IntHashSet;
+import com.chatapp.util.IntObjectMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
 
 /**
  * Represents a chat room in the application. Implements the Observer Pattern as
  * the Subject. Demonstrates encapsulation, thread-safety, and proper state
  * management.
+ * <p>
+ * A room runs in one of two {@link RoomMode}s. Standard rooms notify observers
+ * synchronously and are capped at 100 users. Large rooms keep
+ * membership in a compact {@link LargeRoomMembership}, fan out on the shared
+ * {@link PartitionedFanout} pool and stop announcing joins and leaves once the
+ * approximate presence count passes a fixed limit. Under server overload the
+ * {@link AdmissionController} may hold join and leave notifications back and
+ * deliver them later.
+ * <p>
+ * Users are keyed by the int handles from {@link IdRegistry}; string IDs are only
+ * resolved at the public API boundary. Membership state is guarded by the room's
+ * monitor. Present users are also published as an immutable
+ * {@link PresenceSnapshot}, so listings and counts are read without locking.
+ * <p>
+ * Besides push-only observers, {@link #events()} offers the same events as a
+ * {@link Flow.Publisher} whose subscribers request what they can handle.
+ * <p>
+ * Ephemeral events such as typing indicators travel on a separate
+ * {@link EphemeralChannel}: they skip history, sequencing and the event stream,
+ * are conflated to the latest state per user, and are dropped first under load.
+ * <p>
+ * Read receipts are one {@link ReadWatermarks} entry per reader rather than
+ * per message, and are broadcast to observers in coalesced batches.
+ * <p>
+ * Posted messages go to a {@link HistoryStore}. By default that is a heap ring
+ * of the newest messages; a persistent store keeps everything and lets
+ * {@link #openHistory(long)} read back from any sequence.
  */
 public class ChatRoom implements ChatSubject {
 
     private static final Logger logger = LoggerFactory.getLogger(ChatRoom.class);
     private static final int MAX_USERS = 100;
+    private static final int MAX_LARGE_ROOM_USERS = 1_000_000;
+    private static final int PRESENCE_NOTIFICATION_LIMIT = 200;
     private static final int MAX_MESSAGES = 1000;
+    private static final int IDEMPOTENCY_KEYS_PER_ROOM = 4096;
+    private static final long IDEMPOTENCY_WINDOW_MILLIS = 10 * 60 * 1000;
+    private static final long EPHEMERAL_WINDOW_MILLIS = 250;
+    private static final int MAX_PENDING_EPHEMERAL_USERS = 4096;
+    private static final long READ_RECEIPT_WINDOW_MILLIS = 500;
 
     private final String roomId;
+    private final int roomHandle;
     private final String roomName;
     private final LocalDateTime createdAt;
-    private final Map<String, User> activeUsers; // All users who have ever joined this room
-    private final Set<String> presentUserIds; // Users currently "in" the room interface
-    private final List<Message> messageHistory;
+    private final RoomMode mode;
+    private final IntObjectMap<User> activeUsers; // All users who have ever joined this room, by handle
+    private final IntHashSet presentUserHandles; // Users currently "in" the room interface
+    private final HistoryStore history;
     private final List<ChatObserver> observers;
+    private final LargeRoomMembership largeMembership; // Only set for LARGE rooms
+    private final ChatEventPublisher eventPublisher;
+    private final EphemeralChannel ephemeralChannel;
+    private final ReadWatermarks readWatermarks;
+    private volatile PresenceSnapshot presence;
+    private volatile RoomActivityListener activityListener;
     private Message lastMessage;
+    private volatile long lastSequence; // Written under this, read without it by getLastSequence
+    private IdempotencyCache postedKeys; // Guarded by this, created on the first keyed message
+    private long duplicatePostCount; // Guarded by this
 
     /**
      * Constructor with validation
@@ -39,17 +98,58 @@ public class ChatRoom implements ChatSubject {
      * @throws IllegalArgumentException if parameters are invalid
      */
     public ChatRoom(String roomId, String roomName) {
+        this(roomId, roomName, RoomMode.STANDARD);
+    }
+
+    /**
+     * Constructor with validation and an explicit room mode
+     *
+     * @param roomId The unique identifier for the room
+     * @param roomName The name of the room
+     * @param mode The membership and fan-out mode of the room
+     * @throws IllegalArgumentException if parameters are invalid
+     */
+    public ChatRoom(String roomId, String roomName, RoomMode mode) {
+        this(roomId, roomName, mode, new InMemoryHistoryStore(MAX_MESSAGES));
+    }
+
+    /**
+     * Constructor with validation, an explicit room mode and a history store.
+     * Sequence numbering continues after the last message already in the store.
+     *
+     * @param roomId The unique identifier for the room
+     * @param roomName The name of the room
+     * @param mode The membership and fan-out mode of the room
+     * @param history The store that keeps the room's messages
+     * @throws IllegalArgumentException if parameters are invalid
+     */
+    public ChatRoom(String roomId, String roomName, RoomMode mode, HistoryStore history) {
         validateRoomParameters(roomId, roomName);
+        if (mode == null) {
+            throw new IllegalArgumentException("Room mode cannot be null");
+        }
+        if (history == null) {
+            throw new IllegalArgumentException("History store cannot be null");
+        }
 
         this.roomId = roomId;
+        this.roomHandle = IdRegistry.getInstance().acquireRoom(roomId);
         this.roomName = roomName.trim();
         this.createdAt = LocalDateTime.now();
-        this.activeUsers = new ConcurrentHashMap<>();
-        this.presentUserIds = Collections.newSetFromMap(new ConcurrentHashMap<>()); // Thread-safe set
-        this.messageHistory = new CopyOnWriteArrayList<>();
+        this.mode = mode;
+        this.activeUsers = new IntObjectMap<>();
+        this.presentUserHandles = new IntHashSet();
+        this.history = history;
+        this.lastSequence = history.getLastSequence();
         this.observers = new CopyOnWriteArrayList<>();
-
-        logger.info("Chat room created: {} (ID: {})", roomName, roomId);
+        this.largeMembership = mode == RoomMode.LARGE ? new LargeRoomMembership() : null;
+        this.eventPublisher = new ChatEventPublisher(roomId);
+        this.ephemeralChannel = new EphemeralChannel(roomId, EPHEMERAL_WINDOW_MILLIS, MAX_PENDING_EPHEMERAL_USERS,
+                this::deliverEphemeralEvents);
+        this.readWatermarks = new ReadWatermarks(roomId, READ_RECEIPT_WINDOW_MILLIS, this::deliverReadReceipts);
+        this.presence = PresenceSnapshot.EMPTY;
+
+        logger.info("Chat room created: {} (ID: {}, mode: {})", roomName, roomId, mode);
     }
 
     /**
@@ -85,19 +185,25 @@ public class ChatRoom implements ChatSubject {
             throw new IllegalArgumentException("User cannot be null");
         }
 
-        if (activeUsers.size() >= MAX_USERS) {
+        int capacity = isLargeRoom() ? MAX_LARGE_ROOM_USERS : MAX_USERS;
+        if (activeUsers.size() >= capacity) {
             logger.warn("Failed to add user {} to room {}: Room is full", user.getUsername(), roomId);
-            throw new ChatRoomException("Chat room is full. Maximum capacity: " + MAX_USERS);
+            throw new ChatRoomException("Chat room is full. Maximum capacity: " + capacity);
         }
 
-        if (activeUsers.containsKey(user.getUserId())) {
+        if (activeUsers.containsKey(user.getHandle())) {
             logger.warn("User {} already exists in room {}", user.getUsername(), roomId);
             throw new ChatRoomException("User already exists in this chat room");
         }
 
-        activeUsers.put(user.getUserId(), user);
-        presentUserIds.add(user.getUserId()); // Mark user as present in the room
-        logger.info("User {} joined room {} (Total users: {})", user.getUsername(), roomId, presentUserIds.size());
+        activeUsers.put(user.getHandle(), user);
+        if (isLargeRoom()) {
+            largeMembership.markPresent(user);
+        } else if (presentUserHandles.add(user.getHandle())) { // Mark user as present in the room
+            presence = presence.withUser(user);
+        }
+        logger.info("User {} joined room {} (Total users: {})", user.getUsername(), roomId, getUserCount());
+        firePresenceChanged();
 
         notifyUserJoined(user);
     }
@@ -112,45 +218,199 @@ public class ChatRoom implements ChatSubject {
             throw new IllegalArgumentException("User ID cannot be null or empty");
         }
 
-        User user = activeUsers.get(userId); // Get user, but don't remove from activeUsers map
+        User user = activeUsers.get(IdRegistry.getInstance().findUser(userId)); // Get user, but don't remove from activeUsers map
         if (user != null) {
-            presentUserIds.remove(userId); // Mark user as no longer present in the room
-            logger.info("User {} left room {} (Remaining users: {})", user.getUsername(), roomId, presentUserIds.size());
+            if (isLargeRoom()) {
+                largeMembership.markAbsent(user.getHandle());
+            } else if (presentUserHandles.remove(user.getHandle())) { // Mark user as no longer present in the room
+                presence = presence.withoutUser(user.getHandle());
+            }
+            logger.info("User {} left room {} (Remaining users: {})", user.getUsername(), roomId, getUserCount());
+            firePresenceChanged();
             notifyUserLeft(user);
         }
     }
 
     /**
-     * Posts a message to the chat room
+     * Posts a message to the chat room and assigns it the next sequence number.
+     * <p>
+     * A message with an idempotency key that the same sender already used within
+     * the dedupe window is not posted again: observers are not notified and the
+     * original message's sequence number is returned.
+     * <p>
+     * The room assigns every sequence number itself, so the message must not
+     * carry one; copies of existing history go through
+     * {@link #restoreMessage(Message)} instead.
      *
      * @param message The message to post
+     * @return The room sequence number of the message, or of the original for a duplicate
+     * @throws IllegalArgumentException if the message already has a sequence number
      * @throws ChatRoomException if message is invalid or limit reached
      */
-    public synchronized void postMessage(Message message) {
+    public long postMessage(Message message) {
+        // Timed outside the lock so waiting for it shows up in the recording
+        RoomPostEvent event = new RoomPostEvent();
+        event.begin();
+        long sequence = appendMessage(message, event);
+        event.end();
+        if (event.shouldCommit()) {
+            event.roomId = roomId;
+            event.sequence = sequence;
+            event.contentLength = message.getContent() == null ? 0 : message.getContent().length();
+            event.observerCount = getUserCount();
+            event.commit();
+        }
+        return sequence;
+    }
+
+    private synchronized long appendMessage(Message message, RoomPostEvent event) {
         if (message == null) {
             throw new IllegalArgumentException("Message cannot be null");
         }
 
+        if (message.getSequence() != 0) {
+            throw new IllegalArgumentException("Posted message already has sequence " + message.getSequence());
+        }
+
         if (!message.getRoomId().equals(roomId)) {
             throw new ChatRoomException("Message does not belong to this room");
         }
 
-        if (!activeUsers.containsKey(message.getSenderId())) {
+        if (!activeUsers.containsKey(IdRegistry.getInstance().findUser(message.getSenderId()))) {
             throw new ChatRoomException("Sender is not a member of this room");
         }
 
-        if (messageHistory.size() >= MAX_MESSAGES) {
-            // Remove oldest message to maintain limit
-            messageHistory.remove(0);
-            logger.debug("Message limit reached. Removed oldest message from room {}", roomId);
+        String dedupeKey = null;
+        if (message.getIdempotencyKey() != null) {
+            // Keys are scoped to the sender so clients cannot collide with each other
+            dedupeKey = message.getSenderId() + '\u0000' + message.getIdempotencyKey();
+            long original = postedKeys == null ? IdempotencyCache.MISS : postedKeys.lookup(dedupeKey);
+            if (original != IdempotencyCache.MISS) {
+                duplicatePostCount++;
+                event.duplicate = true;
+                logger.debug("Duplicate post with key {} in room {}, original sequence {}",
+                        message.getIdempotencyKey(), roomId, original);
+                return original;
+            }
         }
 
-        messageHistory.add(message);
+        long sequence = lastSequence + 1;
+        message = message.withSequence(sequence);
+        // Stored before the sequence is published, so a reader that sees the sequence finds the message
+        history.append(message);
+        lastSequence = sequence;
+        if (dedupeKey != null) {
+            if (postedKeys == null) {
+                postedKeys = new IdempotencyCache(IDEMPOTENCY_KEYS_PER_ROOM, IDEMPOTENCY_WINDOW_MILLIS, isLargeRoom());
+            }
+            postedKeys.record(dedupeKey, sequence);
+        }
         lastMessage = message;
 
         logger.debug("Message posted in room {} by {}: {}", roomId, message.getSenderUsername(), message.getContent());
 
+        RoomActivityListener listener = activityListener;
+        if (listener != null) {
+            listener.onMessagePosted(this, message);
+        }
+
         notifyMessageReceived(message);
+        return sequence;
+    }
+
+    /**
+     * Replaces the content of one of a user's messages. The edit is posted as a
+     * new entry that references the original; history shows the new content.
+     *
+     * @param userId The user who posted the message
+     * @param messageId The message to edit
+     * @param content The new content
+     * @return The sequence number of the edit entry
+     * @throws ChatRoomException if the message is not in recent history or was not posted by the user
+     */
+    public synchronized long editMessage(String userId, String messageId, String content) {
+        return postMessage(Message.edit(findOwnMessage(userId, messageId), content));
+    }
+
+    /**
+     * Deletes one of a user's messages. A tombstone is posted that hides the
+     * original from history; compaction later removes it from disk.
+     *
+     * @param userId The user who posted the message
+     * @param messageId The message to delete
+     * @return The sequence number of the tombstone
+     * @throws ChatRoomException if the message is not in recent history or was not posted by the user
+     */
+    public synchronized long deleteMessage(String userId, String messageId) {
+        return postMessage(Message.tombstone(findOwnMessage(userId, messageId)));
+    }
+
+    /**
+     * Stores a message from an exported copy of this room's history, keeping
+     * its sequence number. Unlike {@link #postMessage(Message)} the sender need
+     * not be a member any more, and neither observers nor the activity listener
+     * are told, since nothing new was said.
+     *
+     * @param message The message to restore
+     * @return true if it was stored, false if the room already holds its sequence
+     * @throws ChatRoomException if the message belongs to another room
+     */
+    public synchronized boolean restoreMessage(Message message) {
+        if (message == null) {
+            throw new IllegalArgumentException("Message cannot be null");
+        }
+        if (message.getSequence() <= 0) {
+            throw new IllegalArgumentException("Restored message must have a sequence number");
+        }
+        if (!message.getRoomId().equals(roomId)) {
+            throw new ChatRoomException("Message does not belong to this room");
+        }
+        if (message.getSequence() <= lastSequence) {
+            return false;
+        }
+        history.append(message);
+        lastSequence = message.getSequence();
+        lastMessage = message;
+        return true;
+    }
+
+    /**
+     * Moves the sequence numbering up to where a copy of this room left off, so
+     * the sequences of edits and deleted messages that were not restored are
+     * not handed out again
+     *
+     * @param sequence The last sequence the copy had assigned
+     */
+    public synchronized void restoreLastSequence(long sequence) {
+        if (sequence > lastSequence) {
+            lastSequence = sequence;
+        }
+    }
+
+    private Message findOwnMessage(String userId, String messageId) {
+        for (Message message : getMessageHistory()) {
+            if (message.getMessageId().equals(messageId) && message.getSenderId().equals(userId)) {
+                return message;
+            }
+        }
+        throw new ChatRoomException("Message not found or too old to change: " + messageId);
+    }
+
+    private void firePresenceChanged() {
+        RoomActivityListener listener = activityListener;
+        if (listener != null) {
+            listener.onPresenceChanged(this);
+        }
+    }
+
+    /**
+     * Sets the listener told about presence changes and new messages, usually
+     * the manager's {@link com.chatapp.manager.RoomDirectory}
+     *
+     * @param listener The listener, or null to remove it
+     */
+    public void setActivityListener(RoomActivityListener listener) {
+        this.activityListener = listener;
     }
 
     @Override
@@ -159,7 +419,10 @@ public class ChatRoom implements ChatSubject {
             throw new IllegalArgumentException("Observer cannot be null");
         }
 
-        if (!observers.contains(observer)) {
+        if (isLargeRoom()) {
+            largeMembership.bindObserver(observer);
+            logger.debug("Observer registered for large room {}", roomId);
+        } else if (!observers.contains(observer)) {
             observers.add(observer);
             logger.debug("Observer registered for room {}", roomId);
         }
@@ -168,8 +431,12 @@ public class ChatRoom implements ChatSubject {
     @Override
     public void removeObserver(ChatObserver observer) {
         if (observer != null) {
-            observers.remove(observer);
-            // Do NOT remove from presentUserIds here. This is handled by ChatRoom.removeUser()
+            if (isLargeRoom()) {
+                largeMembership.unbindObserver(observer);
+            } else {
+                observers.remove(observer);
+            }
+            // Do NOT remove from presentUserHandles here. This is handled by ChatRoom.removeUser()
             logger.debug("Observer removed from room {}", roomId);
         }
     }
@@ -185,16 +452,39 @@ public class ChatRoom implements ChatSubject {
      * @param message The new message
      */
     private void notifyMessageReceived(Message message) {
+        if (eventPublisher.hasSubscribers()) {
+            eventPublisher.publish(ChatEvent.message(message));
+        }
+        if (isLargeRoom()) {
+            largeMembership.forEachObserver(PartitionedFanout.shared(), roomId.hashCode(),
+                    observer -> deliverMessage(observer, message));
+            return;
+        }
         for (ChatObserver observer : observers) {
-            try {
-                // Don't notify the sender
-                if (!observer.getObserverUserId().equals(message.getSenderId())) {
-                    observer.onMessageReceived(message);
-                }
-            } catch (Exception e) {
-                logger.error("Error notifying observer of message: {}", e.getMessage(), e);
-                observer.onError("Failed to receive message notification");
+            deliverMessage(observer, message);
+        }
+    }
+
+    private void deliverMessage(ChatObserver observer, Message message) {
+        FanoutEvent event = new FanoutEvent();
+        event.begin();
+        try {
+            // Don't notify the sender
+            if (observer.getObserverUserId().equals(message.getSenderId())) {
+                return;
             }
+            observer.onMessageReceived(message);
+        } catch (Exception e) {
+            event.failed = true;
+            logger.error("Error notifying observer of message: {}", e.getMessage(), e);
+            observer.onError("Failed to receive message notification");
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.roomId = roomId;
+            event.observerUserId = observer.getObserverUserId();
+            event.sequence = message.getSequence();
+            event.commit();
         }
     }
 
@@ -204,15 +494,37 @@ public class ChatRoom implements ChatSubject {
      * @param user The user who joined
      */
     private void notifyUserJoined(User user) {
+        if (isLargeRoom() && presenceNotificationsSuppressed()) {
+            return;
+        }
+        if (AdmissionController.getInstance().deferPresence(() -> publishUserJoined(user))) {
+            return;
+        }
+        publishUserJoined(user);
+    }
+
+    private void publishUserJoined(User user) {
+        if (eventPublisher.hasSubscribers()) {
+            eventPublisher.publish(ChatEvent.userJoined(roomId, user));
+        }
+        if (isLargeRoom()) {
+            largeMembership.forEachObserver(PartitionedFanout.shared(), roomId.hashCode(),
+                    observer -> deliverUserJoined(observer, user));
+            return;
+        }
         for (ChatObserver observer : observers) {
-            try {
-                if (!observer.getObserverUserId().equals(user.getUserId())) {
-                    observer.onUserJoined(user);
-                }
-            } catch (Exception e) {
-                logger.error("Error notifying observer of user join: {}", e.getMessage(), e);
-                observer.onError("Failed to receive user join notification");
+            deliverUserJoined(observer, user);
+        }
+    }
+
+    private void deliverUserJoined(ChatObserver observer, User user) {
+        try {
+            if (!observer.getObserverUserId().equals(user.getUserId())) {
+                observer.onUserJoined(user);
             }
+        } catch (Exception e) {
+            logger.error("Error notifying observer of user join: {}", e.getMessage(), e);
+            observer.onError("Failed to receive user join notification");
         }
     }
 
@@ -222,41 +534,286 @@ public class ChatRoom implements ChatSubject {
      * @param user The user who left
      */
     private void notifyUserLeft(User user) {
+        if (isLargeRoom() && presenceNotificationsSuppressed()) {
+            return;
+        }
+        if (AdmissionController.getInstance().deferPresence(() -> publishUserLeft(user))) {
+            return;
+        }
+        publishUserLeft(user);
+    }
+
+    private void publishUserLeft(User user) {
+        if (eventPublisher.hasSubscribers()) {
+            eventPublisher.publish(ChatEvent.userLeft(roomId, user));
+        }
+        if (isLargeRoom()) {
+            largeMembership.forEachObserver(PartitionedFanout.shared(), roomId.hashCode(),
+                    observer -> deliverUserLeft(observer, user));
+            return;
+        }
         for (ChatObserver observer : observers) {
+            deliverUserLeft(observer, user);
+        }
+    }
+
+    private void deliverUserLeft(ChatObserver observer, User user) {
+        try {
+            if (!observer.getObserverUserId().equals(user.getUserId())) {
+                observer.onUserLeft(user);
+            }
+        } catch (Exception e) {
+            logger.error("Error notifying observer of user leave: {}", e.getMessage(), e);
+            observer.onError("Failed to receive user leave notification");
+        }
+    }
+
+    /**
+     * Sends an ephemeral event, such as a typing indicator, to the other users
+     * in the room. The event is not stored. Within a short window only the
+     * latest event of each user and kind of state is delivered, and events are
+     * dropped when the server is under load or a large room is busy.
+     *
+     * @param userId The user the event is about
+     * @param kind The kind of event
+     * @return true if the event was accepted for delivery, false if it was dropped
+     * @throws ChatRoomException if the user is not present in this room
+     */
+    public boolean sendEphemeralEvent(String userId, EphemeralEvent.Kind kind) {
+        if (kind == null) {
+            throw new IllegalArgumentException("Event kind cannot be null");
+        }
+        User user = getUser(userId);
+        if (user == null || !isPresent(userId)) {
+            throw new ChatRoomException("User is not present in this room");
+        }
+        if (isLargeRoom() && presenceNotificationsSuppressed()) {
+            return false;
+        }
+        if (!AdmissionController.getInstance().admitEphemeral(1)) {
+            return false;
+        }
+        return ephemeralChannel.submit(user.getHandle(), new EphemeralEvent(kind, roomId, user));
+    }
+
+    private void deliverEphemeralEvents(List<EphemeralEvent> events) {
+        // Load may have risen while the events were held
+        if (events.isEmpty() || !AdmissionController.getInstance().admitEphemeral(events.size())) {
+            return;
+        }
+        if (isLargeRoom()) {
+            largeMembership.forEachObserver(PartitionedFanout.shared(), roomId.hashCode(),
+                    observer -> deliverEphemeral(observer, events));
+            return;
+        }
+        for (ChatObserver observer : observers) {
+            deliverEphemeral(observer, events);
+        }
+    }
+
+    private void deliverEphemeral(ChatObserver observer, List<EphemeralEvent> events) {
+        for (EphemeralEvent event : events) {
             try {
-                if (!observer.getObserverUserId().equals(user.getUserId())) {
-                    observer.onUserLeft(user);
+                if (!observer.getObserverUserId().equals(event.getUserId())) {
+                    observer.onEphemeralEvent(event);
                 }
             } catch (Exception e) {
-                logger.error("Error notifying observer of user leave: {}", e.getMessage(), e);
-                observer.onError("Failed to receive user leave notification");
+                // Best-effort: a failed ephemeral delivery is not worth an error notification
+                logger.debug("Dropped ephemeral event for observer {}: {}", observer.getObserverUserId(), e.getMessage());
             }
         }
     }
 
     /**
-     * Gets a copy of active users list
+     * Records that a user has read the room up to a message. Positions only move
+     * forward and are capped at the last posted message; other users are told
+     * in a batch shortly after.
+     *
+     * @param userId The reader
+     * @param sequence The sequence of the newest message the user has read
+     * @return true if the user's read position moved
+     * @throws ChatRoomException if the user is not a member of this room
+     */
+    public boolean markRead(String userId, long sequence) {
+        User user = getUser(userId);
+        if (user == null) {
+            throw new ChatRoomException("User is not a member of this room");
+        }
+        return readWatermarks.advance(user, Math.min(sequence, getLastSequence()));
+    }
+
+    /**
+     * Gets how far a user has read
+     *
+     * @param userId The user ID
+     * @return The sequence of the newest message the user has read, or 0 if none
+     */
+    public long getReadSequence(String userId) {
+        return readWatermarks.getWatermark(IdRegistry.getInstance().findUser(userId));
+    }
+
+    /**
+     * Counts the users who have read a message, in O(log members)
+     *
+     * @param sequence The message's sequence number
+     * @return The number of users who have read it
+     */
+    public int getReadCount(long sequence) {
+        return readWatermarks.countReadAtLeast(sequence);
+    }
+
+    private void deliverReadReceipts(List<ReadReceipt> receipts) {
+        if (receipts.isEmpty()) {
+            return;
+        }
+        if (isLargeRoom()) {
+            largeMembership.forEachObserver(PartitionedFanout.shared(), roomId.hashCode(),
+                    observer -> deliverReadReceipts(observer, receipts));
+            return;
+        }
+        for (ChatObserver observer : observers) {
+            deliverReadReceipts(observer, receipts);
+        }
+    }
+
+    private void deliverReadReceipts(ChatObserver observer, List<ReadReceipt> receipts) {
+        try {
+            observer.onReadReceipts(receipts);
+        } catch (Exception e) {
+            logger.error("Error notifying observer of read receipts: {}", e.getMessage(), e);
+            observer.onError("Failed to receive read receipts");
+        }
+    }
+
+    /**
+     * Large rooms stop announcing individual joins and leaves once they are busy.
+     * The check uses the approximate presence count, so a few events around the
+     * limit may still go out.
+     *
+     * @return true if join/leave notifications should be skipped
+     */
+    private boolean presenceNotificationsSuppressed() {
+        return largeMembership.approximatePresence() > PRESENCE_NOTIFICATION_LIMIT;
+    }
+
+    /**
+     * Gets the room's events as a {@link Flow.Publisher}. Subscribers receive
+     * messages, joins and leaves in the order they happened, no faster than they
+     * request them. Each subscriber gets a bounded buffer and is failed with a
+     * {@link ChatRoomException} if it falls further behind. Existing observers can
+     * be attached through {@link com.chatapp.observer.ObserverSubscriber}.
+     *
+     * @return The event publisher of this room
+     */
+    public Flow.Publisher<ChatEvent> events() {
+        return eventPublisher;
+    }
+
+    /**
+     * Ends the event stream of this room. Subscribers receive their buffered
+     * events and then {@code onComplete}, or {@code onError} if a cause is given.
+     * Called when the room is deleted or handed to another node.
      *
-     * @return List of active users
+     * @param cause Why the room went away, or null for a normal close
+     */
+    public void closeEvents(Throwable cause) {
+        ephemeralChannel.discardPending();
+        eventPublisher.closeExceptionally(cause);
+    }
+
+    /**
+     * Gets the users currently present in the room
+     *
+     * @return Unmodifiable list of present users, in the order they arrived
      */
     public List<User> getActiveUsers() {
-        List<User> currentlyActive = new ArrayList<>();
-        for (String userId : presentUserIds) {
-            User user = activeUsers.get(userId);
-            if (user != null && user.isActive()) { // Ensure user exists and is globally active
-                currentlyActive.add(user);
+        return getPresenceSnapshot().getUsers();
+    }
+
+    /**
+     * Gets one page of the users currently present, for rooms too big to list
+     * at once. Pages of the same snapshot are consistent with each other; compare
+     * {@link PresenceSnapshot#getVersion()} to detect changes between pages.
+     *
+     * @param offset Index of the first user on the page
+     * @param limit The most users on the page
+     * @return Unmodifiable list of present users, empty past the end
+     */
+    public List<User> getActiveUsers(int offset, int limit) {
+        return getPresenceSnapshot().page(offset, limit);
+    }
+
+    /**
+     * Gets the current presence snapshot. Standard rooms update it on every join
+     * and leave. Large rooms rebuild it on the first read after a change, so a
+     * burst of joins costs one rebuild instead of one copy per join.
+     *
+     * @return The presence snapshot
+     */
+    public PresenceSnapshot getPresenceSnapshot() {
+        PresenceSnapshot current = presence;
+        if (!isLargeRoom() || current.getVersion() == largeMembership.presenceVersion()) {
+            return current;
+        }
+        synchronized (this) {
+            long version = largeMembership.presenceVersion();
+            if (presence.getVersion() != version) {
+                presence = PresenceSnapshot.of(version, largeMembership.presentUsers());
             }
+            return presence;
+        }
+    }
+
+    /**
+     * Gets every user who has joined this room, whether or not they are present
+     *
+     * @return List of members
+     */
+    public synchronized List<User> getMembers() {
+        return activeUsers.values();
+    }
+
+    /**
+     * Checks if a user is currently present in the room interface
+     *
+     * @param userId The user ID
+     * @return true if the user is present
+     */
+    public boolean isPresent(String userId) {
+        int handle = IdRegistry.getInstance().findUser(userId);
+        if (isLargeRoom()) {
+            return largeMembership.isPresent(handle);
+        }
+        synchronized (this) {
+            return presentUserHandles.contains(handle);
         }
-        return currentlyActive;
     }
 
     /**
-     * Gets a copy of message history
+     * Gets a copy of the newest messages
      *
-     * @return List of messages
+     * @return List of at most 1000 messages, oldest first
      */
     public List<Message> getMessageHistory() {
-        return new ArrayList<>(messageHistory);
+        return history.recent(MAX_MESSAGES);
+    }
+
+    /**
+     * Opens a cursor over the stored history, including messages older than
+     * {@link #getMessageHistory()} returns when the store keeps them
+     *
+     * @param fromSequence The first sequence to read
+     * @return The cursor, which the caller must close
+     */
+    public HistoryCursor openHistory(long fromSequence) {
+        return history.openCursor(fromSequence);
+    }
+
+    /**
+     * Flushes and releases the history store. Called when the room is deleted.
+     */
+    public void closeHistory() {
+        history.close();
     }
 
     /**
@@ -265,14 +822,42 @@ public class ChatRoom implements ChatSubject {
      * @param userId The user ID
      * @return The user or null if not found
      */
-    public User getUser(String userId) {
-        return activeUsers.get(userId);
+    public synchronized User getUser(String userId) {
+        return activeUsers.get(IdRegistry.getInstance().findUser(userId));
+    }
+
+    /**
+     * Gets the channel carrying this room's ephemeral events, for its counters
+     *
+     * @return The ephemeral channel
+     */
+    public EphemeralChannel getEphemeralChannel() {
+        return ephemeralChannel;
+    }
+
+    /**
+     * Gets the read positions of this room's members
+     *
+     * @return The read watermarks
+     */
+    public ReadWatermarks getReadWatermarks() {
+        return readWatermarks;
     }
 
     public String getRoomId() {
         return roomId;
     }
 
+    /**
+     * Gets the dense int handle interned for this room's ID. The handle is
+     * given back when the room is deleted and may then go to another room.
+     *
+     * @return The room handle
+     */
+    public int getRoomHandle() {
+        return roomHandle;
+    }
+
     public String getRoomName() {
         return roomName;
     }
@@ -281,21 +866,58 @@ public class ChatRoom implements ChatSubject {
         return createdAt;
     }
 
+    public RoomMode getMode() {
+        return mode;
+    }
+
+    public boolean isLargeRoom() {
+        return mode == RoomMode.LARGE;
+    }
+
+    /**
+     * Gets the number of users present in the room. For large rooms the value
+     * comes from a striped counter and is approximate under concurrent joins.
+     *
+     * @return The number of present users
+     */
     public int getUserCount() {
-        return presentUserIds.size();
+        if (isLargeRoom()) {
+            return (int) largeMembership.approximatePresence();
+        }
+        return presence.getCount();
     }
 
     public int getMessageCount() {
-        return messageHistory.size();
+        return (int) Math.min(Integer.MAX_VALUE, history.size());
+    }
+
+    /**
+     * Gets the sequence number of the most recently posted message. Its
+     * message is already in the history store when the number is visible.
+     *
+     * @return The last sequence number, or 0 if nothing was posted
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Gets how many posts were recognised as duplicates and not posted again
+     *
+     * @return The duplicate count
+     */
+    public synchronized long getDuplicatePostCount() {
+        return duplicatePostCount;
     }
 
     @Override
-    public String toString() {
+    public synchronized String toString() {
         return "ChatRoom{"
                 + "roomId='" + roomId + '\''
                 + ", roomName='" + roomName + '\''
+                + ", mode=" + mode
                 + ", activeUsers=" + activeUsers.size()
-                + ", messages=" + messageHistory.size()
+                + ", messages=" + history.size()
                 + '}';
     }
 }
@@ -0,0 +1,92 @@
+package com.chatapp.model;
+
+/**
+ * Short-lived signal from a user in a room, such as a typing indicator. Unlike
+ * a {@link Message} it is never stored, has no sequence number and may be
+ * replaced by a later event of the same user before it is delivered.
+ */
+public final class EphemeralEvent {
+
+    /**
+     * The kinds of ephemeral event. Kinds on the same channel describe the same
+     * piece of state, so a later one replaces an earlier one.
+     */
+    public enum Kind {
+        TYPING_STARTED(0),
+        TYPING_STOPPED(0),
+        PRESENCE_PING(1);
+
+        /**
+         * Number of distinct channels used by the kinds
+         */
+        public static final int CHANNEL_COUNT = 2;
+
+        private final int channel;
+
+        Kind(int channel) {
+            this.channel = channel;
+        }
+
+        public int getChannel() {
+            return channel;
+        }
+    }
+
+    private final Kind kind;
+    private final String roomId;
+    private final String userId;
+    private final String username;
+    private final long timestampMillis;
+
+    /**
+     * Creates an event stamped with the current time
+     * @param kind The kind of event
+     * @param roomId The room the event happened in
+     * @param user The user the event is about
+     */
+    public EphemeralEvent(Kind kind, String roomId, User user) {
+        if (kind == null) {
+            throw new IllegalArgumentException("Event kind cannot be null");
+        }
+        if (roomId == null || roomId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Room ID cannot be null or empty");
+        }
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null");
+        }
+        this.kind = kind;
+        this.roomId = roomId;
+        this.userId = user.getUserId();
+        this.username = user.getUsername();
+        this.timestampMillis = System.currentTimeMillis();
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getRoomId() {
+        return roomId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "EphemeralEvent{"
+                + "kind=" + kind
+                + ", roomId='" + roomId + '\''
+                + ", userId='" + userId + '\''
+                + '}';
+    }
+}
@@ -0,0 +1,182 @@
+package com.chatapp.model;
+
+import com.chatapp.observer.ChatObserver;
+import com.chatapp.observer.PartitionedFanout;
+import com.chatapp.util.IdRegistry;
+import com.chatapp.util.IntIntMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Compact membership store used by large rooms. Every user seen by the room is
+ * mapped from its global {@link IdRegistry} handle to a dense room-local slot,
+ * presence is a bit per slot and observers live in an array indexed by the same
+ * slot so fan-out can be split into contiguous partitions.
+ */
+final class LargeRoomMembership {
+
+    /**
+     * Number of observer slots handled by a single fan-out task
+     */
+    static final int PARTITION_SIZE = 1024;
+
+    private final IntIntMap slotsByHandle;
+    private User[] usersBySlot;
+    private final BitSet present;
+    private volatile AtomicReferenceArray<ChatObserver> observerSlots;
+    private volatile int slotCount;
+    private final LongAdder presenceCount;
+    private volatile long presenceVersion;
+
+    LargeRoomMembership() {
+        this.slotsByHandle = new IntIntMap(-1);
+        this.usersBySlot = new User[64];
+        this.present = new BitSet();
+        this.observerSlots = new AtomicReferenceArray<>(64);
+        this.presenceCount = new LongAdder();
+    }
+
+    /**
+     * Marks a user as present, assigning a slot on first sight
+     * @param user The user who is now present
+     */
+    synchronized void markPresent(User user) {
+        int slot = slotFor(user.getHandle());
+        usersBySlot[slot] = user;
+        if (!present.get(slot)) {
+            present.set(slot);
+            presenceCount.increment();
+            presenceVersion++;
+        }
+    }
+
+    /**
+     * Marks a user as no longer present
+     * @param userHandle The handle of the user who left
+     */
+    synchronized void markAbsent(int userHandle) {
+        int slot = slotsByHandle.get(userHandle);
+        if (slot >= 0 && present.get(slot)) {
+            present.clear(slot);
+            presenceCount.decrement();
+            presenceVersion++;
+        }
+    }
+
+    /**
+     * Checks if a user is present
+     * @param userHandle The user handle
+     * @return true if present
+     */
+    synchronized boolean isPresent(int userHandle) {
+        int slot = slotsByHandle.get(userHandle);
+        return slot >= 0 && present.get(slot);
+    }
+
+    /**
+     * Binds an observer to the slot of the user it represents. A room keeps a
+     * single observer per user; binding again replaces the previous one.
+     * @param observer The observer to bind
+     */
+    synchronized void bindObserver(ChatObserver observer) {
+        int slot = slotFor(IdRegistry.getInstance().internUser(observer.getObserverUserId()));
+        observerSlots.set(slot, observer);
+    }
+
+    /**
+     * Clears the slot of an observer if it is still bound
+     * @param observer The observer to unbind
+     */
+    synchronized void unbindObserver(ChatObserver observer) {
+        int slot = slotsByHandle.get(IdRegistry.getInstance().findUser(observer.getObserverUserId()));
+        if (slot >= 0) {
+            observerSlots.compareAndSet(slot, observer, null);
+        }
+    }
+
+    /**
+     * Collects the users currently present in the room
+     * @return List of present users
+     */
+    synchronized List<User> presentUsers() {
+        List<User> result = new ArrayList<>(present.cardinality());
+        for (int slot = present.nextSetBit(0); slot >= 0; slot = present.nextSetBit(slot + 1)) {
+            result.add(usersBySlot[slot]);
+        }
+        return result;
+    }
+
+    /**
+     * Gets the number of present users. The counter is striped, so a value read
+     * while users are joining or leaving is only approximate.
+     * @return The approximate presence count
+     */
+    long approximatePresence() {
+        return presenceCount.sum();
+    }
+
+    /**
+     * Gets a counter that changes whenever a user becomes present or absent
+     * @return The presence version
+     */
+    long presenceVersion() {
+        return presenceVersion;
+    }
+
+    /**
+     * Applies an action to every bound observer, one task per partition of
+     * {@link #PARTITION_SIZE} slots
+     * @param fanout The pool that runs the partitions
+     * @param partitionSeed Offset that spreads different rooms across workers
+     * @param action The action to apply to each observer
+     */
+    void forEachObserver(PartitionedFanout fanout, int partitionSeed, Consumer<ChatObserver> action) {
+        AtomicReferenceArray<ChatObserver> slots = observerSlots;
+        int limit = Math.min(slotCount, slots.length());
+        for (int start = 0, partition = 0; start < limit; start += PARTITION_SIZE, partition++) {
+            int from = start;
+            int to = Math.min(start + PARTITION_SIZE, limit);
+            fanout.execute(partitionSeed + partition, () -> {
+                for (int slot = from; slot < to; slot++) {
+                    ChatObserver observer = slots.get(slot);
+                    if (observer != null) {
+                        action.accept(observer);
+                    }
+                }
+            });
+        }
+    }
+
+    private int slotFor(int userHandle) {
+        int existing = slotsByHandle.get(userHandle);
+        if (existing >= 0) {
+            return existing;
+        }
+        int slot = slotCount;
+        ensureCapacity(slot + 1);
+        slotsByHandle.put(userHandle, slot);
+        slotCount = slot + 1;
+        return slot;
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= usersBySlot.length) {
+            return;
+        }
+        int newCapacity = Math.max(required, usersBySlot.length * 2);
+        usersBySlot = Arrays.copyOf(usersBySlot, newCapacity);
+
+        AtomicReferenceArray<ChatObserver> oldSlots = observerSlots;
+        AtomicReferenceArray<ChatObserver> newSlots = new AtomicReferenceArray<>(newCapacity);
+        for (int i = 0; i < oldSlots.length(); i++) {
+            newSlots.set(i, oldSlots.get(i));
+        }
+        observerSlots = newSlots;
+    }
+}
@@ -7,14 +7,31 @@ import java.util.UUID;
 /**
  * Represents a chat message in the application.
  * Demonstrates encapsulation and immutability for thread-safety.
+ * <p>
+ * A message is created with sequence 0; posting it stores a copy that carries
+ * the sequence its room assigned, so the same message can be posted to
+ * several rooms or replayed without one overwriting another's number.
+ * <p>
+ * Edits and deletes are messages too: an {@link MessageKind#EDIT} or
+ * {@link MessageKind#TOMBSTONE} entry references the original by ID and
+ * sequence. Folding an edit into its original gives a copy with the new content
+ * that reports {@link #isEdited()}.
  */
 public class Message {
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 128;
+
     private final String messageId;
     private final String senderId;
     private final String senderUsername;
     private final String content;
     private final LocalDateTime timestamp;
     private final String roomId;
+    private final String idempotencyKey;
+    private final MessageKind kind;
+    private final String targetMessageId;
+    private final long targetSequence;
+    private final boolean edited;
+    private final long sequence;
 
     /**
      * Constructor with validation
@@ -25,14 +42,166 @@ public class Message {
      * @throws IllegalArgumentException if any parameter is invalid
      */
     public Message(String senderId, String senderUsername, String content, String roomId) {
-        validateParameters(senderId, senderUsername, content, roomId);
+        this(senderId, senderUsername, content, roomId, null);
+    }
+
+    /**
+     * Constructor for a message the client may send more than once, e.g. when it
+     * retries after a timeout. The room posts only the first message with a given
+     * key from the same sender and answers the rest with its sequence number.
+     * @param senderId The ID of the user sending the message
+     * @param senderUsername The username of the sender
+     * @param content The message content
+     * @param roomId The ID of the chat room
+     * @param idempotencyKey Client-chosen key identifying the message across retries, or null
+     * @throws IllegalArgumentException if any parameter is invalid
+     */
+    public Message(String senderId, String senderUsername, String content, String roomId, String idempotencyKey) {
+        this(UUID.randomUUID().toString(), senderId, senderUsername, content, roomId, LocalDateTime.now(),
+                idempotencyKey, 0);
+    }
+
+    /**
+     * Constructor that restores a message with an existing identity, used when a
+     * message is decoded from another node or from storage
+     * @param messageId The original message ID
+     * @param senderId The ID of the user who sent the message
+     * @param senderUsername The username of the sender
+     * @param content The message content
+     * @param roomId The ID of the chat room
+     * @param timestamp The original timestamp
+     * @throws IllegalArgumentException if any parameter is invalid
+     */
+    public Message(String messageId, String senderId, String senderUsername, String content, String roomId,
+                   LocalDateTime timestamp) {
+        this(messageId, senderId, senderUsername, content, roomId, timestamp, null, 0);
+    }
+
+    /**
+     * Constructor that restores a message together with its idempotency key and
+     * the sequence number its room assigned
+     * @param messageId The original message ID
+     * @param senderId The ID of the user who sent the message
+     * @param senderUsername The username of the sender
+     * @param content The message content
+     * @param roomId The ID of the chat room
+     * @param timestamp The original timestamp
+     * @param idempotencyKey The client's idempotency key, or null
+     * @param sequence The room sequence number, or 0 if the message was never posted
+     * @throws IllegalArgumentException if any parameter is invalid
+     */
+    public Message(String messageId, String senderId, String senderUsername, String content, String roomId,
+                   LocalDateTime timestamp, String idempotencyKey, long sequence) {
+        this(messageId, senderId, senderUsername, content, roomId, timestamp, idempotencyKey, sequence,
+                MessageKind.POST, null, 0, false);
+    }
+
+    /**
+     * Constructor that restores any log entry, including edits and tombstones
+     * @param messageId The original message ID
+     * @param senderId The ID of the user who sent the message
+     * @param senderUsername The username of the sender
+     * @param content The message content, empty for a tombstone
+     * @param roomId The ID of the chat room
+     * @param timestamp The original timestamp
+     * @param idempotencyKey The client's idempotency key, or null
+     * @param sequence The room sequence number, or 0 if the message was never posted
+     * @param kind What the entry does
+     * @param targetMessageId The message an edit or tombstone applies to, null for a post
+     * @param targetSequence The sequence of that message, 0 for a post
+     * @param edited Whether a post already has an edit folded in
+     * @throws IllegalArgumentException if any parameter is invalid
+     */
+    public Message(String messageId, String senderId, String senderUsername, String content, String roomId,
+                   LocalDateTime timestamp, String idempotencyKey, long sequence, MessageKind kind,
+                   String targetMessageId, long targetSequence, boolean edited) {
+        if (kind == null) {
+            throw new IllegalArgumentException("Message kind cannot be null");
+        }
+        validateParameters(senderId, senderUsername, content, roomId, kind);
+        boolean revision = kind != MessageKind.POST;
+        if (revision != (targetMessageId != null) || (revision && targetSequence <= 0)) {
+            throw new IllegalArgumentException("Edits and tombstones, and only they, must reference a target message");
+        }
+        if (edited && kind != MessageKind.POST) {
+            throw new IllegalArgumentException("Only posts can be marked as edited");
+        }
+        if (messageId == null || messageId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Message ID cannot be null or empty");
+        }
+        if (timestamp == null) {
+            throw new IllegalArgumentException("Timestamp cannot be null");
+        }
+        if (idempotencyKey != null
+                && (idempotencyKey.trim().isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+            throw new IllegalArgumentException("Idempotency key must be 1 to " + MAX_IDEMPOTENCY_KEY_LENGTH
+                    + " characters");
+        }
+        if (sequence < 0) {
+            throw new IllegalArgumentException("Sequence cannot be negative");
+        }
         
-        this.messageId = UUID.randomUUID().toString();
+        this.messageId = messageId;
         this.senderId = senderId;
         this.senderUsername = senderUsername;
         this.content = content.trim();
-        this.timestamp = LocalDateTime.now();
+        this.timestamp = timestamp;
         this.roomId = roomId;
+        this.idempotencyKey = idempotencyKey;
+        this.kind = kind;
+        this.targetMessageId = targetMessageId;
+        this.targetSequence = revision ? targetSequence : 0;
+        this.edited = edited;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Creates an edit entry that replaces the content of a posted message
+     * @param original The message to edit
+     * @param content The new content
+     * @return The edit entry, not yet posted
+     * @throws IllegalArgumentException if the original is not a posted message or the content is invalid
+     */
+    public static Message edit(Message original, String content) {
+        checkRevisable(original);
+        return new Message(UUID.randomUUID().toString(), original.senderId, original.senderUsername, content,
+                original.roomId, LocalDateTime.now(), null, 0, MessageKind.EDIT, original.messageId,
+                original.getSequence(), false);
+    }
+
+    /**
+     * Creates a tombstone that retracts a posted message
+     * @param original The message to delete
+     * @return The tombstone, not yet posted
+     * @throws IllegalArgumentException if the original is not a posted message
+     */
+    public static Message tombstone(Message original) {
+        checkRevisable(original);
+        return new Message(UUID.randomUUID().toString(), original.senderId, original.senderUsername, "",
+                original.roomId, LocalDateTime.now(), null, 0, MessageKind.TOMBSTONE, original.messageId,
+                original.getSequence(), false);
+    }
+
+    private static void checkRevisable(Message original) {
+        if (original == null) {
+            throw new IllegalArgumentException("Original message cannot be null");
+        }
+        if (original.kind != MessageKind.POST || original.getSequence() == 0) {
+            throw new IllegalArgumentException("Only posted messages can be edited or deleted");
+        }
+    }
+
+    /**
+     * Folds an edit into this message
+     * @param edit An edit entry that targets this message
+     * @return A copy with the edited content, same identity and sequence
+     */
+    public Message withEdit(Message edit) {
+        if (edit.kind != MessageKind.EDIT || !messageId.equals(edit.targetMessageId)) {
+            throw new IllegalArgumentException("Not an edit of message " + messageId);
+        }
+        return new Message(messageId, senderId, senderUsername, edit.content, roomId, timestamp, idempotencyKey,
+                getSequence(), MessageKind.POST, null, 0, true);
     }
 
     /**
@@ -41,16 +210,22 @@ public class Message {
      * @param senderUsername The sender username
      * @param content The message content
      * @param roomId The room ID
+     * @param kind The kind of entry, tombstones must have empty content
      * @throws IllegalArgumentException if any parameter is invalid
      */
-    private void validateParameters(String senderId, String senderUsername, String content, String roomId) {
+    private void validateParameters(String senderId, String senderUsername, String content, String roomId,
+                                    MessageKind kind) {
         if (senderId == null || senderId.trim().isEmpty()) {
             throw new IllegalArgumentException("Sender ID cannot be null or empty");
         }
         if (senderUsername == null || senderUsername.trim().isEmpty()) {
             throw new IllegalArgumentException("Sender username cannot be null or empty");
         }
-        if (content == null || content.trim().isEmpty()) {
+        if (kind == MessageKind.TOMBSTONE) {
+            if (content == null || !content.trim().isEmpty()) {
+                throw new IllegalArgumentException("Tombstones cannot have content");
+            }
+        } else if (content == null || content.trim().isEmpty()) {
             throw new IllegalArgumentException("Message content cannot be null or empty");
         }
         if (content.trim().length() > 1000) {
@@ -85,12 +260,88 @@ public class Message {
         return roomId;
     }
 
+    /**
+     * Gets the client's idempotency key
+     * @return The key, or null if the client did not supply one
+     */
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    /**
+     * Gets the sequence number the room assigned when the message was posted.
+     * Sequence numbers start at 1 and increase by one per posted message.
+     * @return The sequence number, or 0 if the message has not been posted
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Copies this message with the sequence number a room assigned it
+     * @param sequence The room sequence number
+     * @return A copy with the same identity and the given sequence
+     * @throws IllegalArgumentException if the sequence is not positive
+     */
+    public Message withSequence(long sequence) {
+        if (sequence <= 0) {
+            throw new IllegalArgumentException("Sequence must be positive");
+        }
+        return new Message(messageId, senderId, senderUsername, content, roomId, timestamp, idempotencyKey,
+                sequence, kind, targetMessageId, targetSequence, edited);
+    }
+
+    public MessageKind getKind() {
+        return kind;
+    }
+
+    /**
+     * Checks if this entry edits or deletes another message rather than
+     * showing content of its own
+     * @return true for edits and tombstones
+     */
+    public boolean isRevision() {
+        return kind != MessageKind.POST;
+    }
+
+    /**
+     * Gets the message an edit or tombstone applies to
+     * @return The target message ID, or null for a post
+     */
+    public String getTargetMessageId() {
+        return targetMessageId;
+    }
+
+    /**
+     * Gets the sequence of the message an edit or tombstone applies to
+     * @return The target sequence, or 0 for a post
+     */
+    public long getTargetSequence() {
+        return targetSequence;
+    }
+
+    /**
+     * Checks if an edit has been folded into this message
+     * @return true if the content is not the original
+     */
+    public boolean isEdited() {
+        return edited;
+    }
+
     /**
      * Formats the message for display
      * @return Formatted message string
      */
     public String getFormattedMessage() {
-        return String.format("[%s]: %s", senderUsername, content);
+        switch (kind) {
+            case EDIT:
+                return String.format("[%s] edited a message: %s", senderUsername, content);
+            case TOMBSTONE:
+                return String.format("[%s] deleted a message", senderUsername);
+            default:
+                return edited ? String.format("[%s]: %s (edited)", senderUsername, content)
+                        : String.format("[%s]: %s", senderUsername, content);
+        }
     }
 
     @Override
@@ -114,6 +365,7 @@ public class Message {
                 ", content='" + content + '\'' +
                 ", timestamp=" + timestamp +
                 ", roomId='" + roomId + '\'' +
+                (kind != MessageKind.POST ? ", kind=" + kind + ", target='" + targetMessageId + '\'' : "") +
                 '}';
     }
 }
@@ -0,0 +1,24 @@
+package com.chatapp.model;
+
+/**
+ * What a room log entry does. Messages are never changed in place: an edit or
+ * a delete is a new entry that references the original message, and history
+ * readers fold it into the original when they read.
+ */
+public enum MessageKind {
+
+    /**
+     * An ordinary posted message.
+     */
+    POST,
+
+    /**
+     * Replaces the content of an earlier message.
+     */
+    EDIT,
+
+    /**
+     * Retracts an earlier message. Tombstones carry no content.
+     */
+    TOMBSTONE
+}
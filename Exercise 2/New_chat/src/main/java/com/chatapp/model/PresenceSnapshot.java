@@ -0,0 +1,141 @@
+package com.chatapp.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable, versioned view of the users present in a room. A room publishes a
+ * new snapshot by reference whenever presence changes, so readers get the list
+ * and its size without locking or copying. The version grows with every change
+ * and lets callers tell whether anything moved since their last read.
+ */
+public final class PresenceSnapshot {
+
+    static final PresenceSnapshot EMPTY = new PresenceSnapshot(0, new User[0]);
+
+    private final long version;
+    private final User[] users;
+    private final List<User> view;
+
+    private PresenceSnapshot(long version, User[] users) {
+        this.version = version;
+        this.users = users;
+        this.view = new UserListView(users, 0, users.length);
+    }
+
+    /**
+     * Builds a snapshot from scratch, used when a large room's presence is
+     * re-read after a batch of changes
+     * @param version The version of the new snapshot
+     * @param present The present users
+     * @return The snapshot
+     */
+    static PresenceSnapshot of(long version, Collection<User> present) {
+        return new PresenceSnapshot(version, present.toArray(new User[0]));
+    }
+
+    /**
+     * Derives the next snapshot with one user added at the end
+     * @param user The user who became present
+     * @return The new snapshot
+     */
+    PresenceSnapshot withUser(User user) {
+        User[] next = Arrays.copyOf(users, users.length + 1);
+        next[users.length] = user;
+        return new PresenceSnapshot(version + 1, next);
+    }
+
+    /**
+     * Derives the next snapshot with one user removed, keeping the order of the
+     * others
+     * @param userHandle The handle of the user who left
+     * @return The new snapshot, or this one if the user was not present
+     */
+    PresenceSnapshot withoutUser(int userHandle) {
+        for (int i = 0; i < users.length; i++) {
+            if (users[i].getHandle() == userHandle) {
+                User[] next = new User[users.length - 1];
+                System.arraycopy(users, 0, next, 0, i);
+                System.arraycopy(users, i + 1, next, i, users.length - i - 1);
+                return new PresenceSnapshot(version + 1, next);
+            }
+        }
+        return this;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getCount() {
+        return users.length;
+    }
+
+    /**
+     * Gets the present users in the order they arrived
+     * @return Unmodifiable list, shared by every reader of this snapshot
+     */
+    public List<User> getUsers() {
+        return view;
+    }
+
+    /**
+     * Gets one page of the present users
+     * @param offset Index of the first user on the page
+     * @param limit The most users on the page
+     * @return Unmodifiable list backed by the snapshot, empty past the end
+     */
+    public List<User> page(int offset, int limit) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset cannot be negative");
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        int from = Math.min(offset, users.length);
+        int to = (int) Math.min((long) from + limit, users.length);
+        if (from == 0 && to == users.length) {
+            return view;
+        }
+        return new UserListView(users, from, to);
+    }
+
+    /**
+     * Read-only list over a range of the snapshot's array
+     */
+    private static final class UserListView extends AbstractList<User> implements RandomAccess {
+        private final User[] users;
+        private final int from;
+        private final int to;
+
+        UserListView(User[] users, int from, int to) {
+            this.users = users;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public User get(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + (to - from));
+            }
+            return users[from + index];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PresenceSnapshot{"
+                + "version=" + version
+                + ", count=" + users.length
+                + '}';
+    }
+}
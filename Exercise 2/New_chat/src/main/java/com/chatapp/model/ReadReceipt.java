@@ -0,0 +1,54 @@
+package com.chatapp.model;
+
+/**
+ * Immutable notice that a user has read a room up to a sequence number. One
+ * receipt stands for every message up to and including that sequence.
+ */
+public final class ReadReceipt {
+
+    private final String roomId;
+    private final String userId;
+    private final String username;
+    private final long readSequence;
+
+    /**
+     * Creates a receipt
+     * @param roomId The room that was read
+     * @param user The reader
+     * @param readSequence The highest sequence the user has read
+     */
+    public ReadReceipt(String roomId, User user, long readSequence) {
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null");
+        }
+        this.roomId = roomId;
+        this.userId = user.getUserId();
+        this.username = user.getUsername();
+        this.readSequence = readSequence;
+    }
+
+    public String getRoomId() {
+        return roomId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public long getReadSequence() {
+        return readSequence;
+    }
+
+    @Override
+    public String toString() {
+        return "ReadReceipt{"
+                + "roomId='" + roomId + '\''
+                + ", userId='" + userId + '\''
+                + ", readSequence=" + readSequence
+                + '}';
+    }
+}
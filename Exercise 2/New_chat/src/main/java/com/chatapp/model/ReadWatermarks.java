@@ -0,0 +1,309 @@
+package com.chatapp.model;
+
+import com.chatapp.util.IntIntMap;
+import com.chatapp.util.IntObjectMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Read positions of a room's members. Each user has one watermark, the highest
+ * sequence they have read, so "seen by" costs one entry per reader instead of
+ * one per message and reader.
+ * <p>
+ * Watermarks are kept in a treap ordered by {@code (sequence, user handle)}
+ * whose nodes count their subtree, so the number of users who have read
+ * message N is answered in O(log members). Nodes live in parallel primitive
+ * arrays; a user's node is found through an {@link IntIntMap} and moved, never
+ * freed, when the watermark advances.
+ * <p>
+ * Watermark changes take effect at once but are broadcast in batches: within
+ * each window only the latest {@link ReadReceipt} per user is kept, and the
+ * first change of a window schedules a flush on a shared timer thread.
+ */
+public class ReadWatermarks {
+    private static final Logger logger = LoggerFactory.getLogger(ReadWatermarks.class);
+
+    private static final ScheduledExecutorService FLUSH_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "read-receipt-flush-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final int NIL = 0; // Node 0 is the empty tree, its size stays 0
+
+    private final String roomId;
+    private final long windowMillis;
+    private final Consumer<List<ReadReceipt>> sink;
+    private final IntIntMap nodeByUser; // Guarded by this
+    private final IntObjectMap<ReadReceipt> pending; // Guarded by this, by user handle
+    private boolean flushScheduled; // Guarded by this
+
+    // Treap nodes, guarded by this
+    private long[] sequences;
+    private int[] handles;
+    private int[] priorities;
+    private int[] lefts;
+    private int[] rights;
+    private int[] sizes;
+    private int nodeCount;
+    private int root;
+    private int seed;
+    private int splitLeft;
+    private int splitRight;
+
+    private long advanceCount; // Guarded by this
+    private long broadcastCount; // Guarded by this
+
+    /**
+     * Creates empty watermarks
+     * @param roomId The room the watermarks belong to
+     * @param windowMillis How long receipts are held for coalescing
+     * @param sink Broadcasts each window's receipts
+     */
+    public ReadWatermarks(String roomId, long windowMillis, Consumer<List<ReadReceipt>> sink) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Coalescing window must be positive");
+        }
+        if (sink == null) {
+            throw new IllegalArgumentException("Sink cannot be null");
+        }
+        this.roomId = roomId;
+        this.windowMillis = windowMillis;
+        this.sink = sink;
+        this.nodeByUser = new IntIntMap(NIL);
+        this.pending = new IntObjectMap<>();
+        allocate(16);
+        this.nodeCount = 1;
+        this.root = NIL;
+        this.seed = roomId.hashCode() | 1;
+    }
+
+    /**
+     * Moves a user's watermark forward. Watermarks never move back.
+     * @param user The reader
+     * @param sequence The highest sequence the user has read
+     * @return true if the watermark advanced
+     */
+    public synchronized boolean advance(User user, long sequence) {
+        if (sequence <= 0) {
+            return false;
+        }
+        int handle = user.getHandle();
+        int node = nodeByUser.get(handle);
+        if (node != NIL) {
+            if (sequences[node] >= sequence) {
+                return false;
+            }
+            root = erase(root, sequences[node], handle);
+        } else {
+            node = newNode(handle);
+            nodeByUser.put(handle, node);
+        }
+        sequences[node] = sequence;
+        lefts[node] = NIL;
+        rights[node] = NIL;
+        sizes[node] = 1;
+        root = insert(root, node);
+        advanceCount++;
+
+        pending.put(handle, new ReadReceipt(roomId, user, sequence));
+        if (!flushScheduled) {
+            flushScheduled = true;
+            FLUSH_TIMER.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * Counts the users who have read a message
+     * @param sequence The message's sequence number
+     * @return The number of users whose watermark is at or past it
+     */
+    public synchronized int countReadAtLeast(long sequence) {
+        int count = 0;
+        int node = root;
+        while (node != NIL) {
+            if (sequences[node] >= sequence) {
+                count += 1 + sizes[rights[node]];
+                node = lefts[node];
+            } else {
+                node = rights[node];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets a user's watermark
+     * @param userHandle The user's handle
+     * @return The highest sequence read, or 0 if the user has read nothing
+     */
+    public synchronized long getWatermark(int userHandle) {
+        int node = nodeByUser.get(userHandle);
+        return node == NIL ? 0 : sequences[node];
+    }
+
+    /**
+     * Gets the number of users who have read anything
+     * @return The reader count
+     */
+    public synchronized int getReaderCount() {
+        return sizes[root];
+    }
+
+    public synchronized long getAdvanceCount() {
+        return advanceCount;
+    }
+
+    /**
+     * Gets how many receipts were broadcast, after coalescing
+     * @return The broadcast receipt count
+     */
+    public synchronized long getBroadcastCount() {
+        return broadcastCount;
+    }
+
+    private void flush() {
+        List<ReadReceipt> batch;
+        synchronized (this) {
+            batch = pending.values();
+            pending.clear();
+            flushScheduled = false;
+            broadcastCount += batch.size();
+        }
+        try {
+            sink.accept(Collections.unmodifiableList(batch));
+        } catch (RuntimeException e) {
+            logger.error("Failed to broadcast read receipts of room {}", roomId, e);
+        }
+    }
+
+    private int newNode(int handle) {
+        if (nodeCount == sequences.length) {
+            allocate(sequences.length << 1);
+        }
+        int node = nodeCount++;
+        handles[node] = handle;
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        priorities[node] = seed;
+        return node;
+    }
+
+    private void allocate(int capacity) {
+        if (sequences == null) {
+            sequences = new long[capacity];
+            handles = new int[capacity];
+            priorities = new int[capacity];
+            lefts = new int[capacity];
+            rights = new int[capacity];
+            sizes = new int[capacity];
+            return;
+        }
+        sequences = Arrays.copyOf(sequences, capacity);
+        handles = Arrays.copyOf(handles, capacity);
+        priorities = Arrays.copyOf(priorities, capacity);
+        lefts = Arrays.copyOf(lefts, capacity);
+        rights = Arrays.copyOf(rights, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+    }
+
+    private int compare(long sequence, int handle, int node) {
+        int bySequence = Long.compare(sequence, sequences[node]);
+        return bySequence != 0 ? bySequence : Integer.compare(handle, handles[node]);
+    }
+
+    private void update(int node) {
+        sizes[node] = 1 + sizes[lefts[node]] + sizes[rights[node]];
+    }
+
+    private int insert(int tree, int node) {
+        if (tree == NIL) {
+            return node;
+        }
+        if (priorities[node] > priorities[tree]) {
+            split(tree, sequences[node], handles[node]);
+            lefts[node] = splitLeft;
+            rights[node] = splitRight;
+            update(node);
+            return node;
+        }
+        if (compare(sequences[node], handles[node], tree) < 0) {
+            lefts[tree] = insert(lefts[tree], node);
+        } else {
+            rights[tree] = insert(rights[tree], node);
+        }
+        update(tree);
+        return tree;
+    }
+
+    private int erase(int tree, long sequence, int handle) {
+        if (tree == NIL) {
+            return NIL;
+        }
+        int order = compare(sequence, handle, tree);
+        if (order == 0) {
+            return merge(lefts[tree], rights[tree]);
+        }
+        if (order < 0) {
+            lefts[tree] = erase(lefts[tree], sequence, handle);
+        } else {
+            rights[tree] = erase(rights[tree], sequence, handle);
+        }
+        update(tree);
+        return tree;
+    }
+
+    /**
+     * Splits a tree into the nodes before a key ({@link #splitLeft}) and the
+     * rest ({@link #splitRight})
+     */
+    private void split(int tree, long sequence, int handle) {
+        if (tree == NIL) {
+            splitLeft = NIL;
+            splitRight = NIL;
+            return;
+        }
+        if (compare(sequence, handle, tree) > 0) {
+            split(rights[tree], sequence, handle);
+            rights[tree] = splitLeft;
+            update(tree);
+            splitLeft = tree;
+        } else {
+            split(lefts[tree], sequence, handle);
+            lefts[tree] = splitRight;
+            update(tree);
+            splitRight = tree;
+        }
+    }
+
+    /**
+     * Joins two trees where every key of the first is before every key of the
+     * second
+     */
+    private int merge(int first, int second) {
+        if (first == NIL) {
+            return second;
+        }
+        if (second == NIL) {
+            return first;
+        }
+        if (priorities[first] > priorities[second]) {
+            rights[first] = merge(rights[first], second);
+            update(first);
+            return first;
+        }
+        lefts[second] = merge(first, lefts[second]);
+        update(second);
+        return second;
+    }
+}
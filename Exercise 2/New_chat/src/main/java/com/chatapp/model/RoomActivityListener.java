@@ -0,0 +1,22 @@
+package com.chatapp.model;
+
+/**
+ * Receives changes to a room that affect how it ranks in listings. Called while
+ * the room's monitor is held, so implementations must be quick and must not call
+ * back into the room's mutating methods.
+ */
+public interface RoomActivityListener {
+
+    /**
+     * Called after a user became present in or left the room
+     * @param room The room whose presence changed
+     */
+    void onPresenceChanged(ChatRoom room);
+
+    /**
+     * Called after a message was posted to the room
+     * @param room The room the message was posted to
+     * @param message The message
+     */
+    void onMessagePosted(ChatRoom room, Message message);
+}
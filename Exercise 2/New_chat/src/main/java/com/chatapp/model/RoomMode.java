@@ -0,0 +1,20 @@
+package com.chatapp.model;
+
+/**
+ * Determines how a chat room stores its membership and delivers notifications.
+ * STANDARD rooms keep the original small-room behaviour, LARGE rooms are meant
+ * for announcement-style rooms with tens of thousands of members.
+ */
+public enum RoomMode {
+
+    /**
+     * Small interactive room capped at a hundred members with synchronous fan-out.
+     */
+    STANDARD,
+
+    /**
+     * Broadcast room with compact membership, partitioned fan-out and approximate
+     * presence tracking.
+     */
+    LARGE
+}
@@ -1,5 +1,7 @@
 package com.chatapp.model;
 
+import com.chatapp.util.IdRegistry;
+
 import java.time.LocalDateTime;
 import java.util.Objects;
 import java.util.UUID;
@@ -10,6 +12,7 @@ import java.util.UUID;
  */
 public class User {
     private final String userId;
+    private final int handle;
     private final String username;
     private final LocalDateTime joinedAt;
     private boolean isActive;
@@ -20,8 +23,23 @@ public class User {
      * @throws IllegalArgumentException if username is null or empty
      */
     public User(String username) {
+        this(UUID.randomUUID().toString(), username);
+    }
+
+    /**
+     * Constructor that restores a user with an existing ID, used when a user is
+     * decoded from another node or from storage
+     * @param userId The original user ID
+     * @param username The username for the user
+     * @throws IllegalArgumentException if the user ID or username is invalid
+     */
+    public User(String userId, String username) {
         validateUsername(username);
-        this.userId = UUID.randomUUID().toString();
+        if (userId == null || userId.trim().isEmpty()) {
+            throw new IllegalArgumentException("User ID cannot be null or empty");
+        }
+        this.userId = userId;
+        this.handle = IdRegistry.getInstance().internUser(userId);
         this.username = username.trim();
         this.joinedAt = LocalDateTime.now();
         this.isActive = true;
@@ -48,6 +66,14 @@ public class User {
         return userId;
     }
 
+    /**
+     * Gets the dense int handle interned for this user's ID
+     * @return The user handle
+     */
+    public int getHandle() {
+        return handle;
+    }
+
     public String getUsername() {
         return username;
     }
@@ -0,0 +1,112 @@
+package com.chatapp.observer;
+
+import com.chatapp.model.Message;
+import com.chatapp.model.User;
+
+/**
+ * Immutable event emitted by a chat room to its {@link ChatEventPublisher}
+ * subscribers. Carries either a message or the user who joined or left.
+ */
+public final class ChatEvent {
+
+    /**
+     * The kinds of event a room emits
+     */
+    public enum Type {
+        MESSAGE,
+        USER_JOINED,
+        USER_LEFT
+    }
+
+    private final Type type;
+    private final String roomId;
+    private final Message message;
+    private final User user;
+
+    private ChatEvent(Type type, String roomId, Message message, User user) {
+        this.type = type;
+        this.roomId = roomId;
+        this.message = message;
+        this.user = user;
+    }
+
+    /**
+     * Creates a message event
+     * @param message The message that was posted
+     * @return The event
+     */
+    public static ChatEvent message(Message message) {
+        if (message == null) {
+            throw new IllegalArgumentException("Message cannot be null");
+        }
+        return new ChatEvent(Type.MESSAGE, message.getRoomId(), message, null);
+    }
+
+    /**
+     * Creates a join event
+     * @param roomId The room the user joined
+     * @param user The user who joined
+     * @return The event
+     */
+    public static ChatEvent userJoined(String roomId, User user) {
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null");
+        }
+        return new ChatEvent(Type.USER_JOINED, roomId, null, user);
+    }
+
+    /**
+     * Creates a leave event
+     * @param roomId The room the user left
+     * @param user The user who left
+     * @return The event
+     */
+    public static ChatEvent userLeft(String roomId, User user) {
+        if (user == null) {
+            throw new IllegalArgumentException("User cannot be null");
+        }
+        return new ChatEvent(Type.USER_LEFT, roomId, null, user);
+    }
+
+    /**
+     * Gets the user the event is about: the sender for messages, otherwise the
+     * user who joined or left
+     * @return The user ID
+     */
+    public String getSubjectUserId() {
+        return type == Type.MESSAGE ? message.getSenderId() : user.getUserId();
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getRoomId() {
+        return roomId;
+    }
+
+    /**
+     * Gets the message of a {@link Type#MESSAGE} event
+     * @return The message, or null for join and leave events
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Gets the user of a join or leave event
+     * @return The user, or null for message events
+     */
+    public User getUser() {
+        return user;
+    }
+
+    @Override
+    public String toString() {
+        return "ChatEvent{"
+                + "type=" + type
+                + ", roomId='" + roomId + '\''
+                + ", subject='" + getSubjectUserId() + '\''
+                + '}';
+    }
+}
@@ -0,0 +1,320 @@
+package com.chatapp.observer;
+
+import com.chatapp.exception.ChatRoomException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link Flow.Publisher} of the events of one chat room. Unlike a
+ * {@link ChatObserver}, a subscriber signals demand: the room never calls
+ * {@code onNext} more often than requested and buffers up to
+ * {@code bufferCapacity} events per subscriber in the meantime. A subscriber that
+ * falls further behind is dropped with a {@link ChatRoomException} instead of
+ * slowing the room down.
+ * <p>
+ * Signals to a subscriber are delivered on the executor, one at a time and in
+ * publish order. Closing the publisher completes every subscriber once its
+ * buffer has drained; closing it with an error fails them.
+ */
+public class ChatEventPublisher implements Flow.Publisher<ChatEvent> {
+    private static final Logger logger = LoggerFactory.getLogger(ChatEventPublisher.class);
+
+    /**
+     * Default number of undelivered events buffered per subscriber
+     */
+    public static final int DEFAULT_BUFFER_CAPACITY = 256;
+
+    private final String name;
+    private final int bufferCapacity;
+    private final Executor executor;
+    private final CopyOnWriteArrayList<RoomSubscription> subscriptions;
+    private final LongAdder overflowCount;
+    private boolean closed; // Guarded by this
+    private Throwable closeError; // Guarded by this
+
+    /**
+     * Creates a publisher that delivers on the common fork-join pool
+     * @param name Name used in log output, usually the room ID
+     */
+    public ChatEventPublisher(String name) {
+        this(name, DEFAULT_BUFFER_CAPACITY, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a publisher
+     * @param name Name used in log output, usually the room ID
+     * @param bufferCapacity The most events buffered for a single subscriber
+     * @param executor Runs the delivery to subscribers
+     */
+    public ChatEventPublisher(String name, int bufferCapacity, Executor executor) {
+        if (bufferCapacity <= 0) {
+            throw new IllegalArgumentException("Buffer capacity must be positive");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null");
+        }
+        this.name = name;
+        this.bufferCapacity = bufferCapacity;
+        this.executor = executor;
+        this.subscriptions = new CopyOnWriteArrayList<>();
+        this.overflowCount = new LongAdder();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ChatEvent> subscriber) {
+        Objects.requireNonNull(subscriber, "Subscriber cannot be null");
+        RoomSubscription subscription = new RoomSubscription(subscriber);
+        synchronized (this) {
+            if (closed) {
+                // Late subscribers still get onSubscribe first, then the terminal signal
+                subscription.terminate(closeError);
+            } else {
+                subscriptions.add(subscription);
+            }
+        }
+        subscription.signal();
+        logger.debug("Subscriber added to {} (subscribers: {})", name, subscriptions.size());
+    }
+
+    /**
+     * Offers an event to every subscriber. Never blocks.
+     * @param event The event to publish
+     */
+    public void publish(ChatEvent event) {
+        if (event == null) {
+            throw new IllegalArgumentException("Event cannot be null");
+        }
+        for (RoomSubscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * Completes every subscriber once it has received its buffered events.
+     * Does nothing if the publisher is already closed.
+     */
+    public void close() {
+        closeExceptionally(null);
+    }
+
+    /**
+     * Fails every subscriber once it has received its buffered events.
+     * Does nothing if the publisher is already closed.
+     * @param error The error to signal, or null to complete normally
+     */
+    public void closeExceptionally(Throwable error) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeError = error;
+        }
+        for (RoomSubscription subscription : subscriptions) {
+            subscription.terminate(error);
+        }
+        logger.debug("Event publisher for {} closed{}", name, error == null ? "" : " with error: " + error.getMessage());
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Checks for subscribers, so callers can skip building events nobody reads
+     * @return true if at least one subscriber is attached
+     */
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    public int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Gets how many subscribers were dropped for falling too far behind
+     * @return The overflow count
+     */
+    public long getOverflowCount() {
+        return overflowCount.sum();
+    }
+
+    public int getBufferCapacity() {
+        return bufferCapacity;
+    }
+
+    /**
+     * State of one subscriber. Producers touch the buffer under the
+     * subscription's lock; a single drain task at a time, tracked by
+     * {@code wip}, delivers the signals.
+     */
+    private final class RoomSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super ChatEvent> subscriber;
+        private final ArrayDeque<ChatEvent> buffer;
+        private final AtomicInteger wip;
+        private long demand; // Guarded by this, Long.MAX_VALUE means unbounded
+        private boolean terminated; // Guarded by this, no more events are accepted
+        private Throwable terminalError; // Guarded by this
+        private volatile boolean cancelled;
+        private boolean subscribed; // Only touched by the drain task
+
+        RoomSubscription(Flow.Subscriber<? super ChatEvent> subscriber) {
+            this.subscriber = subscriber;
+            this.buffer = new ArrayDeque<>();
+            this.wip = new AtomicInteger();
+        }
+
+        void offer(ChatEvent event) {
+            synchronized (this) {
+                if (terminated || cancelled) {
+                    return;
+                }
+                if (buffer.size() >= bufferCapacity) {
+                    buffer.clear();
+                    terminated = true;
+                    terminalError = new ChatRoomException("Subscriber fell more than " + bufferCapacity
+                            + " events behind " + name);
+                    overflowCount.increment();
+                    logger.warn("Dropping slow subscriber of {}: buffer of {} events is full", name, bufferCapacity);
+                } else {
+                    buffer.add(event);
+                }
+            }
+            signal();
+        }
+
+        void terminate(Throwable error) {
+            synchronized (this) {
+                if (terminated) {
+                    return;
+                }
+                terminated = true;
+                terminalError = error;
+            }
+            signal();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (n <= 0) {
+                    buffer.clear();
+                    terminated = true;
+                    terminalError = new IllegalArgumentException("Requested " + n + " events, must be positive");
+                } else {
+                    long total = demand + n;
+                    demand = total < 0 ? Long.MAX_VALUE : total;
+                }
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+            synchronized (this) {
+                buffer.clear();
+            }
+        }
+
+        void signal() {
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    logger.error("Executor rejected delivery for {}: {}", name, e.getMessage());
+                    cancel();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            while (true) {
+                if (!subscribed) {
+                    subscribed = true;
+                    try {
+                        subscriber.onSubscribe(this);
+                    } catch (Throwable t) {
+                        logger.error("Subscriber of {} failed in onSubscribe: {}", name, t.getMessage(), t);
+                        cancel();
+                    }
+                }
+                if (drain()) {
+                    return;
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Delivers as many signals as demand allows
+         * @return true once the subscription is finished and needs no more drains
+         */
+        private boolean drain() {
+            while (!cancelled) {
+                ChatEvent next = null;
+                boolean finished = false;
+                Throwable error = null;
+                synchronized (this) {
+                    if (!buffer.isEmpty() && demand > 0) {
+                        next = buffer.poll();
+                        if (demand != Long.MAX_VALUE) {
+                            demand--;
+                        }
+                    } else if (buffer.isEmpty() && terminated) {
+                        finished = true;
+                        error = terminalError;
+                    } else {
+                        return false;
+                    }
+                }
+                if (finished) {
+                    cancel();
+                    try {
+                        if (error == null) {
+                            subscriber.onComplete();
+                        } else {
+                            subscriber.onError(error);
+                        }
+                    } catch (Throwable t) {
+                        logger.error("Subscriber of {} failed on its terminal signal: {}", name, t.getMessage(), t);
+                    }
+                    return true;
+                }
+                try {
+                    subscriber.onNext(next);
+                } catch (Throwable t) {
+                    logger.error("Subscriber of {} failed in onNext, cancelling: {}", name, t.getMessage(), t);
+                    cancel();
+                }
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ChatEventPublisher{"
+                + "name='" + name + '\''
+                + ", subscribers=" + subscriptions.size()
+                + ", bufferCapacity=" + bufferCapacity
+                + '}';
+    }
+}
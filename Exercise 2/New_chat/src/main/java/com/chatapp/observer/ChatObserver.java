@@ -1,9 +1,13 @@
 package com.chatapp.observer;
 
+import com.chatapp.model.EphemeralEvent;
 import com.chatapp.model.Message;
 import com.chatapp.model.PrivateMessage;
+import com.chatapp.model.ReadReceipt;
 import com.chatapp.model.User;
 
+import java.util.List;
+
 /**
  * Observer interface for the Observer Pattern.
  * Defines the contract for objects that need to be notified of chat events.
@@ -40,6 +44,22 @@ public interface ChatObserver {
      * @param privateMessage The private message that was received.
      */
     void onPrivateMessageReceived(PrivateMessage privateMessage);
+
+    /**
+     * Called with the latest ephemeral event of another user, such as a typing
+     * indicator. Delivery is best-effort: events may be conflated or dropped.
+     * @param event The ephemeral event
+     */
+    default void onEphemeralEvent(EphemeralEvent event) {
+    }
+
+    /**
+     * Called with a batch of read position changes in the chat room, at most
+     * one per user. Includes this observer's own user.
+     * @param receipts The read receipts
+     */
+    default void onReadReceipts(List<ReadReceipt> receipts) {
+    }
     
     /**
      * Gets the user ID of this observer
@@ -0,0 +1,148 @@
+package com.chatapp.observer;
+
+import com.chatapp.model.EphemeralEvent;
+import com.chatapp.util.IntObjectMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Conflates a room's {@link EphemeralEvent}s before they are fanned out. Within
+ * each window only the latest event per user and channel is kept, so a user
+ * toggling a typing indicator ten times costs one delivery to each observer,
+ * not ten. The first event of a window schedules a flush on a shared timer
+ * thread; the flush hands the surviving events to the room.
+ * <p>
+ * Nothing is retried or stored. If more than {@code maxPendingUsers} entries are
+ * pending, events from further users are dropped until the next flush.
+ */
+public class EphemeralChannel {
+    private static final Logger logger = LoggerFactory.getLogger(EphemeralChannel.class);
+
+    private static final ScheduledExecutorService FLUSH_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ephemeral-flush-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String roomId;
+    private final long windowMillis;
+    private final int maxPendingUsers;
+    private final Consumer<List<EphemeralEvent>> sink;
+    private final List<IntObjectMap<EphemeralEvent>> pending; // Guarded by this, by channel then user handle
+    private int pendingCount; // Guarded by this
+    private boolean flushScheduled; // Guarded by this
+    private long submittedCount; // Guarded by this
+    private long conflatedCount; // Guarded by this
+    private long droppedCount; // Guarded by this
+    private long flushedCount; // Guarded by this
+
+    /**
+     * Creates a channel
+     * @param roomId The room the channel belongs to, used in log output
+     * @param windowMillis How long events are held for conflation
+     * @param maxPendingUsers The most entries held in one window
+     * @param sink Delivers each window's events
+     */
+    public EphemeralChannel(String roomId, long windowMillis, int maxPendingUsers,
+                            Consumer<List<EphemeralEvent>> sink) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Conflation window must be positive");
+        }
+        if (maxPendingUsers <= 0) {
+            throw new IllegalArgumentException("Pending user limit must be positive");
+        }
+        if (sink == null) {
+            throw new IllegalArgumentException("Sink cannot be null");
+        }
+        this.roomId = roomId;
+        this.windowMillis = windowMillis;
+        this.maxPendingUsers = maxPendingUsers;
+        this.sink = sink;
+        this.pending = new ArrayList<>(EphemeralEvent.Kind.CHANNEL_COUNT);
+        for (int i = 0; i < EphemeralEvent.Kind.CHANNEL_COUNT; i++) {
+            pending.add(new IntObjectMap<>());
+        }
+    }
+
+    /**
+     * Queues an event, replacing any pending event of the same user and channel
+     * @param userHandle The handle of the user the event is about
+     * @param event The event
+     * @return true if the event is pending, false if it was dropped
+     */
+    public synchronized boolean submit(int userHandle, EphemeralEvent event) {
+        submittedCount++;
+        IntObjectMap<EphemeralEvent> byUser = pending.get(event.getKind().getChannel());
+        if (byUser.containsKey(userHandle)) {
+            conflatedCount++;
+        } else if (pendingCount >= maxPendingUsers) {
+            droppedCount++;
+            return false;
+        } else {
+            pendingCount++;
+        }
+        byUser.put(userHandle, event);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            FLUSH_TIMER.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    private void flush() {
+        List<EphemeralEvent> batch;
+        synchronized (this) {
+            batch = new ArrayList<>(pendingCount);
+            for (IntObjectMap<EphemeralEvent> byUser : pending) {
+                byUser.forEachValue(batch::add);
+                byUser.clear();
+            }
+            pendingCount = 0;
+            flushScheduled = false;
+            flushedCount += batch.size();
+        }
+        try {
+            sink.accept(batch);
+        } catch (RuntimeException e) {
+            logger.error("Failed to deliver ephemeral events of room {}", roomId, e);
+        }
+    }
+
+    /**
+     * Drops every pending event, for a room that is going away
+     */
+    public synchronized void discardPending() {
+        for (IntObjectMap<EphemeralEvent> byUser : pending) {
+            byUser.clear();
+        }
+        droppedCount += pendingCount;
+        pendingCount = 0;
+    }
+
+    public synchronized long getSubmittedCount() {
+        return submittedCount;
+    }
+
+    /**
+     * Gets how many events were replaced by a later one before delivery
+     * @return The conflated event count
+     */
+    public synchronized long getConflatedCount() {
+        return conflatedCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized long getFlushedCount() {
+        return flushedCount;
+    }
+}
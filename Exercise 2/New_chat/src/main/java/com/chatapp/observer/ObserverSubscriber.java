@@ -0,0 +1,107 @@
+package com.chatapp.observer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Flow;
+
+/**
+ * Bridges an existing {@link ChatObserver} onto a {@link ChatEventPublisher}.
+ * Events are requested in batches and dispatched to the matching observer
+ * callback, skipping events about the observer's own user just like the room's
+ * direct notifications do. Errors from the publisher end up in
+ * {@link ChatObserver#onError(String)}.
+ */
+public class ObserverSubscriber implements Flow.Subscriber<ChatEvent> {
+    private static final Logger logger = LoggerFactory.getLogger(ObserverSubscriber.class);
+
+    /**
+     * Default number of events requested at a time
+     */
+    public static final int DEFAULT_BATCH_SIZE = 32;
+
+    private final ChatObserver observer;
+    private final int batchSize;
+    private volatile Flow.Subscription subscription;
+    private int receivedInBatch; // Only touched by the delivering thread
+
+    public ObserverSubscriber(ChatObserver observer) {
+        this(observer, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a bridge for an observer
+     * @param observer The observer to notify
+     * @param batchSize The number of events requested at a time
+     */
+    public ObserverSubscriber(ChatObserver observer, int batchSize) {
+        if (observer == null) {
+            throw new IllegalArgumentException("Observer cannot be null");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.observer = observer;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            // A bridge belongs to one publisher only
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(batchSize);
+    }
+
+    @Override
+    public void onNext(ChatEvent event) {
+        if (!observer.getObserverUserId().equals(event.getSubjectUserId())) {
+            switch (event.getType()) {
+                case MESSAGE:
+                    observer.onMessageReceived(event.getMessage());
+                    break;
+                case USER_JOINED:
+                    observer.onUserJoined(event.getUser());
+                    break;
+                case USER_LEFT:
+                    observer.onUserLeft(event.getUser());
+                    break;
+                default:
+                    break;
+            }
+        }
+        // Top demand up once a batch is used, so the publisher never waits on a round trip per event
+        if (++receivedInBatch == batchSize) {
+            receivedInBatch = 0;
+            subscription.request(batchSize);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        logger.warn("Event stream for observer {} failed: {}", observer.getObserverUserId(), throwable.getMessage());
+        observer.onError(throwable.getMessage());
+    }
+
+    @Override
+    public void onComplete() {
+        logger.debug("Event stream for observer {} completed", observer.getObserverUserId());
+    }
+
+    /**
+     * Stops receiving events
+     */
+    public void cancel() {
+        Flow.Subscription current = subscription;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    public ChatObserver getObserver() {
+        return observer;
+    }
+}
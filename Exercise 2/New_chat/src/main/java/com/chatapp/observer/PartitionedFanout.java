@@ -0,0 +1,98 @@
+package com.chatapp.observer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared pool of single-threaded workers used to fan notifications out to the
+ * observers of large rooms. A partition is always executed by the same worker,
+ * so notifications for one observer are delivered in the order they were posted.
+ * The pool counts pending tasks and how long they wait, which the admission
+ * controller reads as fan-out lag.
+ */
+public final class PartitionedFanout {
+    private static final Logger logger = LoggerFactory.getLogger(PartitionedFanout.class);
+
+    private static final PartitionedFanout SHARED =
+            new PartitionedFanout(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private final ExecutorService[] workers;
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    /**
+     * Creates a fan-out pool with the given number of worker threads
+     * @param workerCount The number of workers
+     */
+    public PartitionedFanout(int workerCount) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("Worker count must be positive");
+        }
+        this.workers = new ExecutorService[workerCount];
+        AtomicInteger threadIndex = new AtomicInteger();
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "fanout-worker-" + threadIndex.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        logger.info("Partitioned fan-out initialized with {} workers", workerCount);
+    }
+
+    /**
+     * Gets the fan-out pool shared by all large rooms
+     * @return The shared pool
+     */
+    public static PartitionedFanout shared() {
+        return SHARED;
+    }
+
+    /**
+     * Runs a task on the worker that owns the given partition
+     * @param partition The partition key, any non-negative value
+     * @param task The task to run
+     */
+    public void execute(int partition, Runnable task) {
+        long queuedAt = System.nanoTime();
+        pendingTasks.incrementAndGet();
+        workers[Math.floorMod(partition, workers.length)].execute(() -> {
+            maxLagNanos.accumulateAndGet(System.nanoTime() - queuedAt, Math::max);
+            try {
+                task.run();
+            } finally {
+                pendingTasks.decrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Gets the number of tasks queued or running across all workers
+     * @return The pending task count
+     */
+    public int getPendingTaskCount() {
+        return pendingTasks.get();
+    }
+
+    /**
+     * Gets the longest time a task waited in a queue before it started, since
+     * the previous call. Meant for a single periodic sampler.
+     * @return The lag in nanoseconds, 0 if no task started since the last call
+     */
+    public long sampleMaxLagNanos() {
+        return maxLagNanos.getAndSet(0);
+    }
+
+    /**
+     * Gets the number of workers in this pool
+     * @return The worker count
+     */
+    public int getWorkerCount() {
+        return workers.length;
+    }
+}
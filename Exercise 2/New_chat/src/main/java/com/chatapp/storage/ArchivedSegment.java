@@ -0,0 +1,339 @@
+package com.chatapp.storage;
+
+import com.chatapp.model.Message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Cold tier: a sealed {@link MappedSegment} rewritten as independently
+ * compressed blocks of about {@link #BLOCK_BYTES} raw bytes. Only the block
+ * index stays on the heap; a reader inflates one block at a time, so seeking to
+ * a sequence costs a single block no matter how large the archive is.
+ * <p>
+ * File layout: a header (magic, version, creation time, first and last
+ * sequence, record count, block count), the block index
+ * ({@code [long firstSequence][long offset][int compressedLength][int rawLength]}
+ * per block), then the compressed blocks. Inflated blocks hold records in the
+ * same layout as a mapped segment.
+ */
+final class ArchivedSegment {
+
+    static final int BLOCK_BYTES = 64 * 1024;
+
+    private static final int MAGIC = 0x43484152; // "CHAR"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 40;
+    private static final int INDEX_ENTRY_BYTES = 24;
+
+    private volatile Path path;
+    private final long createdAtMillis;
+    private final long firstSequence;
+    private final long lastSequence;
+    private final int count;
+    private final long[] blockSequences;
+    private final long[] blockOffsets;
+    private final int[] blockCompressedLengths;
+    private final int[] blockRawLengths;
+
+    private ArchivedSegment(Path path, ByteBuffer header, ByteBuffer index) {
+        this.path = path;
+        this.createdAtMillis = header.getLong(8);
+        this.firstSequence = header.getLong(16);
+        this.lastSequence = header.getLong(24);
+        this.count = header.getInt(32);
+        int blocks = header.getInt(36);
+        this.blockSequences = new long[blocks];
+        this.blockOffsets = new long[blocks];
+        this.blockCompressedLengths = new int[blocks];
+        this.blockRawLengths = new int[blocks];
+        for (int i = 0; i < blocks; i++) {
+            int entry = i * INDEX_ENTRY_BYTES;
+            blockSequences[i] = index.getLong(entry);
+            blockOffsets[i] = index.getLong(entry + 8);
+            blockCompressedLengths[i] = index.getInt(entry + 16);
+            blockRawLengths[i] = index.getInt(entry + 20);
+        }
+    }
+
+    /**
+     * Compresses a sealed segment into an archive file. The file is written
+     * under a temporary name and moved into place, so a crash never leaves a
+     * half-written archive.
+     * @param segment The sealed segment
+     * @param path The archive file to write
+     * @return The archive
+     * @throws IOException if the archive cannot be written
+     */
+    static ArchivedSegment write(MappedSegment segment, Path path) throws IOException {
+        return write(segment.reader(0), segment.getCreatedAtMillis(), path);
+    }
+
+    /**
+     * Compresses messages into an archive file, written under a temporary name
+     * and moved into place
+     * @param records The messages, in sequence order
+     * @param createdAtMillis The creation time of the data, used for archiving age
+     * @param path The archive file to write
+     * @return The archive, or null if there were no messages and no file was written
+     * @throws IOException if the archive cannot be written
+     */
+    static ArchivedSegment write(Iterator<Message> records, long createdAtMillis, Path path) throws IOException {
+        List<long[]> index = new ArrayList<>();
+        List<byte[]> blocks = new ArrayList<>();
+        long firstSequence = 0;
+        long lastSequence = 0;
+        int count = 0;
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            ByteBuffer raw = ByteBuffer.allocate(BLOCK_BYTES);
+            long blockFirst = -1;
+            while (records.hasNext()) {
+                Message message = records.next();
+                if (count++ == 0) {
+                    firstSequence = message.getSequence();
+                }
+                lastSequence = message.getSequence();
+                byte[] payload = MappedSegment.encode(message);
+                int recordBytes = MappedSegment.RECORD_HEADER_BYTES + payload.length;
+                if (raw.position() > 0 && raw.remaining() < recordBytes) {
+                    blocks.add(deflate(deflater, raw));
+                    index.add(new long[] {blockFirst, raw.position()});
+                    raw.clear();
+                }
+                if (raw.capacity() < recordBytes) {
+                    raw = ByteBuffer.allocate(recordBytes);
+                }
+                if (raw.position() == 0) {
+                    blockFirst = message.getSequence();
+                }
+                raw.putInt(payload.length).putLong(message.getSequence()).put(payload);
+            }
+            if (raw.position() > 0) {
+                blocks.add(deflate(deflater, raw));
+                index.add(new long[] {blockFirst, raw.position()});
+            }
+        } finally {
+            deflater.end();
+        }
+        if (count == 0) {
+            return null;
+        }
+
+        int indexBytes = index.size() * INDEX_ENTRY_BYTES;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + indexBytes).order(ByteOrder.BIG_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putLong(createdAtMillis)
+                .putLong(firstSequence).putLong(lastSequence)
+                .putInt(count).putInt(index.size());
+        long offset = HEADER_BYTES + indexBytes;
+        for (int i = 0; i < index.size(); i++) {
+            header.putLong(index.get(i)[0]).putLong(offset).putInt(blocks.get(i).length)
+                    .putInt((int) index.get(i)[1]);
+            offset += blocks.get(i).length;
+        }
+        header.flip();
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, header);
+            for (byte[] block : blocks) {
+                writeFully(channel, ByteBuffer.wrap(block));
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return open(path);
+    }
+
+    private static byte[] deflate(Deflater deflater, ByteBuffer raw) {
+        deflater.reset();
+        deflater.setInput(raw.array(), 0, raw.position());
+        deflater.finish();
+        byte[] out = new byte[Math.max(64, raw.position() / 2)];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Opens an archive written earlier, reading only its header and block index
+     * @param path The archive file
+     * @return The archive
+     * @throws IOException if the file cannot be read or is not an archive
+     */
+    static ArchivedSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a history archive: " + path);
+            }
+            ByteBuffer index = ByteBuffer.allocate(header.getInt(36) * INDEX_ENTRY_BYTES);
+            readFully(channel, index, HEADER_BYTES);
+            return new ArchivedSegment(path, header, index);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Truncated history archive");
+            }
+        }
+    }
+
+    /**
+     * Opens a reader that inflates one block at a time. The file is opened at
+     * once, so the reader keeps working if the archive is replaced later.
+     * @param fromSequence The first sequence to return
+     * @return The reader, which must be closed
+     */
+    Reader reader(long fromSequence) {
+        int block = Arrays.binarySearch(blockSequences, fromSequence);
+        if (block < 0) {
+            block = Math.max(0, -block - 2);
+        }
+        try {
+            return new Reader(FileChannel.open(path, StandardOpenOption.READ), block, fromSequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Moves the file, replacing whatever is there. Open readers are unaffected.
+     * @param target The new file name
+     * @throws IOException if the file cannot be moved
+     */
+    void renameTo(Path target) throws IOException {
+        Files.move(path, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        path = target;
+    }
+
+    long getCreatedAtMillis() {
+        return createdAtMillis;
+    }
+
+    long getFirstSequence() {
+        return firstSequence;
+    }
+
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Iterator over an archive that keeps the file open until closed
+     */
+    final class Reader implements Iterator<Message>, Closeable {
+        private final long fromSequence;
+        private int nextBlock;
+        private FileChannel channel;
+        private Iterator<Message> current;
+
+        private Reader(FileChannel channel, int firstBlock, long fromSequence) {
+            this.channel = channel;
+            this.nextBlock = firstBlock;
+            this.fromSequence = fromSequence;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (current == null || !current.hasNext()) {
+                if (nextBlock >= blockSequences.length) {
+                    return false;
+                }
+                current = inflate(nextBlock++);
+            }
+            return true;
+        }
+
+        @Override
+        public Message next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        private Iterator<Message> inflate(int block) {
+            Inflater inflater = new Inflater();
+            try {
+                if (channel == null) {
+                    throw new IOException("History archive reader is closed: " + path);
+                }
+                ByteBuffer compressed = ByteBuffer.allocate(blockCompressedLengths[block]);
+                readFully(channel, compressed, blockOffsets[block]);
+                byte[] raw = new byte[blockRawLengths[block]];
+                inflater.setInput(compressed.array());
+                int length = 0;
+                while (length < raw.length && !inflater.finished()) {
+                    int inflated = inflater.inflate(raw, length, raw.length - length);
+                    if (inflated == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                    length += inflated;
+                }
+                if (length != raw.length) {
+                    throw new IOException("Truncated block " + block + " in " + path);
+                }
+                return new MappedSegment.RecordIterator(ByteBuffer.wrap(raw), 0, raw.length, fromSequence);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (DataFormatException e) {
+                throw new UncheckedIOException(new IOException("Corrupt block " + block + " in " + path, e));
+            } finally {
+                inflater.end();
+            }
+        }
+
+        @Override
+        public void close() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Read-only handle, nothing to lose
+                }
+                channel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.chatapp.storage;
+
+import com.chatapp.model.Message;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Forward-only iterator over a room's stored history, oldest first. A cursor
+ * sees the messages that were stored when it was opened, even if they move to
+ * another tier while it is being read. Close it when done so any file handles
+ * it holds are released.
+ */
+public interface HistoryCursor extends Iterator<Message>, Closeable {
+
+    /**
+     * Releases the resources held by the cursor. Never throws.
+     */
+    @Override
+    void close();
+}
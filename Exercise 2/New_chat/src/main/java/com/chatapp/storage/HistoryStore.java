@@ -0,0 +1,62 @@
+package com.chatapp.storage;
+
+import com.chatapp.model.Message;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * Storage for the messages of one room. Messages are appended in sequence order
+ * once the room has assigned their sequence number; readers either take the
+ * newest few or open a {@link HistoryCursor} from any retained sequence.
+ * <p>
+ * The store is a log: edits and tombstones are appended like any other entry.
+ * Readers get resolved history, where edited messages carry their latest
+ * content and deleted messages and the revision entries themselves are left
+ * out.
+ * <p>
+ * Implementations are thread-safe.
+ */
+public interface HistoryStore extends Closeable {
+
+    /**
+     * Stores a message, edit or tombstone. Its sequence number must be higher
+     * than that of every entry stored before.
+     * @param message The posted entry
+     * @throws com.chatapp.exception.ChatRoomException if the message cannot be stored
+     */
+    void append(Message message);
+
+    /**
+     * Gets the newest messages, resolved
+     * @param limit The most messages to return
+     * @return The messages, oldest first
+     */
+    List<Message> recent(int limit);
+
+    /**
+     * Opens a cursor over every retained message from a sequence onwards,
+     * resolved
+     * @param fromSequence The first sequence to return; older ones are skipped
+     * @return The cursor, which the caller must close
+     */
+    HistoryCursor openCursor(long fromSequence);
+
+    /**
+     * Gets the number of retained entries, including edits and tombstones
+     * @return The entry count
+     */
+    long size();
+
+    /**
+     * Gets the sequence of the newest stored message
+     * @return The last sequence, or 0 if nothing was stored
+     */
+    long getLastSequence();
+
+    /**
+     * Flushes and releases the store. Never throws.
+     */
+    @Override
+    void close();
+}
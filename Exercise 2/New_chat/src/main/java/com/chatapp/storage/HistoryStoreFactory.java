@@ -0,0 +1,18 @@
+package com.chatapp.storage;
+
+import java.io.IOException;
+
+/**
+ * Creates the history store of a new room
+ */
+@FunctionalInterface
+public interface HistoryStoreFactory {
+
+    /**
+     * Creates or reopens the store for a room
+     * @param roomId The room ID
+     * @return The store
+     * @throws IOException if the store cannot be opened
+     */
+    HistoryStore create(String roomId) throws IOException;
+}
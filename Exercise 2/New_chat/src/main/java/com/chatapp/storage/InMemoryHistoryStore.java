@@ -0,0 +1,136 @@
+package com.chatapp.storage;
+
+import com.chatapp.model.Message;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Heap-only history that keeps the newest {@code capacity} messages in a ring
+ * and drops older ones. This is what rooms use unless a persistent store is
+ * configured. Edits and tombstones take ring slots like messages and are
+ * resolved against the ring when it is read.
+ */
+public class InMemoryHistoryStore implements HistoryStore {
+
+    private final int capacity;
+    private final ArrayDeque<Message> ring;
+    private int revisionCount; // Guarded by this, edits and tombstones in the ring
+
+    /**
+     * Creates an empty store
+     * @param capacity The most messages kept
+     */
+    public InMemoryHistoryStore(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.ring = new ArrayDeque<>(Math.min(capacity, 1024));
+    }
+
+    @Override
+    public synchronized void append(Message message) {
+        if (ring.size() == capacity && ring.pollFirst().isRevision()) {
+            revisionCount--;
+        }
+        ring.addLast(message);
+        if (message.isRevision()) {
+            revisionCount++;
+        }
+    }
+
+    @Override
+    public synchronized List<Message> recent(int limit) {
+        if (revisionCount == 0) {
+            return tail(ring, limit);
+        }
+        return tail(RevisionIndex.resolveAll(ring), limit);
+    }
+
+    @Override
+    public synchronized HistoryCursor openCursor(long fromSequence) {
+        List<Message> snapshot = new ArrayList<>(ring.size());
+        for (Message message : revisionCount == 0 ? ring : RevisionIndex.resolveAll(ring)) {
+            if (message.getSequence() >= fromSequence) {
+                snapshot.add(message);
+            }
+        }
+        return iteratorCursor(snapshot.iterator());
+    }
+
+    @Override
+    public synchronized long size() {
+        return ring.size();
+    }
+
+    @Override
+    public synchronized long getLastSequence() {
+        return ring.isEmpty() ? 0 : ring.peekLast().getSequence();
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+
+    /**
+     * Copies the newest messages of a deque
+     * @param messages The messages, oldest first
+     * @param limit The most messages to copy
+     * @return The newest messages, oldest first
+     */
+    static List<Message> tail(ArrayDeque<Message> messages, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        int count = Math.min(limit, messages.size());
+        List<Message> result = new ArrayList<>(count);
+        Iterator<Message> newestFirst = messages.descendingIterator();
+        for (int i = 0; i < count; i++) {
+            result.add(newestFirst.next());
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Gets the newest messages of an already resolved list
+     * @param messages The messages, oldest first
+     * @param limit The most messages to copy
+     * @return The newest messages, oldest first
+     */
+    static List<Message> tail(List<Message> messages, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        return new ArrayList<>(messages.subList(Math.max(0, messages.size() - limit), messages.size()));
+    }
+
+    /**
+     * Wraps an iterator that holds no resources as a cursor
+     * @param messages The messages to return
+     * @return The cursor
+     */
+    static HistoryCursor iteratorCursor(Iterator<Message> messages) {
+        return new HistoryCursor() {
+            @Override
+            public boolean hasNext() {
+                return messages.hasNext();
+            }
+
+            @Override
+            public Message next() {
+                return messages.next();
+            }
+
+            @Override
+            public void close() {
+                // Nothing to release
+            }
+        };
+    }
+}
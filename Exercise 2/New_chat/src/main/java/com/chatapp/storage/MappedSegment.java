@@ -0,0 +1,317 @@
+package com.chatapp.storage;
+
+import com.chatapp.codec.MessageCodec;
+import com.chatapp.model.Message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Warm tier: a fixed-size file mapped into memory and filled with records. The
+ * page cache holds the data, so a segment costs almost no heap beyond a sparse
+ * index of every {@link #INDEX_INTERVAL}th record.
+ * <p>
+ * File layout: a {@link #HEADER_BYTES}-byte header (magic, version, creation
+ * time, flags) followed by records of {@code [int payloadLength][long sequence][payload]},
+ * where the payload is a {@link MessageCodec} message. A zero length marks the
+ * end of the written records, which is how a segment is recovered after restart.
+ * The flags record whether any edit or tombstone was appended, so recovery only
+ * decodes segments that hold revisions.
+ * <p>
+ * Appends are guarded by the owning store; readers work on their own view of
+ * the mapping and only read below the write position they captured.
+ */
+final class MappedSegment {
+
+    static final int HEADER_BYTES = 32;
+    static final int RECORD_HEADER_BYTES = Integer.BYTES + Long.BYTES;
+    static final int INDEX_INTERVAL = 64;
+
+    private static final int MAGIC = 0x43485347; // "CHSG"
+    private static final int VERSION = 1;
+    private static final int FLAGS_OFFSET = 16;
+    private static final int FLAG_HAS_REVISIONS = 1;
+
+    private Path path;
+    private final MappedByteBuffer buffer;
+    private final long createdAtMillis;
+    private volatile int writePosition;
+    private int count;
+    private long firstSequence;
+    private long lastSequence;
+    private boolean hasRevisions;
+    private long[] indexSequences;
+    private int[] indexPositions;
+    private int indexSize;
+
+    private MappedSegment(Path path, MappedByteBuffer buffer, long createdAtMillis) {
+        this.path = path;
+        this.buffer = buffer;
+        this.createdAtMillis = createdAtMillis;
+        this.writePosition = HEADER_BYTES;
+        this.indexSequences = new long[16];
+        this.indexPositions = new int[16];
+    }
+
+    /**
+     * Creates a new, empty segment file
+     * @param path The file to create
+     * @param capacityBytes The size of the file
+     * @param createdAtMillis The creation time, used to decide when to archive
+     * @return The segment
+     * @throws IOException if the file cannot be created
+     */
+    static MappedSegment create(Path path, int capacityBytes, long createdAtMillis) throws IOException {
+        MappedByteBuffer buffer = map(path, capacityBytes, true);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, createdAtMillis);
+        return new MappedSegment(path, buffer, createdAtMillis);
+    }
+
+    /**
+     * Reopens a segment written earlier and finds the end of its records
+     * @param path The segment file
+     * @return The segment
+     * @throws IOException if the file cannot be read or is not a segment
+     */
+    static MappedSegment open(Path path) throws IOException {
+        MappedByteBuffer buffer = map(path, (int) Files.size(path), false);
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a history segment: " + path);
+        }
+        MappedSegment segment = new MappedSegment(path, buffer, buffer.getLong(8));
+        segment.hasRevisions = (buffer.getInt(FLAGS_OFFSET) & FLAG_HAS_REVISIONS) != 0;
+        int position = HEADER_BYTES;
+        while (position + RECORD_HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_BYTES + length > buffer.capacity()) {
+                break;
+            }
+            segment.track(buffer.getLong(position + Integer.BYTES), position);
+            position += RECORD_HEADER_BYTES + length;
+        }
+        segment.writePosition = position;
+        return segment;
+    }
+
+    private static MappedByteBuffer map(Path path, int capacityBytes, boolean create) throws IOException {
+        StandardOpenOption[] options = create
+                ? new StandardOpenOption[] {StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE}
+                : new StandardOpenOption[] {StandardOpenOption.READ, StandardOpenOption.WRITE};
+        // The mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes);
+        }
+    }
+
+    /**
+     * Appends an encoded message
+     * @param sequence The message sequence
+     * @param payload The encoded message
+     * @param revision Whether the message is an edit or tombstone
+     * @return false if the segment has no room left for the record
+     */
+    boolean append(long sequence, byte[] payload, boolean revision) {
+        int position = writePosition;
+        if (position + RECORD_HEADER_BYTES + payload.length > buffer.capacity()) {
+            return false;
+        }
+        if (revision && !hasRevisions) {
+            // Flag before the record, so a recovered record is never missed
+            hasRevisions = true;
+            buffer.putInt(FLAGS_OFFSET, FLAG_HAS_REVISIONS);
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + RECORD_HEADER_BYTES);
+        view.put(payload);
+        buffer.putLong(position + Integer.BYTES, sequence);
+        // Length last, so a crash mid-write leaves a zero length that ends recovery
+        buffer.putInt(position, payload.length);
+        track(sequence, position);
+        writePosition = position + RECORD_HEADER_BYTES + payload.length;
+        return true;
+    }
+
+    private void track(long sequence, int position) {
+        if (count == 0) {
+            firstSequence = sequence;
+        }
+        if (count % INDEX_INTERVAL == 0) {
+            if (indexSize == indexSequences.length) {
+                indexSequences = Arrays.copyOf(indexSequences, indexSize * 2);
+                indexPositions = Arrays.copyOf(indexPositions, indexSize * 2);
+            }
+            indexSequences[indexSize] = sequence;
+            indexPositions[indexSize] = position;
+            indexSize++;
+        }
+        lastSequence = sequence;
+        count++;
+    }
+
+    /**
+     * Opens a reader over the records written so far
+     * @param fromSequence The first sequence to return
+     * @return Iterator over the messages, oldest first
+     */
+    Iterator<Message> reader(long fromSequence) {
+        int start = HEADER_BYTES;
+        int slot = Arrays.binarySearch(indexSequences, 0, indexSize, fromSequence);
+        if (slot >= 0) {
+            start = indexPositions[slot];
+        } else if (-slot - 2 >= 0) {
+            start = indexPositions[-slot - 2];
+        }
+        return new RecordIterator(buffer.duplicate(), start, writePosition, fromSequence);
+    }
+
+    /**
+     * Makes the written records durable
+     */
+    void force() {
+        buffer.force();
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Moves the file, replacing whatever is there. The mapping is unaffected.
+     * @param target The new file name
+     * @throws IOException if the file cannot be moved
+     */
+    void renameTo(Path target) throws IOException {
+        Files.move(path, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        path = target;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getCreatedAtMillis() {
+        return createdAtMillis;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Checks if any edit or tombstone was appended
+     * @return true if the segment holds revision entries
+     */
+    boolean hasRevisions() {
+        return hasRevisions;
+    }
+
+    /**
+     * Gets the bytes taken by the records, without the unused tail
+     * @return The used bytes
+     */
+    int getUsedBytes() {
+        return writePosition;
+    }
+
+    long getFirstSequence() {
+        return firstSequence;
+    }
+
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Encodes a message as a record payload
+     * @param message The message
+     * @return The payload
+     */
+    static byte[] encode(Message message) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            MessageCodec.writeMessage(out, message);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Decodes a record payload
+     * @param payload The payload
+     * @return The message
+     */
+    static Message decode(byte[] payload) {
+        try {
+            return MessageCodec.readMessage(new DataInputStream(new ByteArrayInputStream(payload)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt history record", e);
+        }
+    }
+
+    /**
+     * Walks the records in a buffer between two positions, skipping those below
+     * a sequence. Shared by the warm and cold tiers, which use the same record
+     * layout.
+     */
+    static final class RecordIterator implements Iterator<Message> {
+        private final ByteBuffer records;
+        private final int limit;
+        private final long fromSequence;
+        private int position;
+        private Message next;
+
+        RecordIterator(ByteBuffer records, int start, int limit, long fromSequence) {
+            this.records = records;
+            this.position = start;
+            this.limit = limit;
+            this.fromSequence = fromSequence;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && position + RECORD_HEADER_BYTES <= limit) {
+                int length = records.getInt(position);
+                long sequence = records.getLong(position + Integer.BYTES);
+                int payloadStart = position + RECORD_HEADER_BYTES;
+                position = payloadStart + length;
+                if (sequence >= fromSequence) {
+                    byte[] payload = new byte[length];
+                    ByteBuffer view = records.duplicate();
+                    view.position(payloadStart);
+                    view.get(payload);
+                    next = decode(payload);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Message next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Message result = next;
+            next = null;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.chatapp.storage;
+
+import com.chatapp.model.Message;
+import com.chatapp.model.MessageKind;
+import com.chatapp.util.IdRegistry;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+/**
+ * Flyweight over one message record in an {@link OffHeapHistoryStore} slab.
+ * A single view is moved from record to record, and fields are decoded only
+ * when asked for, so scanning history allocates nothing unless the caller
+ * reads strings or calls {@link #toMessage()}.
+ * <p>
+ * A view is only valid inside the callback it was passed to; keep the result
+ * of {@link #toMessage()} instead of the view itself.
+ * <p>
+ * Record layout, after the {@code int} record length: {@code long} sequence,
+ * {@code long} UTC epoch nanos, {@code int} sender handle, {@code byte} flags,
+ * the message ID (two {@code long}s when it is a UUID, otherwise a short
+ * length and UTF-8), the content (short length and UTF-8), if flagged the
+ * idempotency key (short length and UTF-8), and for edits and tombstones the
+ * target message ID (short length and UTF-8) and {@code long} target sequence.
+ */
+public final class MessageView {
+
+    static final int SEQUENCE_OFFSET = Integer.BYTES;
+    static final int TIMESTAMP_OFFSET = SEQUENCE_OFFSET + Long.BYTES;
+    static final int SENDER_OFFSET = TIMESTAMP_OFFSET + Long.BYTES;
+    static final int FLAGS_OFFSET = SENDER_OFFSET + Integer.BYTES;
+    static final int ID_OFFSET = FLAGS_OFFSET + 1;
+    static final byte FLAG_UUID_ID = 1;
+    static final byte FLAG_IDEMPOTENCY_KEY = 2;
+    static final byte FLAG_EDITED = 4;
+    static final byte FLAG_EDIT = 8;
+    static final byte FLAG_TOMBSTONE = 16;
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final OffHeapHistoryStore store;
+    private ByteBuffer slab;
+    private int offset;
+
+    MessageView(OffHeapHistoryStore store) {
+        this.store = store;
+    }
+
+    MessageView moveTo(ByteBuffer slab, int offset) {
+        this.slab = slab;
+        this.offset = offset;
+        return this;
+    }
+
+    int getRecordLength() {
+        return slab.getInt(offset);
+    }
+
+    public long getSequence() {
+        return slab.getLong(offset + SEQUENCE_OFFSET);
+    }
+
+    /**
+     * Gets the timestamp without creating a {@link LocalDateTime}
+     * @return Nanoseconds since the epoch, UTC
+     */
+    public long getTimestampNanos() {
+        return slab.getLong(offset + TIMESTAMP_OFFSET);
+    }
+
+    public LocalDateTime getTimestamp() {
+        long nanos = getTimestampNanos();
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, NANOS_PER_SECOND),
+                (int) Math.floorMod(nanos, NANOS_PER_SECOND), ZoneOffset.UTC);
+    }
+
+    /**
+     * Gets the sender's int handle from {@link IdRegistry}
+     * @return The sender handle
+     */
+    public int getSenderHandle() {
+        return slab.getInt(offset + SENDER_OFFSET);
+    }
+
+    public String getSenderId() {
+        return IdRegistry.getInstance().userIdOf(getSenderHandle());
+    }
+
+    public String getSenderUsername() {
+        return store.usernameOf(getSenderHandle());
+    }
+
+    public String getRoomId() {
+        return store.getRoomId();
+    }
+
+    public String getMessageId() {
+        int position = offset + ID_OFFSET;
+        if ((flags() & FLAG_UUID_ID) != 0) {
+            return new UUID(slab.getLong(position), slab.getLong(position + Long.BYTES)).toString();
+        }
+        return readString(position);
+    }
+
+    public String getContent() {
+        return readString(contentOffset());
+    }
+
+    /**
+     * Gets the length of the content in UTF-8 bytes without decoding it
+     * @return The encoded content length
+     */
+    public int getContentByteLength() {
+        return Short.toUnsignedInt(slab.getShort(contentOffset()));
+    }
+
+    /**
+     * Gets the client's idempotency key
+     * @return The key, or null if the message had none
+     */
+    public String getIdempotencyKey() {
+        if ((flags() & FLAG_IDEMPOTENCY_KEY) == 0) {
+            return null;
+        }
+        return readString(keyOffset());
+    }
+
+    public MessageKind getKind() {
+        byte flags = flags();
+        if ((flags & FLAG_EDIT) != 0) {
+            return MessageKind.EDIT;
+        }
+        return (flags & FLAG_TOMBSTONE) != 0 ? MessageKind.TOMBSTONE : MessageKind.POST;
+    }
+
+    /**
+     * Checks if the record is an edit or tombstone, without decoding anything
+     * @return true for edits and tombstones
+     */
+    public boolean isRevision() {
+        return (flags() & (FLAG_EDIT | FLAG_TOMBSTONE)) != 0;
+    }
+
+    public boolean isEdited() {
+        return (flags() & FLAG_EDITED) != 0;
+    }
+
+    /**
+     * Gets the message an edit or tombstone applies to
+     * @return The target message ID, or null for a post
+     */
+    public String getTargetMessageId() {
+        return isRevision() ? readString(targetOffset()) : null;
+    }
+
+    /**
+     * Gets the sequence of the message an edit or tombstone applies to
+     * @return The target sequence, or 0 for a post
+     */
+    public long getTargetSequence() {
+        if (!isRevision()) {
+            return 0;
+        }
+        int targetOffset = targetOffset();
+        return slab.getLong(targetOffset + Short.BYTES + Short.toUnsignedInt(slab.getShort(targetOffset)));
+    }
+
+    /**
+     * Copies the record into a heap {@link Message}
+     * @return The message
+     */
+    public Message toMessage() {
+        return new Message(getMessageId(), getSenderId(), getSenderUsername(), getContent(), getRoomId(),
+                getTimestamp(), getIdempotencyKey(), getSequence(), getKind(), getTargetMessageId(),
+                getTargetSequence(), isEdited());
+    }
+
+    private byte flags() {
+        return slab.get(offset + FLAGS_OFFSET);
+    }
+
+    private int keyOffset() {
+        int contentOffset = contentOffset();
+        return contentOffset + Short.BYTES + Short.toUnsignedInt(slab.getShort(contentOffset));
+    }
+
+    private int targetOffset() {
+        int keyOffset = keyOffset();
+        if ((flags() & FLAG_IDEMPOTENCY_KEY) == 0) {
+            return keyOffset;
+        }
+        return keyOffset + Short.BYTES + Short.toUnsignedInt(slab.getShort(keyOffset));
+    }
+
+    private int contentOffset() {
+        int position = offset + ID_OFFSET;
+        if ((flags() & FLAG_UUID_ID) != 0) {
+            return position + 2 * Long.BYTES;
+        }
+        return position + Short.BYTES + Short.toUnsignedInt(slab.getShort(position));
+    }
+
+    private String readString(int position) {
+        int length = Short.toUnsignedInt(slab.getShort(position));
+        byte[] bytes = new byte[length];
+        ByteBuffer view = slab.duplicate();
+        view.position(position + Short.BYTES);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes a message as a record
+     * @param message The message
+     * @param senderHandle The sender's handle
+     * @return The record, ready to copy into a slab
+     */
+    static ByteBuffer encode(Message message, int senderHandle) {
+        UUID uuid = parseUuid(message.getMessageId());
+        byte[] id = uuid == null ? utf8(message.getMessageId(), "Message ID") : null;
+        byte[] content = utf8(message.getContent(), "Message content");
+        byte[] key = message.getIdempotencyKey() == null ? null : utf8(message.getIdempotencyKey(), "Idempotency key");
+        byte[] target = message.isRevision() ? utf8(message.getTargetMessageId(), "Target message ID") : null;
+
+        int length = ID_OFFSET
+                + (uuid != null ? 2 * Long.BYTES : Short.BYTES + id.length)
+                + Short.BYTES + content.length
+                + (key != null ? Short.BYTES + key.length : 0)
+                + (target != null ? Short.BYTES + target.length + Long.BYTES : 0);
+        LocalDateTime timestamp = message.getTimestamp();
+        long nanos = Math.addExact(Math.multiplyExact(timestamp.toEpochSecond(ZoneOffset.UTC), NANOS_PER_SECOND),
+                timestamp.getNano());
+
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(length).putLong(message.getSequence()).putLong(nanos).putInt(senderHandle);
+        record.put((byte) ((uuid != null ? FLAG_UUID_ID : 0)
+                | (key != null ? FLAG_IDEMPOTENCY_KEY : 0)
+                | (message.isEdited() ? FLAG_EDITED : 0)
+                | (message.getKind() == MessageKind.EDIT ? FLAG_EDIT : 0)
+                | (message.getKind() == MessageKind.TOMBSTONE ? FLAG_TOMBSTONE : 0)));
+        if (uuid != null) {
+            record.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+        } else {
+            record.putShort((short) id.length).put(id);
+        }
+        record.putShort((short) content.length).put(content);
+        if (key != null) {
+            record.putShort((short) key.length).put(key);
+        }
+        if (target != null) {
+            record.putShort((short) target.length).put(target).putLong(message.getTargetSequence());
+        }
+        record.flip();
+        return record;
+    }
+
+    private static byte[] utf8(String value, String field) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xffff) {
+            throw new IllegalArgumentException(field + " is too long to store off-heap");
+        }
+        return bytes;
+    }
+
+    /**
+     * Parses a canonical lower-case UUID, the form {@link Message} generates, so
+     * that it can be stored as 16 bytes and printed back identically
+     */
+    private static UUID parseUuid(String id) {
+        if (id.length() != 36 || id.charAt(8) != '-' || id.charAt(13) != '-' || id.charAt(18) != '-'
+                || id.charAt(23) != '-') {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(id);
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.chatapp.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Hands out fixed-size slabs of direct memory to {@link OffHeapHistoryStore}s.
+ * Slabs are cut from large direct chunks, so thousands of rooms cost a handful
+ * of direct buffers rather than one each, and returned slabs are reused rather
+ * than freed. Chunks are never given back to the operating system; the arena
+ * grows to the peak number of slabs in use.
+ */
+public final class OffHeapArena {
+    private static final Logger logger = LoggerFactory.getLogger(OffHeapArena.class);
+
+    public static final int DEFAULT_SLAB_BYTES = 64 * 1024;
+    public static final int DEFAULT_SLABS_PER_CHUNK = 64;
+
+    private static volatile OffHeapArena shared;
+
+    private final int slabBytes;
+    private final int slabsPerChunk;
+    private final ArrayDeque<ByteBuffer> freeSlabs; // Guarded by this
+    private int chunkCount; // Guarded by this
+    private int slabsInUse; // Guarded by this
+
+    /**
+     * Creates an empty arena
+     * @param slabBytes The size of each slab
+     * @param slabsPerChunk The number of slabs allocated together
+     */
+    public OffHeapArena(int slabBytes, int slabsPerChunk) {
+        if (slabBytes < 1024) {
+            throw new IllegalArgumentException("Slab size must be at least 1024 bytes");
+        }
+        if (slabsPerChunk <= 0 || (long) slabBytes * slabsPerChunk > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Slabs per chunk must be positive and fit in one buffer");
+        }
+        this.slabBytes = slabBytes;
+        this.slabsPerChunk = slabsPerChunk;
+        this.freeSlabs = new ArrayDeque<>();
+    }
+
+    /**
+     * Gets the arena shared by all off-heap stores.
+     * Uses double-checked locking for thread-safe lazy initialization.
+     * @return The shared arena
+     */
+    public static OffHeapArena shared() {
+        if (shared == null) {
+            synchronized (OffHeapArena.class) {
+                if (shared == null) {
+                    shared = new OffHeapArena(DEFAULT_SLAB_BYTES, DEFAULT_SLABS_PER_CHUNK);
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Takes a slab, allocating a new chunk if none is free
+     * @return A cleared slab of {@link #getSlabBytes()} bytes
+     */
+    synchronized ByteBuffer allocate() {
+        if (freeSlabs.isEmpty()) {
+            ByteBuffer chunk = ByteBuffer.allocateDirect(slabBytes * slabsPerChunk);
+            for (int i = 0; i < slabsPerChunk; i++) {
+                chunk.limit((i + 1) * slabBytes).position(i * slabBytes);
+                freeSlabs.add(chunk.slice());
+            }
+            chunkCount++;
+            logger.debug("Off-heap arena grew to {} chunks ({} bytes)", chunkCount, getReservedBytes());
+        }
+        slabsInUse++;
+        ByteBuffer slab = freeSlabs.poll();
+        slab.clear();
+        return slab;
+    }
+
+    /**
+     * Returns a slab for reuse
+     * @param slab A slab from {@link #allocate()}
+     */
+    synchronized void release(ByteBuffer slab) {
+        slabsInUse--;
+        freeSlabs.push(slab);
+    }
+
+    public int getSlabBytes() {
+        return slabBytes;
+    }
+
+    public synchronized int getSlabsInUse() {
+        return slabsInUse;
+    }
+
+    /**
+     * Gets the direct memory held by the arena, in use or free
+     * @return The reserved bytes
+     */
+    public synchronized long getReservedBytes() {
+        return (long) chunkCount * slabsPerChunk * slabBytes;
+    }
+}
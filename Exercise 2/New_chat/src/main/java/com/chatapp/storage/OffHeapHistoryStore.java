@@ -0,0 +1,272 @@
+package com.chatapp.storage;
+
+import com.chatapp.exception.ChatRoomException;
+import com.chatapp.model.Message;
+import com.chatapp.util.IdRegistry;
+import com.chatapp.util.IntObjectMap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * History that keeps the newest {@code capacity} messages packed into direct
+ * memory slabs from an {@link OffHeapArena}, instead of as {@link Message}
+ * objects. A retained message costs the GC nothing to trace; the only heap
+ * state is one username per distinct sender. Senders are stored as
+ * {@link IdRegistry} handles and message IDs generated by {@link Message} as
+ * 16 bytes.
+ * <p>
+ * Records are appended to the newest slab and evicted from the oldest; a slab
+ * goes back to the arena once all its records are evicted. Reads either copy
+ * into heap messages through the {@link HistoryStore} methods, or walk the
+ * records with a reused {@link MessageView} through {@link #forEachSince} and
+ * {@link #forEachRecent}. The copying reads resolve edits and tombstones; the
+ * views show every record as stored.
+ */
+public class OffHeapHistoryStore implements HistoryStore {
+
+    private final String roomId;
+    private final int capacity;
+    private final OffHeapArena arena;
+    private final ArrayDeque<Slab> slabs; // Guarded by this, oldest first
+    private final IntObjectMap<String> usernames; // Guarded by this, by sender handle
+    private final MessageView view; // Guarded by this
+    private int count; // Guarded by this
+    private int revisionCount; // Guarded by this, edits and tombstones retained
+    private long lastSequence; // Guarded by this
+    private boolean closed; // Guarded by this
+
+    /**
+     * Creates an empty store on the shared arena
+     * @param roomId The room the store belongs to
+     * @param capacity The most messages kept
+     */
+    public OffHeapHistoryStore(String roomId, int capacity) {
+        this(roomId, capacity, OffHeapArena.shared());
+    }
+
+    /**
+     * Creates an empty store
+     * @param roomId The room the store belongs to
+     * @param capacity The most messages kept
+     * @param arena The arena slabs are taken from
+     */
+    public OffHeapHistoryStore(String roomId, int capacity, OffHeapArena arena) {
+        if (roomId == null || roomId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Room ID cannot be null or empty");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        if (arena == null) {
+            throw new IllegalArgumentException("Arena cannot be null");
+        }
+        this.roomId = roomId;
+        this.capacity = capacity;
+        this.arena = arena;
+        this.slabs = new ArrayDeque<>();
+        this.usernames = new IntObjectMap<>();
+        this.view = new MessageView(this);
+    }
+
+    /**
+     * Creates a factory for off-heap stores on the shared arena
+     * @param capacity The most messages kept per room
+     * @return The factory
+     */
+    public static HistoryStoreFactory factory(int capacity) {
+        return roomId -> new OffHeapHistoryStore(roomId, capacity);
+    }
+
+    @Override
+    public synchronized void append(Message message) {
+        if (closed) {
+            throw new ChatRoomException("History store of room " + roomId + " is closed");
+        }
+        int senderHandle = IdRegistry.getInstance().internUser(message.getSenderId());
+        ByteBuffer record = MessageView.encode(message, senderHandle);
+        if (record.remaining() > arena.getSlabBytes()) {
+            throw new ChatRoomException("Message " + message.getMessageId() + " is too large for an off-heap slab");
+        }
+        Slab tail = slabs.peekLast();
+        if (tail == null || tail.buffer.remaining() < record.remaining()) {
+            tail = new Slab(arena.allocate());
+            slabs.addLast(tail);
+        }
+        tail.buffer.put(record);
+        tail.liveCount++;
+        tail.lastSequence = message.getSequence();
+        if (!message.getSenderUsername().equals(usernames.get(senderHandle))) {
+            usernames.put(senderHandle, message.getSenderUsername());
+        }
+        lastSequence = message.getSequence();
+        count++;
+        if (message.isRevision()) {
+            revisionCount++;
+        }
+        if (count > capacity) {
+            evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+        Slab head = slabs.peekFirst();
+        view.moveTo(head.buffer, head.head);
+        if (view.isRevision()) {
+            revisionCount--;
+        }
+        head.head += view.getRecordLength();
+        head.liveCount--;
+        count--;
+        if (head.liveCount == 0) {
+            slabs.pollFirst();
+            arena.release(head.buffer);
+        }
+    }
+
+    /**
+     * Calls an action for every retained message from a sequence onwards,
+     * oldest first, without copying them to the heap
+     * @param fromSequence The first sequence to visit
+     * @param action Receives a view that is only valid during the call
+     */
+    public synchronized void forEachSince(long fromSequence, Consumer<? super MessageView> action) {
+        for (Slab slab : slabs) {
+            if (slab.lastSequence < fromSequence) {
+                continue;
+            }
+            int position = slab.head;
+            for (int i = 0; i < slab.liveCount; i++) {
+                view.moveTo(slab.buffer, position);
+                position += view.getRecordLength();
+                if (view.getSequence() >= fromSequence) {
+                    action.accept(view);
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls an action for the newest messages, oldest first, without copying
+     * them to the heap
+     * @param limit The most messages to visit
+     * @param action Receives a view that is only valid during the call
+     */
+    public synchronized void forEachRecent(int limit, Consumer<? super MessageView> action) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        int skip = Math.max(0, count - limit);
+        for (Slab slab : slabs) {
+            if (skip >= slab.liveCount) {
+                skip -= slab.liveCount;
+                continue;
+            }
+            int position = slab.head;
+            for (int i = 0; i < slab.liveCount; i++) {
+                view.moveTo(slab.buffer, position);
+                position += view.getRecordLength();
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    action.accept(view);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized List<Message> recent(int limit) {
+        if (revisionCount > 0) {
+            // Edits can target any retained message, so resolve the whole window
+            List<Message> entries = new ArrayList<>(count);
+            forEachSince(0, record -> entries.add(record.toMessage()));
+            return InMemoryHistoryStore.tail(RevisionIndex.resolveAll(entries), limit);
+        }
+        List<Message> result = new ArrayList<>(Math.min(limit, count));
+        forEachRecent(limit, record -> result.add(record.toMessage()));
+        return result;
+    }
+
+    /**
+     * Opens a cursor over a heap copy of the matching messages, taken now. Use
+     * {@link #forEachSince} to read without copying.
+     * @param fromSequence The first sequence to return
+     * @return The cursor
+     */
+    @Override
+    public synchronized HistoryCursor openCursor(long fromSequence) {
+        List<Message> snapshot = new ArrayList<>();
+        forEachSince(fromSequence, record -> snapshot.add(record.toMessage()));
+        // Revisions always follow their targets, so the snapshot holds every one that matters
+        Iterator<Message> messages = revisionCount > 0
+                ? RevisionIndex.resolveAll(snapshot).iterator() : snapshot.iterator();
+        return InMemoryHistoryStore.iteratorCursor(messages);
+    }
+
+    @Override
+    public synchronized long size() {
+        return count;
+    }
+
+    @Override
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Gets the off-heap bytes taken by retained records
+     * @return The used bytes
+     */
+    public synchronized long getUsedBytes() {
+        long used = 0;
+        for (Slab slab : slabs) {
+            used += slab.buffer.position() - slab.head;
+        }
+        return used;
+    }
+
+    public String getRoomId() {
+        return roomId;
+    }
+
+    synchronized String usernameOf(int senderHandle) {
+        return usernames.get(senderHandle);
+    }
+
+    /**
+     * Gives every slab back to the arena. Nothing can be read afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Slab slab : slabs) {
+            arena.release(slab.buffer);
+        }
+        slabs.clear();
+        usernames.clear();
+        count = 0;
+        revisionCount = 0;
+    }
+
+    /**
+     * One slab and the range of live records in it
+     */
+    private static final class Slab {
+        private final ByteBuffer buffer; // Position is the write offset
+        private int head; // Offset of the oldest live record
+        private int liveCount;
+        private long lastSequence;
+
+        Slab(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
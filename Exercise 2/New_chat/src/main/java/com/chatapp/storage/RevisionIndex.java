@@ -0,0 +1,209 @@
+package com.chatapp.storage;
+
+import com.chatapp.model.Message;
+import com.chatapp.model.MessageKind;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The latest edit or tombstone for each message, used to resolve history on
+ * the fly. Readers look every posted message up by ID and show the edited
+ * content, or nothing once it is deleted; the edit and tombstone entries
+ * themselves are never shown. A tombstone is final: later edits of a deleted
+ * message are ignored.
+ * <p>
+ * Thread-safe, so cursors can resolve outside the store's lock.
+ */
+final class RevisionIndex {
+
+    private final ConcurrentHashMap<String, Message> byTarget = new ConcurrentHashMap<>();
+
+    /**
+     * Records an edit or tombstone
+     * @param revision The revision entry
+     */
+    void add(Message revision) {
+        byTarget.merge(revision.getTargetMessageId(), revision, RevisionIndex::latest);
+    }
+
+    private static Message latest(Message current, Message added) {
+        if (current.getKind() == MessageKind.TOMBSTONE) {
+            return current;
+        }
+        if (added.getKind() == MessageKind.TOMBSTONE || added.getSequence() > current.getSequence()) {
+            return added;
+        }
+        return current;
+    }
+
+    /**
+     * Resolves one log entry
+     * @param entry The entry as stored
+     * @return The message to show, or null for revision entries and deleted messages
+     */
+    Message resolve(Message entry) {
+        if (entry.isRevision()) {
+            return null;
+        }
+        if (byTarget.isEmpty()) {
+            return entry;
+        }
+        return apply(entry, byTarget.get(entry.getMessageId()));
+    }
+
+    /**
+     * Folds a revision into the message it targets
+     * @param message A posted message
+     * @param revision Its latest revision, or null
+     * @return The message as it should be shown, or null if it was deleted
+     */
+    static Message apply(Message message, Message revision) {
+        if (revision == null) {
+            return message;
+        }
+        return revision.getKind() == MessageKind.TOMBSTONE ? null : message.withEdit(revision);
+    }
+
+    int size() {
+        return byTarget.size();
+    }
+
+    boolean isEmpty() {
+        return byTarget.isEmpty();
+    }
+
+    /**
+     * Copies the current revisions, for a compaction pass
+     * @return The revisions by target message ID
+     */
+    Map<String, Message> snapshot() {
+        return new HashMap<>(byTarget);
+    }
+
+    /**
+     * Counts revisions whose target is at or before a sequence
+     * @param sequence The last sequence to count targets in
+     * @return The number of such revisions
+     */
+    int countTargetsThrough(long sequence) {
+        int count = 0;
+        for (Message revision : byTarget.values()) {
+            if (revision.getTargetSequence() <= sequence) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Forgets revisions that a compaction pass has written into their targets.
+     * Revisions replaced since the snapshot are kept.
+     * @param folded The snapshot the pass used
+     * @param throughSequence The last sequence the pass rewrote
+     */
+    void removeFolded(Map<String, Message> folded, long throughSequence) {
+        for (Map.Entry<String, Message> entry : folded.entrySet()) {
+            if (entry.getValue().getTargetSequence() <= throughSequence) {
+                byTarget.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Resolves a run of entries that holds the revisions of its own messages,
+     * such as a heap ring
+     * @param entries The entries, oldest first
+     * @return The messages to show, oldest first
+     */
+    static List<Message> resolveAll(Collection<Message> entries) {
+        RevisionIndex index = new RevisionIndex();
+        for (Message entry : entries) {
+            if (entry.isRevision()) {
+                index.add(entry);
+            }
+        }
+        List<Message> resolved = new ArrayList<>(entries.size());
+        for (Message entry : entries) {
+            Message visible = index.resolve(entry);
+            if (visible != null) {
+                resolved.add(visible);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Folds a snapshot of revisions into a run of stored entries, dropping the
+     * revision entries and deleted messages, for rewriting a file
+     * @param entries The stored entries
+     * @param revisions The revisions by target message ID
+     * @return The entries as they should be rewritten
+     */
+    static Iterator<Message> fold(Iterator<Message> entries, Map<String, Message> revisions) {
+        return new Iterator<Message>() {
+            private Message next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && entries.hasNext()) {
+                    Message entry = entries.next();
+                    if (!entry.isRevision()) {
+                        next = apply(entry, revisions.get(entry.getMessageId()));
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Message next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Message result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Wraps a cursor over stored entries so that it returns resolved messages
+     * @param entries The raw cursor
+     * @return The resolving cursor, which closes the raw one
+     */
+    HistoryCursor resolving(HistoryCursor entries) {
+        return new HistoryCursor() {
+            private Message next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && entries.hasNext()) {
+                    next = resolve(entries.next());
+                }
+                return next != null;
+            }
+
+            @Override
+            public Message next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Message result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void close() {
+                entries.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,99 @@
+package com.chatapp.storage;
+
+import com.chatapp.codec.MessageCodec;
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.Message;
+import com.chatapp.model.PrivateMessage;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Final record written when the server drains. It holds, for every room, the
+ * sequence numbering reached, and every message that was still queued for a
+ * user when the drain deadline passed, so nothing pending is lost silently.
+ * <p>
+ * Layout, all through {@link MessageCodec} conventions: magic, version, write
+ * time; the rooms as {@code [id][name][mode][lastSequence][messageCount]}; the
+ * undelivered room messages as {@code [recipientUserId][message]}; the
+ * undelivered private messages field by field. The file is written under a
+ * temporary name, forced to disk and moved into place.
+ */
+public final class ShutdownCheckpoint {
+
+    private static final int MAGIC = 0x43484b50; // "CHKP"
+    private static final int VERSION = 1;
+
+    private ShutdownCheckpoint() {
+    }
+
+    /**
+     * Writes a checkpoint
+     * @param path The checkpoint file
+     * @param rooms The rooms at the time of shutdown
+     * @param undeliveredMessages Undelivered room messages by recipient user ID
+     * @param undeliveredPrivateMessages Undelivered private messages
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Path path, List<ChatRoom> rooms, Map<String, List<Message>> undeliveredMessages,
+                             List<PrivateMessage> undeliveredPrivateMessages) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream stream = Channels.newOutputStream(channel);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+
+            out.writeInt(rooms.size());
+            for (ChatRoom room : rooms) {
+                out.writeUTF(room.getRoomId());
+                out.writeUTF(room.getRoomName());
+                out.writeUTF(room.getMode().name());
+                out.writeLong(room.getLastSequence());
+                out.writeInt(room.getMessageCount());
+            }
+
+            int messageCount = 0;
+            for (List<Message> messages : undeliveredMessages.values()) {
+                messageCount += messages.size();
+            }
+            out.writeInt(messageCount);
+            for (Map.Entry<String, List<Message>> entry : undeliveredMessages.entrySet()) {
+                for (Message message : entry.getValue()) {
+                    out.writeUTF(entry.getKey());
+                    MessageCodec.writeMessage(out, message);
+                }
+            }
+
+            out.writeInt(undeliveredPrivateMessages.size());
+            for (PrivateMessage message : undeliveredPrivateMessages) {
+                out.writeUTF(message.getMessageId());
+                out.writeUTF(message.getSenderId());
+                out.writeUTF(message.getSenderUsername());
+                out.writeUTF(message.getRecipientId());
+                out.writeUTF(message.getRecipientUsername());
+                out.writeUTF(message.getContent());
+                MessageCodec.writeTimestamp(out, message.getTimestamp());
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,745 @@
+package com.chatapp.storage;
+
+import com.chatapp.exception.ChatRoomException;
+import com.chatapp.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Room history kept in three tiers, newest to oldest:
+ * <ol>
+ *   <li>hot: the newest {@code hotCapacity} messages as objects on the heap,
+ *       which is all that {@link #recent(int)} usually needs</li>
+ *   <li>warm: older messages encoded into memory-mapped {@link MappedSegment}
+ *       files, held by the page cache rather than the heap</li>
+ *   <li>cold: segments older than {@code archiveAfter}, compressed block by
+ *       block into {@link ArchivedSegment} files</li>
+ * </ol>
+ * Messages move down when the hot tier overflows; nothing is ever dropped.
+ * Archiving runs on a shared background thread and compresses outside the
+ * store's lock, so appends never wait on compression. Files are named after the
+ * first sequence they hold and are picked up again when the store is reopened.
+ * <p>
+ * Edits and tombstones are appended like any other message and resolved on
+ * read through an in-memory index. Before a file is archived, and once enough
+ * revisions target older files, the archiver thread compacts: it rewrites each
+ * affected file with the revisions folded in and deleted messages dropped, then
+ * swaps it in under the lock, so disk use follows live content and readers
+ * never wait on the rewrite.
+ */
+public class TieredHistoryStore implements HistoryStore {
+    private static final Logger logger = LoggerFactory.getLogger(TieredHistoryStore.class);
+
+    public static final int DEFAULT_HOT_CAPACITY = 1000;
+    public static final int DEFAULT_SEGMENT_BYTES = 8 * 1024 * 1024;
+    public static final Duration DEFAULT_ARCHIVE_AFTER = Duration.ofHours(1);
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 256;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String ARCHIVE_SUFFIX = ".arc";
+    private static final String COMPACT_SUFFIX = ".compact";
+    private static final long MAX_ARCHIVE_CHECK_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static volatile ScheduledExecutorService archiver;
+
+    private final Path directory;
+    private final int hotCapacity;
+    private final int segmentBytes;
+    private final long archiveAfterMillis;
+    private final RevisionIndex revisions;
+    private final ArrayDeque<Message> hot; // Guarded by this
+    private final List<MappedSegment> sealed; // Guarded by this, oldest first
+    private final List<ArchivedSegment> archives; // Guarded by this, oldest first
+    private MappedSegment active; // Guarded by this
+    private long coldCount; // Guarded by this, messages in the warm and cold tiers
+    private long lastSequence; // Guarded by this
+    private boolean closed; // Guarded by this
+    private long compactionCount; // Guarded by this
+    private long compactedAwayCount; // Guarded by this
+    private final ScheduledFuture<?> archiveTask;
+
+    /**
+     * Opens a store in a directory, reopening any segments and archives already
+     * there
+     * @param directory The directory that holds the room's files
+     * @param hotCapacity The most messages kept on the heap
+     * @param segmentBytes The size of each mapped segment file
+     * @param archiveAfter How old a segment must be before it is compressed
+     * @throws IOException if the directory cannot be read or holds a damaged file
+     */
+    public TieredHistoryStore(Path directory, int hotCapacity, int segmentBytes, Duration archiveAfter)
+            throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("Directory cannot be null");
+        }
+        if (hotCapacity <= 0) {
+            throw new IllegalArgumentException("Hot capacity must be positive");
+        }
+        if (segmentBytes <= MappedSegment.HEADER_BYTES) {
+            throw new IllegalArgumentException("Segment size must be larger than " + MappedSegment.HEADER_BYTES);
+        }
+        if (archiveAfter == null || archiveAfter.isNegative() || archiveAfter.isZero()) {
+            throw new IllegalArgumentException("Archive age must be positive");
+        }
+        this.directory = directory;
+        this.hotCapacity = hotCapacity;
+        this.segmentBytes = segmentBytes;
+        this.archiveAfterMillis = archiveAfter.toMillis();
+        this.hot = new ArrayDeque<>(Math.min(hotCapacity, 1024));
+        this.sealed = new ArrayList<>();
+        this.archives = new ArrayList<>();
+        this.revisions = new RevisionIndex();
+        Files.createDirectories(directory);
+        recover();
+        long checkMillis = Math.max(1, Math.min(archiveAfterMillis, MAX_ARCHIVE_CHECK_MILLIS));
+        this.archiveTask = getArchiver().scheduleWithFixedDelay(
+                this::maintain, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a factory that gives each room its own subdirectory
+     * @param baseDirectory The directory under which room directories are created
+     * @param hotCapacity The most messages kept on the heap per room
+     * @param segmentBytes The size of each mapped segment file
+     * @param archiveAfter How old a segment must be before it is compressed
+     * @return The factory
+     */
+    public static HistoryStoreFactory factory(Path baseDirectory, int hotCapacity, int segmentBytes,
+                                              Duration archiveAfter) {
+        if (baseDirectory == null) {
+            throw new IllegalArgumentException("Base directory cannot be null");
+        }
+        return roomId -> new TieredHistoryStore(
+                baseDirectory.resolve(directoryName(roomId)), hotCapacity, segmentBytes, archiveAfter);
+    }
+
+    /**
+     * Turns a room ID into a safe directory name. IDs that had to be changed get
+     * their hash appended so two rooms never share a directory.
+     */
+    private static String directoryName(String roomId) {
+        String safe = roomId.replaceAll("[^A-Za-z0-9._-]", "_");
+        if (safe.equals(roomId) && !safe.startsWith(".")) {
+            return safe;
+        }
+        return safe + "-" + Integer.toHexString(roomId.hashCode());
+    }
+
+    private static ScheduledExecutorService getArchiver() {
+        if (archiver == null) {
+            synchronized (TieredHistoryStore.class) {
+                if (archiver == null) {
+                    archiver = Executors.newSingleThreadScheduledExecutor(task -> {
+                        Thread thread = new Thread(task, "history-archiver");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return archiver;
+    }
+
+    private void recover() throws IOException {
+        List<Path> segmentFiles = new ArrayList<>();
+        List<Path> archiveFiles = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SEGMENT_SUFFIX)) {
+                    segmentFiles.add(file);
+                } else if (name.endsWith(ARCHIVE_SUFFIX)) {
+                    archiveFiles.add(file);
+                } else if (name.endsWith(".tmp") || name.endsWith(COMPACT_SUFFIX)) {
+                    // An archive or compacted file that was being written when the process stopped
+                    Files.delete(file);
+                }
+            }
+        }
+        // Zero-padded names sort in sequence order
+        Collections.sort(segmentFiles);
+        Collections.sort(archiveFiles);
+        for (Path file : archiveFiles) {
+            ArchivedSegment archive = ArchivedSegment.open(file);
+            archives.add(archive);
+            coldCount += archive.getCount();
+            lastSequence = Math.max(lastSequence, archive.getLastSequence());
+        }
+        for (Path file : segmentFiles) {
+            String base = file.getFileName().toString();
+            base = base.substring(0, base.length() - SEGMENT_SUFFIX.length());
+            if (Files.exists(directory.resolve(base + ARCHIVE_SUFFIX))) {
+                // Archived, but the process stopped before the segment was deleted
+                Files.delete(file);
+                continue;
+            }
+            MappedSegment segment = MappedSegment.open(file);
+            if (segment.getCount() == 0) {
+                segment.delete();
+                continue;
+            }
+            if (active != null) {
+                sealed.add(active);
+            }
+            active = segment;
+            coldCount += segment.getCount();
+            lastSequence = Math.max(lastSequence, segment.getLastSequence());
+        }
+        // Archives only ever hold compacted messages, so revisions live in segments
+        for (MappedSegment segment : sealed) {
+            indexRevisions(segment);
+        }
+        if (active != null) {
+            indexRevisions(active);
+        }
+        if (coldCount > 0) {
+            logger.info("Reopened {} archived and {} mapped history files with {} messages in {}",
+                    archives.size(), sealed.size() + (active == null ? 0 : 1), coldCount, directory);
+        }
+    }
+
+    private void indexRevisions(MappedSegment segment) {
+        if (!segment.hasRevisions()) {
+            return;
+        }
+        Iterator<Message> records = segment.reader(0);
+        while (records.hasNext()) {
+            Message record = records.next();
+            if (record.isRevision()) {
+                revisions.add(record);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void append(Message message) {
+        if (closed) {
+            throw new ChatRoomException("History store is closed: " + directory);
+        }
+        if (message.getSequence() <= lastSequence) {
+            throw new IllegalArgumentException("Message sequence " + message.getSequence()
+                    + " is not after " + lastSequence);
+        }
+        hot.addLast(message);
+        lastSequence = message.getSequence();
+        if (message.isRevision()) {
+            revisions.add(message);
+        }
+        if (hot.size() > hotCapacity) {
+            spill(hot.pollFirst());
+        }
+    }
+
+    /**
+     * Moves a message from the hot tier into the active segment, starting a new
+     * segment when it is full
+     */
+    private void spill(Message message) {
+        byte[] payload = MappedSegment.encode(message);
+        try {
+            if (active == null || !active.append(message.getSequence(), payload, message.isRevision())) {
+                if (active != null) {
+                    sealed.add(active);
+                }
+                int size = Math.max(segmentBytes,
+                        MappedSegment.HEADER_BYTES + MappedSegment.RECORD_HEADER_BYTES + payload.length);
+                active = MappedSegment.create(fileFor(message.getSequence(), SEGMENT_SUFFIX), size,
+                        System.currentTimeMillis());
+                active.append(message.getSequence(), payload, message.isRevision());
+            }
+            coldCount++;
+        } catch (IOException e) {
+            throw new ChatRoomException("Failed to write history segment in " + directory, e);
+        }
+    }
+
+    private Path fileFor(long firstSequence, String suffix) {
+        return directory.resolve(String.format("%020d%s", firstSequence, suffix));
+    }
+
+    /**
+     * Runs on the archiver thread: compacts if due, then archives
+     */
+    private void maintain() {
+        compactIfDue();
+        archiveDueSegments();
+    }
+
+    /**
+     * Compresses every segment older than the archive age. The compression
+     * happens outside the lock; only the swap of segment for archive holds it.
+     * Segments that still hold revisions wait for the next compaction, and so
+     * do the segments after them, to keep archives in sequence order.
+     */
+    private void archiveDueSegments() {
+        List<MappedSegment> due = new ArrayList<>();
+        synchronized (this) {
+            long cutoff = System.currentTimeMillis() - archiveAfterMillis;
+            if (closed) {
+                return;
+            }
+            if (active != null && active.getCreatedAtMillis() <= cutoff) {
+                // A quiet room may never fill its segment, so seal it by age too
+                sealed.add(active);
+                active = null;
+            }
+            for (MappedSegment segment : sealed) {
+                if (segment.getCreatedAtMillis() > cutoff || segment.hasRevisions()) {
+                    break;
+                }
+                due.add(segment);
+            }
+        }
+        for (MappedSegment segment : due) {
+            try {
+                String name = segment.getPath().getFileName().toString();
+                Path archivePath = directory.resolve(
+                        name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + ARCHIVE_SUFFIX);
+                ArchivedSegment archive = ArchivedSegment.write(segment, archivePath);
+                synchronized (this) {
+                    sealed.remove(segment);
+                    archives.add(archive);
+                }
+                // Open cursors keep reading the mapping after the file is gone
+                segment.delete();
+                logger.debug("Archived {} messages from {}", archive.getCount(), segment.getPath());
+            } catch (IOException | RuntimeException e) {
+                logger.error("Failed to archive history segment {}", segment.getPath(), e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Compacts when a segment due for archiving holds revisions, or when at
+     * least {@link #DEFAULT_COMPACTION_THRESHOLD} revisions target messages in
+     * sealed segments or archives
+     */
+    private void compactIfDue() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            long cutoff = System.currentTimeMillis() - archiveAfterMillis;
+            boolean due = false;
+            for (MappedSegment segment : sealed) {
+                if (segment.getCreatedAtMillis() > cutoff) {
+                    break;
+                }
+                if (segment.hasRevisions()) {
+                    due = true;
+                    break;
+                }
+            }
+            if (!due && active != null && active.getCreatedAtMillis() <= cutoff && active.hasRevisions()) {
+                // Sealed by age now rather than by the archiving step, so it is compacted first
+                sealed.add(active);
+                active = null;
+                due = true;
+            }
+            if (!due && revisions.countTargetsThrough(sealedThrough()) < DEFAULT_COMPACTION_THRESHOLD) {
+                return;
+            }
+        }
+        compact();
+    }
+
+    /**
+     * Gets the last sequence held in sealed segments or archives
+     */
+    private long sealedThrough() {
+        if (!sealed.isEmpty()) {
+            return sealed.get(sealed.size() - 1).getLastSequence();
+        }
+        return archives.isEmpty() ? 0 : archives.get(archives.size() - 1).getLastSequence();
+    }
+
+    /**
+     * Rewrites every sealed segment and archive that holds revision entries or
+     * messages they target, oldest first, with the revisions folded in. Each file
+     * is rewritten outside the lock and swapped in under it, so appends and reads
+     * carry on; cursors that are already open keep reading the replaced file.
+     * Revisions are dropped from the index once every file up to their target
+     * has been rewritten.
+     */
+    private void compact() {
+        List<ArchivedSegment> archiveSnapshot;
+        List<MappedSegment> sealedSnapshot;
+        Map<String, Message> folded;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            archiveSnapshot = new ArrayList<>(archives);
+            sealedSnapshot = new ArrayList<>(sealed);
+            folded = revisions.snapshot();
+        }
+        long[] targets = new long[folded.size()];
+        int count = 0;
+        for (Message revision : folded.values()) {
+            targets[count++] = revision.getTargetSequence();
+        }
+        Arrays.sort(targets);
+
+        long through = 0;
+        try {
+            for (ArchivedSegment archive : archiveSnapshot) {
+                if (touches(targets, archive.getFirstSequence(), archive.getLastSequence())
+                        && !compactArchive(archive, folded)) {
+                    return;
+                }
+                through = archive.getLastSequence();
+            }
+            for (MappedSegment segment : sealedSnapshot) {
+                if ((segment.hasRevisions() || touches(targets, segment.getFirstSequence(), segment.getLastSequence()))
+                        && !compactSegment(segment, folded)) {
+                    return;
+                }
+                through = segment.getLastSequence();
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to compact history in {}", directory, e);
+        } finally {
+            revisions.removeFolded(folded, through);
+        }
+    }
+
+    private static boolean touches(long[] targets, long firstSequence, long lastSequence) {
+        int slot = Arrays.binarySearch(targets, firstSequence);
+        if (slot < 0) {
+            slot = -slot - 1;
+        }
+        return slot < targets.length && targets[slot] <= lastSequence;
+    }
+
+    /**
+     * Rewrites one sealed segment into an exactly sized file
+     * @return false if the store was closed meanwhile
+     */
+    private boolean compactSegment(MappedSegment segment, Map<String, Message> folded) throws IOException {
+        List<Message> live = new ArrayList<>(segment.getCount());
+        List<byte[]> payloads = new ArrayList<>(segment.getCount());
+        int size = MappedSegment.HEADER_BYTES;
+        Iterator<Message> records = RevisionIndex.fold(segment.reader(0), folded);
+        while (records.hasNext()) {
+            Message message = records.next();
+            byte[] payload = MappedSegment.encode(message);
+            live.add(message);
+            payloads.add(payload);
+            size += MappedSegment.RECORD_HEADER_BYTES + payload.length;
+        }
+        MappedSegment compacted = null;
+        if (!live.isEmpty()) {
+            Path staging = stagingPathFor(segment.getPath());
+            Files.deleteIfExists(staging);
+            compacted = MappedSegment.create(staging, size, segment.getCreatedAtMillis());
+            for (int i = 0; i < live.size(); i++) {
+                compacted.append(live.get(i).getSequence(), payloads.get(i), false);
+            }
+            compacted.force();
+        }
+        synchronized (this) {
+            if (closed) {
+                if (compacted != null) {
+                    compacted.delete();
+                }
+                return false;
+            }
+            int slot = sealed.indexOf(segment);
+            if (compacted == null) {
+                sealed.remove(slot);
+                segment.delete();
+            } else {
+                compacted.renameTo(segment.getPath());
+                sealed.set(slot, compacted);
+            }
+            recordCompaction(segment.getCount(), compacted == null ? 0 : compacted.getCount());
+        }
+        logger.debug("Compacted {} to {} messages", segment.getPath(), live.size());
+        return true;
+    }
+
+    /**
+     * Rewrites one archive, decompressing and compressing it block by block
+     * @return false if the store was closed meanwhile
+     */
+    private boolean compactArchive(ArchivedSegment archive, Map<String, Message> folded) throws IOException {
+        Path staging = stagingPathFor(archive.getPath());
+        ArchivedSegment compacted;
+        try (ArchivedSegment.Reader reader = archive.reader(0)) {
+            compacted = ArchivedSegment.write(RevisionIndex.fold(reader, folded), archive.getCreatedAtMillis(), staging);
+        }
+        synchronized (this) {
+            if (closed) {
+                Files.deleteIfExists(staging);
+                return false;
+            }
+            int slot = archives.indexOf(archive);
+            if (compacted == null) {
+                archives.remove(slot);
+                Files.deleteIfExists(archive.getPath());
+            } else {
+                compacted.renameTo(archive.getPath());
+                archives.set(slot, compacted);
+            }
+            recordCompaction(archive.getCount(), compacted == null ? 0 : compacted.getCount());
+        }
+        logger.debug("Compacted {} to {} messages", archive.getPath(), compacted == null ? 0 : compacted.getCount());
+        return true;
+    }
+
+    private Path stagingPathFor(Path file) {
+        return file.resolveSibling(file.getFileName() + COMPACT_SUFFIX);
+    }
+
+    private void recordCompaction(int countBefore, int countAfter) {
+        coldCount -= countBefore - countAfter;
+        compactedAwayCount += countBefore - countAfter;
+        compactionCount++;
+    }
+
+    /**
+     * Gets the newest messages, resolved. Only the hot tier is resolved under
+     * the lock; when edits or deletions leave it short, readers over the colder
+     * tiers are captured as {@link #openCursor(long)} does and decoded outside
+     * the lock, so appends never wait on segments being read or inflated.
+     */
+    @Override
+    public List<Message> recent(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        ArrayDeque<List<Message>> chunks = new ArrayDeque<>();
+        List<Iterator<Message>> colder = new ArrayList<>(); // Newest tier first
+        int visible;
+        synchronized (this) {
+            if (revisions.isEmpty() && (limit <= hot.size() || coldCount == 0)) {
+                return InMemoryHistoryStore.tail(hot, limit);
+            }
+            visible = addVisible(chunks, hot.iterator(), limit);
+            if (visible < limit) {
+                if (active != null) {
+                    colder.add(active.reader(0));
+                }
+                for (int i = sealed.size() - 1; i >= 0; i--) {
+                    colder.add(sealed.get(i).reader(0));
+                }
+                for (int i = archives.size() - 1; i >= 0; i--) {
+                    colder.add(archives.get(i).reader(0));
+                }
+            }
+        }
+        // Walk back through the colder tiers until enough visible messages are covered
+        try {
+            for (int i = 0; i < colder.size() && visible < limit; i++) {
+                visible += addVisible(chunks, colder.get(i), limit);
+            }
+        } finally {
+            for (Iterator<Message> reader : colder) {
+                closeReader(reader);
+            }
+        }
+        List<Message> window = new ArrayList<>(visible);
+        for (List<Message> chunk : chunks) {
+            window.addAll(chunk);
+        }
+        return InMemoryHistoryStore.tail(window, limit);
+    }
+
+    private static void closeReader(Iterator<Message> reader) {
+        if (reader instanceof Closeable) {
+            try {
+                ((Closeable) reader).close();
+            } catch (IOException e) {
+                logger.debug("Failed to close history reader", e);
+            }
+        }
+    }
+
+    /**
+     * Resolves one tier and keeps at most its newest {@code limit} visible
+     * messages in front of the newer tiers already collected
+     * @return The number of messages kept
+     */
+    private int addVisible(ArrayDeque<List<Message>> chunks, Iterator<Message> entries, int limit) {
+        ArrayDeque<Message> chunk = new ArrayDeque<>();
+        while (entries.hasNext()) {
+            Message message = revisions.resolve(entries.next());
+            if (message == null) {
+                continue;
+            }
+            if (chunk.size() == limit) {
+                chunk.pollFirst();
+            }
+            chunk.addLast(message);
+        }
+        chunks.addFirst(new ArrayList<>(chunk));
+        return chunk.size();
+    }
+
+    @Override
+    public synchronized HistoryCursor openCursor(long fromSequence) {
+        List<Iterator<Message>> tiers = new ArrayList<>();
+        for (ArchivedSegment archive : archives) {
+            if (archive.getLastSequence() >= fromSequence) {
+                tiers.add(archive.reader(fromSequence));
+            }
+        }
+        for (MappedSegment segment : sealed) {
+            if (segment.getLastSequence() >= fromSequence) {
+                tiers.add(segment.reader(fromSequence));
+            }
+        }
+        if (active != null && active.getLastSequence() >= fromSequence) {
+            tiers.add(active.reader(fromSequence));
+        }
+        List<Message> hotSnapshot = new ArrayList<>(hot.size());
+        for (Message message : hot) {
+            if (message.getSequence() >= fromSequence) {
+                hotSnapshot.add(message);
+            }
+        }
+        tiers.add(hotSnapshot.iterator());
+        return revisions.resolving(new TierCursor(tiers));
+    }
+
+    @Override
+    public synchronized long size() {
+        return coldCount + hot.size();
+    }
+
+    @Override
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Gets the number of compressed archive files
+     * @return The archive count
+     */
+    public synchronized int getArchiveCount() {
+        return archives.size();
+    }
+
+    /**
+     * Gets the number of mapped segment files, including the one being written
+     * @return The segment count
+     */
+    public synchronized int getSegmentCount() {
+        return sealed.size() + (active == null ? 0 : 1);
+    }
+
+    /**
+     * Gets the number of messages with an edit or tombstone not yet compacted
+     * into their file
+     * @return The pending revision count
+     */
+    public int getPendingRevisionCount() {
+        return revisions.size();
+    }
+
+    public synchronized long getCompactionCount() {
+        return compactionCount;
+    }
+
+    /**
+     * Gets how many stored entries compaction has removed, counting revision
+     * entries and deleted messages
+     * @return The removed entry count
+     */
+    public synchronized long getCompactedAwayCount() {
+        return compactedAwayCount;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Moves the hot tier into segments and forces them to disk, so a reopened
+     * store sees every message
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        archiveTask.cancel(false);
+        try {
+            while (!hot.isEmpty()) {
+                spill(hot.pollFirst());
+            }
+        } catch (ChatRoomException e) {
+            logger.error("Lost {} unflushed history messages in {}", hot.size() + 1, directory, e);
+        }
+        for (MappedSegment segment : sealed) {
+            segment.force();
+        }
+        if (active != null) {
+            active.force();
+        }
+    }
+
+    /**
+     * Reads the captured tiers one after another and closes the archive readers
+     */
+    private static final class TierCursor implements HistoryCursor {
+        private final List<Iterator<Message>> tiers;
+        private int index;
+
+        TierCursor(List<Iterator<Message>> tiers) {
+            this.tiers = tiers;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (index < tiers.size()) {
+                if (tiers.get(index).hasNext()) {
+                    return true;
+                }
+                closeTier(index++);
+            }
+            return false;
+        }
+
+        @Override
+        public Message next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return tiers.get(index).next();
+        }
+
+        private void closeTier(int tier) {
+            closeReader(tiers.get(tier));
+        }
+
+        @Override
+        public void close() {
+            for (int i = index; i < tiers.size(); i++) {
+                closeTier(i);
+            }
+            index = tiers.size();
+        }
+    }
+}
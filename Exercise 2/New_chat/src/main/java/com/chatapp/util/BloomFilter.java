@@ -0,0 +1,91 @@
+package com.chatapp.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixed-size Bloom filter over strings. Answers "definitely not added" or
+ * "maybe added" in constant time and constant memory: about 10 bits per
+ * expected entry for a false positive rate near 1%.
+ * <p>
+ * Not thread-safe; callers guard it with their own lock.
+ */
+public class BloomFilter {
+
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int HASH_COUNT = 7;
+
+    private final long[] words;
+    private final long bitCount;
+    private int insertions;
+
+    /**
+     * Creates an empty filter
+     * @param expectedEntries The number of entries the filter is sized for
+     */
+    public BloomFilter(int expectedEntries) {
+        if (expectedEntries <= 0) {
+            throw new IllegalArgumentException("Expected entries must be positive");
+        }
+        long bits = Math.max(64L, (long) expectedEntries * BITS_PER_ENTRY);
+        this.words = new long[(int) ((bits + 63) / 64)];
+        this.bitCount = (long) words.length * 64;
+    }
+
+    /**
+     * Adds a key
+     * @param key The key to add
+     */
+    public void add(String key) {
+        long hash = hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        insertions++;
+    }
+
+    /**
+     * Checks if a key may have been added
+     * @param key The key to check
+     * @return false if the key was definitely never added
+     */
+    public boolean mightContain(String key) {
+        long hash = hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of keys added, counting repeats
+     * @return The insertion count
+     */
+    public int getInsertions() {
+        return insertions;
+    }
+
+    /**
+     * 64-bit FNV-1a with a finalizer; the two halves feed double hashing
+     */
+    private static long hash64(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,208 @@
+package com.chatapp.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Singleton registry that interns user and room IDs into dense int handles.
+ * String IDs are only hashed here, at the edge of the API; everything behind it
+ * keys its maps and sets by handle. Handles start at 0.
+ * <p>
+ * Each live room holds a reference to its handle, and the handle is freed for
+ * reuse once the last room with that ID is deleted. User handles are kept for
+ * the life of the process, because room membership and off-heap history
+ * records refer to them after the user logs out; the user table therefore
+ * grows with the number of distinct user IDs, not with logins.
+ */
+public final class IdRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(IdRegistry.class);
+
+    /**
+     * Returned by the lookup methods when an ID has never been interned
+     */
+    public static final int NO_HANDLE = -1;
+
+    // Volatile ensures visibility across threads
+    private static volatile IdRegistry instance;
+
+    private final Interner users;
+    private final Interner rooms;
+
+    private IdRegistry() {
+        this.users = new Interner();
+        this.rooms = new Interner();
+        logger.info("IdRegistry initialized");
+    }
+
+    /**
+     * Gets the singleton instance of IdRegistry.
+     * Uses double-checked locking for thread-safe lazy initialization.
+     * @return The singleton instance
+     */
+    public static IdRegistry getInstance() {
+        if (instance == null) {
+            synchronized (IdRegistry.class) {
+                if (instance == null) {
+                    instance = new IdRegistry();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the handle of a user, assigning a new one on first use
+     * @param userId The user ID
+     * @return The user handle
+     */
+    public int internUser(String userId) {
+        return users.intern(requireId(userId, "User ID"));
+    }
+
+    /**
+     * Looks up the handle of a user without assigning one
+     * @param userId The user ID
+     * @return The user handle, or {@link #NO_HANDLE} if the user is unknown
+     */
+    public int findUser(String userId) {
+        return userId == null ? NO_HANDLE : users.find(userId);
+    }
+
+    /**
+     * Resolves a user handle back to its ID
+     * @param handle The user handle
+     * @return The user ID, or null if the handle was never assigned
+     */
+    public String userIdOf(int handle) {
+        return users.idOf(handle);
+    }
+
+    /**
+     * Takes a reference to the handle of a room, assigning a handle on first use.
+     * Each call must be matched by {@link #releaseRoom(String)}.
+     * @param roomId The room ID
+     * @return The room handle
+     */
+    public int acquireRoom(String roomId) {
+        return rooms.acquire(requireId(roomId, "Room ID"));
+    }
+
+    /**
+     * Gives back a reference taken by {@link #acquireRoom(String)}. When the
+     * last one is gone the ID is forgotten and its handle may be assigned again.
+     * @param roomId The room ID
+     * @return true if the handle was freed
+     */
+    public boolean releaseRoom(String roomId) {
+        return roomId != null && rooms.release(roomId);
+    }
+
+    /**
+     * Looks up the handle of a room without assigning one
+     * @param roomId The room ID
+     * @return The room handle, or {@link #NO_HANDLE} if the room is unknown
+     */
+    public int findRoom(String roomId) {
+        return roomId == null ? NO_HANDLE : rooms.find(roomId);
+    }
+
+    /**
+     * Resolves a room handle back to its ID
+     * @param handle The room handle
+     * @return The room ID, or null if the handle is not assigned
+     */
+    public String roomIdOf(int handle) {
+        return rooms.idOf(handle);
+    }
+
+    public int getUserHandleCount() {
+        return users.size();
+    }
+
+    public int getRoomHandleCount() {
+        return rooms.size();
+    }
+
+    private static String requireId(String id, String label) {
+        if (id == null || id.trim().isEmpty()) {
+            throw new IllegalArgumentException(label + " cannot be null or empty");
+        }
+        return id;
+    }
+
+    /**
+     * One ID space. Lookups are lock-free; assigning or freeing a handle takes
+     * the interner's lock, and freed handles are handed out first so handles
+     * stay dense.
+     */
+    private static final class Interner {
+        private final ConcurrentHashMap<String, Integer> handles = new ConcurrentHashMap<>();
+        private volatile String[] ids = new String[1024];
+        private int[] references = new int[1024]; // Guarded by this
+        private int[] freeHandles = new int[16]; // Guarded by this
+        private int freeCount; // Guarded by this
+        private int nextHandle; // Guarded by this
+
+        int intern(String id) {
+            Integer handle = handles.get(id);
+            if (handle != null) {
+                return handle;
+            }
+            synchronized (this) {
+                handle = handles.get(id);
+                if (handle != null) {
+                    return handle;
+                }
+                int assigned = freeCount > 0 ? freeHandles[--freeCount] : nextHandle++;
+                String[] current = ids;
+                if (assigned >= current.length) {
+                    current = Arrays.copyOf(current, current.length * 2);
+                    references = Arrays.copyOf(references, current.length);
+                }
+                current[assigned] = id;
+                ids = current; // Volatile write publishes the new slot
+                handles.put(id, assigned);
+                return assigned;
+            }
+        }
+
+        synchronized int acquire(String id) {
+            int handle = intern(id);
+            references[handle]++;
+            return handle;
+        }
+
+        synchronized boolean release(String id) {
+            Integer handle = handles.get(id);
+            if (handle == null || references[handle] == 0 || --references[handle] > 0) {
+                return false;
+            }
+            handles.remove(id);
+            String[] current = ids;
+            current[handle] = null;
+            ids = current; // Volatile write publishes the cleared slot
+            if (freeCount == freeHandles.length) {
+                freeHandles = Arrays.copyOf(freeHandles, freeCount * 2);
+            }
+            freeHandles[freeCount++] = handle;
+            return true;
+        }
+
+        int find(String id) {
+            Integer handle = handles.get(id);
+            return handle == null ? NO_HANDLE : handle;
+        }
+
+        String idOf(int handle) {
+            String[] current = ids;
+            return handle >= 0 && handle < current.length ? current[handle] : null;
+        }
+
+        int size() {
+            return handles.size();
+        }
+    }
+}
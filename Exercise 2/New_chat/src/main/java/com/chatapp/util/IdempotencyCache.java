@@ -0,0 +1,156 @@
+package com.chatapp.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, time-windowed memory of idempotency keys and the value first
+ * recorded for each, usually a message sequence number. Entries are evicted
+ * least recently used first once {@code maxEntries} is reached, and expire after
+ * {@code windowMillis}, so memory stays fixed however many retries arrive.
+ * <p>
+ * An optional pair of rotating {@link BloomFilter}s sits in front of the map to
+ * turn away keys that were never seen without a map lookup. A generation
+ * rotates after {@code maxEntries} recorded keys or one window, whichever comes
+ * first. A key that stays in the map has seen fewer than {@code maxEntries}
+ * newer records and is younger than a window, so it is always in the current or
+ * previous generation and the filters never hide a live key.
+ * <p>
+ * Not thread-safe; callers guard it with their own lock.
+ */
+public class IdempotencyCache {
+
+    /**
+     * Returned by {@link #lookup(String)} when a key is unknown or has expired
+     */
+    public static final long MISS = -1;
+
+    private final int maxEntries;
+    private final long windowMillis;
+    private final boolean bloomEnabled;
+    private final LinkedHashMap<String, Entry> entries;
+    private BloomFilter currentGeneration;
+    private BloomFilter previousGeneration;
+    private long generationStartMillis;
+    private int generationRecords;
+    private long hitCount;
+    private long bloomRejectCount;
+
+    /**
+     * Creates an empty cache
+     * @param maxEntries The most keys remembered at once
+     * @param windowMillis How long a key is remembered
+     * @param bloomEnabled Whether to front the map with Bloom filters
+     */
+    public IdempotencyCache(int maxEntries, long windowMillis, boolean bloomEnabled) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Max entries must be positive");
+        }
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Window must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.windowMillis = windowMillis;
+        this.bloomEnabled = bloomEnabled;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        if (bloomEnabled) {
+            this.currentGeneration = new BloomFilter(maxEntries);
+            this.previousGeneration = new BloomFilter(maxEntries);
+            this.generationStartMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Looks up the value recorded for a key
+     * @param key The idempotency key
+     * @return The recorded value, or {@link #MISS}
+     */
+    public long lookup(String key) {
+        long now = System.currentTimeMillis();
+        if (bloomEnabled && !currentGeneration.mightContain(key) && !previousGeneration.mightContain(key)) {
+            bloomRejectCount++;
+            return MISS;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return MISS;
+        }
+        if (now - entry.recordedAtMillis >= windowMillis) {
+            entries.remove(key);
+            return MISS;
+        }
+        if (bloomEnabled) {
+            // The lookup made the key recent again, so keep it in the newest generation too
+            currentGeneration.add(key);
+        }
+        hitCount++;
+        return entry.value;
+    }
+
+    /**
+     * Records the value for a key that was not seen before
+     * @param key The idempotency key
+     * @param value The value to return for later duplicates, must not be negative
+     */
+    public void record(String key, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Value cannot be negative");
+        }
+        long now = System.currentTimeMillis();
+        entries.put(key, new Entry(value, now));
+        if (bloomEnabled) {
+            if (generationRecords >= maxEntries || now - generationStartMillis >= windowMillis) {
+                previousGeneration = currentGeneration;
+                currentGeneration = new BloomFilter(maxEntries);
+                generationStartMillis = now;
+                generationRecords = 0;
+            }
+            currentGeneration.add(key);
+            generationRecords++;
+        }
+        evict(now);
+    }
+
+    private void evict(long now) {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (eldest.hasNext()) {
+            Map.Entry<String, Entry> candidate = eldest.next();
+            boolean expired = now - candidate.getValue().recordedAtMillis >= windowMillis;
+            if (entries.size() <= maxEntries && !expired) {
+                return;
+            }
+            eldest.remove();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets how many lookups found a live key
+     * @return The hit count
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Gets how many lookups the Bloom filters answered without touching the map
+     * @return The reject count, always 0 when the filters are disabled
+     */
+    public long getBloomRejectCount() {
+        return bloomRejectCount;
+    }
+
+    private static final class Entry {
+        private final long value;
+        private final long recordedAtMillis;
+
+        Entry(long value, long recordedAtMillis) {
+            this.value = value;
+            this.recordedAtMillis = recordedAtMillis;
+        }
+    }
+}
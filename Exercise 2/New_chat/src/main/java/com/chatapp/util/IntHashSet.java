@@ -0,0 +1,149 @@
+package com.chatapp.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Open-addressing set of non-negative int handles. Each member costs about
+ * four to eight bytes of table space instead of a boxed key plus a map node.
+ * <p>
+ * Not thread-safe; callers guard it with their own lock.
+ */
+public class IntHashSet {
+
+    private int[] keys;
+    private int mask;
+    private int size;
+
+    public IntHashSet() {
+        this(16);
+    }
+
+    /**
+     * Creates a set sized for the expected number of members
+     * @param expectedSize The number of members expected
+     */
+    public IntHashSet(int expectedSize) {
+        allocate(IntHashing.tableSizeFor(expectedSize));
+    }
+
+    /**
+     * Adds a handle to the set
+     * @param key The handle, must be non-negative
+     * @return true if the handle was not already present
+     */
+    public boolean add(int key) {
+        IntHashing.checkKey(key);
+        int slot = IntHashing.mix(key) & mask;
+        while (keys[slot] != IntHashing.FREE) {
+            if (keys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        if (++size > (keys.length >> 2) * 3) {
+            rehash(keys.length << 1);
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a handle is in the set
+     * @param key The handle
+     * @return true if present
+     */
+    public boolean contains(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Removes a handle from the set
+     * @param key The handle
+     * @return true if the handle was present
+     */
+    public boolean remove(int key) {
+        int slot = indexOf(key);
+        if (slot < 0) {
+            return false;
+        }
+        int gap = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            int candidate = keys[next];
+            if (candidate == IntHashing.FREE) {
+                break;
+            }
+            if (IntHashing.canShift(IntHashing.mix(candidate) & mask, gap, next, mask)) {
+                keys[gap] = candidate;
+                gap = next;
+            }
+        }
+        keys[gap] = IntHashing.FREE;
+        size--;
+        return true;
+    }
+
+    /**
+     * Applies an action to every member, in no particular order
+     * @param action The action to apply
+     */
+    public void forEach(IntConsumer action) {
+        for (int key : keys) {
+            if (key != IntHashing.FREE) {
+                action.accept(key);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, IntHashing.FREE);
+        size = 0;
+    }
+
+    private int indexOf(int key) {
+        if (key < 0) {
+            return -1;
+        }
+        int slot = IntHashing.mix(key) & mask;
+        while (true) {
+            int candidate = keys[slot];
+            if (candidate == key) {
+                return slot;
+            }
+            if (candidate == IntHashing.FREE) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, IntHashing.FREE);
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        allocate(capacity);
+        for (int key : oldKeys) {
+            if (key != IntHashing.FREE) {
+                int slot = IntHashing.mix(key) & mask;
+                while (keys[slot] != IntHashing.FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+}
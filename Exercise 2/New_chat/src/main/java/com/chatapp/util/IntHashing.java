@@ -0,0 +1,52 @@
+package com.chatapp.util;
+
+/**
+ * Shared helpers for the open-addressing int collections in this package.
+ * Keys must be non-negative; -1 marks a free slot.
+ */
+final class IntHashing {
+
+    static final int FREE = -1;
+
+    private IntHashing() {
+    }
+
+    /**
+     * Spreads sequential handles across the table
+     * @param key The key to hash
+     * @return The mixed hash
+     */
+    static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Computes a power-of-two table size that keeps the load factor below 3/4
+     * @param expectedSize The number of entries expected
+     * @return The table size
+     */
+    static int tableSizeFor(int expectedSize) {
+        int required = Math.max(4, (int) Math.min(1L << 30, (long) expectedSize * 4 / 3 + 1));
+        return Integer.highestOneBit(required - 1) << 1;
+    }
+
+    /**
+     * Validates a key
+     * @param key The key to validate
+     * @throws IllegalArgumentException if the key is negative
+     */
+    static void checkKey(int key) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Key must be a non-negative handle: " + key);
+        }
+    }
+
+    /**
+     * Checks whether an entry sitting at {@code slot} may be moved into the
+     * {@code gap} left by a removal without breaking its probe sequence
+     */
+    static boolean canShift(int ideal, int gap, int slot, int mask) {
+        return ((slot - ideal) & mask) >= ((slot - gap) & mask);
+    }
+}
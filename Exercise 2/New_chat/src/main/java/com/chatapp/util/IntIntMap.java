@@ -0,0 +1,152 @@
+package com.chatapp.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from non-negative int handles to int values.
+ * <p>
+ * Not thread-safe; callers guard it with their own lock.
+ */
+public class IntIntMap {
+
+    private final int missingValue;
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    /**
+     * Creates a map that reports absent keys with the given value
+     * @param missingValue The value returned by {@link #get(int)} for absent keys
+     */
+    public IntIntMap(int missingValue) {
+        this(16, missingValue);
+    }
+
+    /**
+     * Creates a map sized for the expected number of entries
+     * @param expectedSize The number of entries expected
+     * @param missingValue The value returned by {@link #get(int)} for absent keys
+     */
+    public IntIntMap(int expectedSize, int missingValue) {
+        this.missingValue = missingValue;
+        allocate(IntHashing.tableSizeFor(expectedSize));
+    }
+
+    /**
+     * Gets the value stored for a key
+     * @param key The key
+     * @return The value, or the missing value if absent
+     */
+    public int get(int key) {
+        int slot = indexOf(key);
+        return slot < 0 ? missingValue : values[slot];
+    }
+
+    public boolean containsKey(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Stores a value for a key
+     * @param key The key, must be non-negative
+     * @param value The value
+     * @return The previous value, or the missing value if there was none
+     */
+    public int put(int key, int value) {
+        IntHashing.checkKey(key);
+        int slot = IntHashing.mix(key) & mask;
+        while (keys[slot] != IntHashing.FREE) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > (keys.length >> 2) * 3) {
+            rehash(keys.length << 1);
+        }
+        return missingValue;
+    }
+
+    /**
+     * Removes a key
+     * @param key The key
+     * @return The removed value, or the missing value if the key was absent
+     */
+    public int remove(int key) {
+        int slot = indexOf(key);
+        if (slot < 0) {
+            return missingValue;
+        }
+        int removed = values[slot];
+        int gap = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            int candidate = keys[next];
+            if (candidate == IntHashing.FREE) {
+                break;
+            }
+            if (IntHashing.canShift(IntHashing.mix(candidate) & mask, gap, next, mask)) {
+                keys[gap] = candidate;
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = IntHashing.FREE;
+        size--;
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int indexOf(int key) {
+        if (key < 0) {
+            return -1;
+        }
+        int slot = IntHashing.mix(key) & mask;
+        while (true) {
+            int candidate = keys[slot];
+            if (candidate == key) {
+                return slot;
+            }
+            if (candidate == IntHashing.FREE) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, IntHashing.FREE);
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != IntHashing.FREE) {
+                int slot = IntHashing.mix(oldKeys[i]) & mask;
+                while (keys[slot] != IntHashing.FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
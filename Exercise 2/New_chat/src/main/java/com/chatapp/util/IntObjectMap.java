@@ -0,0 +1,193 @@
+package com.chatapp.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Open-addressing hash map from non-negative int handles to objects, using
+ * linear probing and backward-shift deletion. Avoids boxing and per-entry node
+ * objects, so an entry costs roughly eight bytes of table space.
+ * <p>
+ * Not thread-safe; callers guard it with their own lock.
+ *
+ * @param <V> The value type
+ */
+public class IntObjectMap<V> {
+
+    private int[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    public IntObjectMap() {
+        this(16);
+    }
+
+    /**
+     * Creates a map sized for the expected number of entries
+     * @param expectedSize The number of entries expected
+     */
+    public IntObjectMap(int expectedSize) {
+        allocate(IntHashing.tableSizeFor(expectedSize));
+    }
+
+    /**
+     * Gets the value stored for a key
+     * @param key The key
+     * @return The value, or null if absent
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int slot = indexOf(key);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    /**
+     * Checks if a key is present
+     * @param key The key
+     * @return true if the key is present
+     */
+    public boolean containsKey(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Stores a value for a key
+     * @param key The key, must be non-negative
+     * @param value The value, must not be null
+     * @return The previous value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        IntHashing.checkKey(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Value cannot be null");
+        }
+        int slot = IntHashing.mix(key) & mask;
+        while (keys[slot] != IntHashing.FREE) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > (keys.length >> 2) * 3) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Removes a key
+     * @param key The key
+     * @return The removed value, or null if the key was absent
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int slot = indexOf(key);
+        if (slot < 0) {
+            return null;
+        }
+        V removed = (V) values[slot];
+        int gap = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            int candidate = keys[next];
+            if (candidate == IntHashing.FREE) {
+                break;
+            }
+            if (IntHashing.canShift(IntHashing.mix(candidate) & mask, gap, next, mask)) {
+                keys[gap] = candidate;
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        keys[gap] = IntHashing.FREE;
+        values[gap] = null;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Applies an action to every value
+     * @param action The action to apply
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != IntHashing.FREE) {
+                action.accept((V) values[i]);
+            }
+        }
+    }
+
+    /**
+     * Copies the values into a new list
+     * @return List of values
+     */
+    public List<V> values() {
+        List<V> result = new ArrayList<>(size);
+        forEachValue(result::add);
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, IntHashing.FREE);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private int indexOf(int key) {
+        if (key < 0) {
+            return -1;
+        }
+        int slot = IntHashing.mix(key) & mask;
+        while (true) {
+            int candidate = keys[slot];
+            if (candidate == key) {
+                return slot;
+            }
+            if (candidate == IntHashing.FREE) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, IntHashing.FREE);
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != IntHashing.FREE) {
+                int slot = IntHashing.mix(oldKeys[i]) & mask;
+                while (keys[slot] != IntHashing.FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.chatapp.adapter;
+
+import com.chatapp.model.Message;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageCoalescerTest {
+
+    @Test
+    public void fullBatchesFlushRightAwayAndTheRestWaitsForTheTimer() throws Exception {
+        List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+        MessageCoalescer coalescer = new MessageCoalescer("test", 4, TimeUnit.MILLISECONDS.toMicros(200),
+                batch -> batches.add(batch.size()));
+
+        CompletableFuture<Integer> full = coalescer.submit(messages(4));
+        assertTrue(full.isDone());
+        CompletableFuture<Integer> partial = coalescer.submit(messages(1));
+        assertFalse(partial.isDone());
+
+        assertEquals(1, (int) partial.get(5, TimeUnit.SECONDS));
+        assertEquals(2, batches.size());
+        assertEquals(1, (int) batches.get(1));
+    }
+
+    @Test
+    public void aSynchronousSendIsWrittenRightAwayAndTakesPendingMessagesAlong() {
+        List<Integer> batches = Collections.synchronizedList(new ArrayList<>());
+        // A timer this long would fail the test if the synchronous send waited for it
+        MessageCoalescer coalescer = new MessageCoalescer("test", 64, TimeUnit.SECONDS.toMicros(60),
+                batch -> batches.add(batch.size()));
+
+        CompletableFuture<Integer> queued = coalescer.submit(messages(2));
+        assertFalse(queued.isDone());
+        assertEquals(1, coalescer.submitAndFlush(messages(1)));
+
+        assertTrue(queued.isDone());
+        assertEquals(2, (int) queued.getNow(0));
+        assertEquals(Collections.singletonList(3), batches);
+    }
+
+    @Test
+    public void aFailedFlushReportsNothingWritten() {
+        MessageCoalescer coalescer = new MessageCoalescer("test", 8, 100, batch -> {
+            throw new IllegalStateException("connection lost");
+        });
+        assertEquals(0, coalescer.submitAndFlush(messages(3)));
+    }
+
+    private static List<Message> messages(int count) {
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(new Message("user-1", "alice", "m" + i, "room-1"));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,131 @@
+package com.chatapp.adapter;
+
+import com.chatapp.model.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MultiplexedConnectionTest {
+
+    private static final int WINDOW = 4096;
+
+    private MultiplexedConnection connection;
+
+    @Before
+    public void open() {
+        connection = new MultiplexedConnection("localhost", 9000, null, WINDOW);
+    }
+
+    @After
+    public void close() {
+        connection.close();
+    }
+
+    @Test
+    public void aStreamTakesOnlyWhatFitsItsWindow() {
+        CommunicationProtocol stream = connection.openStream();
+        assertTrue(stream.connect());
+
+        int accepted = stream.sendBatch(messages(1000, 0));
+        assertTrue("accepted " + accepted, accepted > 0 && accepted < 1000);
+        assertFalse(stream.isWritable());
+        assertEquals(0, stream.sendBatch(messages(1, accepted)));
+
+        for (int i = 0; i < accepted; i++) {
+            assertEquals("m" + i, stream.receiveMessage().getContent());
+        }
+        assertEquals(null, stream.receiveMessage()); // Reads the window update the reads sent back
+        assertTrue(stream.isWritable());
+        int more = stream.sendBatch(messages(1000, accepted));
+        assertTrue("accepted " + more, more > 0 && more <= accepted);
+    }
+
+    @Test
+    public void creditFromAnEarlierConnectionIsIgnored() {
+        CommunicationProtocol stream = connection.openStream();
+        stream.connect();
+        int capacity = stream.sendBatch(messages(1000, 0));
+        // Reading the whole window sends a window update that is still in flight at the reconnect
+        for (int i = 0; i < capacity; i++) {
+            stream.receiveMessage();
+        }
+        stream.disconnect();
+        stream.connect();
+
+        assertEquals(capacity, stream.sendBatch(messages(1000, 0)));
+        assertFalse(stream.isWritable());
+        assertEquals("m0", stream.receiveMessage().getContent());
+        assertFalse("stale credit reopened the window", stream.isWritable());
+        for (int i = 1; i < capacity; i++) {
+            assertEquals("m" + i, stream.receiveMessage().getContent());
+        }
+    }
+
+    @Test
+    public void framesFromAnEarlierConnectionAreDropped() {
+        CommunicationProtocol stream = connection.openStream();
+        stream.connect();
+        stream.sendBatch(messages(5, 0));
+        stream.disconnect();
+        stream.connect();
+        stream.sendBatch(messages(1, 100));
+
+        assertEquals("m100", stream.receiveMessage().getContent());
+        assertEquals(5, connection.getDroppedFrameCount());
+    }
+
+    @Test
+    public void reliableSessionsDeliverEverythingThroughTheWindow() {
+        List<ReliableProtocol> sessions = new ArrayList<>();
+        for (int s = 0; s < 3; s++) {
+            ReliableProtocol session = new ReliableProtocol(connection.openStream(), "session-" + s);
+            session.connect();
+            sessions.add(session);
+        }
+        for (ReliableProtocol session : sessions) {
+            assertEquals(500, session.sendBatch(messages(500, 0)));
+        }
+
+        int[] received = new int[sessions.size()];
+        for (int round = 0; round < 100_000 && !allReceived(received, 500); round++) {
+            for (int s = 0; s < sessions.size(); s++) {
+                ReliableProtocol session = sessions.get(s);
+                Message message = session.receiveMessage();
+                if (message != null) {
+                    assertEquals("m" + received[s], message.getContent());
+                    received[s]++;
+                } else {
+                    session.acknowledgePending();
+                    Thread.yield(); // Let the writability callbacks resend what the window held back
+                }
+            }
+        }
+        for (int count : received) {
+            assertEquals(500, count);
+        }
+    }
+
+    private static boolean allReceived(int[] received, int expected) {
+        for (int count : received) {
+            if (count < expected) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Message> messages(int count, int first) {
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = first; i < first + count; i++) {
+            messages.add(new Message("user-1", "alice", "m" + i, "room-1"));
+        }
+        return messages;
+    }
+}
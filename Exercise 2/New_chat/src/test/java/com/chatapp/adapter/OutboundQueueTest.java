@@ -0,0 +1,115 @@
+package com.chatapp.adapter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OutboundQueueTest {
+
+    private static final int FRAME_BYTES = 100;
+
+    @Test
+    public void writabilityFollowsTheWatermarksAndFramesGoOutInOrder() throws Exception {
+        ThrottledChannel channel = new ThrottledChannel();
+        OutboundQueue queue = new OutboundQueue("test", channel, 4096, 1024, 4);
+        List<Boolean> changes = new ArrayList<>();
+        queue.setWritabilityListener(changes::add);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 60; i++) {
+            byte[] frame = frame(i);
+            expected.write(frame);
+            assertTrue(queue.enqueue(ByteBuffer.wrap(frame)));
+        }
+        assertFalse(queue.isWritable());
+        assertEquals(List.of(false), changes);
+
+        // A full socket buffer ends the flush at once
+        assertFalse(queue.flush());
+        assertEquals(1, queue.getIncompleteFlushCount());
+
+        // Each flush stops at the spin limit, and writability returns only below the low watermark
+        channel.bytesPerWrite = 750;
+        int flushes = 0;
+        while (!queue.flush()) {
+            flushes++;
+            assertTrue(channel.writeCalls <= 1 + 4L * flushes);
+            assertEquals(queue.getQueuedBytes() < 1024, queue.isWritable());
+        }
+        assertEquals(List.of(false, true), changes);
+        assertEquals(0, queue.getQueuedBytes());
+        assertArrayEquals(expected.toByteArray(), channel.written.toByteArray());
+        // Gathering writes take many frames per call
+        assertTrue(queue.getWriteCallCount() < 60);
+    }
+
+    @Test
+    public void aClosedQueueDropsWhatIsQueuedAndRefusesMore() {
+        OutboundQueue queue = new OutboundQueue("test", new ThrottledChannel(), 4096, 1024, 4);
+        queue.enqueue(ByteBuffer.wrap(frame(1)));
+        assertEquals(FRAME_BYTES, queue.close());
+        assertFalse(queue.enqueue(ByteBuffer.wrap(frame(2))));
+        assertEquals(0, queue.getQueuedFrameCount());
+    }
+
+    private static byte[] frame(int index) {
+        byte[] frame = new byte[FRAME_BYTES];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (index + i);
+        }
+        return frame;
+    }
+
+    /**
+     * Takes at most {@code bytesPerWrite} bytes per call, like a socket with a
+     * small send buffer
+     */
+    private static final class ThrottledChannel implements GatheringByteChannel {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private int bytesPerWrite;
+        private long writeCalls;
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) {
+            writeCalls++;
+            long total = 0;
+            for (int i = offset; i < offset + length && total < bytesPerWrite; i++) {
+                ByteBuffer source = sources[i];
+                int count = (int) Math.min(source.remaining(), bytesPerWrite - total);
+                for (int j = 0; j < count; j++) {
+                    written.write(source.get());
+                }
+                total += count;
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources) {
+            return write(sources, 0, sources.length);
+        }
+
+        @Override
+        public int write(ByteBuffer source) {
+            return (int) write(new ByteBuffer[] {source}, 0, 1);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
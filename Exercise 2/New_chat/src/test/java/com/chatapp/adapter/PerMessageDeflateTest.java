@@ -0,0 +1,71 @@
+package com.chatapp.adapter;
+
+import com.chatapp.model.Message;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PerMessageDeflateTest {
+
+    @Test
+    public void everySettingRoundTripsAndContextTakeoverShrinksRepeats() throws IOException {
+        List<byte[]> messages = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            messages.add(("{\"room\":\"general\",\"user\":\"alice\",\"text\":\"status update number " + i
+                    + " for the release\"}").getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] dictionary = messages.get(0);
+
+        int withContext = roundTrip(new PerMessageDeflate(true, null), messages);
+        int withoutContext = roundTrip(new PerMessageDeflate(false, null), messages);
+        int withDictionary = roundTrip(new PerMessageDeflate(false, dictionary), messages);
+
+        assertTrue(withContext + " vs " + withoutContext, withContext < withoutContext);
+        assertTrue(withDictionary + " vs " + withoutContext, withDictionary < withoutContext);
+    }
+
+    @Test
+    public void compressedFramesCarryMessagesOverTheConnection() throws IOException {
+        LoopbackConnection connection = LoopbackConnection.open("deflate");
+        PerMessageDeflate compression = new PerMessageDeflate(true, null);
+        connection.enableCompression(compression);
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            batch.add(new Message("user-1", "alice", "hello again " + i, "room"));
+        }
+
+        connection.send(batch);
+        for (Message message : batch) {
+            Message received = connection.receive();
+            assertEquals(message.getMessageId(), received.getMessageId());
+            assertEquals(message.getContent(), received.getContent());
+        }
+        connection.close();
+        compression.close();
+    }
+
+    /**
+     * Sends the messages through one connection's compression state in order
+     * @return The total compressed size
+     */
+    private static int roundTrip(PerMessageDeflate deflate, List<byte[]> messages) throws IOException {
+        int compressedBytes = 0;
+        try {
+            for (byte[] message : messages) {
+                byte[] compressed = deflate.compress(message);
+                compressedBytes += compressed.length;
+                assertArrayEquals(message, deflate.decompress(compressed));
+            }
+        } finally {
+            deflate.close();
+        }
+        return compressedBytes;
+    }
+}
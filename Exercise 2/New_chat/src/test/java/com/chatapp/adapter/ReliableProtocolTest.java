@@ -0,0 +1,207 @@
+package com.chatapp.adapter;
+
+import com.chatapp.model.Message;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReliableProtocolTest {
+
+    @Test
+    public void messagesBeyondTheWindowWaitInOverflowAndAllArriveInOrder() {
+        Link link = new Link();
+        ReliableProtocol sender = new ReliableProtocol(link.a, "sender", 8, 16);
+        ReliableProtocol receiver = new ReliableProtocol(link.b, "receiver");
+        sender.connect();
+        receiver.connect();
+
+        List<Message> batch = messages(100);
+        assertEquals(100, sender.sendBatch(batch));
+        assertEquals(8, sender.getUnackedCount());
+        assertEquals(92, sender.getOverflowCount());
+        assertTrue(sender.isOverflowFull());
+        assertFalse(sender.isWritable());
+
+        List<String> received = pump(sender, receiver, 100);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("m" + i, received.get(i));
+        }
+        assertEquals(0, sender.getOverflowCount());
+        assertFalse(sender.isOverflowFull());
+        assertTrue(sender.isWritable());
+    }
+
+    @Test
+    public void writabilityListenerRunsOnceTheOverflowDrains() throws InterruptedException {
+        Link link = new Link();
+        ReliableProtocol sender = new ReliableProtocol(link.a, "sender", 4, 4);
+        ReliableProtocol receiver = new ReliableProtocol(link.b, "receiver");
+        sender.connect();
+        receiver.connect();
+        CountDownLatch writable = new CountDownLatch(1);
+        sender.setWritabilityListener(writable::countDown);
+
+        sender.sendBatch(messages(20));
+        assertTrue(sender.isOverflowFull());
+        pump(sender, receiver, 20);
+        assertTrue(writable.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void unacknowledgedMessagesAreRedeliveredAfterReconnectWithoutDuplicates() {
+        Link link = new Link();
+        ReliableProtocol sender = new ReliableProtocol(link.a, "sender");
+        ReliableProtocol receiver = new ReliableProtocol(link.b, "receiver");
+        sender.connect();
+        receiver.connect();
+
+        sender.sendBatch(messages(3));
+        assertEquals("m0", receiver.receiveMessage().getContent());
+        link.lose(); // The other two frames never arrive
+        sender.disconnect();
+        sender.sendBatch(messages(5).subList(3, 5));
+        sender.connect();
+
+        List<String> received = new ArrayList<>();
+        received.add("m0");
+        received.addAll(pump(sender, receiver, 4));
+        assertEquals(5, received.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("m" + i, received.get(i));
+        }
+        // Nothing was acknowledged, so the whole window went again and m0 was dropped as a duplicate
+        assertEquals(5, sender.getRedeliveredCount());
+        assertEquals(1, receiver.getDuplicateCount());
+    }
+
+    @Test
+    public void unacknowledgedMessagesCanBeTakenWhileDisconnected() {
+        Link link = new Link();
+        ReliableProtocol sender = new ReliableProtocol(link.a, "sender", 2, 8);
+        sender.connect();
+        sender.sendBatch(messages(5));
+        sender.disconnect();
+
+        List<Message> taken = sender.takeUnacknowledged(0);
+        assertEquals(5, taken.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("m" + i, taken.get(i).getContent());
+        }
+        assertEquals(0, sender.getUnackedCount());
+        assertEquals(0, sender.getOverflowCount());
+        assertTrue(sender.takeUnacknowledged(0).isEmpty());
+    }
+
+    /**
+     * Moves frames both ways until the receiver has delivered the expected
+     * number of messages
+     */
+    private static List<String> pump(ReliableProtocol sender, ReliableProtocol receiver, int expected) {
+        List<String> received = new ArrayList<>();
+        for (int round = 0; round < 10_000 && received.size() < expected; round++) {
+            for (Message message = receiver.receiveMessage(); message != null; message = receiver.receiveMessage()) {
+                received.add(message.getContent());
+            }
+            receiver.acknowledgePending();
+            sender.receiveMessage();
+        }
+        return received;
+    }
+
+    private static List<Message> messages(int count) {
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(new Message("user-1", "alice", "m" + i, "room-1"));
+        }
+        return messages;
+    }
+
+    /**
+     * Two in-memory endpoints; frames sent while an endpoint is disconnected are lost
+     */
+    private static final class Link {
+        private final Endpoint a = new Endpoint("a");
+        private final Endpoint b = new Endpoint("b");
+
+        Link() {
+            a.peer = b;
+            b.peer = a;
+        }
+
+        void lose() {
+            a.inbound.clear();
+            b.inbound.clear();
+        }
+    }
+
+    private static final class Endpoint implements CommunicationProtocol {
+        private final String name;
+        private final ArrayDeque<Message> inbound = new ArrayDeque<>();
+        private Endpoint peer;
+        private boolean connected;
+
+        Endpoint(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean sendMessage(Message message) {
+            if (!connected) {
+                return false;
+            }
+            peer.inbound.add(message);
+            return true;
+        }
+
+        @Override
+        public int sendBatch(List<Message> messages) {
+            int sent = 0;
+            for (Message message : messages) {
+                if (sendMessage(message)) {
+                    sent++;
+                }
+            }
+            return sent;
+        }
+
+        @Override
+        public CompletableFuture<Integer> sendBatchAsync(List<Message> messages) {
+            return CompletableFuture.completedFuture(sendBatch(messages));
+        }
+
+        @Override
+        public Message receiveMessage() {
+            return connected ? inbound.poll() : null;
+        }
+
+        @Override
+        public boolean connect() {
+            connected = true;
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+            connected = false;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public String getProtocolName() {
+            return name;
+        }
+    }
+}
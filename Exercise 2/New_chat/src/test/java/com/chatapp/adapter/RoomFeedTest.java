@@ -0,0 +1,212 @@
+package com.chatapp.adapter;
+
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.Message;
+import com.chatapp.model.PrivateMessage;
+import com.chatapp.model.RoomMode;
+import com.chatapp.model.User;
+import com.chatapp.observer.ChatObserver;
+import com.chatapp.storage.InMemoryHistoryStore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RoomFeedTest {
+
+    private static final int WINDOW = 8;
+    private static final int OVERFLOW_LIMIT = 16;
+    private static final int MESSAGES = 200;
+
+    @Test
+    public void aReaderThatStopsAcknowledgingHoldsBackOnlyItself() throws InterruptedException {
+        String roomId = "feed-" + UUID.randomUUID();
+        ChatRoom room = new ChatRoom(roomId, "Feed", RoomMode.STANDARD, new InMemoryHistoryStore(10_000));
+        User alice = new User("feed-alice-" + UUID.randomUUID(), "alice");
+        room.addUser(alice);
+        Reader stalled = new Reader(room, "bob");
+        Reader healthy = new Reader(room, "carol");
+
+        List<String> healthyReceived = new ArrayList<>();
+        for (int i = 0; i < MESSAGES; i++) {
+            // Never refused, however far behind the stalled reader is
+            room.postMessage(new Message(alice.getUserId(), alice.getUsername(), "m" + i, roomId));
+            healthyReceived.addAll(healthy.read());
+        }
+        healthyReceived.addAll(healthy.readUntil(MESSAGES - healthyReceived.size()));
+        assertInOrder(healthyReceived);
+        assertFalse(healthy.feed.isCatchingUp());
+
+        assertTrue(stalled.feed.isCatchingUp());
+        assertTrue(stalled.feed.getSkippedCount() > 0);
+        assertTrue(stalled.server.getUnackedCount() + stalled.server.getOverflowCount()
+                <= WINDOW + OVERFLOW_LIMIT);
+
+        // The stalled reader comes back and gets the gap replayed from history, in order
+        List<String> stalledReceived = stalled.readUntil(MESSAGES);
+        assertInOrder(stalledReceived);
+        assertTrue(stalled.feed.getReplayedCount() > 0);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (stalled.feed.isCatchingUp() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertFalse(stalled.feed.isCatchingUp());
+
+        // Live again: the next post arrives straight away
+        room.postMessage(new Message(alice.getUserId(), alice.getUsername(), "after", roomId));
+        assertEquals("after", stalled.readUntil(1).get(0));
+    }
+
+    private static void assertInOrder(List<String> received) {
+        assertEquals(MESSAGES, received.size());
+        for (int i = 0; i < MESSAGES; i++) {
+            assertEquals("m" + i, received.get(i));
+        }
+    }
+
+    /**
+     * A member whose messages travel over a reliable link to a client endpoint
+     */
+    private static final class Reader implements ChatObserver {
+        private final String userId;
+        private final ReliableProtocol server;
+        private final ReliableProtocol client;
+        private final RoomFeed feed;
+
+        Reader(ChatRoom room, String name) {
+            this.userId = "feed-" + name + "-" + UUID.randomUUID();
+            Endpoint serverEnd = new Endpoint();
+            Endpoint clientEnd = new Endpoint();
+            serverEnd.peer = clientEnd;
+            clientEnd.peer = serverEnd;
+            this.server = new ReliableProtocol(serverEnd, userId, WINDOW, OVERFLOW_LIMIT);
+            this.client = new ReliableProtocol(clientEnd, userId + "-client");
+            server.connect();
+            client.connect();
+            room.addUser(new User(userId, name));
+            this.feed = new RoomFeed(server, room, userId);
+            room.registerObserver(this);
+        }
+
+        /**
+         * Reads what has arrived and acknowledges it
+         */
+        List<String> read() {
+            List<String> received = new ArrayList<>();
+            for (Message message = client.receiveMessage(); message != null; message = client.receiveMessage()) {
+                received.add(message.getContent());
+            }
+            client.acknowledgePending();
+            server.receiveMessage();
+            return received;
+        }
+
+        List<String> readUntil(int expected) throws InterruptedException {
+            List<String> received = new ArrayList<>();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (received.size() < expected && System.nanoTime() < deadline) {
+                List<String> batch = read();
+                if (batch.isEmpty()) {
+                    Thread.sleep(1); // The replay runs on the writability listener's thread
+                }
+                received.addAll(batch);
+            }
+            return received;
+        }
+
+        @Override
+        public void onMessageReceived(Message message) {
+            feed.offer(message);
+        }
+
+        @Override
+        public void onUserJoined(User user) {
+        }
+
+        @Override
+        public void onUserLeft(User user) {
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+        }
+
+        @Override
+        public void onPrivateMessageReceived(PrivateMessage privateMessage) {
+        }
+
+        @Override
+        public String getObserverUserId() {
+            return userId;
+        }
+    }
+
+    /**
+     * One end of an in-memory link, safe to send to from the replay thread
+     */
+    private static final class Endpoint implements CommunicationProtocol {
+        private final Queue<Message> inbound = new ConcurrentLinkedQueue<>();
+        private volatile Endpoint peer;
+        private volatile boolean connected;
+
+        @Override
+        public boolean sendMessage(Message message) {
+            if (!connected) {
+                return false;
+            }
+            peer.inbound.add(message);
+            return true;
+        }
+
+        @Override
+        public int sendBatch(List<Message> messages) {
+            int sent = 0;
+            for (Message message : messages) {
+                if (sendMessage(message)) {
+                    sent++;
+                }
+            }
+            return sent;
+        }
+
+        @Override
+        public CompletableFuture<Integer> sendBatchAsync(List<Message> messages) {
+            return CompletableFuture.completedFuture(sendBatch(messages));
+        }
+
+        @Override
+        public Message receiveMessage() {
+            return connected ? inbound.poll() : null;
+        }
+
+        @Override
+        public boolean connect() {
+            connected = true;
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+            connected = false;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public String getProtocolName() {
+            return "loopback";
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.chatapp.adapter;
+
+import com.chatapp.model.Message;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TlsConnectionTest {
+
+    private static final String HOST = "localhost";
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private static Path directory;
+    private static TlsContext tls;
+
+    @BeforeClass
+    public static void createKeyStore() throws Exception {
+        directory = Files.createTempDirectory("tls-test");
+        Path keyStore = directory.resolve("chat-tls.p12");
+        // The same self-signed EC key the TlsContext documentation describes
+        Process keytool = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "chat", "-keyalg", "EC", "-groupname", "secp256r1", "-dname", "CN=localhost",
+                "-validity", "2", "-storetype", "PKCS12", "-keystore", keyStore.toString(),
+                "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                .redirectErrorStream(true)
+                .start();
+        keytool.getInputStream().readAllBytes();
+        assertTrue(keytool.waitFor(60, TimeUnit.SECONDS));
+        assertEquals(0, keytool.exitValue());
+        tls = TlsContext.fromKeyStore(keyStore, PASSWORD);
+    }
+
+    @AfterClass
+    public static void deleteKeyStore() throws IOException {
+        if (directory != null) {
+            Files.deleteIfExists(directory.resolve("chat-tls.p12"));
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void framesSurviveEncryptionIncludingBatchesLargerThanARecord() throws IOException {
+        LoopbackConnection connection = LoopbackConnection.open("tls", tls, HOST, 9001);
+        assertTrue(connection.isEncrypted());
+        char[] filler = new char[900];
+        Arrays.fill(filler, 'x');
+        for (int round = 0; round < 3; round++) {
+            // Twenty long messages span more than one 16 KB TLS record
+            List<Message> batch = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                batch.add(new Message("user-1", "alice", "m" + i + " caf\u00e9 " + new String(filler), "room"));
+            }
+            connection.send(batch);
+            for (Message message : batch) {
+                Message received = connection.receive();
+                assertEquals(message.getMessageId(), received.getMessageId());
+                assertEquals(message.getContent(), received.getContent());
+            }
+        }
+        connection.close();
+    }
+
+    @Test
+    public void aReconnectToTheSameServerResumesTheSession() throws IOException {
+        long resumedBefore = tls.getResumedHandshakeCount();
+        LoopbackConnection first = LoopbackConnection.open("first", tls, HOST, 9002);
+        first.close();
+        LoopbackConnection again = LoopbackConnection.open("again", tls, HOST, 9002);
+        LoopbackConnection elsewhere = LoopbackConnection.open("elsewhere", tls, HOST, 9003);
+
+        assertTrue(again.isResumed());
+        assertFalse(elsewhere.isResumed());
+        assertEquals(resumedBefore + 1, tls.getResumedHandshakeCount());
+        again.close();
+        elsewhere.close();
+    }
+}
@@ -0,0 +1,71 @@
+package com.chatapp.admission;
+
+import com.chatapp.observer.PartitionedFanout;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControllerTest {
+
+    private static final int MAX_QUEUE_DEPTH = 1000;
+
+    @Test
+    public void deferredNotificationsRunInOrderOnTheFanoutPoolOnceLoadDrops() throws InterruptedException {
+        AdmissionController admission = newController();
+        admission.recordQueued(800); // 80% of the queue limit
+        awaitTrue(() -> admission.getLevel() == LoadLevel.DEFER_PRESENCE);
+
+        List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            assertTrue(admission.deferPresence(() -> {
+                delivered.add(value);
+                threads.add(Thread.currentThread().getName());
+            }));
+        }
+        assertTrue(delivered.isEmpty());
+
+        admission.recordQueued(-800);
+        awaitTrue(() -> delivered.size() == 100);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, (int) delivered.get(i));
+            assertTrue(threads.get(i), threads.get(i).startsWith("fanout-worker-"));
+        }
+        assertEquals(0, admission.getPendingNotificationCount());
+        assertFalse(admission.deferPresence(() -> { }));
+    }
+
+    @Test
+    public void theDeferredQueueIsBoundedAndCountsWhatItDrops() throws InterruptedException {
+        AdmissionController admission = newController();
+        admission.recordQueued(800);
+        awaitTrue(() -> admission.getLevel() == LoadLevel.DEFER_PRESENCE);
+
+        for (int i = 0; i < 16_384 + 10; i++) {
+            admission.deferPresence(() -> { });
+        }
+        assertEquals(16_384, admission.getPendingNotificationCount());
+        assertEquals(10, admission.getDroppedNotificationCount());
+    }
+
+    private static AdmissionController newController() {
+        return new AdmissionController(MAX_QUEUE_DEPTH, 60_000, 1.0, 1000, new PartitionedFanout(2));
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue("condition not met in time", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
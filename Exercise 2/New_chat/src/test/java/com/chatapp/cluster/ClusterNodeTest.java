@@ -0,0 +1,208 @@
+package com.chatapp.cluster;
+
+import com.chatapp.exception.ChatRoomException;
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.Message;
+import com.chatapp.model.RoomMode;
+import com.chatapp.model.User;
+import com.chatapp.storage.HistoryCursor;
+import com.chatapp.storage.InMemoryHistoryStore;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ClusterNodeTest {
+
+    private final List<ClusterNode> nodes = new ArrayList<>();
+
+    @After
+    public void stopNodes() {
+        nodes.forEach(ClusterNode::shutdown);
+    }
+
+    @Test
+    public void ringPlacesKeysStablyAndMovesOnlyToANewNode() {
+        ConsistentHashRing ring = new ConsistentHashRing();
+        ring.addNode("a");
+        ring.addNode("b");
+        List<String> before = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            before.add(ring.nodeFor("room-" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(before.get(i), ring.nodeFor("room-" + i));
+        }
+
+        ring.addNode("c");
+        int moved = 0;
+        for (int i = 0; i < 1000; i++) {
+            String owner = ring.nodeFor("room-" + i);
+            if (!owner.equals(before.get(i))) {
+                assertEquals("c", owner);
+                moved++;
+            }
+        }
+        assertTrue("moved " + moved, moved > 200 && moved < 500);
+
+        ring.removeNode("c");
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(before.get(i), ring.nodeFor("room-" + i));
+        }
+    }
+
+    @Test
+    public void handoverCarriesTheFullHistoryWithItsSequences() {
+        ClusterNode a = startNode("a");
+        ClusterNode b = startNode("b");
+        String roomId = roomOwnedBy("b");
+        a.createChatRoom(roomId, "Handover", RoomMode.STANDARD);
+        User alice = new User("user-1", "alice");
+        a.joinChatRoom(roomId, alice);
+        ChatRoom original = a.getLocalManager().getChatRoom(roomId);
+        Message last = null;
+        for (int i = 0; i < 1500; i++) {
+            last = new Message(alice.getUserId(), alice.getUsername(), "m" + i, roomId);
+            a.postMessage(roomId, last);
+        }
+        original.editMessage(alice.getUserId(), last.getMessageId(), "edited");
+        long lastSequence = original.getLastSequence();
+
+        assertEquals(1, a.addPeer("b", "127.0.0.1", b.getPort()));
+
+        assertNull(a.getLocalManager().getChatRoom(roomId));
+        ChatRoom moved = b.getLocalManager().getChatRoom(roomId);
+        assertNotNull(moved);
+        assertEquals(lastSequence, moved.getLastSequence());
+        assertTrue(moved.isPresent(alice.getUserId()));
+        List<Message> history = new ArrayList<>();
+        try (HistoryCursor cursor = moved.openHistory(1)) {
+            cursor.forEachRemaining(history::add);
+        }
+        assertEquals(1500, history.size());
+        for (int i = 0; i < 1499; i++) {
+            assertEquals("m" + i, history.get(i).getContent());
+            assertEquals(i + 1, history.get(i).getSequence());
+        }
+        assertEquals("edited", history.get(1499).getContent());
+        assertTrue(history.get(1499).isEdited());
+
+        moved.postMessage(new Message(alice.getUserId(), alice.getUsername(), "after", roomId));
+        assertEquals(lastSequence + 1, moved.getLastSequence());
+    }
+
+    @Test
+    public void aFailedHandoverIsReportedAndTheOtherRoomsStillMove() {
+        ClusterNode a = startNode("a");
+        ClusterNode b = startNode("b");
+        List<String> roomIds = roomsOwnedBy("b", 3);
+        for (String roomId : roomIds) {
+            a.createChatRoom(roomId, "Moving", RoomMode.STANDARD);
+        }
+        // The new owner already holds the first room, so taking it over fails there
+        String clashing = roomIds.get(0);
+        b.getLocalManager().createChatRoom(clashing, "Clash", RoomMode.STANDARD);
+
+        assertEquals(2, a.addPeer("b", "127.0.0.1", b.getPort()));
+
+        assertEquals(Collections.singletonList(clashing), a.getMisplacedRoomIds());
+        assertNotNull(a.getLocalManager().getChatRoom(clashing));
+        for (String roomId : roomIds.subList(1, 3)) {
+            assertNull(a.getLocalManager().getChatRoom(roomId));
+            assertNotNull(b.getLocalManager().getChatRoom(roomId));
+        }
+    }
+
+    @Test
+    public void malformedAndFailingRequestsGetAnErrorAndTheLinkKeepsWorking() throws IOException {
+        ClusterNode b = startNode("b");
+        b.createChatRoom("room-x", "Existing", RoomMode.STANDARD);
+        try (Socket socket = new Socket("127.0.0.1", b.getPort())) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            // A post whose message is cut off
+            writeFrame(out, ClusterOperation.POST_MESSAGE, "room-x");
+            assertEquals(NodeLink.STATUS_INVALID_ARGUMENT, in.readByte());
+            in.readUTF();
+
+            // An unknown operation code
+            out.writeInt(1);
+            out.writeByte(99);
+            out.flush();
+            assertEquals(NodeLink.STATUS_INVALID_ARGUMENT, in.readByte());
+            in.readUTF();
+
+            writeFrame(out, ClusterOperation.ROOM_INFO, "room-x");
+            assertEquals(NodeLink.STATUS_OK, in.readByte());
+            assertTrue(in.readBoolean());
+            assertEquals("Existing", RoomInfo.readFrom(in).getRoomName());
+        }
+    }
+
+    @Test
+    public void aRejectedRequestDoesNotBreakThePeerLink() {
+        ClusterNode a = startNode("a");
+        ClusterNode b = startNode("b");
+        a.addPeer("b", "127.0.0.1", b.getPort());
+        String roomId = roomOwnedBy("b");
+
+        try {
+            a.joinChatRoom(roomId, new User("user-1", "alice"));
+            fail("Joining a missing room should fail");
+        } catch (ChatRoomException e) {
+            assertFalse(e.getMessage().contains("unreachable"));
+        }
+        assertEquals("b", a.createChatRoom(roomId, "Still works", RoomMode.STANDARD).getOwnerNodeId());
+    }
+
+    private static void writeFrame(DataOutputStream out, ClusterOperation operation, String roomId)
+            throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        DataOutputStream fields = new DataOutputStream(frame);
+        fields.writeByte(operation.code());
+        fields.writeUTF(roomId);
+        out.writeInt(frame.size());
+        frame.writeTo(out);
+        out.flush();
+    }
+
+    private ClusterNode startNode(String nodeId) {
+        ClusterNode node = new ClusterNode(nodeId, "127.0.0.1", 0);
+        node.getLocalManager().setHistoryStoreFactory(roomId -> new InMemoryHistoryStore(10_000));
+        node.start();
+        nodes.add(node);
+        return node;
+    }
+
+    private static String roomOwnedBy(String nodeId) {
+        return roomsOwnedBy(nodeId, 1).get(0);
+    }
+
+    private static List<String> roomsOwnedBy(String nodeId, int count) {
+        ConsistentHashRing ring = new ConsistentHashRing();
+        ring.addNode("a");
+        ring.addNode("b");
+        List<String> roomIds = new ArrayList<>(count);
+        for (int i = 0; roomIds.size() < count; i++) {
+            if (ring.nodeFor("room-" + i).equals(nodeId)) {
+                roomIds.add("room-" + i);
+            }
+        }
+        return roomIds;
+    }
+}
@@ -0,0 +1,62 @@
+package com.chatapp.cluster;
+
+import com.chatapp.model.Message;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LocalRoomBusTest {
+
+    private final LocalRoomBus bus = new LocalRoomBus(16);
+
+    @After
+    public void stopBus() {
+        bus.shutdown();
+    }
+
+    @Test
+    public void subscribersGetTheirRoomsInOrderAndTheOriginGetsNothing() throws InterruptedException {
+        List<Message> origin = new CopyOnWriteArrayList<>();
+        List<Message> subscribed = new CopyOnWriteArrayList<>();
+        List<Message> unsubscribed = new CopyOnWriteArrayList<>();
+        bus.register("a", origin::addAll);
+        bus.register("b", subscribed::addAll);
+        bus.register("c", unsubscribed::addAll);
+        bus.subscribe("room-1", "a");
+        bus.subscribe("room-1", "b");
+
+        for (int i = 0; i < 200; i++) {
+            bus.publish("a", new Message("user-1", "alice", "m" + i, "room-1"));
+            bus.publish("a", new Message("user-1", "alice", "other" + i, "room-2"));
+        }
+
+        awaitSize(subscribed, 200);
+        for (int i = 0; i < 200; i++) {
+            assertEquals("m" + i, subscribed.get(i).getContent());
+        }
+        assertTrue(origin.isEmpty());
+        assertTrue(unsubscribed.isEmpty());
+        // Batches never exceed the limit, and a burst shares them
+        assertEquals(200, bus.getDeliveredMessageCount("b"));
+        assertTrue(bus.getDeliveredBatchCount("b") >= 200 / 16);
+
+        bus.unsubscribe("room-1", "b");
+        bus.publish("a", new Message("user-1", "alice", "late", "room-1"));
+        Thread.sleep(50);
+        assertEquals(200, subscribed.size());
+    }
+
+    private static void awaitSize(List<Message> messages, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (messages.size() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, messages.size());
+    }
+}
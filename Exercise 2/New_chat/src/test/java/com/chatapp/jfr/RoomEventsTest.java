@@ -0,0 +1,126 @@
+package com.chatapp.jfr;
+
+import com.chatapp.manager.ChatRoomManager;
+import com.chatapp.model.Message;
+import com.chatapp.model.PrivateMessage;
+import com.chatapp.model.RoomMode;
+import com.chatapp.model.User;
+import com.chatapp.observer.ChatObserver;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RoomEventsTest {
+
+    @Test
+    public void roomActivityIsRecordedWithItsFields() throws IOException {
+        String roomId = "jfr-" + UUID.randomUUID();
+        User alice = new User("jfr-alice-" + UUID.randomUUID(), "alice");
+        User bob = new User("jfr-bob-" + UUID.randomUUID(), "bob");
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable("com.chatapp.RoomLifecycle").withoutThreshold();
+            recording.enable("com.chatapp.RoomPost").withoutThreshold();
+            recording.enable("com.chatapp.Fanout").withoutThreshold();
+            recording.start();
+
+            ChatRoomManager manager = ChatRoomManager.newInstance();
+            manager.createChatRoom(roomId, "Recorded", RoomMode.STANDARD);
+            manager.joinChatRoom(roomId, alice);
+            manager.joinChatRoom(roomId, bob);
+            manager.getChatRoom(roomId).registerObserver(new Listener(bob.getUserId()));
+            manager.postMessage(roomId, new Message(alice.getUserId(), alice.getUsername(), "hello", roomId, "key-1"));
+            manager.postMessage(roomId, new Message(alice.getUserId(), alice.getUsername(), "hello", roomId, "key-1"));
+            manager.deleteChatRoom(roomId);
+
+            recording.stop();
+            Path file = Files.createTempFile("room-events", ".jfr");
+            try {
+                recording.dump(file);
+                events = RecordingFile.readAllEvents(file);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        List<String> operations = new ArrayList<>();
+        List<RecordedEvent> posts = new ArrayList<>();
+        int fanouts = 0;
+        for (RecordedEvent event : events) {
+            if (!roomId.equals(event.getString("roomId"))) {
+                continue;
+            }
+            switch (event.getEventType().getName()) {
+                case "com.chatapp.RoomLifecycle":
+                    operations.add(event.getString("operation"));
+                    break;
+                case "com.chatapp.RoomPost":
+                    posts.add(event);
+                    break;
+                case "com.chatapp.Fanout":
+                    assertEquals(bob.getUserId(), event.getString("observerUserId"));
+                    assertEquals(1, event.getLong("sequence"));
+                    assertFalse(event.getBoolean("failed"));
+                    fanouts++;
+                    break;
+                default:
+                    break;
+            }
+        }
+        assertTrue(operations.toString(), operations.containsAll(List.of("create", "join", "delete")));
+        assertEquals(2, posts.size());
+        assertEquals(1, posts.get(0).getLong("sequence"));
+        assertEquals(5, posts.get(0).getInt("contentLength"));
+        assertFalse(posts.get(0).getBoolean("duplicate"));
+        assertTrue(posts.get(1).getBoolean("duplicate"));
+        assertEquals(1, fanouts);
+    }
+
+    /**
+     * A member that only needs to exist for the room to fan out to
+     */
+    private static final class Listener implements ChatObserver {
+        private final String userId;
+
+        Listener(String userId) {
+            this.userId = userId;
+        }
+
+        @Override
+        public void onMessageReceived(Message message) {
+        }
+
+        @Override
+        public void onUserJoined(User user) {
+        }
+
+        @Override
+        public void onUserLeft(User user) {
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+        }
+
+        @Override
+        public void onPrivateMessageReceived(PrivateMessage privateMessage) {
+        }
+
+        @Override
+        public String getObserverUserId() {
+            return userId;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.chatapp.manager;
+
+import com.chatapp.codec.JsonLineCodec;
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.Message;
+import com.chatapp.model.RoomMode;
+import com.chatapp.model.User;
+import com.chatapp.storage.HistoryCursor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class RoomArchiverTest {
+
+    private static final String AWKWARD_CONTENT = "quote \" backslash \\ tab\tnewline\n bell\u0007 caf\u00e9 \ud83d\ude00";
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("room-archive");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void messageRecordsSurviveAJsonRoundTrip() throws IOException {
+        Message posted = new Message(UUID.randomUUID().toString(), "user-1", "alice", AWKWARD_CONTENT, "room",
+                LocalDateTime.of(2024, 3, 1, 12, 30, 15, 123_000_000), "key-1", 5);
+        Message edit = Message.edit(posted, "changed").withSequence(6);
+
+        for (Message message : new Message[] {posted, edit}) {
+            StringBuilder line = new StringBuilder();
+            JsonLineCodec.writeMessage(line, message);
+            assertEquals(1, line.chars().filter(c -> c == '\n').count());
+            Map<String, String> fields = JsonLineCodec.parse(line.substring(0, line.length() - 1));
+            assertEquals(JsonLineCodec.TYPE_MESSAGE, fields.get("type"));
+            assertSameMessage(message, JsonLineCodec.toMessage(fields));
+        }
+    }
+
+    @Test
+    public void ndjsonExportImportsIntoAnotherManagerUnchanged() throws IOException {
+        assertRoundTrip(RoomArchiver.Format.NDJSON);
+    }
+
+    @Test
+    public void binaryExportImportsIntoAnotherManagerUnchanged() throws IOException {
+        assertRoundTrip(RoomArchiver.Format.BINARY);
+    }
+
+    private void assertRoundTrip(RoomArchiver.Format format) throws IOException {
+        String roomId = "archive-" + UUID.randomUUID();
+        ChatRoomManager source = ChatRoomManager.newInstance();
+        source.createChatRoom(roomId, "Archive", RoomMode.STANDARD);
+        User alice = new User("archive-alice", "alice");
+        User bob = new User("archive-bob", "bob");
+        source.joinChatRoom(roomId, alice);
+        source.joinChatRoom(roomId, bob);
+        Message first = new Message(alice.getUserId(), alice.getUsername(), AWKWARD_CONTENT, roomId);
+        source.postMessage(roomId, first);
+        for (int i = 0; i < 200; i++) {
+            User sender = i % 2 == 0 ? alice : bob;
+            source.postMessage(roomId, new Message(sender.getUserId(), sender.getUsername(), "m" + i, roomId));
+        }
+        source.getChatRoom(roomId).editMessage(alice.getUserId(), first.getMessageId(), "edited");
+        List<Message> expected = history(source.getChatRoom(roomId));
+
+        RoomArchiver.ArchiveReport exported = new RoomArchiver(source, 2).exportRooms(directory, format);
+        assertEquals(0, exported.getFailedRoomCount());
+
+        ChatRoomManager target = ChatRoomManager.newInstance();
+        RoomArchiver.ArchiveReport imported = new RoomArchiver(target, 2).importRooms(directory);
+        assertEquals(0, imported.getFailedRoomCount());
+        ChatRoom restored = target.getChatRoom(roomId);
+        assertNotNull(restored);
+        assertEquals("Archive", restored.getRoomName());
+        assertTrue(restored.isPresent(alice.getUserId()));
+        assertTrue(restored.isPresent(bob.getUserId()));
+        // The edit entry is folded into its message on export, but its sequence is not handed out again
+        assertEquals(source.getChatRoom(roomId).getLastSequence(), restored.getLastSequence());
+
+        List<Message> actual = history(restored);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameMessage(expected.get(i), actual.get(i));
+        }
+        assertEquals("edited", actual.get(0).getContent());
+        assertTrue(actual.get(0).isEdited());
+
+        // The room already exists now, so a second import is refused and leaves it alone
+        assertEquals(1, new RoomArchiver(target, 2).importRooms(directory).getFailedRoomCount());
+        assertEquals(expected.size(), history(restored).size());
+    }
+
+    private static List<Message> history(ChatRoom room) {
+        List<Message> messages = new ArrayList<>();
+        try (HistoryCursor cursor = room.openHistory(1)) {
+            cursor.forEachRemaining(messages::add);
+        }
+        return messages;
+    }
+
+    private static void assertSameMessage(Message expected, Message actual) {
+        assertEquals(expected.getMessageId(), actual.getMessageId());
+        assertEquals(expected.getSenderId(), actual.getSenderId());
+        assertEquals(expected.getSenderUsername(), actual.getSenderUsername());
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getRoomId(), actual.getRoomId());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getIdempotencyKey(), actual.getIdempotencyKey());
+        assertEquals(expected.getSequence(), actual.getSequence());
+        assertEquals(expected.getKind(), actual.getKind());
+        assertEquals(expected.getTargetMessageId(), actual.getTargetMessageId());
+        assertEquals(expected.getTargetSequence(), actual.getTargetSequence());
+        assertEquals(expected.isEdited(), actual.isEdited());
+    }
+}
@@ -0,0 +1,88 @@
+package com.chatapp.manager;
+
+import com.chatapp.model.ChatRoom;
+import com.chatapp.model.Message;
+import com.chatapp.model.RoomMode;
+import com.chatapp.model.User;
+import com.chatapp.storage.InMemoryHistoryStore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RoomDirectoryTest {
+
+    @Test
+    public void prefixSearchIgnoresCaseAndPagesWithACursor() {
+        RoomDirectory directory = new RoomDirectory();
+        for (int i = 0; i < 25; i++) {
+            directory.register(room(String.format("java-%02d", i), String.format("Java %02d", i)));
+        }
+        directory.register(room("javascript", "JavaScript"));
+        directory.register(room("kotlin", "Kotlin"));
+
+        List<String> names = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            RoomDirectory.Page page = directory.searchByName("jAvA", cursor, 10);
+            page.getRooms().forEach(room -> names.add(room.getRoomName()));
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(3, pages);
+        assertEquals(26, names.size());
+        for (int i = 0; i < 25; i++) {
+            assertEquals(String.format("Java %02d", i), names.get(i));
+        }
+        assertEquals("JavaScript", names.get(25));
+        assertEquals(26, count(directory.searchById("java", null, 100)));
+        assertTrue(directory.searchByName("rust", null, 10).getRooms().isEmpty());
+        RoomDirectory.Page all = directory.list(null, 100);
+        assertEquals(27, all.getRooms().size());
+        assertFalse(all.hasMore());
+        assertNull(all.getNextCursor());
+    }
+
+    @Test
+    public void rankingsFollowPresenceAndActivity() {
+        RoomDirectory directory = new RoomDirectory();
+        ChatRoom crowded = room("crowded", "Crowded");
+        ChatRoom chatty = room("chatty", "Chatty");
+        ChatRoom idle = room("idle", "Idle");
+        directory.register(crowded);
+        directory.register(chatty);
+        directory.register(idle);
+        for (int i = 0; i < 5; i++) {
+            crowded.addUser(new User("crowd-" + i + "-" + UUID.randomUUID(), "crowd" + i));
+        }
+        User talker = new User("talker-" + UUID.randomUUID(), "talker");
+        chatty.addUser(talker);
+        for (int i = 0; i < 10; i++) {
+            chatty.postMessage(new Message(talker.getUserId(), talker.getUsername(), "m" + i, "chatty"));
+        }
+        crowded.postMessage(new Message(crowded.getMembers().get(0).getUserId(), "crowd0", "hi", "crowded"));
+
+        assertEquals(List.of(crowded, chatty), directory.topByOccupancy(5));
+        assertEquals(List.of(chatty, crowded), directory.topByActivity(5));
+
+        directory.unregister(chatty);
+        assertEquals(List.of(crowded), directory.topByActivity(5));
+        assertEquals(2, directory.size());
+    }
+
+    private static int count(RoomDirectory.Page page) {
+        return page.getRooms().size();
+    }
+
+    private static ChatRoom room(String roomId, String name) {
+        return new ChatRoom(roomId, name, RoomMode.STANDARD, new InMemoryHistoryStore(100));
+    }
+}
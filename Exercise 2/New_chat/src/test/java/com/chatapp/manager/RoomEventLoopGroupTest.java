@@ -0,0 +1,67 @@
+package com.chatapp.manager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RoomEventLoopGroupTest {
+
+    private RoomEventLoopGroup loops;
+
+    @Before
+    public void createLoops() {
+        loops = new RoomEventLoopGroup(2, 60_000);
+        loops.register("room-a");
+        loops.register("room-b");
+    }
+
+    @After
+    public void stopLoops() {
+        loops.shutdown(1000);
+    }
+
+    @Test
+    public void operationsOnARoomRunInSubmissionOrder() throws Exception {
+        List<Integer> seen = new ArrayList<>(); // Only touched on room-a's loop
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            int value = i;
+            results.add(loops.submit("room-a", () -> seen.add(value)));
+        }
+        results.get(results.size() - 1).get(10, TimeUnit.SECONDS);
+        int size = loops.call("room-a", seen::size);
+        assertEquals(10_000, size);
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, (int) seen.get(i));
+        }
+    }
+
+    @Test
+    public void aCallFromTheRoomsOwnLoopRunsInPlace() {
+        String thread = loops.call("room-a", () -> loops.call("room-a", () -> Thread.currentThread().getName()));
+        assertTrue(thread.startsWith("room-loop-"));
+    }
+
+    @Test
+    public void aLoopNeverWaitsOnAnotherLoop() throws Exception {
+        assertNotEquals(loops.getLoopOf("room-a"), loops.getLoopOf("room-b"));
+        try {
+            loops.call("room-a", () -> loops.call("room-b", () -> "blocked"));
+            fail("A cross-loop call should be refused");
+        } catch (IllegalStateException expected) {
+            // The caller has to submit instead
+        }
+        CompletableFuture<String> nested = loops.call("room-a", () -> loops.submit("room-b", () -> "queued"));
+        assertEquals("queued", nested.get(10, TimeUnit.SECONDS));
+    }
+}
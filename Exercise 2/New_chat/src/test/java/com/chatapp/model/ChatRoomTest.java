@@ -0,0 +1,152 @@
+package com.chatapp.model;
+
+import com.chatapp.exception.ChatRoomException;
+import com.chatapp.observer.ChatObserver;
+import com.chatapp.storage.InMemoryHistoryStore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class ChatRoomTest {
+
+    @Test
+    public void postingRejectsACallerSuppliedSequence() {
+        String roomId = "room-" + UUID.randomUUID();
+        ChatRoom room = new ChatRoom(roomId, "Room", RoomMode.STANDARD, new InMemoryHistoryStore(100));
+        User alice = new User("alice-" + UUID.randomUUID(), "alice");
+        room.addUser(alice);
+        room.postMessage(new Message(alice.getUserId(), alice.getUsername(), "first", roomId));
+
+        // Neither an old sequence nor one that skips ahead is taken
+        Message stale = new Message(alice.getUserId(), alice.getUsername(), "stale", roomId).withSequence(1);
+        Message ahead = new Message(alice.getUserId(), alice.getUsername(), "ahead", roomId).withSequence(50);
+        assertThrows(IllegalArgumentException.class, () -> room.postMessage(stale));
+        assertThrows(IllegalArgumentException.class, () -> room.postMessage(ahead));
+        assertEquals(1, room.getLastSequence());
+
+        Message next = new Message(alice.getUserId(), alice.getUsername(), "second", roomId);
+        assertEquals(2, room.postMessage(next));
+        assertEquals(0, next.getSequence());
+        List<Message> history = room.getMessageHistory();
+        assertEquals(2, history.size());
+        assertEquals("second", history.get(1).getContent());
+        assertEquals(2, history.get(1).getSequence());
+    }
+
+    @Test
+    public void editsAndDeletionsRewriteHistoryButKeepSequences() {
+        String roomId = "room-" + UUID.randomUUID();
+        ChatRoom room = new ChatRoom(roomId, "Room", RoomMode.STANDARD, new InMemoryHistoryStore(100));
+        User alice = new User("alice-" + UUID.randomUUID(), "alice");
+        User bob = new User("bob-" + UUID.randomUUID(), "bob");
+        room.addUser(alice);
+        room.addUser(bob);
+        RecordingObserver watcher = new RecordingObserver(bob.getUserId());
+        room.registerObserver(watcher);
+        Message first = new Message(alice.getUserId(), alice.getUsername(), "first", roomId);
+        Message second = new Message(alice.getUserId(), alice.getUsername(), "second", roomId);
+        Message third = new Message(alice.getUserId(), alice.getUsername(), "third", roomId);
+        room.postMessage(first);
+        room.postMessage(second);
+        room.postMessage(third);
+
+        assertEquals(4, room.editMessage(alice.getUserId(), first.getMessageId(), "first, edited"));
+        assertEquals(5, room.deleteMessage(alice.getUserId(), second.getMessageId()));
+        assertThrows(ChatRoomException.class, () -> room.editMessage(bob.getUserId(), third.getMessageId(), "mine"));
+        assertThrows(ChatRoomException.class, () -> room.editMessage(alice.getUserId(), second.getMessageId(), "back"));
+
+        List<Message> history = room.getMessageHistory();
+        assertEquals(2, history.size());
+        assertEquals("first, edited", history.get(0).getContent());
+        assertEquals(1, history.get(0).getSequence());
+        assertTrue(history.get(0).isEdited());
+        assertEquals("third", history.get(1).getContent());
+        assertEquals(5, room.getLastSequence());
+        // Observers see the revisions as they happen
+        assertEquals(List.of("first", "second", "third", "first, edited", ""), watcher.received);
+    }
+
+    @Test
+    public void aLargeRoomFansOutToEveryMemberInOrderAndStopsAnnouncingJoins() throws InterruptedException {
+        String roomId = "large-" + UUID.randomUUID();
+        ChatRoom room = new ChatRoom(roomId, "Announcements", RoomMode.LARGE, new InMemoryHistoryStore(100));
+        User host = new User("host-" + UUID.randomUUID(), "host");
+        room.addUser(host);
+        // Well past the hundred members a standard room takes
+        List<RecordingObserver> members = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            User member = new User("member-" + i + "-" + UUID.randomUUID(), "member" + i);
+            room.addUser(member);
+            RecordingObserver observer = new RecordingObserver(member.getUserId());
+            room.registerObserver(observer);
+            members.add(observer);
+        }
+        assertEquals(501, room.getUserCount());
+
+        for (int i = 0; i < 20; i++) {
+            room.postMessage(new Message(host.getUserId(), host.getUsername(), "m" + i, roomId));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        for (RecordingObserver member : members) {
+            while (member.received.size() < 20 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            for (int i = 0; i < 20; i++) {
+                assertEquals("m" + i, member.received.get(i));
+            }
+        }
+        // Once presence passes the notification limit, the last members were not announced to anyone
+        RecordingObserver first = members.get(0);
+        assertTrue("joins seen " + first.joins.get(), first.joins.get() < 499);
+    }
+
+    /**
+     * Records what a room delivers to one member
+     */
+    private static final class RecordingObserver implements ChatObserver {
+        private final String userId;
+        private final List<String> received = new CopyOnWriteArrayList<>();
+        private final AtomicInteger joins = new AtomicInteger();
+
+        RecordingObserver(String userId) {
+            this.userId = userId;
+        }
+
+        @Override
+        public void onMessageReceived(Message message) {
+            received.add(message.getContent());
+        }
+
+        @Override
+        public void onUserJoined(User user) {
+            joins.incrementAndGet();
+        }
+
+        @Override
+        public void onUserLeft(User user) {
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+        }
+
+        @Override
+        public void onPrivateMessageReceived(PrivateMessage privateMessage) {
+        }
+
+        @Override
+        public String getObserverUserId() {
+            return userId;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.chatapp.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class MessageTest {
+
+    @Test
+    public void sequencingReturnsACopyAndLeavesTheOriginalUnposted() {
+        Message original = new Message("user-1", "alice", "hello", "room", "key-1");
+        Message first = original.withSequence(7);
+        Message second = original.withSequence(12);
+
+        assertEquals(0, original.getSequence());
+        assertEquals(7, first.getSequence());
+        assertEquals(12, second.getSequence());
+        assertEquals(original, first);
+        assertEquals("hello", first.getContent());
+        assertEquals("key-1", first.getIdempotencyKey());
+        assertEquals(original.getTimestamp(), first.getTimestamp());
+    }
+
+    @Test
+    public void sequencedRevisionsKeepTheirTarget() {
+        Message posted = new Message("user-1", "alice", "hello", "room").withSequence(3);
+        Message edit = Message.edit(posted, "changed").withSequence(4);
+
+        assertTrue(edit.isRevision());
+        assertEquals(posted.getMessageId(), edit.getTargetMessageId());
+        assertEquals(3, edit.getTargetSequence());
+        assertThrows(IllegalArgumentException.class, () -> posted.withSequence(0));
+    }
+}
@@ -0,0 +1,55 @@
+package com.chatapp.model;
+
+import com.chatapp.storage.InMemoryHistoryStore;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class PresenceSnapshotTest {
+
+    @Test
+    public void aSnapshotStaysAsItWasWhilePresenceMovesOn() {
+        String roomId = "presence-" + UUID.randomUUID();
+        ChatRoom room = new ChatRoom(roomId, "Presence", RoomMode.STANDARD, new InMemoryHistoryStore(10));
+        User alice = new User("alice-" + UUID.randomUUID(), "alice");
+        User bob = new User("bob-" + UUID.randomUUID(), "bob");
+        User carol = new User("carol-" + UUID.randomUUID(), "carol");
+        room.addUser(alice);
+        room.addUser(bob);
+
+        PresenceSnapshot before = room.getPresenceSnapshot();
+        assertSame(before, room.getPresenceSnapshot()); // Unchanged presence reuses the snapshot
+        room.addUser(carol);
+        room.removeUser(alice.getUserId());
+        PresenceSnapshot after = room.getPresenceSnapshot();
+
+        assertEquals(2, before.getCount());
+        assertEquals(List.of(alice, bob), before.getUsers());
+        assertEquals(List.of(bob, carol), after.getUsers());
+        assertNotEquals(before.getVersion(), after.getVersion());
+        assertThrows(UnsupportedOperationException.class, () -> after.getUsers().add(alice));
+    }
+
+    @Test
+    public void pagesCoverTheSnapshotWithoutOverlap() {
+        String roomId = "presence-" + UUID.randomUUID();
+        ChatRoom room = new ChatRoom(roomId, "Presence", RoomMode.STANDARD, new InMemoryHistoryStore(10));
+        for (int i = 0; i < 25; i++) {
+            room.addUser(new User("user-" + i + "-" + UUID.randomUUID(), "user" + i));
+        }
+        PresenceSnapshot snapshot = room.getPresenceSnapshot();
+
+        assertEquals(snapshot.getUsers().subList(0, 10), snapshot.page(0, 10));
+        assertEquals(snapshot.getUsers().subList(20, 25), snapshot.page(20, 10));
+        assertTrue(snapshot.page(30, 10).isEmpty());
+        assertEquals(10, room.getActiveUsers(10, 10).size());
+        assertThrows(IllegalArgumentException.class, () -> snapshot.page(-1, 10));
+    }
+}
@@ -0,0 +1,73 @@
+package com.chatapp.model;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ReadWatermarksTest {
+
+    @Test
+    public void readCountsMatchTheWatermarksAsTheyAdvance() {
+        ReadWatermarks watermarks = new ReadWatermarks("room", 10_000, receipts -> { });
+        List<User> users = new ArrayList<>();
+        long[] expected = new long[300];
+        for (int i = 0; i < expected.length; i++) {
+            users.add(new User("reader-" + i + "-" + UUID.randomUUID(), "reader" + i));
+        }
+        Random random = new Random(42);
+        for (int round = 0; round < 5000; round++) {
+            int reader = random.nextInt(expected.length);
+            long sequence = 1 + random.nextInt(1000);
+            boolean advanced = watermarks.advance(users.get(reader), sequence);
+            assertEquals(sequence > expected[reader], advanced);
+            expected[reader] = Math.max(expected[reader], sequence);
+        }
+
+        for (long sequence = 1; sequence <= 1000; sequence += 37) {
+            int readers = 0;
+            for (long watermark : expected) {
+                if (watermark >= sequence) {
+                    readers++;
+                }
+            }
+            assertEquals(readers, watermarks.countReadAtLeast(sequence));
+        }
+        assertEquals(expected[7], watermarks.getWatermark(users.get(7).getHandle()));
+        assertEquals(expected.length, watermarks.getReaderCount());
+    }
+
+    @Test
+    public void receiptsAreCoalescedToTheLatestPerUser() throws InterruptedException {
+        List<List<ReadReceipt>> batches = new CopyOnWriteArrayList<>();
+        ReadWatermarks watermarks = new ReadWatermarks("room", 50, batches::add);
+        User alice = new User("alice-" + UUID.randomUUID(), "alice");
+        User bob = new User("bob-" + UUID.randomUUID(), "bob");
+
+        for (long sequence = 1; sequence <= 10; sequence++) {
+            watermarks.advance(alice, sequence);
+        }
+        watermarks.advance(bob, 4);
+        assertFalse(watermarks.advance(bob, 3)); // Never moves back
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (batches.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, batches.size());
+        List<ReadReceipt> receipts = batches.get(0);
+        assertEquals(2, receipts.size());
+        for (ReadReceipt receipt : receipts) {
+            assertEquals(receipt.getUserId().equals(alice.getUserId()) ? 10 : 4, receipt.getReadSequence());
+        }
+        assertEquals(11, watermarks.getAdvanceCount());
+        assertEquals(2, watermarks.getBroadcastCount());
+    }
+}
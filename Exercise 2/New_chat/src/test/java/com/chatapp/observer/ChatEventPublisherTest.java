@@ -0,0 +1,92 @@
+package com.chatapp.observer;
+
+import com.chatapp.exception.ChatRoomException;
+import com.chatapp.model.Message;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChatEventPublisherTest {
+
+    @Test
+    public void eventsFollowDemandAndCompleteAfterTheBuffer() {
+        ChatEventPublisher publisher = new ChatEventPublisher("room", 16, Runnable::run);
+        RecordingSubscriber subscriber = new RecordingSubscriber(2);
+        publisher.subscribe(subscriber);
+
+        for (int i = 0; i < 5; i++) {
+            publisher.publish(ChatEvent.message(new Message("user-1", "alice", "m" + i, "room")));
+        }
+        assertEquals(List.of("m0", "m1"), subscriber.contents);
+
+        publisher.close();
+        assertFalse(subscriber.completed); // Three events are still buffered
+        subscriber.subscription.request(3);
+        assertEquals(List.of("m0", "m1", "m2", "m3", "m4"), subscriber.contents);
+        assertTrue(subscriber.completed);
+        assertEquals(0, publisher.getSubscriberCount());
+    }
+
+    @Test
+    public void aSubscriberThatFallsTooFarBehindIsDroppedAlone() {
+        ChatEventPublisher publisher = new ChatEventPublisher("room", 4, Runnable::run);
+        RecordingSubscriber stalled = new RecordingSubscriber(0);
+        RecordingSubscriber keeping = new RecordingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(stalled);
+        publisher.subscribe(keeping);
+
+        for (int i = 0; i < 5; i++) {
+            publisher.publish(ChatEvent.message(new Message("user-1", "alice", "m" + i, "room")));
+        }
+
+        assertTrue(stalled.error instanceof ChatRoomException);
+        assertTrue(stalled.contents.isEmpty());
+        assertEquals(1, publisher.getOverflowCount());
+        assertEquals(5, keeping.contents.size());
+        assertEquals(1, publisher.getSubscriberCount());
+    }
+
+    /**
+     * Requests a fixed number of events up front and records what it gets
+     */
+    private static final class RecordingSubscriber implements Flow.Subscriber<ChatEvent> {
+        private final long initialDemand;
+        private final List<String> contents = new ArrayList<>();
+        private Flow.Subscription subscription;
+        private Throwable error;
+        private boolean completed;
+
+        RecordingSubscriber(long initialDemand) {
+            this.initialDemand = initialDemand;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialDemand > 0) {
+                subscription.request(initialDemand);
+            }
+        }
+
+        @Override
+        public void onNext(ChatEvent item) {
+            contents.add(item.getMessage().getContent());
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.chatapp.observer;
+
+import com.chatapp.model.EphemeralEvent;
+import com.chatapp.model.User;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EphemeralChannelTest {
+
+    @Test
+    public void aWindowKeepsOnlyTheLatestEventPerUserAndChannel() throws InterruptedException {
+        List<List<EphemeralEvent>> flushes = new CopyOnWriteArrayList<>();
+        EphemeralChannel channel = new EphemeralChannel("room", 50, 16, flushes::add);
+        User alice = new User("alice", "alice");
+        User bob = new User("bob", "bob");
+
+        for (int i = 0; i < 10; i++) {
+            EphemeralEvent.Kind kind = i % 2 == 0 ? EphemeralEvent.Kind.TYPING_STARTED : EphemeralEvent.Kind.TYPING_STOPPED;
+            assertTrue(channel.submit(1, new EphemeralEvent(kind, "room", alice)));
+        }
+        channel.submit(1, new EphemeralEvent(EphemeralEvent.Kind.PRESENCE_PING, "room", alice));
+        channel.submit(2, new EphemeralEvent(EphemeralEvent.Kind.TYPING_STARTED, "room", bob));
+
+        awaitFlushes(flushes, 1);
+        List<EphemeralEvent> batch = flushes.get(0);
+        assertEquals(3, batch.size());
+        List<String> seen = new ArrayList<>();
+        for (EphemeralEvent event : batch) {
+            seen.add(event.getUserId() + ":" + event.getKind());
+        }
+        assertTrue(seen.contains("alice:TYPING_STOPPED"));
+        assertTrue(seen.contains("alice:PRESENCE_PING"));
+        assertTrue(seen.contains("bob:TYPING_STARTED"));
+        assertEquals(12, channel.getSubmittedCount());
+        assertEquals(9, channel.getConflatedCount());
+        assertEquals(3, channel.getFlushedCount());
+    }
+
+    @Test
+    public void usersPastTheLimitAreDroppedUntilTheNextWindow() throws InterruptedException {
+        List<List<EphemeralEvent>> flushes = new CopyOnWriteArrayList<>();
+        EphemeralChannel channel = new EphemeralChannel("room", 50, 2, flushes::add);
+        for (int i = 0; i < 3; i++) {
+            User user = new User("user-" + i, "user" + i);
+            boolean pending = channel.submit(i, new EphemeralEvent(EphemeralEvent.Kind.TYPING_STARTED, "room", user));
+            assertEquals(i < 2, pending);
+        }
+        assertEquals(1, channel.getDroppedCount());
+
+        awaitFlushes(flushes, 1);
+        assertEquals(2, flushes.get(0).size());
+        assertTrue(channel.submit(2, new EphemeralEvent(EphemeralEvent.Kind.TYPING_STARTED, "room",
+                new User("user-2", "user2"))));
+        awaitFlushes(flushes, 2);
+        assertFalse(flushes.get(1).isEmpty());
+    }
+
+    private static void awaitFlushes(List<List<EphemeralEvent>> flushes, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (flushes.size() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, flushes.size());
+    }
+}
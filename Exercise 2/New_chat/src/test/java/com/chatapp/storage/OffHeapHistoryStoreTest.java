@@ -0,0 +1,74 @@
+package com.chatapp.storage;
+
+import com.chatapp.model.Message;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapHistoryStoreTest {
+
+    private static final String ROOM = "off-heap";
+    private static final String AWKWARD_CONTENT = "caf\u00e9 \ud83d\ude00 tab\t";
+
+    @Test
+    public void messagesReadBackAsWrittenAndEvictedSlabsGoBackToTheArena() {
+        OffHeapArena arena = new OffHeapArena(1024, 4);
+        OffHeapHistoryStore store = new OffHeapHistoryStore(ROOM, 50, arena);
+        List<Message> posted = new ArrayList<>();
+        for (int i = 1; i <= 300; i++) {
+            Message message = new Message("user-" + (i % 3), "user" + (i % 3), AWKWARD_CONTENT + i, ROOM)
+                    .withSequence(i);
+            store.append(message);
+            posted.add(message);
+        }
+
+        assertEquals(50, store.size());
+        assertEquals(300, store.getLastSequence());
+        List<Message> recent = store.recent(50);
+        for (int i = 0; i < 50; i++) {
+            Message expected = posted.get(250 + i);
+            Message actual = recent.get(i);
+            assertEquals(expected.getMessageId(), actual.getMessageId());
+            assertEquals(expected.getSequence(), actual.getSequence());
+            assertEquals(expected.getSenderId(), actual.getSenderId());
+            assertEquals(expected.getSenderUsername(), actual.getSenderUsername());
+            assertEquals(expected.getContent(), actual.getContent());
+            assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        }
+        // Only the slabs holding the retained window stay taken
+        int slabsInUse = arena.getSlabsInUse();
+        assertTrue("slabs in use " + slabsInUse, slabsInUse * 1024L < store.getUsedBytes() + 2 * 1024);
+
+        store.close();
+        assertEquals(0, arena.getSlabsInUse());
+    }
+
+    @Test
+    public void copiesResolveRevisionsWhileViewsShowTheRecords() {
+        OffHeapHistoryStore store = new OffHeapHistoryStore(ROOM, 100, new OffHeapArena(4096, 2));
+        Message kept = new Message("user-1", "alice", "original", ROOM).withSequence(1);
+        Message deleted = new Message("user-1", "alice", "oops", ROOM).withSequence(2);
+        store.append(kept);
+        store.append(deleted);
+        store.append(Message.edit(kept, "edited").withSequence(3));
+        store.append(Message.tombstone(deleted).withSequence(4));
+
+        List<Message> resolved = new ArrayList<>();
+        try (HistoryCursor cursor = store.openCursor(1)) {
+            cursor.forEachRemaining(resolved::add);
+        }
+        assertEquals(1, resolved.size());
+        assertEquals("edited", resolved.get(0).getContent());
+        assertEquals(1, resolved.get(0).getSequence());
+        assertEquals(resolved, store.recent(10));
+
+        List<Long> viewed = new ArrayList<>();
+        store.forEachSince(2, view -> viewed.add(view.getSequence()));
+        assertEquals(List.of(2L, 3L, 4L), viewed);
+        store.close();
+    }
+}
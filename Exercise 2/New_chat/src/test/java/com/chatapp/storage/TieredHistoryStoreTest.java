@@ -0,0 +1,155 @@
+package com.chatapp.storage;
+
+import com.chatapp.model.Message;
+import com.chatapp.model.MessageKind;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TieredHistoryStoreTest {
+
+    private static final String ROOM = "room";
+    private static final int HOT_CAPACITY = 20;
+    private static final int SEGMENT_BYTES = 8 * 1024;
+
+    private Path directory;
+    private TieredHistoryStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("tiered-history");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void historyAndSequenceSurviveReopening() throws IOException {
+        store = open(Duration.ofHours(1));
+        List<Message> posted = appendPosts(1, 500);
+        assertTrue(store.getSegmentCount() > 1);
+        store.close();
+
+        store = open(Duration.ofHours(1));
+        assertEquals(500, store.size());
+        assertEquals(500, store.getLastSequence());
+        assertEquals(ids(posted), ids(readAll()));
+        assertEquals(ids(posted.subList(480, 500)), ids(store.recent(20)));
+    }
+
+    @Test
+    public void recentReachesIntoColderTiersPastDeletions() throws IOException {
+        store = open(Duration.ofHours(1));
+        List<Message> posted = appendPosts(1, 300);
+        // Delete the newest 30 posts, so the hot tier alone is left short
+        long sequence = 301;
+        for (int i = 270; i < 300; i++) {
+            store.append(revision(MessageKind.TOMBSTONE, posted.get(i), sequence++));
+        }
+        store.append(revision(MessageKind.EDIT, posted.get(260), sequence));
+
+        List<Message> recent = store.recent(20);
+        assertEquals(ids(posted.subList(250, 270)), ids(recent));
+        assertEquals("edited", recent.get(10).getContent());
+        assertEquals(posted.get(260).getSequence(), recent.get(10).getSequence());
+    }
+
+    @Test
+    public void compactionFoldsRevisionsIntoArchivesAndSurvivesReopening() throws IOException, InterruptedException {
+        store = open(Duration.ofMillis(50));
+        List<Message> posted = appendPosts(1, 300);
+        long sequence = 301;
+        List<Message> expected = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            if (i % 3 == 0) {
+                store.append(revision(MessageKind.TOMBSTONE, posted.get(i), sequence++));
+            } else {
+                expected.add(posted.get(i));
+            }
+        }
+
+        TieredHistoryStore compacting = store;
+        awaitTrue(() -> compacting.getCompactionCount() > 0 && compacting.getArchiveCount() > 0
+                && compacting.getPendingRevisionCount() == 0);
+        assertEquals(ids(expected), ids(readAll()));
+        store.close();
+
+        store = open(Duration.ofHours(1));
+        assertEquals(ids(expected), ids(readAll()));
+        assertEquals(sequence - 1, store.getLastSequence());
+    }
+
+    private TieredHistoryStore open(Duration archiveAfter) throws IOException {
+        return new TieredHistoryStore(directory, HOT_CAPACITY, SEGMENT_BYTES, archiveAfter);
+    }
+
+    private List<Message> appendPosts(long firstSequence, int count) {
+        List<Message> posted = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long sequence = firstSequence + i;
+            Message message = new Message(UUID.randomUUID().toString(), "user", "alice", "message " + sequence,
+                    ROOM, LocalDateTime.now(), null, sequence);
+            store.append(message);
+            posted.add(message);
+        }
+        return posted;
+    }
+
+    private static Message revision(MessageKind kind, Message target, long sequence) {
+        String content = kind == MessageKind.EDIT ? "edited" : "";
+        return new Message(UUID.randomUUID().toString(), target.getSenderId(), target.getSenderUsername(), content,
+                ROOM, LocalDateTime.now(), null, sequence, kind, target.getMessageId(), target.getSequence(), false);
+    }
+
+    private List<Message> readAll() {
+        List<Message> messages = new ArrayList<>();
+        try (HistoryCursor cursor = store.openCursor(1)) {
+            while (cursor.hasNext()) {
+                messages.add(cursor.next());
+            }
+        }
+        return messages;
+    }
+
+    private static List<String> ids(List<Message> messages) {
+        List<String> ids = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            ids.add(message.getMessageId());
+        }
+        return ids;
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("Condition not met in time");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
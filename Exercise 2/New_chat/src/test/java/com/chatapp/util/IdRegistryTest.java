@@ -0,0 +1,50 @@
+package com.chatapp.util;
+
+import com.chatapp.manager.ChatRoomManager;
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IdRegistryTest {
+
+    @Test
+    public void roomHandleIsFreedWhenItsLastReferenceIsReleased() {
+        IdRegistry registry = IdRegistry.getInstance();
+        String roomId = "room-" + UUID.randomUUID();
+        int handle = registry.acquireRoom(roomId);
+        assertEquals(handle, registry.acquireRoom(roomId));
+
+        assertFalse(registry.releaseRoom(roomId));
+        assertEquals(handle, registry.findRoom(roomId));
+        assertTrue(registry.releaseRoom(roomId));
+        assertEquals(IdRegistry.NO_HANDLE, registry.findRoom(roomId));
+        assertNull(registry.roomIdOf(handle));
+        assertFalse(registry.releaseRoom(roomId));
+
+        String nextRoomId = "room-" + UUID.randomUUID();
+        assertEquals(handle, registry.acquireRoom(nextRoomId));
+        assertEquals(nextRoomId, registry.roomIdOf(handle));
+        assertTrue(registry.releaseRoom(nextRoomId));
+    }
+
+    @Test
+    public void deletingRoomsDoesNotGrowTheRoomTable() {
+        IdRegistry registry = IdRegistry.getInstance();
+        ChatRoomManager manager = ChatRoomManager.newInstance();
+        int before = registry.getRoomHandleCount();
+        for (int i = 0; i < 100; i++) {
+            String roomId = "churn-" + UUID.randomUUID();
+            manager.createChatRoom(roomId, "Churn");
+            assertNotEquals(IdRegistry.NO_HANDLE, registry.findRoom(roomId));
+            assertTrue(manager.deleteChatRoom(roomId));
+            assertEquals(IdRegistry.NO_HANDLE, registry.findRoom(roomId));
+        }
+        assertEquals(before, registry.getRoomHandleCount());
+    }
+}